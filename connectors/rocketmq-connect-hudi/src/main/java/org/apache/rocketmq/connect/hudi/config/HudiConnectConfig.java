@@ -38,6 +38,8 @@ public class HudiConnectConfig {
 
     protected int deleteParallelism = 2;
 
+    protected int maxInflightRecords = 10000;
+
     protected String srcRecordConverter;
 
     protected String topicNames;
@@ -59,6 +61,7 @@ public class HudiConnectConfig {
     public static final String CONN_HUDI_INSERT_SHUFFLE_PARALLELISM = "insertShuffleParallelism";
     public static final String CONN_HUDI_UPSERT_SHUFFLE_PARALLELISM = "upsertShuffleParallelism";
     public static final String CONN_HUDI_DELETE_PARALLELISM = "deleteParallelism";
+    public static final String CONN_HUDI_MAX_INFLIGHT_RECORDS = "maxInflightRecords";
 
     public static final String CONN_TOPIC_NAMES = "topicNames";
     public static final String CONN_TOPIC_QUEUES = "topicQueues";
@@ -131,6 +134,14 @@ public class HudiConnectConfig {
         this.deleteParallelism = deleteParallelism;
     }
 
+    public int getMaxInflightRecords() {
+        return maxInflightRecords;
+    }
+
+    public void setMaxInflightRecords(int maxInflightRecords) {
+        this.maxInflightRecords = maxInflightRecords;
+    }
+
     public String getSrcRecordConverter() {
         return srcRecordConverter;
     }
@@ -43,6 +43,7 @@ public class SinkConnectConfig extends HudiConnectConfig {
         this.tableName = config.getString(HudiConnectConfig.CONN_HUDI_TABLE_NAME);
         this.insertShuffleParallelism = config.getInt(HudiConnectConfig.CONN_HUDI_INSERT_SHUFFLE_PARALLELISM);
         this.deleteParallelism = config.getInt(HudiConnectConfig.CONN_HUDI_DELETE_PARALLELISM);
+        this.maxInflightRecords = config.getInt(HudiConnectConfig.CONN_HUDI_MAX_INFLIGHT_RECORDS, this.maxInflightRecords);
         this.upsertShuffleParallelism = config.getInt(HudiConnectConfig.CONN_HUDI_UPSERT_SHUFFLE_PARALLELISM);
         this.setSrcRecordConverter(config.getString(HudiConnectConfig.CONN_SOURCE_RECORD_CONVERTER));
         this.setTopicNames(config.getString(HudiConnectConfig.CONN_TOPIC_NAMES));
@@ -131,6 +132,7 @@ public class SinkConnectConfig extends HudiConnectConfig {
                 ", insertShuffleParallelism=" + insertShuffleParallelism +
                 ", upsertShuffleParallelism=" + upsertShuffleParallelism +
                 ", deleteParallelism=" + deleteParallelism +
+                ", maxInflightRecords=" + maxInflightRecords +
                 ", indexType='" + indexType + '\'' +
                 ", schemaPath='" + schemaPath + '\'' +
                 ", schema=" + schema +
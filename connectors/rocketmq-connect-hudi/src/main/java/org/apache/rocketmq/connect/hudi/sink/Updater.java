@@ -57,6 +57,7 @@ import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -158,10 +159,23 @@ public class Updater {
             log.warn("Updater push sinkDataRecord null.");
             return true;
         }
+        int inflight;
         synchronized (batchLocker) {
             inflightList.add(record);
+            inflight = inflightList.size();
         }
-        if (inflightList.size() >= batchSize) {
+        if (inflight >= hudiConnectConfig.getMaxInflightRecords()) {
+            // 写hudi跟不上,等这批提交完再接收新的记录,不让inflightList无限增长
+            try {
+                scheduledExecutor.submit(this::commit).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                isSuccess = false;
+            } catch (ExecutionException e) {
+                log.error("Updater commmit occur error", e);
+                isSuccess = false;
+            }
+        } else if (inflight >= batchSize) {
             try {
                 scheduledExecutor.submit(this::commit);
             } catch (Exception e) {
@@ -197,7 +211,7 @@ public class Updater {
         if (inflightList.isEmpty()) {
             return;
         }
-        synchronized (this.inflightList) {
+        synchronized (batchLocker) {
             commitList = inflightList;
             inflightList = new ArrayList<>();
         }
@@ -68,6 +68,8 @@ public class JdbcSourceTask extends SourceTask {
     static final String INCREMENTING_FIELD = "incrementing";
     static final String TIMESTAMP_FIELD = "timestamp";
     private Querier querier;
+    //按database.table缓存schema,不用每一行都构建
+    private final Map<String, Schema> schemaCache = new HashMap<>();
 
     public JdbcSourceTask() {
         this.config = new Config();
@@ -93,16 +95,7 @@ public class JdbcSourceTask extends SourceTask {
                 JSONObject jsonObject = new JSONObject();
                 jsonObject.put("nextQuery", "database");
                 jsonObject.put("nextPosition", "table");
-                Schema schema = new Schema();
-                schema.setDataSource(dataRow.getDatabase());
-                schema.setName(dataRow.getName());
-                schema.setFields(new ArrayList<>());
-                for (int i = 0; i < dataRow.getColList().size(); i++) {
-                    String columnName = dataRow.getColList().get(i);
-                    String rawDataType = dataRow.getRawDataTypeList().get(i);
-                    Field field = new Field(i, columnName, ColumnParser.mapConnectorFieldType(rawDataType));
-                    schema.getFields().add(field);
-                }
+                Schema schema = getSchema(dataRow);
                 DataEntryBuilder dataEntryBuilder = new DataEntryBuilder(schema);
                 dataEntryBuilder.timestamp(System.currentTimeMillis()).queue(dataRow.getName())
                         .entryType(EntryType.UPDATE);
@@ -125,6 +118,44 @@ public class JdbcSourceTask extends SourceTask {
         return res;
     }
 
+    /**
+     * 同一张表的行共用一个schema,表结构变了才重新构建
+     */
+    Schema getSchema(Table dataRow) {
+        String key = dataRow.getDatabase() + "." + dataRow.getName();
+        Schema schema = schemaCache.get(key);
+        if (schema != null && sameColumns(schema, dataRow)) {
+            return schema;
+        }
+        schema = new Schema();
+        schema.setDataSource(dataRow.getDatabase());
+        schema.setName(dataRow.getName());
+        schema.setFields(new ArrayList<>());
+        for (int i = 0; i < dataRow.getColList().size(); i++) {
+            String columnName = dataRow.getColList().get(i);
+            String rawDataType = dataRow.getRawDataTypeList().get(i);
+            Field field = new Field(i, columnName, ColumnParser.mapConnectorFieldType(rawDataType));
+            schema.getFields().add(field);
+        }
+        schemaCache.put(key, schema);
+        return schema;
+    }
+
+    private static boolean sameColumns(Schema schema, Table dataRow) {
+        List<Field> fields = schema.getFields();
+        if (fields.size() != dataRow.getColList().size()) {
+            return false;
+        }
+        for (int i = 0; i < fields.size(); i++) {
+            Field field = fields.get(i);
+            if (!field.getName().equals(dataRow.getColList().get(i))
+                || field.getType() != ColumnParser.mapConnectorFieldType(dataRow.getRawDataTypeList().get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Override
     public void start(KeyValue props) {
         try {
@@ -50,6 +50,8 @@ public class Config {
 
     private Boolean sessionTransacted = Boolean.FALSE;
 
+    private Integer queueSize = 10000;
+
     public void load(KeyValue props) {
 
         properties2Object(props, this);
@@ -160,4 +162,11 @@ public class Config {
         this.sessionTransacted = sessionTransacted;
     }
 
-}
\ No newline at end of file
+    public Integer getQueueSize() {
+        return queueSize;
+    }
+
+    public void setQueueSize(Integer queueSize) {
+        this.queueSize = queueSize;
+    }
+}
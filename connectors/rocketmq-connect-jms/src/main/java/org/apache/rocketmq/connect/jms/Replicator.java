@@ -19,6 +19,7 @@ package org.apache.rocketmq.connect.jms;
 
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import javax.jms.Message;
 
@@ -34,12 +35,15 @@ public class Replicator {
     private PatternProcessor processor;
 
     private Config config;
-    private BlockingQueue<Message> queue = new LinkedBlockingQueue<>();
+    private BlockingQueue<Message> queue;
+
+    private volatile boolean stopped = false;
     
     private BaseJmsSourceTask baseJmsSourceTask;
 
     public Replicator(Config config , BaseJmsSourceTask baseJmsSourceTask) {
         this.config = config;
+        this.queue = new LinkedBlockingQueue<>(config.getQueueSize());
         this.baseJmsSourceTask = baseJmsSourceTask;
     }
 
@@ -50,11 +54,24 @@ public class Replicator {
     }
 
     public void stop() throws Exception {
+        stopped = true;
         processor.stop();
     }
 
+    /**
+     * Waits while the queue is full, so the listener stops taking messages from the broker until the task polls.
+     */
     public void commit(Message message, boolean isComplete) {
-        queue.add(message);
+        try {
+            while (!stopped) {
+                if (queue.offer(message, 1000, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        LOGGER.warn("Replicator stopped, drop message {}", message);
     }
 
     public Config getConfig() {
@@ -26,6 +26,58 @@ public class ConfigDefine {
     public static String GROUP_ID = "kafka.group.id";
     public static String BOOTSTRAP_SERVER = "kafka.bootstrap.server";
     public static String CONNECTOR_CLASS = "connector-class";
+    /**
+     * always: seek to the runtime position before every poll.
+     * divergence (default): seek only on assignment, after a failed send or when the runtime position diverges.
+     */
+    public static String POSITION_RECONCILE = "kafka.position.reconcile";
+    public static String RECONCILE_ALWAYS = "always";
+    public static String RECONCILE_DIVERGENCE = "divergence";
+
+    /**
+     * Interval in milliseconds between two asynchronous kafka offset commits, 5000 by default.
+     */
+    public static String OFFSET_COMMIT_INTERVAL = "kafka.offset.commit.interval.ms";
+
+    /**
+     * subscribe (default): every task subscribes to all topics and kafka group rebalances spread the partitions.
+     * static: the connector discovers the partitions and spreads them over the tasks, each task assign()s its own.
+     */
+    public static String ASSIGNMENT_MODE = "kafka.assignment.mode";
+    public static String ASSIGNMENT_SUBSCRIBE = "subscribe";
+    public static String ASSIGNMENT_STATIC = "static";
+
+    /**
+     * Partitions of one task in static assignment mode, topic-partition separated by commas.
+     */
+    public static String TASK_PARTITIONS = "kafka.task.partitions";
+
+    /**
+     * Interval in milliseconds in static assignment mode between two checks for new partitions, 60000 by default.
+     * Tasks check on their own poll thread, the connector reuses partitions discovered within this interval.
+     */
+    public static String PARTITION_DISCOVERY_INTERVAL = "kafka.partition.discovery.interval.ms";
+
+    /**
+     * Maximum time in milliseconds the connector waits for kafka partition metadata when building task configs, 10000 by default.
+     */
+    public static String PARTITION_DISCOVERY_TIMEOUT = "kafka.partition.discovery.timeout.ms";
+
+    /**
+     * Index and count of the tasks in static assignment mode, used by a task to claim partitions added after its config was built.
+     */
+    public static String TASK_INDEX = "kafka.task.index";
+    public static String TASK_COUNT = "kafka.task.count";
+
+    /**
+     * Number of partitions of every topic when the task configs were built, topic:count separated by commas.
+     */
+    public static String PARTITION_COUNTS = "kafka.partition.counts";
+
+    /**
+     * Unique id the runtime puts in every task config, the task reports its lag under it.
+     */
+    public static String TASK_UID = "sys-uid";
 
     private String bootstrapServers;
     private String topics;
@@ -21,13 +21,23 @@ import io.openmessaging.KeyValue;
 import io.openmessaging.connector.api.Task;
 import io.openmessaging.connector.api.source.SourceConnector;
 import io.openmessaging.internal.DefaultKeyValue;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.rocketmq.connect.kafka.config.ConfigDefine;
+import org.apache.rocketmq.connect.kafka.util.PartitionMetadataCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map;
+import java.util.Properties;
 
 /**
  *  连接器实例属于逻辑概念，其负责维护特定数据系统的相关配置，比如链接地址、需要同步哪些数据等信息；
@@ -39,6 +49,9 @@ public class KafkaSourceConnector extends SourceConnector {
     private KeyValue connectConfig;
     private String connectorName;
 
+    //runtime每次生成task配置都会新建connector实例,分区元数据缓存在所有实例之间共享
+    private static final PartitionMetadataCache PARTITION_CACHE = new PartitionMetadataCache();
+
     public KafkaSourceConnector() {
         super();
     }
@@ -62,6 +75,9 @@ public class KafkaSourceConnector extends SourceConnector {
         return "";
     }
 
+    /**
+     * runtime不会启动connector实例,static分配模式下新增的分区由task自己发现,见KafkaSourceTask
+     */
     @Override
     public void start() {
 
@@ -97,14 +113,193 @@ public class KafkaSourceConnector extends SourceConnector {
         List<KeyValue> configs = new ArrayList<>();
         int task_num = connectConfig.getInt(ConfigDefine.TASK_NUM);
         log.info("Source Connector taskConfigs: task_num:" + task_num);
+
+        List<TopicPartition> partitions = null;
+        List<List<TopicPartition>> taskPartitions = null;
+        if (isStaticAssignment()) {
+            partitions = loadPartitions();
+            taskPartitions = spreadPartitions(partitions, task_num);
+            if (taskPartitions != null) {
+                //分区比task少的时候,多出来的task没有分区可以消费,不生成
+                task_num = taskPartitions.size();
+            }
+        }
+
         for (int i = 0; i < task_num; ++i) {
             KeyValue config = new DefaultKeyValue();
             config.put(ConfigDefine.BOOTSTRAP_SERVER, connectConfig.getString(ConfigDefine.BOOTSTRAP_SERVER));
             config.put(ConfigDefine.TOPICS, connectConfig.getString(ConfigDefine.TOPICS));
             config.put(ConfigDefine.GROUP_ID,"connector-consumer-group-"+connectorName);
             config.put(ConfigDefine.CONNECTOR_CLASS, "org.apache.rocketmq.connect.kafka.connector.KafkaSourceConnector");
+            if (connectConfig.containsKey(ConfigDefine.POSITION_RECONCILE)) {
+                config.put(ConfigDefine.POSITION_RECONCILE, connectConfig.getString(ConfigDefine.POSITION_RECONCILE));
+            }
+            if (connectConfig.containsKey(ConfigDefine.OFFSET_COMMIT_INTERVAL)) {
+                config.put(ConfigDefine.OFFSET_COMMIT_INTERVAL, connectConfig.getString(ConfigDefine.OFFSET_COMMIT_INTERVAL));
+            }
+            if (taskPartitions != null) {
+                config.put(ConfigDefine.TASK_PARTITIONS, encodePartitions(taskPartitions.get(i)));
+                config.put(ConfigDefine.TASK_INDEX, i);
+                config.put(ConfigDefine.TASK_COUNT, task_num);
+                config.put(ConfigDefine.PARTITION_COUNTS, encodePartitionCounts(partitions));
+                if (connectConfig.containsKey(ConfigDefine.PARTITION_DISCOVERY_INTERVAL)) {
+                    config.put(ConfigDefine.PARTITION_DISCOVERY_INTERVAL, connectConfig.getString(ConfigDefine.PARTITION_DISCOVERY_INTERVAL));
+                }
+            }
             configs.add(config);
         }
         return configs;
     }
+
+    private boolean isStaticAssignment() {
+        return ConfigDefine.ASSIGNMENT_STATIC.equalsIgnoreCase(connectConfig.getString(ConfigDefine.ASSIGNMENT_MODE));
+    }
+
+    /**
+     * taskConfigs是在runtime的配置锁里调用的,kafka的查询放到发现线程上,这里最多等PARTITION_DISCOVERY_TIMEOUT,
+     * 超时或失败时用缓存的分区,都没有的话返回null
+     */
+    private List<TopicPartition> loadPartitions() {
+        long interval = connectConfig.containsKey(ConfigDefine.PARTITION_DISCOVERY_INTERVAL)
+            ? connectConfig.getLong(ConfigDefine.PARTITION_DISCOVERY_INTERVAL) : 60000;
+        long timeout = discoveryTimeout();
+        List<String> topics = topicList();
+        String key = connectConfig.getString(ConfigDefine.BOOTSTRAP_SERVER) + "/" + String.join(",", topics);
+        try {
+            return PARTITION_CACHE.get(key, interval, timeout, () -> discoverPartitions(topics));
+        } catch (Exception e) {
+            log.warn("discover kafka partitions failed, fall back to subscribe mode", e);
+            return null;
+        }
+    }
+
+    private long discoveryTimeout() {
+        return connectConfig.containsKey(ConfigDefine.PARTITION_DISCOVERY_TIMEOUT)
+            ? connectConfig.getLong(ConfigDefine.PARTITION_DISCOVERY_TIMEOUT) : 10000;
+    }
+
+    /**
+     * 按topic、分区排序后轮流分给每个task,每个topic的分区也会平均到各个task上。
+     * 发现不到分区时返回null,退回subscribe模式,由kafka的消费组分配分区
+     */
+    private List<List<TopicPartition>> spreadPartitions(List<TopicPartition> partitions, int taskNum) {
+        if (partitions == null) {
+            return null;
+        }
+        if (partitions.isEmpty() || taskNum <= 0) {
+            log.warn("no kafka partitions found for topics {}, fall back to subscribe mode", topicList());
+            return null;
+        }
+        int size = Math.min(taskNum, partitions.size());
+        List<List<TopicPartition>> taskPartitions = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            taskPartitions.add(new ArrayList<>());
+        }
+        for (int i = 0; i < partitions.size(); i++) {
+            taskPartitions.get(i % size).add(partitions.get(i));
+        }
+        return taskPartitions;
+    }
+
+    private List<String> topicList() {
+        List<String> topics = new ArrayList<>();
+        for (String topic : connectConfig.getString(ConfigDefine.TOPICS).split(",")) {
+            if (!topic.isEmpty()) {
+                topics.add(topic);
+            }
+        }
+        return topics;
+    }
+
+    /**
+     * 从kafka的元数据里查出topic的所有分区,按topic、分区排序。
+     * 请求超时设成PARTITION_DISCOVERY_TIMEOUT,kafka不可用时发现线程不会一直挂着
+     */
+    protected List<TopicPartition> discoverPartitions(List<String> topics) {
+        //0.11的客户端要求request.timeout.ms大于session.timeout.ms和fetch.max.wait.ms
+        long timeout = Math.max(discoveryTimeout(), 1000);
+        Properties props = new Properties();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, connectConfig.getString(ConfigDefine.BOOTSTRAP_SERVER));
+        props.put(ConsumerConfig.REQUEST_TIMEOUT_MS_CONFIG, (int) timeout);
+        props.put(ConsumerConfig.SESSION_TIMEOUT_MS_CONFIG, (int) timeout / 2);
+        props.put(ConsumerConfig.HEARTBEAT_INTERVAL_MS_CONFIG, (int) timeout / 6);
+        props.put(ConsumerConfig.FETCH_MAX_WAIT_MS_CONFIG, (int) timeout / 2);
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, "org.apache.kafka.common.serialization.ByteBufferDeserializer");
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, "org.apache.kafka.common.serialization.ByteBufferDeserializer");
+        List<TopicPartition> partitions = new ArrayList<>();
+        try (KafkaConsumer<ByteBuffer, ByteBuffer> consumer = new KafkaConsumer<>(props)) {
+            for (String topic : topics) {
+                List<PartitionInfo> infos = consumer.partitionsFor(topic);
+                if (infos == null) {
+                    continue;
+                }
+                for (PartitionInfo info : infos) {
+                    partitions.add(new TopicPartition(info.topic(), info.partition()));
+                }
+            }
+        }
+        partitions.sort(Comparator.comparing(TopicPartition::topic).thenComparingInt(TopicPartition::partition));
+        return partitions;
+    }
+
+    static String encodePartitions(List<TopicPartition> partitions) {
+        StringBuilder sb = new StringBuilder();
+        for (TopicPartition tp : partitions) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(tp.topic()).append('-').append(tp.partition());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 生成task配置时每个topic的分区数,分区号不小于这个数的就是之后新增的分区
+     */
+    static String encodePartitionCounts(List<TopicPartition> partitions) {
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        for (TopicPartition tp : partitions) {
+            counts.merge(tp.topic(), tp.partition() + 1, Math::max);
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(entry.getKey()).append(':').append(entry.getValue());
+        }
+        return sb.toString();
+    }
+
+    static Map<String, Integer> decodePartitionCounts(String counts) {
+        Map<String, Integer> result = new HashMap<>();
+        for (String item : counts.split(",")) {
+            int index = item.lastIndexOf(':');
+            if (index > 0) {
+                result.put(item.substring(0, index), Integer.parseInt(item.substring(index + 1)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 生成task配置之后新增的分区归哪个task,每个task都按同样的规则算,不需要知道其他task分到了哪些分区
+     */
+    static int taskOfNewPartition(TopicPartition tp, int taskCount) {
+        return Math.floorMod(tp.topic().hashCode() + tp.partition(), taskCount);
+    }
+
+    /**
+     * topic名字里也可能有'-',分区号取最后一个'-'之后的部分
+     */
+    static List<TopicPartition> decodePartitions(String partitions) {
+        List<TopicPartition> result = new ArrayList<>();
+        for (String item : partitions.split(",")) {
+            int index = item.lastIndexOf('-');
+            if (index > 0) {
+                result.add(new TopicPartition(item.substring(0, index), Integer.parseInt(item.substring(index + 1))));
+            }
+        }
+        return result;
+    }
 }
@@ -22,10 +22,13 @@ import io.openmessaging.KeyValue;
 import io.openmessaging.connector.api.data.*;
 import io.openmessaging.connector.api.source.SourceTask;
 import org.apache.kafka.clients.consumer.*;
+import org.apache.kafka.common.PartitionInfo;
 import org.apache.kafka.common.TopicPartition;
-import org.apache.kafka.common.header.Header;
-import org.apache.kafka.common.header.Headers;
 import org.apache.rocketmq.connect.kafka.config.ConfigDefine;
+import org.apache.rocketmq.connect.kafka.util.KafkaHeaderMap;
+import org.apache.rocketmq.connect.kafka.util.OffsetCommitMetrics;
+import org.apache.rocketmq.connect.kafka.util.PositionCodec;
+import org.apache.rocketmq.connect.kafka.util.SourceTaskLag;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.lang.management.ManagementFactory;
@@ -35,6 +38,7 @@ import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 
 /**
@@ -42,7 +46,8 @@ import java.util.concurrent.CopyOnWriteArraySet;
  *  在connector 实例被启动后，connector可以根据配置信息，对解析任务进行拆分，分配出task。这么做的目的是为了提高并行度，提升处理效率
  *  注意因为类加载器的缘故，基本上这里都不允许异步的方法
  *
- *  从kafka中poll下来数据后，需要提交kafka的位移，而这里使用的是自动提交位移机制 enable.auto.commit = true
+ *  从kafka中poll下来数据后，需要提交kafka的位移。enable.auto.commit = false，提交的是runtime里已经发送成功的位移(水位)，
+ *  每个提交周期最多一个commitAsync在途，只有分区被回收和stop时才commitSync
  */
 public class KafkaSourceTask extends SourceTask {
 
@@ -50,17 +55,45 @@ public class KafkaSourceTask extends SourceTask {
     private static Logger logger4SourceMsg = LoggerFactory.getLogger("logger4SourceMsg");
 
     private static final Logger log = LoggerFactory.getLogger(SourceTask.class);
-    private KafkaConsumer<ByteBuffer, ByteBuffer> consumer;
+    private Consumer<ByteBuffer, ByteBuffer> consumer;
     private KeyValue config;
     private List<String> topicList;
     //这currentTPList 线程不安全，重平衡发生时候是并发的
     private final Set<TopicPartition> currentTPList = new CopyOnWriteArraySet<>();
+    //sourcePartition = topic-partition,每个分区只构建一次
+    private final Map<TopicPartition, ByteBuffer> sourcePartitionCache = new ConcurrentHashMap<>();
     private static final byte[] TRUE_BYTES = "true".getBytes(StandardCharsets.UTF_8);
-    //启动定时任务提交位移
-    private MyOffsetCommitCallback commitCallback =  new MyOffsetCommitCallback();
+    private static final byte[] EMPTY_BYTES = new byte[0];
+    //每个topic的schema都一样,只构建一次
+    private final Map<String, Schema> schemaCache = new ConcurrentHashMap<>();
+    //提交位移的耗时、失败次数等,注册为MBean
+    private final OffsetCommitMetrics commitMetrics = new OffsetCommitMetrics();
+    //上报给runtime的堆积,runtime的autoscale按它调整task数
+    private final SourceTaskLag sourceLag = new SourceTaskLag();
+    //已经提交到kafka的位移,水位没有变化的分区不再重复提交
+    private final Map<TopicPartition, Long> committedOffsets = new ConcurrentHashMap<>();
+    //同一时间只有一个commitAsync在途,上一个还没完成时本周期的提交合并到下一周期
+    private volatile boolean commitInFlight = false;
+
+    //seek会丢掉consumer已经预取的数据,所以默认只在分配分区、发送失败或者runtime位移与consumer位移不一致时才seek
+    private boolean seekOnEveryPoll = false;
+    //consumer下次poll会返回的位移,每次poll之后更新
+    private final Map<TopicPartition, Long> fetchPositions = new ConcurrentHashMap<>();
+    //上一次poll每个分区的第一条位移,runtime里还没有位移时,发送失败就回退到这里
+    private final Map<TopicPartition, Long> batchStartOffsets = new ConcurrentHashMap<>();
+    //新分配的分区需要按runtime位移seek一次
+    private final Set<TopicPartition> pendingSeekPartitions = new CopyOnWriteArraySet<>();
+    private long seekCount = 0;
 
     private long nextCommitstamp = 0l;
     private long commitInterval = 5000;
+
+    //static分配模式下task自己定时检查新增的分区,配置生成之后才有的分区按taskOfNewPartition分给某个task
+    private int taskIndex = -1;
+    private int taskCount;
+    private Map<String, Integer> knownPartitionCounts = new HashMap<>();
+    private long partitionDiscoveryInterval = 60000;
+    private long nextPartitionDiscovery = 0l;
     @Override
     public Collection<SourceDataEntry> poll() {
         try {
@@ -70,12 +103,22 @@ public class KafkaSourceTask extends SourceTask {
             //注意consumer非线程安全，所以提交位移时候的定时线程会导致consumer报错
 
             if (nextCommitstamp==0l || System.currentTimeMillis() > nextCommitstamp) {
-                commitOffset(currentTPList);
+                commitOffsetAsync();
+                updateLag();
                 nextCommitstamp = System.currentTimeMillis() + commitInterval;
             }
 
+            if (taskIndex >= 0 && System.currentTimeMillis() > nextPartitionDiscovery) {
+                assignNewPartitions();
+                nextPartitionDiscovery = System.currentTimeMillis() + partitionDiscoveryInterval;
+            }
+
             try{
-                overridePositionOffset();
+                if (seekOnEveryPoll) {
+                    overridePositionOffset();
+                } else {
+                    reconcilePositionOffset();
+                }
             }catch (Exception ex){
                 log.warn(ex.getMessage(),ex);
                 return null;
@@ -97,59 +140,16 @@ public class KafkaSourceTask extends SourceTask {
 
             records = consumer.poll(2000);
             ArrayList<SourceDataEntry> entries = new ArrayList<>(records.count());
-
-            for (ConsumerRecord<ByteBuffer, ByteBuffer> record : records) {
-                String topic_partition = record.topic() + "-" + record.partition();
-                //header
-                Headers headers = record.headers();
-                Map<String, byte[]> map = new HashMap<>(4);
-                if (headers!=null) {
-                    for (Header header : headers) {
-                        String key = header.key();
-                        byte[] value = header.value();
-                        //这里会把kafka header中的by_connector也放入，如果有的话。后续会判断然后skip掉这条msg
-                        map.put(key,value);
-                    }
-                }
-
-                //
-                //map.put("by_connector",TRUE_BYTES);
-
-                Schema schema = new Schema();
-                List<Field> fields = new ArrayList<>();
-                fields.add(new Field(0, "key", FieldType.BYTES));
-                fields.add(new Field(1, "value", FieldType.BYTES));
-                fields.add(new Field(2, "header", FieldType.MAP));
-                schema.setName(record.topic());
-                schema.setFields(fields);
-                schema.setDataSource(record.topic());
-
-                ByteBuffer sourcePartition = ByteBuffer.wrap(topic_partition.getBytes());
-                ByteBuffer sourcePosition = ByteBuffer.wrap(String.valueOf(record.offset()).getBytes(StandardCharsets.UTF_8));
-
-                //把kafka record构建为dataEntryBuilder
-                DataEntryBuilder dataEntryBuilder = new DataEntryBuilder(schema);
-                dataEntryBuilder.entryType(EntryType.CREATE);
-                dataEntryBuilder.queue(record.topic()); //queueName will be set to RocketMQ topic by runtime
-                dataEntryBuilder.timestamp(System.currentTimeMillis());
-
-                //key
-                if (record.key() != null) {
-                    dataEntryBuilder.putFiled("key", record.key().array());
-                } else {
-                    dataEntryBuilder.putFiled("key", null);
+            long timestamp = System.currentTimeMillis();
+            //ConsumerRecords本身就是按分区迭代的,这里按分区转换,每个分区的sourcePartition只查一次
+            for (TopicPartition tp : records.partitions()) {
+                List<ConsumerRecord<ByteBuffer, ByteBuffer>> partitionRecords = records.records(tp);
+                batchStartOffsets.put(tp, partitionRecords.get(0).offset());
+                fetchPositions.put(tp, partitionRecords.get(partitionRecords.size() - 1).offset() + 1);
+                ByteBuffer sourcePartition = toSourcePartition(tp);
+                for (ConsumerRecord<ByteBuffer, ByteBuffer> record : partitionRecords) {
+                    entries.add(toSourceDataEntry(record, sourcePartition, timestamp));
                 }
-
-                //value
-                dataEntryBuilder.putFiled("value", record.value().array());
-
-                //header
-                dataEntryBuilder.putFiled("header",map);
-
-                //sourcePartition = topic_partition ,即topic+分区
-                //sourcePosition = record.offset()
-                SourceDataEntry entry = dataEntryBuilder.buildSourceDataEntry(sourcePartition, sourcePosition);
-                entries.add(entry);
             }
 
             return entries;
@@ -160,24 +160,168 @@ public class KafkaSourceTask extends SourceTask {
         return null;
     }
 
+    /**
+     * 把kafka record直接构建为SourceDataEntry,key/value是反序列化出来的字节数组本身,header是record headers的只读视图,
+     * 不经过DataEntryBuilder,也不复制header
+     */
+    SourceDataEntry toSourceDataEntry(ConsumerRecord<ByteBuffer, ByteBuffer> record, ByteBuffer sourcePartition, long timestamp) {
+        //sourcePartition = topic_partition ,即topic+分区
+        //sourcePosition = record.offset()
+        ByteBuffer sourcePosition = PositionCodec.encodeLong(record.offset());
+
+        //这里会把kafka header中的by_connector也放入，如果有的话。后续会判断然后skip掉这条msg
+        Map<String, byte[]> header = new KafkaHeaderMap(record.headers());
+        Object[] payload = new Object[] {toBytes(record.key()), toBytes(record.value()), header};
+        if (payload[1] == null) {
+            payload[1] = EMPTY_BYTES;
+        }
+        //queueName will be set to RocketMQ topic by runtime
+        return new SourceDataEntry(sourcePartition, sourcePosition, timestamp, EntryType.CREATE, record.topic(), toSchema(record.topic()), payload);
+    }
+
+    /**
+     * ByteBufferDeserializer返回的是包住整个字节数组的buffer,直接用它的数组,只有切片的时候才复制
+     */
+    private static byte[] toBytes(ByteBuffer buffer) {
+        if (buffer == null) {
+            return null;
+        }
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0 && buffer.remaining() == buffer.array().length) {
+            return buffer.array();
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private Schema toSchema(String topic) {
+        return schemaCache.computeIfAbsent(topic, k -> {
+            Schema schema = new Schema();
+            List<Field> fields = new ArrayList<>();
+            fields.add(new Field(0, "key", FieldType.BYTES));
+            fields.add(new Field(1, "value", FieldType.BYTES));
+            fields.add(new Field(2, "header", FieldType.MAP));
+            schema.setName(k);
+            schema.setFields(fields);
+            schema.setDataSource(k);
+            return schema;
+        });
+    }
+
+    /**
+     * 用consumer自己缓存的元数据(按PARTITION_DISCOVERY_INTERVAL刷新)找出新增的分区,属于本task的追加assign。
+     * 新分区里的数据都是配置生成之后写入的,runtime没有位移时从头开始消费
+     */
+    private void assignNewPartitions() {
+        List<TopicPartition> added = new ArrayList<>();
+        for (String topic : topicList) {
+            List<PartitionInfo> infos;
+            try {
+                infos = consumer.partitionsFor(topic);
+            } catch (Exception e) {
+                log.warn("discover partitions of topic {} failed", topic, e);
+                continue;
+            }
+            if (infos == null) {
+                continue;
+            }
+            int known = knownPartitionCounts.getOrDefault(topic, 0);
+            for (PartitionInfo info : infos) {
+                TopicPartition tp = new TopicPartition(topic, info.partition());
+                if (info.partition() >= known && !currentTPList.contains(tp)
+                    && KafkaSourceConnector.taskOfNewPartition(tp, taskCount) == taskIndex) {
+                    added.add(tp);
+                }
+            }
+        }
+        if (added.isEmpty()) {
+            return;
+        }
+        List<TopicPartition> assignment = new ArrayList<>(currentTPList);
+        assignment.addAll(added);
+        consumer.assign(assignment);
+        consumer.seekToBeginning(added);
+        currentTPList.addAll(added);
+        pendingSeekPartitions.addAll(added);
+        log.info("source task assign new partitions {}", added);
+    }
+
+    /**
+     * 本task当前消费的分区
+     */
+    public Set<TopicPartition> getAssignedPartitions() {
+        return Collections.unmodifiableSet(currentTPList);
+    }
+
     private void overridePositionOffset() {
         for (TopicPartition tp : currentTPList) {
-            final ByteBuffer topicBuffer = ByteBuffer.wrap((tp.topic() + "-" + tp.partition()).getBytes());
-
-            final ByteBuffer position = context.positionStorageReader().getPosition(topicBuffer);
+            final ByteBuffer position = context.positionStorageReader().getPosition(toSourcePartition(tp));
             if (position == null) {
                 //do nothing
             } else {
                 //发送到rocketMQ成功后会更新消费位移,那边也是同步块代码,等又来到这边以后,正常情况下位移都提交了
-                long local_offset = Long.parseLong(new String(position.array()));
-                try{
-                    consumer.seek(tp, local_offset+1);
-                    logger4SourceMsg.info(String.format("kafka consumer seek offset %s:%s", tp, local_offset + 1));
-                }catch (Exception ex){
-                    throw new RuntimeException("consumer seek offset failed may be the partition have not belong to this consumer ,and will try again..",ex);
+                long local_offset = PositionCodec.decodeLong(position);
+                seek(tp, local_offset + 1);
+            }
+        }
+    }
+
+    /**
+     * runtime的位移就是已经发送成功的最后一条,正常情况下它+1就等于consumer的位移,这时不seek,consumer的预取数据得以保留。
+     * 只有新分配的分区、发送失败(runtime位移落后)、或者runtime位移被其他节点推进时才seek
+     */
+    private void reconcilePositionOffset() {
+        for (TopicPartition tp : currentTPList) {
+            final ByteBuffer position = context.positionStorageReader().getPosition(toSourcePartition(tp));
+            final Long ackedOffset = position == null ? null : PositionCodec.decodeLong(position);
+            final boolean assigned = pendingSeekPartitions.remove(tp);
+            final Long fetchPosition = fetchPositions.get(tp);
+
+            long expected;
+            if (assigned || fetchPosition == null) {
+                if (ackedOffset == null) {
+                    //runtime没有位移,使用kafka提交的位移
+                    continue;
+                }
+                expected = ackedOffset + 1;
+            } else {
+                final Long batchStart = batchStartOffsets.get(tp);
+                if (ackedOffset != null) {
+                    expected = ackedOffset + 1;
+                } else if (batchStart != null) {
+                    expected = batchStart;
+                } else {
+                    continue;
+                }
+                if (expected == fetchPosition) {
+                    continue;
                 }
             }
+            seek(tp, expected);
         }
+        batchStartOffsets.clear();
+    }
+
+    private void seek(TopicPartition tp, long offset) {
+        try{
+            consumer.seek(tp, offset);
+            fetchPositions.put(tp, offset);
+            seekCount++;
+            logger4SourceMsg.info(String.format("kafka consumer seek offset %s:%s", tp, offset));
+        }catch (Exception ex){
+            throw new RuntimeException("consumer seek offset failed may be the partition have not belong to this consumer ,and will try again..",ex);
+        }
+    }
+
+    /**
+     * consumer调用seek的次数
+     */
+    public long getSeekCount() {
+        return seekCount;
+    }
+
+    private ByteBuffer toSourcePartition(TopicPartition tp) {
+        return sourcePartitionCache.computeIfAbsent(tp, k -> ByteBuffer.wrap((k.topic() + "-" + k.partition()).getBytes(StandardCharsets.UTF_8)));
     }
 
     @Override
@@ -195,7 +339,24 @@ public class KafkaSourceTask extends SourceTask {
         props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, "org.apache.kafka.common.serialization.ByteBufferDeserializer");
         props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "latest");
 
-        this.consumer = new KafkaConsumer<>(props);
+        this.seekOnEveryPoll = ConfigDefine.RECONCILE_ALWAYS.equalsIgnoreCase(this.config.getString(ConfigDefine.POSITION_RECONCILE));
+        if (this.config.containsKey(ConfigDefine.OFFSET_COMMIT_INTERVAL)) {
+            this.commitInterval = this.config.getLong(ConfigDefine.OFFSET_COMMIT_INTERVAL);
+        }
+
+        if (this.config.containsKey(ConfigDefine.TASK_INDEX)) {
+            this.taskIndex = this.config.getInt(ConfigDefine.TASK_INDEX);
+            this.taskCount = this.config.getInt(ConfigDefine.TASK_COUNT);
+            this.knownPartitionCounts = KafkaSourceConnector.decodePartitionCounts(this.config.getString(ConfigDefine.PARTITION_COUNTS));
+            if (this.config.containsKey(ConfigDefine.PARTITION_DISCOVERY_INTERVAL)) {
+                this.partitionDiscoveryInterval = this.config.getLong(ConfigDefine.PARTITION_DISCOVERY_INTERVAL);
+            }
+            //partitionsFor读的是consumer缓存的元数据,按发现间隔刷新才能看到新分区
+            props.put(ConsumerConfig.METADATA_MAX_AGE_CONFIG, (int) Math.max(partitionDiscoveryInterval, 1000));
+            this.nextPartitionDiscovery = System.currentTimeMillis() + partitionDiscoveryInterval;
+        }
+
+        this.consumer = createConsumer(props);
 
         String topics = this.config.getString(ConfigDefine.TOPICS);
         for (String topic : topics.split(",")) {
@@ -204,20 +365,39 @@ public class KafkaSourceTask extends SourceTask {
             }
         }
 
-        consumer.subscribe(topicList, new MyRebalanceListener());
+        if (this.config.containsKey(ConfigDefine.TASK_PARTITIONS)) {
+            //static分配模式,分区由connector分好,不参与kafka消费组重平衡,第一次poll前按runtime位移seek
+            List<TopicPartition> partitions = KafkaSourceConnector.decodePartitions(this.config.getString(ConfigDefine.TASK_PARTITIONS));
+            consumer.assign(partitions);
+            currentTPList.addAll(partitions);
+            pendingSeekPartitions.addAll(partitions);
+            log.info("source task assign partitions {}", partitions);
+        } else {
+            consumer.subscribe(topicList, new MyRebalanceListener());
+        }
+        commitMetrics.register(this.config.getString(ConfigDefine.GROUP_ID), String.valueOf(System.identityHashCode(this)));
+        if (this.config.containsKey(ConfigDefine.TASK_UID)) {
+            sourceLag.register(this.config.getString(ConfigDefine.TASK_UID));
+        }
         log.info("source task subscribe topicList {}", topicList);
     }
 
+    protected Consumer<ByteBuffer, ByteBuffer> createConsumer(Properties props) {
+        return new KafkaConsumer<>(props);
+    }
+
     @Override
     public void stop() {
         log.info("source task stop enter");
         try {
 
             try{
-                commitOffset(new HashSet<>(currentTPList));
+                commitOffsetSync(new HashSet<>(currentTPList));
             }catch (Exception ex){
                 log.error("commit kafka Offset failed when stop",ex);
             }
+            commitMetrics.unregister();
+            sourceLag.unregister();
 
             consumer.wakeup(); // wakeup poll in other thread
             consumer.close();
@@ -270,58 +450,128 @@ public class KafkaSourceTask extends SourceTask {
         return null;
     }
 
+    /**
+     * 堆积 = 分区末尾位移 - fetch位置,还没fetch过的分区按已提交位移算,都不知道的分区不计入
+     */
+    void updateLag() {
+        if (currentTPList.isEmpty()) {
+            sourceLag.update(0, 0);
+            return;
+        }
+        try {
+            Map<TopicPartition, Long> endOffsets = consumer.endOffsets(new ArrayList<>(currentTPList));
+            long lag = 0;
+            for (Map.Entry<TopicPartition, Long> entry : endOffsets.entrySet()) {
+                Long position = fetchPositions.get(entry.getKey());
+                if (position == null) {
+                    position = committedOffsets.get(entry.getKey());
+                }
+                if (position != null && entry.getValue() != null) {
+                    lag += Math.max(0, entry.getValue() - position);
+                }
+            }
+            sourceLag.update(lag, currentTPList.size());
+        } catch (Exception e) {
+            log.warn("get kafka end offsets failed, {}", e.getMessage());
+        }
+    }
+
+    SourceTaskLag getSourceLag() {
+        return sourceLag;
+    }
+
     /**
      * 这里提交kafka偏移量，只提交发rocketMQ发送成功收到回调success的那些消息，也就是说消费位移是context.positionStorageReader()读出来的
      * 其实就是 positionManagementService.getPositionTable().get(partition) ，而这个positionManagementService就是在rocketMQ消息发出去收到回调才会put进去
-     * 而且这个提交位移好像不是定时提交，只在stop和发生重平衡才会提交位移。这个问题不是会很大吗。不会,已经 ENABLE_AUTO_COMMIT_CONFIG 也就是自动你提交参数打开了
-     * TODO kafka的自动位移提交应该不行，因为未必发送到rocketMQ是成功的，所以消费位移也得以rocketMQ发送出去的消息的位移为准
-     * @param tpList
+     * 每个提交周期只发一个commitAsync,上一个还没回调时本周期跳过(合并到下一周期),水位没有变化的分区不提交
      */
-    private void commitOffset(Collection<TopicPartition> tpList) {
-        if(tpList == null || tpList.isEmpty())
+    private void commitOffsetAsync() {
+        if (commitInFlight) {
+            commitMetrics.recordCoalesced();
             return;
-        List<ByteBuffer> topic_partition_list = new ArrayList<>();
-        for (TopicPartition tp : tpList) {
-            //如果重平衡正好发生，此时正在迭代。是不是有问题？所以改成了copyOnWriteArrayList
-            topic_partition_list.add(ByteBuffer.wrap((tp.topic() + "-" + tp.partition()).getBytes()));
         }
+        Map<TopicPartition, OffsetAndMetadata> commitOffsets = collectCommitOffsets(currentTPList, true);
+        if (commitOffsets.isEmpty()) {
+            return;
+        }
+        commitInFlight = true;
+        MyOffsetCommitCallback callback = new MyOffsetCommitCallback(true);
+        try {
+            //回调在consumer下一次poll或者commit时由当前线程执行
+            consumer.commitAsync(commitOffsets, callback);
+        } catch (Exception ex) {
+            callback.onComplete(commitOffsets, ex);
+        }
+    }
 
-        Map<TopicPartition, OffsetAndMetadata> commitOffsets = new HashMap<>();
-        Map<ByteBuffer, ByteBuffer> topic_position_map = context.positionStorageReader().getPositions(topic_partition_list);
-        if (topic_position_map==null || topic_position_map.size()==0) {
+    /**
+     * 分区被回收或者task停止时同步提交,保证新的consumer从已经发送成功的位移开始
+     * @param tpList
+     */
+    private void commitOffsetSync(Collection<TopicPartition> tpList) {
+        if(tpList == null || tpList.isEmpty())
+            return;
+        Map<TopicPartition, OffsetAndMetadata> commitOffsets = collectCommitOffsets(tpList, false);
+        if (commitOffsets.isEmpty()) {
             return;
         }
-        for (Map.Entry<ByteBuffer, ByteBuffer> entry : topic_position_map.entrySet()) {
-            TopicPartition tp = getTopicPartition(entry.getKey());
-            if (tp != null && tpList.contains(tp)) {
-                //positionStorage store more than this task's topic and partition
-                try {
-                    long local_offset = Long.parseLong(new String(entry.getValue().array()));
-                    commitOffsets.put(tp, new OffsetAndMetadata(local_offset));
-                } catch (Exception e) {
-                    log.warn("commit kafka Offset get local offset exception {}", e);
-                }
-            }
+        MyOffsetCommitCallback callback = new MyOffsetCommitCallback(false);
+        try {
+            consumer.commitSync(commitOffsets);
+            callback.onComplete(commitOffsets, null);
+        } catch (Exception ex) {
+            callback.onComplete(commitOffsets, ex);
         }
+    }
 
-        if (!commitOffsets.isEmpty()) {
-            try{
-                Map map = new HashMap();
-                for (Map.Entry<TopicPartition, OffsetAndMetadata> entry : commitOffsets.entrySet()) {
-                    map.put(entry.getKey(),entry.getValue());
-                    consumer.commitSync(map);
+    /**
+     * kafka提交的位移是下一条要消费的位移,所以是runtime里已经发送成功的位移+1
+     * @param onlyChanged 只提交和上一次提交不一样的分区
+     */
+    private Map<TopicPartition, OffsetAndMetadata> collectCommitOffsets(Collection<TopicPartition> tpList, boolean onlyChanged) {
+        Map<TopicPartition, OffsetAndMetadata> commitOffsets = new HashMap<>();
+        //如果重平衡正好发生，此时正在迭代。是不是有问题？所以改成了copyOnWriteArrayList
+        for (TopicPartition tp : tpList) {
+            ByteBuffer position = context.positionStorageReader().getPosition(toSourcePartition(tp));
+            if (position == null) {
+                continue;
+            }
+            try {
+                long nextOffset = PositionCodec.decodeLong(position) + 1;
+                if (onlyChanged && Long.valueOf(nextOffset).equals(committedOffsets.get(tp))) {
+                    continue;
                 }
-                consumer.commitSync(commitOffsets);
-            }catch (Exception ex){
-                commitCallback.onComplete(commitOffsets,ex);
+                commitOffsets.put(tp, new OffsetAndMetadata(nextOffset));
+            } catch (Exception e) {
+                log.warn("commit kafka Offset get local offset exception {}", e);
             }
         }
+        return commitOffsets;
+    }
+
+    /**
+     * 提交位移的耗时和失败次数
+     */
+    public OffsetCommitMetrics getCommitMetrics() {
+        return commitMetrics;
     }
 
     private class MyOffsetCommitCallback implements OffsetCommitCallback {
 
+        private final boolean async;
+
+        private final long beginTimestamp = System.currentTimeMillis();
+
+        MyOffsetCommitCallback(boolean async) {
+            this.async = async;
+        }
+
         @Override
         public void onComplete(Map<TopicPartition, OffsetAndMetadata> map, Exception e) {
+            commitMetrics.recordCommit(System.currentTimeMillis() - beginTimestamp, e);
+            if (async) {
+                commitInFlight = false;
+            }
             if (e != null) {
                 map.entrySet().stream().forEach((Map.Entry<TopicPartition, OffsetAndMetadata> entry) -> {
                     logger4SourceMsg.warn("commit kafka Offset exception, TopicPartition: {} offset: {}", entry.getKey().toString(), entry.getValue().offset());
@@ -329,7 +579,9 @@ public class KafkaSourceTask extends SourceTask {
                 logger4SourceMsg.error("commit kafka offset error ",e);
             }else{
                 map.entrySet().stream().forEach((Map.Entry<TopicPartition, OffsetAndMetadata> entry) -> {
-                    logger4SourceMsg.warn("commit kafka Offset finish, TopicPartition: {} offset: {}", entry.getKey().toString(), entry.getValue().offset());
+                    //异步回调可能晚于后面的同步提交,只保留更大的位移
+                    committedOffsets.merge(entry.getKey(), entry.getValue().offset(), Math::max);
+                    logger4SourceMsg.info("commit kafka Offset finish, TopicPartition: {} offset: {}", entry.getKey().toString(), entry.getValue().offset());
                 });
             }
         }
@@ -340,9 +592,16 @@ public class KafkaSourceTask extends SourceTask {
         @Override
         public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
             currentTPList.addAll(partitions);
+            pendingSeekPartitions.addAll(partitions);
+            //分区可能被其他consumer提交过位移,重新分配后至少提交一次
+            committedOffsets.keySet().removeAll(partitions);
             try{
                 //重置位移
-                overridePositionOffset();
+                if (seekOnEveryPoll) {
+                    overridePositionOffset();
+                } else {
+                    reconcilePositionOffset();
+                }
             }catch (Exception ex){
                 log.warn(ex.getMessage(),ex);
             }
@@ -357,11 +616,14 @@ public class KafkaSourceTask extends SourceTask {
         public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
             log.info("onPartitionsRevoked Partitions revoked {},{}",Thread.currentThread().getName(),partitions);
             try{
-                commitOffset(partitions);
+                commitOffsetSync(partitions);
             }catch (Exception ex){
                 log.error("commit kafka Offset when onPartitionsRevoked Partitions revoked failed",ex);
             }finally {
                 currentTPList.clear();
+                fetchPositions.keySet().removeAll(partitions);
+                batchStartOffsets.keySet().removeAll(partitions);
+                pendingSeekPartitions.removeAll(partitions);
             }
         }
     }
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.kafka.util;
+
+import java.util.AbstractMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+
+/**
+ * Read-only map view of the headers of a kafka record.
+ *
+ * {@link #get(Object)} looks the header up in place, so the runtime reading a few well known keys (by_connector,
+ * TAGS, FullLinkContext) never copies the headers. Only iterating the map materializes it, with the last header of a
+ * duplicated key winning as it did when the headers were put into a HashMap.
+ */
+public class KafkaHeaderMap extends AbstractMap<String, byte[]> {
+
+    private final Headers headers;
+
+    private Map<String, byte[]> materialized;
+
+    public KafkaHeaderMap(Headers headers) {
+        this.headers = headers;
+    }
+
+    @Override
+    public byte[] get(Object key) {
+        if (headers == null || !(key instanceof String)) {
+            return null;
+        }
+        Header header = headers.lastHeader((String) key);
+        return header == null ? null : header.value();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return headers != null && key instanceof String && headers.lastHeader((String) key) != null;
+    }
+
+    @Override
+    public Set<Entry<String, byte[]>> entrySet() {
+        if (materialized == null) {
+            Map<String, byte[]> map = new LinkedHashMap<>();
+            if (headers != null) {
+                for (Header header : headers) {
+                    map.put(header.key(), header.value());
+                }
+            }
+            materialized = map;
+        }
+        return materialized.entrySet();
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.kafka.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class OffsetCommitMetrics implements OffsetCommitMetricsMXBean {
+
+    private static final Logger log = LoggerFactory.getLogger(OffsetCommitMetrics.class);
+
+    private final AtomicLong commitCount = new AtomicLong();
+
+    private final AtomicLong failureCount = new AtomicLong();
+
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    private final AtomicLong totalLatencyMs = new AtomicLong();
+
+    private volatile long lastLatencyMs;
+
+    private volatile long maxLatencyMs;
+
+    private ObjectName objectName;
+
+    public void recordCommit(long latencyMs, Exception exception) {
+        commitCount.incrementAndGet();
+        if (exception != null) {
+            failureCount.incrementAndGet();
+        }
+        totalLatencyMs.addAndGet(latencyMs);
+        lastLatencyMs = latencyMs;
+        if (latencyMs > maxLatencyMs) {
+            maxLatencyMs = latencyMs;
+        }
+    }
+
+    public void recordCoalesced() {
+        coalescedCount.incrementAndGet();
+    }
+
+    public void register(String groupId, String taskId) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            objectName = new ObjectName("org.apache.rocketmq.connect.kafka:type=OffsetCommit,group="
+                + ObjectName.quote(groupId) + ",task=" + ObjectName.quote(taskId));
+            server.registerMBean(this, objectName);
+        } catch (Exception e) {
+            objectName = null;
+            log.warn("register offset commit metrics failed", e);
+        }
+    }
+
+    public void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (Exception e) {
+            log.warn("unregister offset commit metrics failed", e);
+        } finally {
+            objectName = null;
+        }
+    }
+
+    @Override
+    public long getCommitCount() {
+        return commitCount.get();
+    }
+
+    @Override
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    @Override
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    @Override
+    public long getLastLatencyMs() {
+        return lastLatencyMs;
+    }
+
+    @Override
+    public long getMaxLatencyMs() {
+        return maxLatencyMs;
+    }
+
+    @Override
+    public double getAvgLatencyMs() {
+        long count = commitCount.get();
+        return count == 0 ? 0 : (double) totalLatencyMs.get() / count;
+    }
+
+    @Override
+    public String toString() {
+        return "OffsetCommitMetrics{" +
+            "commitCount=" + commitCount +
+            ", failureCount=" + failureCount +
+            ", coalescedCount=" + coalescedCount +
+            ", lastLatencyMs=" + lastLatencyMs +
+            ", maxLatencyMs=" + maxLatencyMs +
+            '}';
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.kafka.util;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Kafka partitions cached per key (bootstrap servers and topics). The lookup itself runs on a discovery thread,
+ * callers wait at most the given timeout and get the last known partitions when kafka does not answer in time.
+ */
+public class PartitionMetadataCache {
+
+    private static final Logger log = LoggerFactory.getLogger(PartitionMetadataCache.class);
+
+    private static final ExecutorService DISCOVERY_EXECUTOR =
+        Executors.newCachedThreadPool(new DefaultThreadFactory("kafkaPartitionDiscovery-", true));
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * @param ttlMs partitions loaded within this interval are returned without asking kafka
+     * @param timeoutMs how long to wait for a refresh before falling back to the cached partitions
+     * @throws Exception when the refresh fails or times out and nothing is cached yet
+     */
+    public List<TopicPartition> get(String key, long ttlMs, long timeoutMs, Callable<List<TopicPartition>> loader) throws Exception {
+        Entry entry = entries.computeIfAbsent(key, k -> new Entry());
+        Future<List<TopicPartition>> refresh;
+        synchronized (entry) {
+            if (entry.partitions != null && System.currentTimeMillis() - entry.loadTime < ttlMs) {
+                return entry.partitions;
+            }
+            //同一个key同时只有一个查询在途,前一个超时还没返回的话后来的调用方等同一个结果
+            if (entry.refresh == null || entry.refresh.isDone()) {
+                entry.refresh = DISCOVERY_EXECUTOR.submit(() -> {
+                    List<TopicPartition> partitions = loader.call();
+                    entry.loadTime = System.currentTimeMillis();
+                    entry.partitions = partitions;
+                    return partitions;
+                });
+            }
+            refresh = entry.refresh;
+        }
+        try {
+            return refresh.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            List<TopicPartition> cached = entry.partitions;
+            if (cached == null) {
+                throw e;
+            }
+            log.warn("refresh kafka partitions of {} failed, use the cached partitions {}", key, cached, e);
+            return cached;
+        }
+    }
+
+    private static class Entry {
+
+        private volatile List<TopicPartition> partitions;
+
+        private volatile long loadTime;
+
+        private Future<List<TopicPartition>> refresh;
+    }
+}
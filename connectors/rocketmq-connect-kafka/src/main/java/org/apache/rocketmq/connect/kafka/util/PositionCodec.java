@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.kafka.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Copy of encodeLong and decodeLong of {@code org.apache.rocketmq.connect.runtime.utils.PositionCodec}, which documents
+ * the wire format: the marker 0xFE followed by the 8 byte big-endian offset. The connector is built without the
+ * runtime, PositionCodecTest checks the same example bytes as the runtime. Positions stored by older versions as
+ * decimal strings are still decoded.
+ */
+public class PositionCodec {
+
+    public static final byte LONG_MARKER = (byte) 0xFE;
+
+    public static final int LONG_POSITION_LENGTH = 1 + Long.BYTES;
+
+    public static ByteBuffer encodeLong(long position) {
+        byte[] bytes = new byte[LONG_POSITION_LENGTH];
+        bytes[0] = LONG_MARKER;
+        for (int i = LONG_POSITION_LENGTH - 1; i > 0; i--) {
+            bytes[i] = (byte) position;
+            position >>>= 8;
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    public static long decodeLong(ByteBuffer position) {
+        if (position.remaining() == LONG_POSITION_LENGTH && position.get(position.position()) == LONG_MARKER) {
+            long value = 0;
+            int offset = position.position() + 1;
+            for (int i = 0; i < Long.BYTES; i++) {
+                value = (value << 8) | (position.get(offset + i) & 0xFF);
+            }
+            return value;
+        }
+        return Long.parseLong(StandardCharsets.UTF_8.decode(position.duplicate()).toString().trim());
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.rocketmq.connect.kafka.connector;
+
+import io.openmessaging.connector.api.data.DataEntryBuilder;
+import io.openmessaging.connector.api.data.EntryType;
+import io.openmessaging.connector.api.data.Field;
+import io.openmessaging.connector.api.data.FieldType;
+import io.openmessaging.connector.api.data.Schema;
+import io.openmessaging.connector.api.data.SourceDataEntry;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.utils.Utils;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.connect.kafka.util.PositionCodec;
+
+/**
+ * Records/s per core of turning a kafka record into the RocketMQ message the runtime sends: the former
+ * DataEntryBuilder + copied header map + key String round trip, against the direct SourceDataEntry with a header
+ * view and raw key hashing. The runtime half is mirrored here because the connector can not depend on the runtime.
+ * Run the main method on one thread, it is not part of the unit tests.
+ */
+public class KafkaRecordConversionBenchmark {
+
+    private static final int RECORDS = 4096;
+
+    private static final long DURATION_MS = 5000;
+
+    private static volatile int blackhole;
+
+    public static void main(String[] args) {
+        List<ConsumerRecord<ByteBuffer, ByteBuffer>> records = records();
+        KafkaSourceTask task = new KafkaSourceTask();
+        ByteBuffer partition = ByteBuffer.wrap("s-0".getBytes(StandardCharsets.UTF_8));
+
+        //warm up
+        run("legacy", records, task, partition, 1000, true);
+        run("fast path", records, task, partition, 1000, false);
+        System.out.printf("%-12s %14s%n", "path", "records/s");
+        run("legacy", records, task, partition, DURATION_MS, true);
+        run("fast path", records, task, partition, DURATION_MS, false);
+    }
+
+    private static void run(String name, List<ConsumerRecord<ByteBuffer, ByteBuffer>> records, KafkaSourceTask task,
+        ByteBuffer partition, long durationMs, boolean legacy) {
+        long count = 0;
+        long begin = System.nanoTime();
+        long end = begin + durationMs * 1_000_000L;
+        int sink = 0;
+        while (System.nanoTime() < end) {
+            long timestamp = System.currentTimeMillis();
+            for (ConsumerRecord<ByteBuffer, ByteBuffer> record : records) {
+                SourceDataEntry entry = legacy ? legacyEntry(record) : task.toSourceDataEntry(record, partition, timestamp);
+                sink += legacy ? legacySend(entry) : fastSend(entry);
+            }
+            count += records.size();
+        }
+        blackhole = sink;
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        if (durationMs == DURATION_MS) {
+            System.out.printf("%-12s %14.0f%n", name, count / seconds);
+        }
+    }
+
+    private static List<ConsumerRecord<ByteBuffer, ByteBuffer>> records() {
+        List<ConsumerRecord<ByteBuffer, ByteBuffer>> records = new ArrayList<>(RECORDS);
+        byte[] value = new byte[256];
+        for (int i = 0; i < RECORDS; i++) {
+            RecordHeaders headers = new RecordHeaders();
+            headers.add(new RecordHeader("TAGS", "tagA".getBytes(StandardCharsets.UTF_8)));
+            headers.add(new RecordHeader("traceId", ("trace-" + i).getBytes(StandardCharsets.UTF_8)));
+            headers.add(new RecordHeader("FullLinkContext", "ctx".getBytes(StandardCharsets.UTF_8)));
+            ByteBuffer key = ByteBuffer.wrap(("key-" + (i % 128)).getBytes(StandardCharsets.UTF_8));
+            records.add(new ConsumerRecord<>("s", 0, i, 0L, TimestampType.CREATE_TIME, 0L, key.remaining(), value.length,
+                key, ByteBuffer.wrap(value), headers));
+        }
+        return records;
+    }
+
+    /**
+     * KafkaSourceTask.poll before the fast path.
+     */
+    private static SourceDataEntry legacyEntry(ConsumerRecord<ByteBuffer, ByteBuffer> record) {
+        Map<String, byte[]> map = new HashMap<>(4);
+        for (Header header : record.headers()) {
+            map.put(header.key(), header.value());
+        }
+        Schema schema = new Schema();
+        List<Field> fields = new ArrayList<>();
+        fields.add(new Field(0, "key", FieldType.BYTES));
+        fields.add(new Field(1, "value", FieldType.BYTES));
+        fields.add(new Field(2, "header", FieldType.MAP));
+        schema.setName(record.topic());
+        schema.setFields(fields);
+        schema.setDataSource(record.topic());
+
+        ByteBuffer sourcePartition = ByteBuffer.wrap((record.topic() + "-" + record.partition()).getBytes(StandardCharsets.UTF_8));
+        DataEntryBuilder dataEntryBuilder = new DataEntryBuilder(schema);
+        dataEntryBuilder.entryType(EntryType.CREATE);
+        dataEntryBuilder.queue(record.topic());
+        dataEntryBuilder.timestamp(System.currentTimeMillis());
+        dataEntryBuilder.putFiled("key", record.key().array());
+        dataEntryBuilder.putFiled("value", record.value().array());
+        dataEntryBuilder.putFiled("header", map);
+        return dataEntryBuilder.buildSourceDataEntry(sourcePartition, PositionCodec.encodeLong(record.offset()));
+    }
+
+    /**
+     * WorkerSourceTask.sendRecord before the fast path, returns the selected queue plus the body length.
+     */
+    @SuppressWarnings("unchecked")
+    private static int legacySend(SourceDataEntry entry) {
+        Message message = new Message();
+        message.setTopic(entry.getQueueName());
+        byte[] key = (byte[]) entry.getPayload()[0];
+        byte[] value = (byte[]) entry.getPayload()[1];
+        Map<String, byte[]> header = (Map<String, byte[]>) entry.getPayload()[2];
+        if (key != null && key.length > 0) {
+            message.setKeys(new String(key));
+        }
+        message.putUserProperty("by_connector", "true");
+        message.setBody(value);
+        byte[] byConnectors = header.get("by_connector");
+        if (byConnectors == null || !Boolean.parseBoolean(new String(byConnectors))) {
+            for (Map.Entry<String, byte[]> e : header.entrySet()) {
+                if ("TAGS".equals(e.getKey())) {
+                    message.setTags(new String(e.getValue()));
+                } else if ("FullLinkContext".equals(e.getKey())) {
+                    message.putUserProperty(e.getKey(), new String(e.getValue()));
+                }
+            }
+        }
+        int queue = 0;
+        if (message.getKeys() != null) {
+            queue = Utils.toPositive(Utils.murmur2(message.getKeys().getBytes(StandardCharsets.UTF_8))) % 8;
+        }
+        return queue + message.getBody().length;
+    }
+
+    /**
+     * WorkerSourceTask.sendRecord with the fast path.
+     */
+    @SuppressWarnings("unchecked")
+    private static int fastSend(SourceDataEntry entry) {
+        Message message = new Message();
+        message.setTopic(entry.getQueueName());
+        byte[] key = (byte[]) entry.getPayload()[0];
+        byte[] value = (byte[]) entry.getPayload()[1];
+        Map<String, byte[]> header = (Map<String, byte[]>) entry.getPayload()[2];
+        int queue = 0;
+        if (key != null && key.length > 0) {
+            message.setKeys(new String(key, StandardCharsets.UTF_8));
+            queue = Utils.toPositive(Utils.murmur2(key)) % 8;
+        }
+        message.putUserProperty("by_connector", "true");
+        message.setBody(value);
+        if (header.get("by_connector") == null) {
+            byte[] tags = header.get("TAGS");
+            if (tags != null) {
+                message.setTags(new String(tags, StandardCharsets.UTF_8));
+            }
+            byte[] fullLinkContext = header.get("FullLinkContext");
+            if (fullLinkContext != null) {
+                message.putUserProperty("FullLinkContext", new String(fullLinkContext, StandardCharsets.UTF_8));
+            }
+        }
+        return queue + message.getBody().length;
+    }
+}
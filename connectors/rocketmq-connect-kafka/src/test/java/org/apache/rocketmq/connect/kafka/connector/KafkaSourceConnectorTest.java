@@ -19,6 +19,10 @@ package org.apache.rocketmq.connect.kafka.connector;
 
 import io.openmessaging.KeyValue;
 import io.openmessaging.internal.DefaultKeyValue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.rocketmq.connect.kafka.config.ConfigDefine;
 import org.junit.Test;
 
@@ -54,4 +58,95 @@ public class KafkaSourceConnectorTest {
         connector.verifyAndSetConfig(keyValue);
         assertEquals(connector.taskConfigs().get(0).getString(ConfigDefine.TOPICS), keyValue.getString(ConfigDefine.TOPICS));
     }
+
+    @Test
+    public void staticAssignmentSpreadsPartitionsTest() {
+        List<TopicPartition> partitions = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            partitions.add(new TopicPartition("a", i));
+        }
+        partitions.add(new TopicPartition("b-1", 0));
+        partitions.add(new TopicPartition("b-1", 1));
+        StaticConnector staticConnector = new StaticConnector(partitions);
+        staticConnector.verifyAndSetConfig(staticConfig(2));
+
+        List<KeyValue> taskConfigs = staticConnector.taskConfigs();
+        assertEquals(2, taskConfigs.size());
+        assertEquals("a-0,a-2,b-1-1", taskConfigs.get(0).getString(ConfigDefine.TASK_PARTITIONS));
+        assertEquals("a-1,b-1-0", taskConfigs.get(1).getString(ConfigDefine.TASK_PARTITIONS));
+        assertEquals(partitions.subList(3, 5), KafkaSourceConnector.decodePartitions("b-1-0,b-1-1"));
+        assertEquals(1, taskConfigs.get(1).getInt(ConfigDefine.TASK_INDEX));
+        assertEquals(2, taskConfigs.get(1).getInt(ConfigDefine.TASK_COUNT));
+        assertEquals("a:3,b-1:2", taskConfigs.get(1).getString(ConfigDefine.PARTITION_COUNTS));
+        assertEquals(Integer.valueOf(2), KafkaSourceConnector.decodePartitionCounts("a:3,b-1:2").get("b-1"));
+
+        //more tasks than partitions
+        staticConnector.verifyAndSetConfig(staticConfig(8));
+        assertEquals(5, staticConnector.taskConfigs().size());
+
+        //nothing discovered, fall back to subscribe
+        staticConnector.partitions = new ArrayList<>();
+        taskConfigs = staticConnector.taskConfigs();
+        assertEquals(8, taskConfigs.size());
+        assertEquals(false, taskConfigs.get(0).containsKey(ConfigDefine.TASK_PARTITIONS));
+    }
+
+    @Test
+    public void cachedPartitionsUsedWhenDiscoveryFailsTest() {
+        StaticConnector staticConnector = new StaticConnector(new ArrayList<>(Arrays.asList(new TopicPartition("c", 0), new TopicPartition("c", 1))));
+        KeyValue config = staticConfig(2);
+        config.put(ConfigDefine.TOPICS, "c");
+        config.put(ConfigDefine.PARTITION_DISCOVERY_TIMEOUT, 100);
+        staticConnector.verifyAndSetConfig(config);
+        assertEquals("c-1", staticConnector.taskConfigs().get(1).getString(ConfigDefine.TASK_PARTITIONS));
+
+        //kafka not answering in time, the partitions discovered last time are used
+        staticConnector.latencyMs = 1000;
+        staticConnector.partitions = new ArrayList<>();
+        List<KeyValue> taskConfigs = staticConnector.taskConfigs();
+        assertEquals(2, taskConfigs.size());
+        assertEquals("c-1", taskConfigs.get(1).getString(ConfigDefine.TASK_PARTITIONS));
+
+        //kafka failing
+        staticConnector.latencyMs = 0;
+        staticConnector.partitions = null;
+        assertEquals("c-1", staticConnector.taskConfigs().get(1).getString(ConfigDefine.TASK_PARTITIONS));
+    }
+
+    private static KeyValue staticConfig(int taskNum) {
+        KeyValue keyValue = new DefaultKeyValue();
+        keyValue.put(ConfigDefine.TOPICS, "a,b-1");
+        keyValue.put(ConfigDefine.BOOTSTRAP_SERVER, "127.0.0.1:9092");
+        keyValue.put(ConfigDefine.ASSIGNMENT_MODE, ConfigDefine.ASSIGNMENT_STATIC);
+        keyValue.put(ConfigDefine.TASK_NUM, taskNum);
+        //always ask kafka, the partition cache is shared by all connector instances
+        keyValue.put(ConfigDefine.PARTITION_DISCOVERY_INTERVAL, 0);
+        return keyValue;
+    }
+
+    private static class StaticConnector extends KafkaSourceConnector {
+
+        private List<TopicPartition> partitions;
+
+        private long latencyMs;
+
+        StaticConnector(List<TopicPartition> partitions) {
+            this.partitions = partitions;
+        }
+
+        @Override
+        protected List<TopicPartition> discoverPartitions(List<String> topics) {
+            if (latencyMs > 0) {
+                try {
+                    Thread.sleep(latencyMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (partitions == null) {
+                throw new IllegalStateException("kafka not available");
+            }
+            return new ArrayList<>(partitions);
+        }
+    }
 }
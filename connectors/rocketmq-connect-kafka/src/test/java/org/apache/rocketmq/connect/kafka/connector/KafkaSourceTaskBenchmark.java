@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.kafka.connector;
+
+import io.openmessaging.connector.api.data.SourceDataEntry;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.rocketmq.connect.kafka.config.ConfigDefine;
+
+/**
+ * Records/s of KafkaSourceTask.poll against {@link StandInKafkaConsumer}, seeking before every poll versus
+ * seeking only on divergence. Run the main method, it is not part of the unit tests.
+ */
+public class KafkaSourceTaskBenchmark {
+
+    private static final int PARTITIONS = 4;
+
+    private static final int RECORDS_PER_POLL = 150;
+
+    private static final long FETCH_LATENCY_MS = 2;
+
+    private static final long DURATION_MS = 5000;
+
+    public static void main(String[] args) {
+        //warm up
+        run(ConfigDefine.RECONCILE_DIVERGENCE, 1000);
+        System.out.printf("%-12s %14s %8s %8s%n", "mode", "records/s", "seeks", "fetches");
+        for (String mode : new String[] {ConfigDefine.RECONCILE_ALWAYS, ConfigDefine.RECONCILE_DIVERGENCE}) {
+            run(mode, DURATION_MS);
+        }
+    }
+
+    private static void run(String mode, long durationMs) {
+        List<TopicPartition> partitions = new ArrayList<>();
+        for (int i = 0; i < PARTITIONS; i++) {
+            partitions.add(new TopicPartition("s", i));
+        }
+        StandInKafkaConsumer consumer = new StandInKafkaConsumer(partitions, RECORDS_PER_POLL, FETCH_LATENCY_MS);
+        TestSourceTaskContext context = new TestSourceTaskContext(KafkaSourceTaskTest.taskConfig(mode));
+        KafkaSourceTask task = KafkaSourceTaskTest.startTask(consumer, context);
+
+        long records = 0;
+        long begin = System.nanoTime();
+        long end = begin + durationMs * 1_000_000L;
+        while (System.nanoTime() < end) {
+            Collection<SourceDataEntry> entries = task.poll();
+            context.acknowledge(entries);
+            records += entries == null ? 0 : entries.size();
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        if (durationMs == DURATION_MS) {
+            System.out.printf("%-12s %14.0f %8d %8d%n", mode, records / seconds, task.getSeekCount(), consumer.getFetchCount());
+        }
+        task.stop();
+    }
+}
@@ -17,8 +17,27 @@
 
 package org.apache.rocketmq.connect.kafka.connector;
 
+import io.openmessaging.KeyValue;
 import io.openmessaging.connector.api.data.SourceDataEntry;
+import io.openmessaging.internal.DefaultKeyValue;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Properties;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
 import org.apache.kafka.common.TopicPartition;
+import org.apache.rocketmq.connect.kafka.config.ConfigDefine;
+import org.apache.rocketmq.connect.kafka.util.PositionCodec;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -26,6 +45,7 @@ import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.LinkedBlockingQueue;
 
@@ -55,4 +75,262 @@ public class KafkaSourceTaskTest {
 
         System.out.println(topicPartitionList);
     }
+
+    @Test
+    public void reconcileWithoutSeekWhenAcknowledged() {
+        StandInKafkaConsumer consumer = newConsumer();
+        TestSourceTaskContext context = new TestSourceTaskContext(taskConfig(null));
+        KafkaSourceTask task = startTask(consumer, context);
+
+        long lastOffset = -1;
+        for (int i = 0; i < 10; i++) {
+            Collection<SourceDataEntry> entries = task.poll();
+            Assert.assertEquals(lastOffset + 1, firstOffset(entries));
+            lastOffset = lastOffset(entries);
+            context.acknowledge(entries);
+        }
+        Assert.assertEquals(0, task.getSeekCount());
+        Assert.assertEquals(1, consumer.getFetchCount());
+    }
+
+    @Test
+    public void reconcileSeeksBackAfterFailedSend() {
+        StandInKafkaConsumer consumer = newConsumer();
+        TestSourceTaskContext context = new TestSourceTaskContext(taskConfig(null));
+        KafkaSourceTask task = startTask(consumer, context);
+
+        context.acknowledge(task.poll());
+        Collection<SourceDataEntry> failed = task.poll();
+        //nothing acknowledged, the same records must come back
+        Collection<SourceDataEntry> retried = task.poll();
+        Assert.assertEquals(firstOffset(failed), firstOffset(retried));
+        Assert.assertEquals(1, task.getSeekCount());
+
+        context.acknowledge(retried);
+        task.poll();
+        Assert.assertEquals(1, task.getSeekCount());
+    }
+
+    @Test
+    public void reconcileAlwaysSeeksEveryPoll() {
+        StandInKafkaConsumer consumer = newConsumer();
+        TestSourceTaskContext context = new TestSourceTaskContext(taskConfig(ConfigDefine.RECONCILE_ALWAYS));
+        KafkaSourceTask task = startTask(consumer, context);
+
+        context.acknowledge(task.poll());
+        for (int i = 0; i < 5; i++) {
+            context.acknowledge(task.poll());
+        }
+        Assert.assertEquals(5, task.getSeekCount());
+    }
+
+    @Test
+    public void commitAsyncOnlyWhenWatermarkMoves() throws Exception {
+        StandInKafkaConsumer consumer = newConsumer();
+        KeyValue config = taskConfig(null);
+        config.put(ConfigDefine.OFFSET_COMMIT_INTERVAL, "0");
+        TestSourceTaskContext context = new TestSourceTaskContext(config);
+        KafkaSourceTask task = startTask(consumer, context);
+        TopicPartition tp = new TopicPartition("s", 0);
+
+        Collection<SourceDataEntry> entries = task.poll();
+        context.acknowledge(entries);
+        Thread.sleep(2);
+        task.poll();
+        //kafka commits the next offset to read
+        Assert.assertEquals(Long.valueOf(lastOffset(entries) + 1), consumer.getCommittedOffset(tp));
+        Assert.assertEquals(1, consumer.getAsyncCommitCount());
+
+        //nothing acknowledged since, the watermark did not move
+        Thread.sleep(2);
+        task.poll();
+        Assert.assertEquals(1, consumer.getAsyncCommitCount());
+        Assert.assertEquals(0, consumer.getSyncCommitCount());
+        Assert.assertEquals(1, task.getCommitMetrics().getCommitCount());
+        Assert.assertEquals(0, task.getCommitMetrics().getFailureCount());
+    }
+
+    @Test
+    public void commitAsyncCoalescesWhileInFlight() throws Exception {
+        StandInKafkaConsumer consumer = newConsumer();
+        KeyValue config = taskConfig(null);
+        config.put(ConfigDefine.OFFSET_COMMIT_INTERVAL, "0");
+        TestSourceTaskContext context = new TestSourceTaskContext(config);
+        KafkaSourceTask task = startTask(consumer, context);
+        consumer.setHoldCommits(true);
+
+        context.acknowledge(task.poll());
+        for (int i = 0; i < 3; i++) {
+            Thread.sleep(2);
+            context.acknowledge(task.poll());
+        }
+        Assert.assertEquals(1, consumer.getAsyncCommitCount());
+        Assert.assertEquals(2, task.getCommitMetrics().getCoalescedCount());
+
+        consumer.setHoldCommits(false);
+        Thread.sleep(2);
+        task.poll();
+        Thread.sleep(2);
+        task.poll();
+        Assert.assertEquals(2, consumer.getAsyncCommitCount());
+        Assert.assertEquals(2, task.getCommitMetrics().getCommitCount());
+    }
+
+    @Test
+    public void commitSyncOnStop() {
+        StandInKafkaConsumer consumer = newConsumer();
+        TestSourceTaskContext context = new TestSourceTaskContext(taskConfig(null));
+        KafkaSourceTask task = startTask(consumer, context);
+
+        task.poll();
+        Collection<SourceDataEntry> entries = task.poll();
+        context.acknowledge(entries);
+        task.stop();
+        Assert.assertEquals(1, consumer.getSyncCommitCount());
+        Assert.assertEquals(Long.valueOf(lastOffset(entries) + 1), consumer.getCommittedOffset(new TopicPartition("s", 0)));
+    }
+
+    @Test
+    public void staticAssignmentStartsFromRuntimePosition() {
+        TopicPartition tp0 = new TopicPartition("s", 0);
+        TopicPartition tp1 = new TopicPartition("s", 1);
+        StandInKafkaConsumer consumer = new StandInKafkaConsumer(Arrays.asList(tp0, tp1), 10, 0);
+        KeyValue config = taskConfig(null);
+        config.put(ConfigDefine.TASK_PARTITIONS, "s-0,s-1");
+        TestSourceTaskContext context = new TestSourceTaskContext(config);
+        context.getPositionTable().put(ByteBuffer.wrap("s-1".getBytes(StandardCharsets.UTF_8)), PositionCodec.encodeLong(41));
+        KafkaSourceTask task = startTask(consumer, context);
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList(tp0, tp1)), consumer.assignment());
+        Assert.assertTrue(consumer.subscription().isEmpty());
+
+        Collection<SourceDataEntry> entries = task.poll();
+        for (SourceDataEntry entry : entries) {
+            if (entry.getSourcePartition().equals(ByteBuffer.wrap("s-1".getBytes(StandardCharsets.UTF_8)))) {
+                Assert.assertEquals(42, PositionCodec.decodeLong(entry.getSourcePosition()));
+                break;
+            }
+        }
+        Assert.assertEquals(1, task.getSeekCount());
+    }
+
+    @Test
+    public void staticAssignmentPicksUpNewPartitions() throws Exception {
+        TopicPartition tp0 = new TopicPartition("s", 0);
+        TopicPartition tp1 = new TopicPartition("s", 1);
+        StandInKafkaConsumer consumer = new StandInKafkaConsumer(Arrays.asList(tp0), 10, 0);
+        KeyValue config = taskConfig(null);
+        config.put(ConfigDefine.TASK_PARTITIONS, "s-0");
+        config.put(ConfigDefine.TASK_INDEX, 0);
+        config.put(ConfigDefine.TASK_COUNT, 1);
+        config.put(ConfigDefine.PARTITION_COUNTS, "s:1");
+        config.put(ConfigDefine.PARTITION_DISCOVERY_INTERVAL, 0);
+        TestSourceTaskContext context = new TestSourceTaskContext(config);
+        KafkaSourceTask task = startTask(consumer, context);
+        consumer.updatePartitions("s", Arrays.asList(new PartitionInfo("s", 0, null, null, null)));
+
+        Thread.sleep(2);
+        task.poll();
+        Assert.assertEquals(new HashSet<>(Arrays.asList(tp0)), consumer.assignment());
+
+        consumer.updatePartitions("s", Arrays.asList(new PartitionInfo("s", 0, null, null, null), new PartitionInfo("s", 1, null, null, null)));
+        Thread.sleep(2);
+        task.poll();
+        Assert.assertEquals(new HashSet<>(Arrays.asList(tp0, tp1)), consumer.assignment());
+        Assert.assertEquals(new HashSet<>(Arrays.asList(tp0, tp1)), task.getAssignedPartitions());
+    }
+
+    @Test
+    public void lagReportedToRuntime() throws Exception {
+        TopicPartition tp0 = new TopicPartition("s", 0);
+        StandInKafkaConsumer consumer = newConsumer();
+        KeyValue config = taskConfig(null);
+        config.put(ConfigDefine.TASK_PARTITIONS, "s-0");
+        config.put(ConfigDefine.TASK_UID, "lag-task");
+        TestSourceTaskContext context = new TestSourceTaskContext(config);
+        KafkaSourceTask task = startTask(consumer, context);
+        ObjectName name = new ObjectName("org.apache.rocketmq.connect:type=SourceTaskLag,task=" + ObjectName.quote("lag-task"));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            Assert.assertEquals(-1L, server.getAttribute(name, "Lag"));
+
+            Collection<SourceDataEntry> entries = task.poll();
+            consumer.updateEndOffsets(Collections.singletonMap(tp0, 1000L));
+            task.updateLag();
+            Assert.assertEquals(1000L - lastOffset(entries) - 1, server.getAttribute(name, "Lag"));
+            Assert.assertEquals(1, server.getAttribute(name, "QueueNum"));
+        } finally {
+            task.stop();
+        }
+        Assert.assertFalse(server.isRegistered(name));
+    }
+
+    @Test
+    public void recordConvertedWithoutCopies() {
+        RecordHeaders headers = new RecordHeaders();
+        headers.add(new RecordHeader("TAGS", "tagA".getBytes(StandardCharsets.UTF_8)));
+        headers.add(new RecordHeader("TAGS", "tagB".getBytes(StandardCharsets.UTF_8)));
+        byte[] key = "k".getBytes(StandardCharsets.UTF_8);
+        byte[] value = "v".getBytes(StandardCharsets.UTF_8);
+        ConsumerRecord<ByteBuffer, ByteBuffer> record = new ConsumerRecord<>("s", 0, 7L, 0L, TimestampType.CREATE_TIME, 0L,
+            key.length, value.length, ByteBuffer.wrap(key), ByteBuffer.wrap(value), headers);
+        ByteBuffer partition = ByteBuffer.wrap("s-0".getBytes(StandardCharsets.UTF_8));
+
+        KafkaSourceTask task = new KafkaSourceTask();
+        SourceDataEntry entry = task.toSourceDataEntry(record, partition, 1L);
+        Assert.assertSame(key, entry.getPayload()[0]);
+        Assert.assertSame(value, entry.getPayload()[1]);
+        Assert.assertEquals(7L, PositionCodec.decodeLong(entry.getSourcePosition()));
+        Assert.assertEquals("s", entry.getQueueName());
+        Assert.assertSame(entry.getSchema(), task.toSourceDataEntry(record, partition, 1L).getSchema());
+        Assert.assertEquals(2, entry.getSchema().getField("header").getIndex());
+
+        Map<String, byte[]> header = (Map<String, byte[]>) entry.getPayload()[2];
+        Assert.assertArrayEquals("tagB".getBytes(StandardCharsets.UTF_8), header.get("TAGS"));
+        Assert.assertNull(header.get("by_connector"));
+        Assert.assertEquals(1, header.size());
+
+        //tombstones carry an empty body
+        ConsumerRecord<ByteBuffer, ByteBuffer> tombstone = new ConsumerRecord<>("s", 0, 8L, ByteBuffer.wrap(key), null);
+        Assert.assertEquals(0, ((byte[]) task.toSourceDataEntry(tombstone, partition, 1L).getPayload()[1]).length);
+    }
+
+    static StandInKafkaConsumer newConsumer() {
+        return new StandInKafkaConsumer(Arrays.asList(new TopicPartition("s", 0)), 10, 0);
+    }
+
+    static KeyValue taskConfig(String reconcile) {
+        KeyValue config = new DefaultKeyValue();
+        config.put(ConfigDefine.BOOTSTRAP_SERVER, "127.0.0.1:9092");
+        config.put(ConfigDefine.GROUP_ID, "connector-consumer-group-test");
+        config.put(ConfigDefine.TOPICS, "s");
+        if (reconcile != null) {
+            config.put(ConfigDefine.POSITION_RECONCILE, reconcile);
+        }
+        return config;
+    }
+
+    static KafkaSourceTask startTask(StandInKafkaConsumer consumer, TestSourceTaskContext context) {
+        KafkaSourceTask task = new KafkaSourceTask() {
+            @Override
+            protected Consumer<ByteBuffer, ByteBuffer> createConsumer(Properties props) {
+                return consumer;
+            }
+        };
+        task.initialize(context);
+        task.start(context.configs());
+        return task;
+    }
+
+    private static long firstOffset(Collection<SourceDataEntry> entries) {
+        return PositionCodec.decodeLong(entries.iterator().next().getSourcePosition());
+    }
+
+    private static long lastOffset(Collection<SourceDataEntry> entries) {
+        long last = -1;
+        for (SourceDataEntry entry : entries) {
+            last = PositionCodec.decodeLong(entry.getSourcePosition());
+        }
+        return last;
+    }
 }
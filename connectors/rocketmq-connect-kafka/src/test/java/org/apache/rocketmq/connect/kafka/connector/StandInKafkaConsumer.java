@@ -0,0 +1,182 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.kafka.connector;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.clients.consumer.OffsetCommitCallback;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+
+/**
+ * A consumer standing in for a broker connection: every partition holds an endless log, polls hand out prefetched
+ * records, and a seek throws the prefetched data away so the next poll pays one fetch round trip. Asynchronous commits
+ * complete on the next poll or commit, like the real consumer, unless they are held back.
+ */
+public class StandInKafkaConsumer extends MockConsumer<ByteBuffer, ByteBuffer> {
+
+    private final List<TopicPartition> partitions;
+
+    private final int recordsPerPoll;
+
+    private final long fetchLatencyMs;
+
+    private final Map<TopicPartition, Long> nextOffsets = new HashMap<>();
+
+    private final byte[] value = new byte[256];
+
+    private ConsumerRebalanceListener listener;
+
+    private boolean pendingAssignment;
+
+    private boolean prefetched;
+
+    private long fetchCount;
+
+    private final Map<TopicPartition, Long> committedOffsets = new HashMap<>();
+
+    private final List<Map<TopicPartition, OffsetAndMetadata>> pendingCommits = new ArrayList<>();
+
+    private final List<OffsetCommitCallback> pendingCallbacks = new ArrayList<>();
+
+    private boolean holdCommits;
+
+    private long asyncCommitCount;
+
+    private long syncCommitCount;
+
+    public StandInKafkaConsumer(List<TopicPartition> partitions, int recordsPerPoll, long fetchLatencyMs) {
+        super(OffsetResetStrategy.EARLIEST);
+        this.partitions = partitions;
+        this.recordsPerPoll = recordsPerPoll;
+        this.fetchLatencyMs = fetchLatencyMs;
+    }
+
+    @Override
+    public synchronized void subscribe(Collection<String> topics, ConsumerRebalanceListener listener) {
+        super.subscribe(topics, listener);
+        this.listener = listener;
+        this.pendingAssignment = true;
+    }
+
+    @Override
+    public synchronized ConsumerRecords<ByteBuffer, ByteBuffer> poll(long timeout) {
+        completePendingCommits();
+        if (pendingAssignment) {
+            pendingAssignment = false;
+            rebalance(partitions);
+            listener.onPartitionsAssigned(partitions);
+        }
+        if (!prefetched) {
+            fetchCount++;
+            prefetched = true;
+            try {
+                Thread.sleep(fetchLatencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Map<TopicPartition, List<ConsumerRecord<ByteBuffer, ByteBuffer>>> records = new HashMap<>();
+        int perPartition = Math.max(1, recordsPerPoll / partitions.size());
+        for (TopicPartition tp : partitions) {
+            long offset = nextOffsets.getOrDefault(tp, 0L);
+            List<ConsumerRecord<ByteBuffer, ByteBuffer>> list = new ArrayList<>(perPartition);
+            for (int i = 0; i < perPartition; i++) {
+                list.add(new ConsumerRecord<>(tp.topic(), tp.partition(), offset + i, null, ByteBuffer.wrap(value)));
+            }
+            nextOffsets.put(tp, offset + perPartition);
+            records.put(tp, list);
+        }
+        return new ConsumerRecords<>(records);
+    }
+
+    @Override
+    public synchronized void seek(TopicPartition partition, long offset) {
+        nextOffsets.put(partition, offset);
+        prefetched = false;
+    }
+
+    @Override
+    public synchronized long position(TopicPartition partition) {
+        return nextOffsets.getOrDefault(partition, 0L);
+    }
+
+    @Override
+    public synchronized void commitAsync(Map<TopicPartition, OffsetAndMetadata> offsets, OffsetCommitCallback callback) {
+        asyncCommitCount++;
+        pendingCommits.add(new HashMap<>(offsets));
+        pendingCallbacks.add(callback);
+    }
+
+    @Override
+    public synchronized void commitSync(Map<TopicPartition, OffsetAndMetadata> offsets) {
+        completePendingCommits();
+        syncCommitCount++;
+        store(offsets);
+    }
+
+    private void completePendingCommits() {
+        if (holdCommits) {
+            return;
+        }
+        for (int i = 0; i < pendingCommits.size(); i++) {
+            store(pendingCommits.get(i));
+            pendingCallbacks.get(i).onComplete(pendingCommits.get(i), null);
+        }
+        pendingCommits.clear();
+        pendingCallbacks.clear();
+    }
+
+    private void store(Map<TopicPartition, OffsetAndMetadata> offsets) {
+        for (Map.Entry<TopicPartition, OffsetAndMetadata> entry : offsets.entrySet()) {
+            committedOffsets.put(entry.getKey(), entry.getValue().offset());
+        }
+    }
+
+    /**
+     * Keep asynchronous commits in flight until released.
+     */
+    public synchronized void setHoldCommits(boolean holdCommits) {
+        this.holdCommits = holdCommits;
+    }
+
+    public synchronized Long getCommittedOffset(TopicPartition partition) {
+        return committedOffsets.get(partition);
+    }
+
+    public synchronized long getAsyncCommitCount() {
+        return asyncCommitCount;
+    }
+
+    public synchronized long getSyncCommitCount() {
+        return syncCommitCount;
+    }
+
+    public synchronized long getFetchCount() {
+        return fetchCount;
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.kafka.connector;
+
+import io.openmessaging.KeyValue;
+import io.openmessaging.connector.api.PositionStorageReader;
+import io.openmessaging.connector.api.data.SourceDataEntry;
+import io.openmessaging.connector.api.source.SourceTaskContext;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Plays the runtime: keeps positions in memory and acknowledges polled entries the way WorkerSourceTask does.
+ */
+public class TestSourceTaskContext implements SourceTaskContext {
+
+    private final Map<ByteBuffer, ByteBuffer> positions = new ConcurrentHashMap<>();
+
+    private final KeyValue configs;
+
+    public TestSourceTaskContext(KeyValue configs) {
+        this.configs = configs;
+    }
+
+    /**
+     * Store the position of the last entry of every partition, as a fully successful send does.
+     */
+    public void acknowledge(Collection<SourceDataEntry> entries) {
+        if (entries == null) {
+            return;
+        }
+        for (SourceDataEntry entry : entries) {
+            positions.put(entry.getSourcePartition(), entry.getSourcePosition());
+        }
+    }
+
+    public Map<ByteBuffer, ByteBuffer> getPositionTable() {
+        return positions;
+    }
+
+    @Override
+    public PositionStorageReader positionStorageReader() {
+        return new PositionStorageReader() {
+            @Override
+            public ByteBuffer getPosition(ByteBuffer partition) {
+                return positions.get(partition);
+            }
+
+            @Override
+            public Map<ByteBuffer, ByteBuffer> getPositions(Collection<ByteBuffer> partitions) {
+                Map<ByteBuffer, ByteBuffer> result = new HashMap<>();
+                for (ByteBuffer partition : partitions) {
+                    if (positions.containsKey(partition)) {
+                        result.put(partition, positions.get(partition));
+                    }
+                }
+                return result;
+            }
+        };
+    }
+
+    @Override
+    public KeyValue configs() {
+        return configs;
+    }
+}
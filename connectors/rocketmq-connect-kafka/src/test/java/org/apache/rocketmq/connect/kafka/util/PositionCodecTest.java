@@ -0,0 +1,40 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.kafka.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PositionCodecTest {
+
+    @Test
+    public void testWireFormat() {
+        //和runtime的PositionCodec用同样的字节校验
+        ByteBuffer expected = ByteBuffer.wrap(new byte[] {(byte) 0xFE, 0, 0, 0, 0, 0, 0, 0x6E, 0x4C});
+        Assert.assertEquals(expected, PositionCodec.encodeLong(28236L));
+        Assert.assertEquals(28236L, PositionCodec.decodeLong(expected));
+        Assert.assertEquals(-1L, PositionCodec.decodeLong(PositionCodec.encodeLong(-1L)));
+    }
+
+    @Test
+    public void testDecodeLegacyPosition() {
+        Assert.assertEquals(28236L, PositionCodec.decodeLong(ByteBuffer.wrap("28236".getBytes(StandardCharsets.UTF_8))));
+    }
+}
@@ -46,6 +46,7 @@ public class SourceTaskConfig {
     private String trustStore;
     private String trustStorePassword;
     private int copyThread = Runtime.getRuntime().availableProcessors();
+    private int dataEntryQueueSize = 10000;
 
     public static final Set<String> REQUEST_CONFIG = Collections.unmodifiableSet(new HashSet<String>() {
         {
@@ -213,6 +214,14 @@ public class SourceTaskConfig {
         this.copyThread = copyThread;
     }
 
+    public int getDataEntryQueueSize() {
+        return dataEntryQueueSize;
+    }
+
+    public void setDataEntryQueueSize(int dataEntryQueueSize) {
+        this.dataEntryQueueSize = dataEntryQueueSize;
+    }
+
     public void load(KeyValue props) {
 
         properties2Object(props, this);
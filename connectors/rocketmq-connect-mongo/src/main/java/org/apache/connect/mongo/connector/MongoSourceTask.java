@@ -42,9 +42,21 @@ public class MongoSourceTask extends SourceTask {
 
     private ReplicaSetsContext replicaSetsContext;
 
+    private static final String TASK_UID = "sys-uid";
+
+    private static final long LAG_UPDATE_INTERVAL = 10 * 1000;
+
+    //oplog的堆积,注册为MBean给runtime的自动扩缩容用
+    private final SourceTaskLag sourceLag = new SourceTaskLag();
+
+    private long nextLagUpdate = 0L;
+
     @Override
     public Collection<SourceDataEntry> poll() {
-
+        if (System.currentTimeMillis() > nextLagUpdate) {
+            updateLag();
+            nextLagUpdate = System.currentTimeMillis() + LAG_UPDATE_INTERVAL;
+        }
         return replicaSetsContext.poll();
     }
 
@@ -55,6 +67,7 @@ public class MongoSourceTask extends SourceTask {
             sourceTaskConfig.load(config);
 
             replicaSetsContext = new ReplicaSetsContext(sourceTaskConfig);
+            sourceLag.register(config.getString(TASK_UID));
 
             replicaSetManager = ReplicaSetManager.create(sourceTaskConfig.getMongoAddr());
 
@@ -87,9 +100,25 @@ public class MongoSourceTask extends SourceTask {
     @Override
     public void stop() {
         logger.info("shut down.....");
+        sourceLag.unregister();
         replicaSetsContext.shutdown();
     }
 
+    /**
+     * 堆积 = oplog最新的ts - 最后交给runtime的ts,单位秒,一个replica set算一个queue
+     */
+    void updateLag() {
+        try {
+            sourceLag.update(replicaSetsContext.lag(), replicaSetsContext.getReplicaSetNum());
+        } catch (Exception e) {
+            logger.warn("get oplog lag failed, {}", e.getMessage());
+        }
+    }
+
+    SourceTaskLag getSourceLag() {
+        return sourceLag;
+    }
+
     @Override
     public void pause() {
         logger.info("pause replica task...");
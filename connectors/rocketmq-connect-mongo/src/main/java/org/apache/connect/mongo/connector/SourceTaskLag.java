@@ -0,0 +1,72 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.connect.mongo.connector;
+
+import java.lang.management.ManagementFactory;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class SourceTaskLag implements SourceTaskLagMXBean {
+
+    private static final Logger log = LoggerFactory.getLogger(SourceTaskLag.class);
+
+    private volatile long lag = -1;
+
+    private volatile int queueNum;
+
+    private ObjectName objectName;
+
+    public void update(long lag, int queueNum) {
+        this.lag = lag;
+        this.queueNum = queueNum;
+    }
+
+    public void register(String taskUid) {
+        try {
+            objectName = new ObjectName("org.apache.rocketmq.connect:type=SourceTaskLag,task=" + ObjectName.quote(taskUid));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        } catch (Exception e) {
+            objectName = null;
+            log.warn("register source task lag failed", e);
+        }
+    }
+
+    public void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (Exception e) {
+            log.warn("unregister source task lag failed", e);
+        } finally {
+            objectName = null;
+        }
+    }
+
+    @Override
+    public long getLag() {
+        return lag;
+    }
+
+    @Override
+    public int getQueueNum() {
+        return queueNum;
+    }
+}
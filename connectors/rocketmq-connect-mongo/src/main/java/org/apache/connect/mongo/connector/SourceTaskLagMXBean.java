@@ -0,0 +1,32 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.connect.mongo.connector;
+
+/**
+ * Oplog lag of one mongo source task, read by the runtime auto scaler. The object name and attribute names follow
+ * the runtime's {@code SourceTaskLag}: {@code org.apache.rocketmq.connect:type=SourceTaskLag,task=<quoted sys-uid>}.
+ */
+public interface SourceTaskLagMXBean {
+
+    /**
+     * Seconds between the newest oplog entry and the last polled one, summed over the replica sets, -1 if unknown.
+     */
+    long getLag();
+
+    int getQueueNum();
+}
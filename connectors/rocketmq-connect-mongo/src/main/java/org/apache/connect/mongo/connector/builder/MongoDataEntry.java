@@ -26,6 +26,8 @@ import io.openmessaging.connector.api.data.SourceDataEntry;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.connect.mongo.replicator.Constants;
 import org.apache.connect.mongo.replicator.Position;
 import org.apache.connect.mongo.replicator.ReplicaSetConfig;
@@ -46,12 +48,16 @@ public class MongoDataEntry {
     private static String SCHEMA_CREATED_NAME = "mongo_created";
     private static String SCHEMA_OPLOG_NAME = "mongo_oplog";
 
+    //schema只和replica set有关,每个replica set只构建一次,不用每个事件都构建
+    private static final Map<String, Schema> CREATED_SCHEMAS = new ConcurrentHashMap<>();
+    private static final Map<String, Schema> OPLOG_SCHEMAS = new ConcurrentHashMap<>();
+
     public static SourceDataEntry createSouceDataEntry(ReplicationEvent event, ReplicaSetConfig replicaSetConfig) {
 
         DataEntryBuilder dataEntryBuilder;
 
         if (event.getOperationType().equals(OperationType.CREATED)) {
-            Schema schema = createdSchema(replicaSetConfig.getReplicaSetName());
+            Schema schema = CREATED_SCHEMAS.computeIfAbsent(replicaSetConfig.getReplicaSetName(), MongoDataEntry::createdSchema);
             dataEntryBuilder = new DataEntryBuilder(schema);
             dataEntryBuilder.timestamp(System.currentTimeMillis())
                 .queue(event.getNamespace().replace(".", "-").replace("$", "-"))
@@ -61,7 +67,7 @@ public class MongoDataEntry {
             dataEntryBuilder.putFiled(NAMESPACE, event.getNamespace());
 
         } else {
-            Schema schema = oplogSchema(replicaSetConfig.getReplicaSetName());
+            Schema schema = OPLOG_SCHEMAS.computeIfAbsent(replicaSetConfig.getReplicaSetName(), MongoDataEntry::oplogSchema);
             dataEntryBuilder = new DataEntryBuilder(schema);
             dataEntryBuilder.timestamp(System.currentTimeMillis())
                 .queue(event.getNamespace().replace(".", "-").replace("$", "-"))
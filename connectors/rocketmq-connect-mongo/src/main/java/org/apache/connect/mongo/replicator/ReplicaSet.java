@@ -25,6 +25,8 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.commons.lang3.StringUtils;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -82,6 +84,23 @@ public class ReplicaSet {
         throw new IllegalStateException(String.format("url:%s,  is not replica", replicaSetConfig.getHost()));
     }
 
+    /**
+     * @return ts of the newest oplog entry, null if the replica set is not connected
+     */
+    public BsonTimestamp lastOplogTimestamp() {
+        if (mongoClient == null || !isRuning()) {
+            return null;
+        }
+        MongoDatabase localDataBase = mongoClient.getDatabase(MONGO_LOCAL_DATABASE);
+        Document lastOplog = localDataBase.getCollection(MONGO_OPLOG_RS).find()
+            .sort(new Document("$natural", -1)).limit(1).first();
+        return lastOplog == null ? null : lastOplog.get(Constants.TIMESTAMP, BsonTimestamp.class);
+    }
+
+    public ReplicaSetConfig getReplicaSetConfig() {
+        return replicaSetConfig;
+    }
+
     public void shutdown() {
         if (running.compareAndSet(true, false)) {
             if (!this.executorService.isShutdown()) {
@@ -17,20 +17,25 @@
 
 package org.apache.connect.mongo.replicator;
 
+import com.alibaba.fastjson.JSONObject;
 import com.mongodb.client.MongoClient;
 import io.openmessaging.connector.api.data.SourceDataEntry;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.connect.mongo.SourceTaskConfig;
 import org.apache.connect.mongo.connector.builder.MongoDataEntry;
 import org.apache.connect.mongo.initsync.CollectionMeta;
 import org.apache.connect.mongo.replicator.event.ReplicationEvent;
+import org.bson.BsonTimestamp;
 
 public class ReplicaSetsContext {
 
@@ -42,15 +47,20 @@ public class ReplicaSetsContext {
 
     private AtomicBoolean initSyncAbort = new AtomicBoolean();
 
+    private volatile boolean running = true;
+
     private OperationFilter operationFilter;
 
     private MongoClientFactory mongoClientFactory;
 
+    //每个replica set最后交给runtime的一条数据,算oplog的堆积用
+    private Map<String, SourceDataEntry> lastPolled = new ConcurrentHashMap<>();
+
 
     public ReplicaSetsContext(SourceTaskConfig taskConfig) {
         this.taskConfig = taskConfig;
         this.replicaSets = new ArrayList<>();
-        this.dataEntryQueue = new LinkedBlockingDeque<>();
+        this.dataEntryQueue = new LinkedBlockingDeque<>(taskConfig.getDataEntryQueueSize());
         this.operationFilter = new OperationFilter(taskConfig);
         this.mongoClientFactory = new MongoClientFactory(taskConfig);
     }
@@ -76,6 +86,7 @@ public class ReplicaSetsContext {
     }
 
     public void shutdown() {
+        running = false;
         replicaSets.forEach(ReplicaSet::shutdown);
     }
 
@@ -89,10 +100,12 @@ public class ReplicaSetsContext {
 
     public void publishEvent(ReplicationEvent event, ReplicaSetConfig replicaSetConfig) {
         SourceDataEntry sourceDataEntry = MongoDataEntry.createSouceDataEntry(event, replicaSetConfig);
-        while (true) {
+        //队列满了读oplog的线程在这里等task poll,task停了就不再等
+        while (running) {
             try {
-                dataEntryQueue.put(sourceDataEntry);
-                break;
+                if (dataEntryQueue.offer(sourceDataEntry, 1000, TimeUnit.MILLISECONDS)) {
+                    break;
+                }
             } catch (InterruptedException e) {
             }
         }
@@ -107,9 +120,47 @@ public class ReplicaSetsContext {
             } catch (InterruptedException e) {
             }
         }
+        for (SourceDataEntry entry : res) {
+            lastPolled.put(new String(entry.getSourcePartition().array(), StandardCharsets.UTF_8), entry);
+        }
         return res;
     }
 
+    /**
+     * 堆积 = oplog最新的ts - 最后交给runtime的ts,单位秒,各replica set相加。还没交过数据或者在全量同步时按
+     * 开始读oplog的位点算
+     *
+     * @return lag in seconds, -1 if no replica set is connected
+     */
+    public long lag() {
+        long lag = -1;
+        for (ReplicaSet replicaSet : replicaSets) {
+            BsonTimestamp head = replicaSet.lastOplogTimestamp();
+            if (head == null) {
+                continue;
+            }
+            ReplicaSetConfig replicaSetConfig = replicaSet.getReplicaSetConfig();
+            Position applied = replicaSetConfig.getPosition();
+            SourceDataEntry entry = lastPolled.get(replicaSetConfig.getReplicaSetName());
+            if (entry != null) {
+                Position polled = JSONObject.parseObject(new String(entry.getSourcePosition().array(),
+                    StandardCharsets.UTF_8), Position.class);
+                if (polled.getTimeStamp() > 0) {
+                    applied = polled;
+                }
+            }
+            if (applied == null || applied.getTimeStamp() <= 0) {
+                continue;
+            }
+            lag = Math.max(lag, 0) + Math.max(0, head.getTime() - applied.getTimeStamp());
+        }
+        return lag;
+    }
+
+    public int getReplicaSetNum() {
+        return replicaSets.size();
+    }
+
     public boolean isInitSyncAbort() {
         return initSyncAbort.get();
     }
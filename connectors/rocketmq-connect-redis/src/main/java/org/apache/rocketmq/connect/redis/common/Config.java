@@ -68,6 +68,10 @@ public class Config {
 
     private Integer eventCommitRetryTimes = RedisConstants.EVENT_COMMIT_RETRY_TIMES;
     private Long eventCommitRetryInterval = RedisConstants.EVENT_COMMIT_RETRY_INTERVAL;
+    /**
+     * Max events cached between the replicator and the task, the replicator waits when it is full.
+     */
+    private Integer eventQueueSize = RedisConstants.EVENT_QUEUE_SIZE;
 
     public static final Set<String> REQUEST_CONFIG = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
         "redisAddr",
@@ -234,4 +238,12 @@ public class Config {
         this.eventCommitRetryInterval = eventCommitRetryInterval;
     }
 
+    public Integer getEventQueueSize() {
+        return eventQueueSize;
+    }
+
+    public void setEventQueueSize(Integer eventQueueSize) {
+        this.eventQueueSize = eventQueueSize;
+    }
+
 }
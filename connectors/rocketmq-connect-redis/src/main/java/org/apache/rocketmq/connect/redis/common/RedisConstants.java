@@ -42,5 +42,11 @@ public class RedisConstants {
 
     public static final Integer EVENT_COMMIT_RETRY_TIMES = 5;
     public static final Long EVENT_COMMIT_RETRY_INTERVAL = 100L;
+    public static final Integer EVENT_QUEUE_SIZE = 50000;
+
+    /**
+     * task uid the runtime puts in the task config, the source task lag MBean is registered under it.
+     */
+    public static final String TASK_UID = "sys-uid";
 
 }
@@ -27,6 +27,7 @@ import io.openmessaging.connector.api.data.SourceDataEntry;
 import io.openmessaging.connector.api.source.SourceTask;
 import org.apache.rocketmq.connect.redis.common.Config;
 import org.apache.rocketmq.connect.redis.common.Options;
+import org.apache.rocketmq.connect.redis.common.RedisConstants;
 import org.apache.rocketmq.connect.redis.converter.KVEntryConverter;
 import org.apache.rocketmq.connect.redis.converter.RedisEntryConverter;
 import org.apache.rocketmq.connect.redis.handler.DefaultRedisEventHandler;
@@ -36,6 +37,7 @@ import org.apache.rocketmq.connect.redis.processor.DefaultRedisEventProcessor;
 import org.apache.rocketmq.connect.redis.processor.RedisEventProcessor;
 import org.apache.rocketmq.connect.redis.converter.RedisPositionConverter;
 import org.apache.rocketmq.connect.redis.processor.RedisEventProcessorCallback;
+import org.apache.rocketmq.connect.redis.util.SourceTaskLag;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -50,6 +52,12 @@ public class RedisSourceTask extends SourceTask {
      * convert kVEntry to list of sourceDataEntry
      */
     private KVEntryConverter kvEntryConverter;
+    /**
+     * 复制的堆积,注册为MBean给runtime的自动扩缩容用
+     */
+    private final SourceTaskLag sourceLag = new SourceTaskLag();
+    private static final long LAG_UPDATE_INTERVAL = 10 * 1000;
+    private long nextLagUpdate = 0L;
 
     public RedisEventProcessor getEventProcessor() {
         return eventProcessor;
@@ -66,6 +74,10 @@ public class RedisSourceTask extends SourceTask {
 
     @Override public Collection<SourceDataEntry> poll() {
         try {
+            if (System.currentTimeMillis() > nextLagUpdate) {
+                updateLag();
+                nextLagUpdate = System.currentTimeMillis() + LAG_UPDATE_INTERVAL;
+            }
             KVEntry event = this.eventProcessor.poll();
             if (event == null) {
                 return null;
@@ -104,6 +116,7 @@ public class RedisSourceTask extends SourceTask {
         }
         LOGGER.info("task load connector runtime position: {}", this.config.getPosition());
 
+        this.sourceLag.register(keyValue.getString(RedisConstants.TASK_UID));
         this.eventProcessor = new DefaultRedisEventProcessor(config);
         RedisEventHandler eventHandler = new DefaultRedisEventHandler(this.config);
         this.eventProcessor.registEventHandler(eventHandler);
@@ -119,6 +132,7 @@ public class RedisSourceTask extends SourceTask {
 
 
     @Override public void stop() {
+        this.sourceLag.unregister();
         if (this.eventProcessor != null) {
             try {
                 this.eventProcessor.stop();
@@ -139,6 +153,21 @@ public class RedisSourceTask extends SourceTask {
 
     }
 
+    /**
+     * 堆积 = master repl offset - 最后处理的事件的offset,一个task只读一个master
+     */
+    private void updateLag() {
+        try {
+            sourceLag.update(this.eventProcessor.lag(), 1);
+        } catch (Exception e) {
+            LOGGER.warn("get redis master repl offset failed, {}", e.getMessage());
+        }
+    }
+
+    public SourceTaskLag getSourceLag() {
+        return sourceLag;
+    }
+
     private class DefaultRedisEventProcessorCallback implements RedisEventProcessorCallback {
         @Override public void onStop(RedisEventProcessor eventProcessor) {
             stop();
@@ -27,6 +27,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.rocketmq.connect.redis.common.Options;
 import org.apache.rocketmq.connect.redis.converter.KVEntryConverter;
@@ -34,6 +35,8 @@ import org.apache.rocketmq.connect.redis.pojo.KVEntry;
 
 public class RedisEntryConverter implements KVEntryConverter {
     private final int maxValueSize = 500;
+    //schema只和value类型有关,每种类型只构建一次
+    private final Map<FieldType, Schema> schemaCache = new ConcurrentHashMap<>();
 
     @Override public List<SourceDataEntry> kVEntryToDataEntries(KVEntry kvEntry) {
         Schema schema = getRedisSchema(kvEntry.getValueType());
@@ -52,7 +55,7 @@ public class RedisEntryConverter implements KVEntryConverter {
 
             SourceDataEntry entry = builder.buildSourceDataEntry(
                 ByteBuffer.wrap(kvEntry.getPartition().getBytes()),
-                ByteBuffer.wrap(RedisPositionConverter.longToJson(kvEntry.getOffset()).toJSONString().getBytes())
+                RedisPositionConverter.longToPosition(kvEntry.getOffset())
             );
             res.add(entry);
         }
@@ -118,6 +121,10 @@ public class RedisEntryConverter implements KVEntryConverter {
     }
 
     private Schema getRedisSchema(FieldType valueType) {
+        return schemaCache.computeIfAbsent(valueType, this::newRedisSchema);
+    }
+
+    private Schema newRedisSchema(FieldType valueType) {
         Schema schema = new Schema();
         schema.setDataSource(Options.REDIS_DATASOURCE.name());
         List<Field> fields = new ArrayList<>();
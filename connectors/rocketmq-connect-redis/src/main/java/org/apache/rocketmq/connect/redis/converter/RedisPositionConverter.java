@@ -29,12 +29,32 @@ import org.slf4j.LoggerFactory;
 public class RedisPositionConverter {
     private static final Logger LOGGER = LoggerFactory.getLogger(RedisPositionConverter.class);
 
+    /**
+     * Wire format of {@code org.apache.rocketmq.connect.runtime.utils.PositionCodec}, which documents it: the marker
+     * 0xFE followed by the 8 byte big-endian offset. The connector is built without the runtime, encodeLong and
+     * decodeLong below are a copy of the runtime's, RedisPositionConverterTest checks the same example bytes.
+     */
+    private static final byte LONG_MARKER = (byte) 0xFE;
+
+    private static final int LONG_POSITION_LENGTH = 1 + Long.BYTES;
+
+    /**
+     * Read a position written by {@link #longToPosition(Long)}, or a legacy json / decimal position.
+     */
     public static Long jsonToLong(ByteBuffer byteBuffer){
         if(byteBuffer == null){
             return null;
         }
+        if (isLong(byteBuffer)) {
+            return decodeLong(byteBuffer);
+        }
         try {
-            String positionJson = new String(byteBuffer.array(), "UTF-8");
+            byte[] bytes = new byte[byteBuffer.remaining()];
+            byteBuffer.duplicate().get(bytes);
+            String positionJson = new String(bytes, "UTF-8").trim();
+            if (!positionJson.isEmpty() && positionJson.charAt(0) != '{') {
+                return Long.parseLong(positionJson);
+            }
             JSONObject jsonObject = JSONObject.parseObject(positionJson);
             if(jsonObject != null){
                 Long position = jsonObject.getLong(RedisConstants.POSITION);
@@ -42,6 +62,8 @@ public class RedisPositionConverter {
             }
         } catch (UnsupportedEncodingException e) {
             LOGGER.error("position encoding error. {}", e);
+        } catch (NumberFormatException e) {
+            LOGGER.error("position format error. {}", e);
         }
         return null;
     }
@@ -51,4 +73,37 @@ public class RedisPositionConverter {
         jsonObject.put(RedisConstants.POSITION, replOffset);
         return jsonObject;
     }
+
+    /**
+     * Fixed width binary position, falls back to json when there is no offset.
+     */
+    public static ByteBuffer longToPosition(Long replOffset) {
+        if (replOffset == null) {
+            return ByteBuffer.wrap(longToJson(null).toJSONString().getBytes());
+        }
+        return encodeLong(replOffset);
+    }
+
+    static ByteBuffer encodeLong(long position) {
+        byte[] bytes = new byte[LONG_POSITION_LENGTH];
+        bytes[0] = LONG_MARKER;
+        for (int i = LONG_POSITION_LENGTH - 1; i > 0; i--) {
+            bytes[i] = (byte) position;
+            position >>>= 8;
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    static boolean isLong(ByteBuffer position) {
+        return position.remaining() == LONG_POSITION_LENGTH && position.get(position.position()) == LONG_MARKER;
+    }
+
+    static long decodeLong(ByteBuffer position) {
+        long value = 0;
+        int offset = position.position() + 1;
+        for (int i = 0; i < Long.BYTES; i++) {
+            value = (value << 8) | (position.get(offset + i) & 0xFF);
+        }
+        return value;
+    }
 }
@@ -141,9 +141,9 @@ import redis.clients.jedis.JedisPoolConfig;
 public class DefaultRedisEventProcessor implements RedisEventProcessor {
     protected final Logger LOGGER = LoggerFactory.getLogger(DefaultRedisEventProcessor.class);
     /**
-     * redis event cache.
+     * redis event cache, bounded by eventQueueSize.
      */
-    protected BlockingQueue<RedisEvent> eventQueue = new LinkedBlockingQueue(50000);
+    protected BlockingQueue<RedisEvent> eventQueue;
     protected Config config;
     private volatile AtomicBoolean stop = new AtomicBoolean(true);
     /**
@@ -170,6 +170,11 @@ public class DefaultRedisEventProcessor implements RedisEventProcessor {
 
     private List<RedisEventProcessorCallback> redisEventProcessorCallbacks = new CopyOnWriteArrayList<>();
 
+    /**
+     * offset of the last polled event, -1 before the first one.
+     */
+    private volatile long processedOffset = -1;
+
     private final Integer pollTimeout = 1000;
     private final Integer offerTimeout = 1000;
     /**
@@ -179,6 +184,7 @@ public class DefaultRedisEventProcessor implements RedisEventProcessor {
      */
     public DefaultRedisEventProcessor(Config config) {
         this.config = config;
+        this.eventQueue = new LinkedBlockingQueue<>(config.getEventQueueSize());
         this.pool = getJedisPool(config);
 
         this.parserCache = new ParserCache();
@@ -257,6 +263,9 @@ public class DefaultRedisEventProcessor implements RedisEventProcessor {
         if (event == null) {
             return null;
         }
+        if (event.getReplOffset() != null) {
+            this.processedOffset = event.getReplOffset();
+        }
         if (event.getEvent() instanceof KeyValuePair) {
             if (event.getEvent() instanceof BatchedKeyValuePair) {
                 return redisEventHandler.handleBatchKVString(event.getReplId(), event.getReplOffset(),
@@ -277,6 +286,25 @@ public class DefaultRedisEventProcessor implements RedisEventProcessor {
         return this.stop.get();
     }
 
+    @Override public long lag() throws Exception {
+        long processed = this.processedOffset;
+        if (processed < 0) {
+            // 还没处理过事件,按开始同步的位点算
+            processed = this.config.getOffset() == null ? -1 : this.config.getOffset();
+        }
+        if (processed < 0) {
+            return -1;
+        }
+        try (Jedis jedis = this.pool.getResource()) {
+            Map<String, String> info = ParseStringUtils.parseRedisInfo2Map(jedis.info(RedisConstants.REDIS_INFO_REPLICATION));
+            String offset = info.get(RedisConstants.REDIS_INFO_REPLICATION_MASTER_REPL_OFFSET);
+            if (StringUtils.isBlank(offset)) {
+                return -1;
+            }
+            return Math.max(0, Long.parseLong(offset.trim()) - processed);
+        }
+    }
+
     /**
      * start redis replicator async
      *
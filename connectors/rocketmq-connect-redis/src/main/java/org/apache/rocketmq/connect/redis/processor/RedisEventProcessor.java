@@ -37,4 +37,9 @@ public interface RedisEventProcessor {
     KVEntry poll() throws Exception;
 
     boolean isStopped();
+
+    /**
+     * master repl offset minus the offset of the last polled event, -1 if unknown.
+     */
+    long lag() throws Exception;
 }
@@ -28,9 +28,12 @@ import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.Map;
 import org.apache.rocketmq.connect.redis.connector.RedisSourceTask;
+import org.apache.rocketmq.connect.redis.handler.RedisEventHandler;
+import org.apache.rocketmq.connect.redis.pojo.KVEntry;
 import org.apache.rocketmq.connect.redis.pojo.RedisEvent;
 import org.apache.rocketmq.connect.redis.processor.DefaultRedisEventProcessor;
 import org.apache.rocketmq.connect.redis.processor.RedisEventProcessor;
+import org.apache.rocketmq.connect.redis.processor.RedisEventProcessorCallback;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -116,6 +119,23 @@ public class RedisSourceTaskTest {
         redisSourceTask2.poll();
     }
 
+    @Test
+    public void testSourceLag() {
+        LagProcessor processor = new LagProcessor();
+        processor.lag = 100L;
+
+        RedisSourceTask redisSourceTask = new RedisSourceTask();
+        redisSourceTask.setEventProcessor(processor);
+        redisSourceTask.poll();
+        Assert.assertEquals(100L, redisSourceTask.getSourceLag().getLag());
+        Assert.assertEquals(1, redisSourceTask.getSourceLag().getQueueNum());
+
+        // 拿不到master的offset时保留上次的值
+        processor.lag = null;
+        redisSourceTask.poll();
+        Assert.assertEquals(100L, redisSourceTask.getSourceLag().getLag());
+    }
+
     @After
     public void stopTask() {
         if (this.task != null) {
@@ -140,6 +160,41 @@ public class RedisSourceTaskTest {
         return redisEvent;
     }
 
+    private static class LagProcessor implements RedisEventProcessor {
+        private Long lag;
+
+        @Override public void registEventHandler(RedisEventHandler eventHandler) {
+        }
+
+        @Override public void registProcessorCallback(RedisEventProcessorCallback redisEventProcessorCallback) {
+        }
+
+        @Override public void start() {
+        }
+
+        @Override public void stop() {
+        }
+
+        @Override public boolean commit(RedisEvent event) {
+            return false;
+        }
+
+        @Override public KVEntry poll() {
+            return null;
+        }
+
+        @Override public boolean isStopped() {
+            return false;
+        }
+
+        @Override public long lag() {
+            if (lag == null) {
+                throw new IllegalStateException("redis down");
+            }
+            return lag;
+        }
+    }
+
     private void initKeyValue() {
         this.keyValue = new DefaultKeyValue();
         this.keyValue.put("redisAddr", "127.0.0.1");
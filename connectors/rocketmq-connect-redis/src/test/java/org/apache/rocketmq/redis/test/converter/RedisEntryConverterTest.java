@@ -94,6 +94,17 @@ public class RedisEntryConverterTest {
         Assert.assertEquals("set", entryList.get(0).getPayload()[0]);
     }
 
+    @Test
+    public void testSchemaReusedPerValueType(){
+        KVEntryConverter converter = new RedisEntryConverter();
+        SourceDataEntry first = converter.kVEntryToDataEntries(getKVEntry()).get(0);
+        SourceDataEntry second = converter.kVEntryToDataEntries(getKVEntry()).get(0);
+        SourceDataEntry array = converter.kVEntryToDataEntries(getArrayKVEntry(1)).get(0);
+        Assert.assertSame(first.getSchema(), second.getSchema());
+        Assert.assertNotSame(first.getSchema(), array.getSchema());
+        Assert.assertEquals(FieldType.ARRAY, array.getSchema().getField(Options.REDIS_VALUE.name()).getType());
+    }
+
     private KVEntry getKVEntry(){
         KVEntry entry = new RedisEntry(FieldType.STRING);
         return entry.key("key")
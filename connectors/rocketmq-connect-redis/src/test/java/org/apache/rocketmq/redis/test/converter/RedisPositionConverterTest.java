@@ -39,6 +39,23 @@ public class RedisPositionConverterTest {
         Assert.assertEquals(10000L, (long)config.getPosition());
     }
 
+    @Test
+    public void testBinaryPosition(){
+        Assert.assertEquals(10000L, (long)RedisPositionConverter.jsonToLong(RedisPositionConverter.longToPosition(10000L)));
+        Assert.assertEquals(-1L, (long)RedisPositionConverter.jsonToLong(RedisPositionConverter.longToPosition(-1L)));
+        Assert.assertEquals(10000L, (long)RedisPositionConverter.jsonToLong(ByteBuffer.wrap("10000".getBytes())));
+        Assert.assertNull(RedisPositionConverter.jsonToLong(RedisPositionConverter.longToPosition(null)));
+    }
+
+    @Test
+    public void testWireFormat(){
+        //和runtime的PositionCodec用同样的字节校验
+        Assert.assertEquals(ByteBuffer.wrap(new byte[] {(byte) 0xFE, 0, 0, 0, 0, 0, 0, 0x6E, 0x4C}), RedisPositionConverter.longToPosition(28236L));
+        Assert.assertEquals(28236L, (long)RedisPositionConverter.jsonToLong(ByteBuffer.wrap(new byte[] {(byte) 0xFE, 0, 0, 0, 0, 0, 0, 0x6E, 0x4C})));
+        ByteBuffer sliced = ByteBuffer.wrap(new byte[] {1, (byte) 0xFE, 0, 0, 0, 0, 0, 0, 0x6E, 0x4C}, 1, 9).slice();
+        Assert.assertEquals(28236L, (long)RedisPositionConverter.jsonToLong(sliced));
+    }
+
     private Config getConfig(){
         Config config = new Config();
 
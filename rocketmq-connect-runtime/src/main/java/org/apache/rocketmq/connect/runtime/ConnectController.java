@@ -31,14 +31,21 @@ import org.apache.rocketmq.connect.runtime.service.ClusterManagementService;
 import org.apache.rocketmq.connect.runtime.service.ClusterManagementServiceImpl;
 import org.apache.rocketmq.connect.runtime.service.ConfigManagementService;
 import org.apache.rocketmq.connect.runtime.service.ConfigManagementServiceImpl;
+import org.apache.rocketmq.connect.runtime.service.ConsumerLagService;
 import org.apache.rocketmq.connect.runtime.service.OffsetManagementServiceImpl;
 import org.apache.rocketmq.connect.runtime.service.PositionManagementService;
 import org.apache.rocketmq.connect.runtime.service.PositionManagementServiceImpl;
 import org.apache.rocketmq.connect.runtime.service.RebalanceImpl;
 import org.apache.rocketmq.connect.runtime.service.RebalanceService;
+import org.apache.rocketmq.connect.runtime.service.SchemaRegistryService;
+import org.apache.rocketmq.connect.runtime.service.SchemaRegistryServiceImpl;
+import org.apache.rocketmq.connect.runtime.service.TaskAutoScaleService;
+import org.apache.rocketmq.connect.runtime.service.TaskStatusService;
 import org.apache.rocketmq.connect.runtime.service.strategy.AllocateTaskStrategy;
 import org.apache.rocketmq.connect.runtime.utils.ConnectUtil;
+import org.apache.rocketmq.connect.runtime.utils.FilePathConfigUtil;
 import org.apache.rocketmq.connect.runtime.utils.Plugin;
+import org.apache.rocketmq.connect.runtime.utils.PluginIndex;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -71,6 +78,11 @@ public class ConnectController {
      */
     private final PositionManagementService offsetManagementService;
 
+    /**
+     * Schema registry of SchemaBinaryConverter records, null if schemaRegistryEnable is off.
+     */
+    private final SchemaRegistryService schemaRegistryService;
+
     /**
      * Manage the online info of the cluster.
      */
@@ -81,6 +93,11 @@ public class ConnectController {
      */
     private final Worker worker;
 
+    /**
+     * Push task status of current worker to the cluster, and keep the status of the others.
+     */
+    private final TaskStatusService taskStatusService;
+
     /**
      * A REST handler, interacting with user.
      */
@@ -96,6 +113,16 @@ public class ConnectController {
      */
     private final RebalanceService rebalanceService;
 
+    /**
+     * Scale the task number of sink connectors by their consume lag.
+     */
+    private final TaskAutoScaleService taskAutoScaleService;
+
+    /**
+     * Tracks the consume lag of sink connectors.
+     */
+    private final ConsumerLagService consumerLagService;
+
     /**
      * Thread pool to run schedule task.
      */
@@ -117,7 +144,7 @@ public class ConnectController {
                 }
             }
         }
-        plugin = new Plugin(pluginPaths);
+        plugin = new Plugin(pluginPaths, new PluginIndex(FilePathConfigUtil.getPluginIndexPath(connectConfig.getStorePathRootDir())));
         plugin.initPlugin();
 
         this.connectConfig = connectConfig;
@@ -126,13 +153,17 @@ public class ConnectController {
         this.positionManagementService = new PositionManagementServiceImpl(connectConfig);
         this.offsetManagementService = new OffsetManagementServiceImpl(connectConfig);
         //创建一个worker
-        this.worker = new Worker(connectConfig, positionManagementService, offsetManagementService, plugin);
+        this.schemaRegistryService = connectConfig.isSchemaRegistryEnable() ? new SchemaRegistryServiceImpl(connectConfig) : null;
+        this.worker = new Worker(connectConfig, positionManagementService, offsetManagementService, plugin, schemaRegistryService);
         AllocateTaskStrategy strategy = ConnectUtil.initAllocateConnAndTaskStrategy(connectConfig);
 
         //worker传入到负载均衡中,然后会调用updateProcessConfigsInRebalance进而startConnectors和startTasks
         this.rebalanceImpl = new RebalanceImpl(worker, configManagementService, clusterManagementService, strategy, this);
+        this.taskStatusService = new TaskStatusService(connectConfig, worker, clusterManagementService);
         this.restHandler = new RestHandler(this);
         this.rebalanceService = new RebalanceService(rebalanceImpl, configManagementService, clusterManagementService);
+        this.taskAutoScaleService = new TaskAutoScaleService(connectConfig, configManagementService, clusterManagementService, taskStatusService, null);
+        this.consumerLagService = new ConsumerLagService(connectConfig, configManagementService, worker);
         this.scheduledExecutorService = Executors.newSingleThreadScheduledExecutor((Runnable r) -> new Thread(r, "ConnectScheduledThread"));
 
     }
@@ -143,8 +174,19 @@ public class ConnectController {
         configManagementService.start();
         positionManagementService.start();
         offsetManagementService.start();
+        if (schemaRegistryService != null) {
+            //task发第一条消息前要能注册schema
+            schemaRegistryService.start();
+        }
         worker.start();
         rebalanceService.start();
+        taskStatusService.start();
+        if (connectConfig.getAutoScaleInterval() > 0) {
+            taskAutoScaleService.start();
+        }
+        if (connectConfig.getLagTrackInterval() > 0) {
+            consumerLagService.start();
+        }
 
         // 持久化到内存或者磁盘的json文件中
         // TODO 如果一个新的节点上线就立刻开始执行任务，此时它本地肯定是没位移的，然后其他节点的消息还没发送过来位移还没merge，又会导致消息重复,所以新节点拉取消息的初始位移很重要
@@ -160,10 +202,40 @@ public class ConnectController {
                 log.error("schedule persist config error.", e);
             }
         }, 1000, this.connectConfig.getConfigPersistInterval(), TimeUnit.MILLISECONDS);
+
+        if (schemaRegistryService != null) {
+            this.scheduledExecutorService.scheduleAtFixedRate(() -> {
+                try {
+                    ConnectController.this.schemaRegistryService.persist();
+                } catch (Exception e) {
+                    log.error("schedule persist schema error.", e);
+                }
+            }, 1000, this.connectConfig.getConfigPersistInterval(), TimeUnit.MILLISECONDS);
+            //topic上的消息会过期,定期重新发一遍
+            this.scheduledExecutorService.scheduleAtFixedRate(() -> {
+                try {
+                    ConnectController.this.schemaRegistryService.republish();
+                } catch (Exception e) {
+                    log.error("schedule republish schema error.", e);
+                }
+            }, this.connectConfig.getSchemaRepublishInterval(), this.connectConfig.getSchemaRepublishInterval(), TimeUnit.MILLISECONDS);
+        }
     }
 
     public void shutdown() {
 
+        if (taskStatusService != null) {
+            taskStatusService.shutdown();
+        }
+
+        if (taskAutoScaleService != null && connectConfig.getAutoScaleInterval() > 0) {
+            taskAutoScaleService.shutdown();
+        }
+
+        if (consumerLagService != null && connectConfig.getLagTrackInterval() > 0) {
+            consumerLagService.shutdown();
+        }
+
         if (worker != null) {
             worker.stop();
         }
@@ -172,6 +244,10 @@ public class ConnectController {
             configManagementService.stop();
         }
 
+        if (schemaRegistryService != null) {
+            schemaRegistryService.stop();
+        }
+
         //stop时候内部会提交位移
         if (positionManagementService != null) {
             positionManagementService.stop();
@@ -219,6 +295,22 @@ public class ConnectController {
         return worker;
     }
 
+    public TaskStatusService getTaskStatusService() {
+        return taskStatusService;
+    }
+
+    public TaskAutoScaleService getTaskAutoScaleService() {
+        return taskAutoScaleService;
+    }
+
+    public SchemaRegistryService getSchemaRegistryService() {
+        return schemaRegistryService;
+    }
+
+    public ConsumerLagService getConsumerLagService() {
+        return consumerLagService;
+    }
+
     public RestHandler getRestHandler() {
         return restHandler;
     }
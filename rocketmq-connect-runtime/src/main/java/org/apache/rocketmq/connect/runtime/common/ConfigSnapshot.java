@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.rocketmq.connect.runtime.config.RuntimeConfigDefine;
+
+/**
+ * Immutable view of all connector and task configs at one version.
+ *
+ * The config management service publishes a new snapshot after every change, so readers never take a lock and a
+ * rebalance can tell from {@link #getVersion()} whether anything changed since it last ran. The connector and task
+ * configs inside a snapshot must not be modified, writers copy a config before changing it.
+ */
+public class ConfigSnapshot {
+
+    public static final ConfigSnapshot EMPTY = new ConfigSnapshot(0, Collections.emptyMap(), Collections.emptyMap());
+
+    private final long version;
+
+    private final Map<String, ConnectKeyValue> connectorConfigs;
+
+    private final Map<String, List<ConnectKeyValue>> taskConfigs;
+
+    /**
+     * The status lists used by the rebalance and the REST handlers, filtered once per snapshot.
+     */
+    private final Map<List<Integer>, Map<String, ConnectKeyValue>> connectorConfigsByStatus = new HashMap<>();
+
+    private final Map<List<Integer>, Map<String, List<ConnectKeyValue>>> taskConfigsByStatus = new HashMap<>();
+
+    public ConfigSnapshot(long version, Map<String, ConnectKeyValue> connectorConfigs,
+        Map<String, List<ConnectKeyValue>> taskConfigs) {
+        this.version = version;
+        this.connectorConfigs = Collections.unmodifiableMap(new HashMap<>(connectorConfigs));
+        Map<String, List<ConnectKeyValue>> tasks = new HashMap<>();
+        for (Map.Entry<String, List<ConnectKeyValue>> entry : taskConfigs.entrySet()) {
+            if (entry.getValue() != null) {
+                tasks.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
+            }
+        }
+        this.taskConfigs = Collections.unmodifiableMap(tasks);
+        for (List<Integer> status : Arrays.asList(RuntimeConfigDefine.CONFIG_ENABLE_LST, RuntimeConfigDefine.CONFIG_DISABLE_LST,
+            RuntimeConfigDefine.CONFIG_ENABLE_DISABLE_LST)) {
+            Map<String, ConnectKeyValue> connectors = filterConnectorConfigs(status);
+            connectorConfigsByStatus.put(status, connectors);
+            taskConfigsByStatus.put(status, filterTaskConfigs(connectors));
+        }
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return all connector configs, including the removed ones
+     */
+    public Map<String, ConnectKeyValue> getConnectorConfigs() {
+        return connectorConfigs;
+    }
+
+    /**
+     * @return all task configs, including those of removed connectors
+     */
+    public Map<String, List<ConnectKeyValue>> getTaskConfigs() {
+        return taskConfigs;
+    }
+
+    /**
+     * @param status {@link RuntimeConfigDefine#CONFIG_STATUS} values to keep, null for all
+     */
+    public Map<String, ConnectKeyValue> getConnectorConfigs(List<Integer> status) {
+        if (status == null) {
+            return connectorConfigs;
+        }
+        Map<String, ConnectKeyValue> result = connectorConfigsByStatus.get(status);
+        return result != null ? result : filterConnectorConfigs(status);
+    }
+
+    /**
+     * Task configs of the connectors in the given status, an empty list for a connector without tasks.
+     *
+     * @param status {@link RuntimeConfigDefine#CONFIG_STATUS} values to keep, null for all
+     */
+    public Map<String, List<ConnectKeyValue>> getTaskConfigs(List<Integer> status) {
+        if (status != null) {
+            Map<String, List<ConnectKeyValue>> result = taskConfigsByStatus.get(status);
+            if (result != null) {
+                return result;
+            }
+        }
+        return filterTaskConfigs(getConnectorConfigs(status));
+    }
+
+    private Map<String, ConnectKeyValue> filterConnectorConfigs(List<Integer> status) {
+        Map<String, ConnectKeyValue> result = new HashMap<>();
+        for (Map.Entry<String, ConnectKeyValue> entry : connectorConfigs.entrySet()) {
+            if (status.contains(entry.getValue().getInt(RuntimeConfigDefine.CONFIG_STATUS))) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    private Map<String, List<ConnectKeyValue>> filterTaskConfigs(Map<String, ConnectKeyValue> connectors) {
+        Map<String, List<ConnectKeyValue>> result = new HashMap<>();
+        for (String connectorName : connectors.keySet()) {
+            List<ConnectKeyValue> values = taskConfigs.get(connectorName);
+            result.put(connectorName, values == null ? Collections.emptyList() : values);
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    @Override
+    public String toString() {
+        return "ConfigSnapshot{" +
+            "version=" + version +
+            ", connectorConfigs=" + connectorConfigs.keySet() +
+            '}';
+    }
+}
@@ -29,6 +29,23 @@ public class ConnectorAndTaskConfigs {
     private Map<String, ConnectKeyValue> connectorConfigs = new HashMap<>();
     private Map<String, List<ConnectKeyValue>> taskConfigs = new HashMap<>();
 
+    /**
+     * Worker which sent the configs, null for messages of older workers.
+     */
+    private String workerId;
+
+    /**
+     * Config snapshot version of the sender when the configs were sent.
+     */
+    private long version;
+
+    /**
+     * Version of the previous message of the same sender for a delta, {@link #FULL_SYNC} when all configs are sent.
+     */
+    private long baseVersion = FULL_SYNC;
+
+    public static final long FULL_SYNC = -1;
+
     public Map<String, ConnectKeyValue> getConnectorConfigs() {
         return connectorConfigs;
     }
@@ -45,10 +62,41 @@ public class ConnectorAndTaskConfigs {
         this.taskConfigs = taskConfigs;
     }
 
+    public String getWorkerId() {
+        return workerId;
+    }
+
+    public void setWorkerId(String workerId) {
+        this.workerId = workerId;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public long getBaseVersion() {
+        return baseVersion;
+    }
+
+    public void setBaseVersion(long baseVersion) {
+        this.baseVersion = baseVersion;
+    }
+
+    public boolean isDelta() {
+        return baseVersion != FULL_SYNC;
+    }
+
     @Override public String toString() {
         return "ConnAndTaskConfigs{" +
             "connectorConfigs=" + connectorConfigs +
             ", taskConfigs=" + taskConfigs +
+            ", workerId=" + workerId +
+            ", version=" + version +
+            ", baseVersion=" + baseVersion +
             '}';
     }
 }
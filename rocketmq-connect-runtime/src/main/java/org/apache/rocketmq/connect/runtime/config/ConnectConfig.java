@@ -87,6 +87,11 @@ public class ConnectConfig {
      */
     private String offsetStoreTopic = "connector-offset-topic";
 
+    /**
+     * Default topic to send/query the schemas of the schema registry.
+     */
+    private String schemaStoreTopic = "connector-schema-topic";
+
     /**
      * Http port for REST API.
      */
@@ -107,6 +112,70 @@ public class ConnectConfig {
      */
     private int configPersistInterval = 20 * 1000;
 
+    /**
+     * How often a worker checks its task status and pushes it to the other workers when it changed.
+     */
+    private int taskStatusSyncInterval = 3 * 1000;
+
+    /**
+     * How long the aggregated cluster task view is served from cache by the REST API.
+     */
+    private int clusterViewCacheTtl = 2 * 1000;
+
+    /**
+     * Timeout of a REST call to another worker when its pushed task status is not available.
+     */
+    private int workerRequestTimeout = 3 * 1000;
+
+    /**
+     * Whether sink tasks also put their consume offsets into the offset store, which syncs them to all workers. When
+     * disabled only the consume offsets stored in the broker are used.
+     */
+    private boolean sinkOffsetSyncEnable = true;
+
+    /**
+     * Whether sink tasks on this worker share the messages pulled from a queue, so a queue consumed by several sink
+     * connectors is read from the broker once. Every connector keeps its own consumer group and offsets.
+     */
+    private boolean sinkSharedFetchEnable = false;
+
+    /**
+     * Messages of a queue kept for the other sink tasks. A task further behind than this pulls on its own.
+     */
+    private int sinkSharedFetchWindow = 2048;
+
+    /**
+     * Bytes of records all tasks of this worker may hold in memory at once. A task which would go over it waits before
+     * polling or pulling more. 0 uses a quarter of the max heap.
+     */
+    private long workerMemoryBudget = 0;
+
+    /**
+     * Interval in ms between two checks of the connectors with autoscale-enable. Only the first alive worker in client id
+     * order checks and scales.
+     */
+    private long autoScaleInterval = 60 * 1000;
+
+    /**
+     * Interval in ms between two reads of the consume lag of all sink connectors, 0 to not track the lag.
+     */
+    private long lagTrackInterval = 30 * 1000;
+
+    /**
+     * Keep the schemas of SchemaBinaryConverter records in the schema registry, so messages carry only the schema id.
+     */
+    private boolean schemaRegistryEnable = false;
+
+    /**
+     * Number of resolved schemas each worker keeps in memory.
+     */
+    private int schemaCacheSize = 1000;
+
+    /**
+     * Interval in ms to send the known schemas to the schema store topic again, before their messages expire.
+     */
+    private long schemaRepublishInterval = 12 * 60 * 60 * 1000;
+
     private String pluginPaths;
 
     private String connectClusterId = "connector-cluster-group";
@@ -285,6 +354,14 @@ public class ConnectConfig {
         this.offsetStoreTopic = offsetStoreTopic;
     }
 
+    public String getSchemaStoreTopic() {
+        return schemaStoreTopic;
+    }
+
+    public void setSchemaStoreTopic(String schemaStoreTopic) {
+        this.schemaStoreTopic = schemaStoreTopic;
+    }
+
     public String getConnectClusterId() {
         return connectClusterId;
     }
@@ -361,6 +438,102 @@ public class ConnectConfig {
         return aclEnable;
     }
 
+    public int getTaskStatusSyncInterval() {
+        return taskStatusSyncInterval;
+    }
+
+    public void setTaskStatusSyncInterval(int taskStatusSyncInterval) {
+        this.taskStatusSyncInterval = taskStatusSyncInterval;
+    }
+
+    public int getClusterViewCacheTtl() {
+        return clusterViewCacheTtl;
+    }
+
+    public void setClusterViewCacheTtl(int clusterViewCacheTtl) {
+        this.clusterViewCacheTtl = clusterViewCacheTtl;
+    }
+
+    public int getWorkerRequestTimeout() {
+        return workerRequestTimeout;
+    }
+
+    public void setWorkerRequestTimeout(int workerRequestTimeout) {
+        this.workerRequestTimeout = workerRequestTimeout;
+    }
+
+    public boolean isSinkOffsetSyncEnable() {
+        return sinkOffsetSyncEnable;
+    }
+
+    public void setSinkOffsetSyncEnable(boolean sinkOffsetSyncEnable) {
+        this.sinkOffsetSyncEnable = sinkOffsetSyncEnable;
+    }
+
+    public boolean isSinkSharedFetchEnable() {
+        return sinkSharedFetchEnable;
+    }
+
+    public void setSinkSharedFetchEnable(boolean sinkSharedFetchEnable) {
+        this.sinkSharedFetchEnable = sinkSharedFetchEnable;
+    }
+
+    public int getSinkSharedFetchWindow() {
+        return sinkSharedFetchWindow;
+    }
+
+    public void setSinkSharedFetchWindow(int sinkSharedFetchWindow) {
+        this.sinkSharedFetchWindow = sinkSharedFetchWindow;
+    }
+
+    public long getWorkerMemoryBudget() {
+        return workerMemoryBudget;
+    }
+
+    public void setWorkerMemoryBudget(long workerMemoryBudget) {
+        this.workerMemoryBudget = workerMemoryBudget;
+    }
+
+    public long getAutoScaleInterval() {
+        return autoScaleInterval;
+    }
+
+    public void setAutoScaleInterval(long autoScaleInterval) {
+        this.autoScaleInterval = autoScaleInterval;
+    }
+
+    public long getLagTrackInterval() {
+        return lagTrackInterval;
+    }
+
+    public void setLagTrackInterval(long lagTrackInterval) {
+        this.lagTrackInterval = lagTrackInterval;
+    }
+
+    public boolean isSchemaRegistryEnable() {
+        return schemaRegistryEnable;
+    }
+
+    public void setSchemaRegistryEnable(boolean schemaRegistryEnable) {
+        this.schemaRegistryEnable = schemaRegistryEnable;
+    }
+
+    public int getSchemaCacheSize() {
+        return schemaCacheSize;
+    }
+
+    public void setSchemaCacheSize(int schemaCacheSize) {
+        this.schemaCacheSize = schemaCacheSize;
+    }
+
+    public long getSchemaRepublishInterval() {
+        return schemaRepublishInterval;
+    }
+
+    public void setSchemaRepublishInterval(long schemaRepublishInterval) {
+        this.schemaRepublishInterval = schemaRepublishInterval;
+    }
+
     @Override public String toString() {
         return "ConnectConfig{" +
             "workerId='" + workerId + '\'' +
@@ -379,10 +552,23 @@ public class ConnectConfig {
             ", configStoreTopic='" + configStoreTopic + '\'' +
             ", positionStoreTopic='" + positionStoreTopic + '\'' +
             ", offsetStoreTopic='" + offsetStoreTopic + '\'' +
+            ", schemaStoreTopic='" + schemaStoreTopic + '\'' +
             ", httpPort=" + httpPort +
             ", positionPersistInterval=" + positionPersistInterval +
             ", offsetPersistInterval=" + offsetPersistInterval +
             ", configPersistInterval=" + configPersistInterval +
+            ", taskStatusSyncInterval=" + taskStatusSyncInterval +
+            ", clusterViewCacheTtl=" + clusterViewCacheTtl +
+            ", workerRequestTimeout=" + workerRequestTimeout +
+            ", sinkOffsetSyncEnable=" + sinkOffsetSyncEnable +
+            ", sinkSharedFetchEnable=" + sinkSharedFetchEnable +
+            ", sinkSharedFetchWindow=" + sinkSharedFetchWindow +
+            ", workerMemoryBudget=" + workerMemoryBudget +
+            ", autoScaleInterval=" + autoScaleInterval +
+            ", lagTrackInterval=" + lagTrackInterval +
+            ", schemaRegistryEnable=" + schemaRegistryEnable +
+            ", schemaCacheSize=" + schemaCacheSize +
+            ", schemaRepublishInterval=" + schemaRepublishInterval +
             ", pluginPaths='" + pluginPaths + '\'' +
             ", connectClusterId='" + connectClusterId + '\'' +
             ", allocTaskStrategy='" + allocTaskStrategy + '\'' +
@@ -66,6 +66,114 @@ public class RuntimeConfigDefine {
      */
     public static final String SOURCE_TASK_CLASS = "source-task-class";
     public static final String SINK_TASK_CLASS = "sink-task-class";
+    /**
+     * direct task的source poll和sink put分别在两个线程,中间是一个有界的ring buffer
+     */
+    public static final String DIRECT_PIPELINE_ENABLE = "direct-pipeline-enable";
+    public static final String DIRECT_RING_CAPACITY = "direct-ring-capacity";
+    /**
+     * sink线程每次put的最大条数
+     */
+    public static final String DIRECT_SINK_BATCH_SIZE = "direct-sink-batch-size";
+    /**
+     * 一个source同时写多个sink,逗号分隔,配置了就不用SINK_TASK_CLASS
+     */
+    public static final String SINK_TASK_CLASSES = "sink-task-classes";
+    /**
+     * 多个sink时每个sink自己的配置: sink.<下标>.<key>,下标是这个sink在SINK_TASK_CLASSES里的位置(从0开始),
+     * 没有单独配置的key用task config里共用的值
+     */
+    public static final String SINK_TASK_CONFIG_PREFIX = "sink.";
+    /**
+     * 某个sink的buffer满了以后怎么处理: throttle(默认,source等它)或detach(超过DIRECT_SLOW_SINK_TIMEOUT毫秒后不再给它数据)
+     */
+    public static final String DIRECT_SLOW_SINK_POLICY = "direct-slow-sink-policy";
+    public static final String DIRECT_SLOW_SINK_TIMEOUT = "direct-slow-sink-timeout";
+    /**
+     * direct task的这些配置从connector config中带到task config
+     */
+    public static final List<String> DIRECT_TASK_KEYS = Collections.unmodifiableList(Arrays.asList(SINK_TASK_CLASSES,
+        DIRECT_PIPELINE_ENABLE, DIRECT_RING_CAPACITY, DIRECT_SINK_BATCH_SIZE, DIRECT_SLOW_SINK_POLICY, DIRECT_SLOW_SINK_TIMEOUT));
+
+    //sink task的错误处理
+    /**
+     * none(默认): put失败整批重试直到成功; all: 二分找出失败的消息,单独重试,超过次数后发到死信topic,其余消息继续消费
+     */
+    public static final String ERRORS_TOLERANCE = "errors-tolerance";
+    /**
+     * 一条消息第一次失败后最多再重试几次
+     */
+    public static final String ERRORS_RETRY_MAX = "errors-retry-max";
+    public static final String ERRORS_RETRY_BACKOFF_INITIAL_MS = "errors-retry-backoff-initial-ms";
+    public static final String ERRORS_RETRY_BACKOFF_MAX_MS = "errors-retry-backoff-max-ms";
+    /**
+     * 重试完还失败的消息发到这个topic,不配置则只打日志然后跳过
+     */
+    public static final String ERRORS_DEADLETTER_TOPIC = "errors-deadletter-topic";
+    /**
+     * 消息带的schema id在注册中心还查不到时最多等多久,超过以后和put失败一样重试、发死信
+     */
+    public static final String ERRORS_SCHEMA_RESOLVE_TIMEOUT_MS = "errors-schema-resolve-timeout-ms";
+    /**
+     * 错误处理的配置从connector config中带到task config
+     */
+    public static final List<String> ERRORS_TASK_KEYS = Collections.unmodifiableList(Arrays.asList(ERRORS_TOLERANCE,
+        ERRORS_RETRY_MAX, ERRORS_RETRY_BACKOFF_INITIAL_MS, ERRORS_RETRY_BACKOFF_MAX_MS, ERRORS_DEADLETTER_TOPIC,
+        ERRORS_SCHEMA_RESOLVE_TIMEOUT_MS));
+
+    //sink task重平衡时queue的交接
+    /**
+     * 被收回的queue最多等多少毫秒让正在put的消息处理完;新分配的queue最多等多少毫秒让原owner提交最后的位移,0表示不等
+     */
+    public static final String SINK_HANDOFF_TIMEOUT = "sink-handoff-timeout";
+    /**
+     * 大于1时每个queue的消息按key的hash分到这么多个lane并发put,同一个key保序,sink task的put要支持多线程调用。
+     * errors-tolerance=all时不生效
+     */
+    public static final String SINK_KEY_LANES = "sink-key-lanes";
+    /**
+     * 每个lane最多排队多少批消息,满了就不再拉取
+     */
+    public static final String SINK_LANE_CAPACITY = "sink-lane-capacity";
+    /**
+     * sink拉取时在broker上过滤: tag表达式(如"TagA || TagB")和SQL92属性表达式,broker要开启enablePropertyFilter才支持SQL92
+     */
+    public static final String SINK_FILTER_TAGS = "sink-filter-tags";
+    public static final String SINK_FILTER_SQL = "sink-filter-sql";
+    /**
+     * true时不拉取source connector写入的消息(带by_connector=true),防止双向同步时消息来回循环
+     */
+    public static final String SINK_SKIP_CONNECTOR_MESSAGES = "sink-skip-connector-messages";
+    /**
+     * source task发送失败或broker不可用时,把记录按顺序写到storePathRootDir下的内存映射文件,broker恢复后再按顺序补发,
+     * 补发成功才提交position。max-bytes是磁盘上限,写满后source task停止poll
+     */
+    public static final String SOURCE_SPILL_ENABLE = "source-spill-enable";
+    public static final String SOURCE_SPILL_MAX_BYTES = "source-spill-max-bytes";
+    public static final String SOURCE_SPILL_SEGMENT_BYTES = "source-spill-segment-bytes";
+    /**
+     * 按sink connector的消费堆积自动调整task数量,只在connector config中生效。
+     * 每个task平均堆积超过high时扩容,低于low时缩容,连续sustain-checks次检查都满足才调整,
+     * 每次最多调整max-step个,两次调整(包括手动调整)之间至少间隔cooldown-ms
+     */
+    public static final String AUTOSCALE_ENABLE = "autoscale-enable";
+    public static final String AUTOSCALE_MIN_TASKS = "autoscale-min-tasks";
+    public static final String AUTOSCALE_MAX_TASKS = "autoscale-max-tasks";
+    public static final String AUTOSCALE_LAG_HIGH = "autoscale-lag-per-task-high";
+    public static final String AUTOSCALE_LAG_LOW = "autoscale-lag-per-task-low";
+    public static final String AUTOSCALE_MAX_STEP = "autoscale-max-step";
+    public static final String AUTOSCALE_SUSTAIN_CHECKS = "autoscale-sustain-checks";
+    public static final String AUTOSCALE_COOLDOWN_MS = "autoscale-cooldown-ms";
+    /**
+     * source task的这些配置从connector config中带到task config
+     */
+    public static final List<String> SOURCE_TASK_KEYS = Collections.unmodifiableList(Arrays.asList(SOURCE_SPILL_ENABLE,
+        SOURCE_SPILL_MAX_BYTES, SOURCE_SPILL_SEGMENT_BYTES));
+    /**
+     * sink task的这些配置从connector config中带到task config
+     */
+    public static final List<String> SINK_TASK_KEYS = Collections.unmodifiableList(Arrays.asList(SINK_HANDOFF_TIMEOUT,
+        SINK_KEY_LANES, SINK_LANE_CAPACITY, SINK_FILTER_TAGS, SINK_FILTER_SQL, SINK_SKIP_CONNECTOR_MESSAGES));
 
     /**
      * Last updated time of the configuration.
@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.connectorwrapper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.rocketmq.client.consumer.DefaultMQPullConsumer;
+import org.apache.rocketmq.client.consumer.PullResult;
+import org.apache.rocketmq.client.consumer.PullStatus;
+import org.apache.rocketmq.client.exception.MQBrokerException;
+import org.apache.rocketmq.client.exception.MQClientException;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.apache.rocketmq.connect.runtime.utils.MemoryPool;
+import org.apache.rocketmq.remoting.exception.RemotingException;
+
+/**
+ * Worker wide cache of the messages pulled from each queue, so sink tasks of different connectors consuming the same
+ * topic read it from the broker once.
+ *
+ * Every queue keeps a window of the latest pulled batches. A pull inside the window is answered from it, a pull right
+ * after the window goes to the broker and is appended, and a pull before the window, from a task which fell behind
+ * more than the window, goes to the broker with the consumer of that task and is not cached. The consumer groups and
+ * offsets of the tasks stay independent. The cached messages are shared between the tasks and must not be modified.
+ * The windows count against the memory pool of the worker, a batch which does not fit is returned without caching.
+ */
+public class SharedQueueFetcher {
+
+    private static final long IDLE_WINDOW_TIMEOUT = 60 * 1000;
+
+    /**
+     * 窗口在内存预算里记在这个名字下
+     */
+    public static final String MEMORY_OWNER = "shared-fetch";
+
+    private final int windowSize;
+
+    private final ConcurrentHashMap<MessageQueue, QueueWindow> windows = new ConcurrentHashMap<>();
+
+    private final AtomicLong brokerPulls = new AtomicLong();
+
+    private final AtomicLong sharedPulls = new AtomicLong();
+
+    private final AtomicLong laggingPulls = new AtomicLong();
+
+    private final AtomicLong uncachedPulls = new AtomicLong();
+
+    private volatile long lastSweep = System.currentTimeMillis();
+
+    private final MemoryPool memoryPool;
+
+    public SharedQueueFetcher(int windowSize) {
+        this(windowSize, MemoryPool.unlimited());
+    }
+
+    public SharedQueueFetcher(int windowSize, MemoryPool memoryPool) {
+        this.windowSize = windowSize;
+        this.memoryPool = memoryPool;
+    }
+
+    public PullResult pull(DefaultMQPullConsumer consumer, MessageQueue queue, long offset, int maxNums)
+        throws MQClientException, RemotingException, MQBrokerException, InterruptedException {
+        sweepIdleWindows();
+        final QueueWindow window = windows.computeIfAbsent(queue, q -> new QueueWindow());
+        synchronized (window) {
+            window.lastAccess = System.currentTimeMillis();
+            final PullResult cached = window.read(offset, maxNums);
+            if (cached != null) {
+                sharedPulls.incrementAndGet();
+                return cached;
+            }
+            if (!window.batches.isEmpty() && offset < window.batches.firstKey()) {
+                //落后太多,用自己的consumer拉,不放进窗口
+                laggingPulls.incrementAndGet();
+                return consumer.pull(queue, "*", offset, maxNums);
+            }
+            //窗口后面的消息,在锁里拉,其他task同时来拉同一段时等这次拉完直接用
+            brokerPulls.incrementAndGet();
+            final PullResult pullResult = consumer.pull(queue, "*", offset, maxNums);
+            if (pullResult.getPullStatus() == PullStatus.FOUND && !window.append(offset, pullResult, windowSize)) {
+                uncachedPulls.incrementAndGet();
+            }
+            return pullResult;
+        }
+    }
+
+    /**
+     * 窗口长时间没人读(queue重平衡走了或者task停了)就释放
+     */
+    private void sweepIdleWindows() {
+        final long now = System.currentTimeMillis();
+        if (now - lastSweep < IDLE_WINDOW_TIMEOUT) {
+            return;
+        }
+        lastSweep = now;
+        windows.entrySet().removeIf(entry -> {
+            if (now - entry.getValue().lastAccess <= IDLE_WINDOW_TIMEOUT) {
+                return false;
+            }
+            synchronized (entry.getValue()) {
+                entry.getValue().clear();
+            }
+            return true;
+        });
+    }
+
+    public Map<String, Object> getJsonObject() {
+        Map<String, Object> obj = new HashMap<>();
+        obj.put("brokerPulls", brokerPulls.get());
+        obj.put("sharedPulls", sharedPulls.get());
+        obj.put("laggingPulls", laggingPulls.get());
+        obj.put("uncachedPulls", uncachedPulls.get());
+        obj.put("queues", windows.size());
+        return obj;
+    }
+
+    private static class Batch {
+
+        private final List<MessageExt> messages;
+
+        private final long nextBeginOffset;
+
+        private final long minOffset;
+
+        private final long maxOffset;
+
+        private final long bytes;
+
+        Batch(PullResult pullResult) {
+            this.messages = new ArrayList<>(pullResult.getMsgFoundList());
+            this.nextBeginOffset = pullResult.getNextBeginOffset();
+            this.minOffset = pullResult.getMinOffset();
+            this.maxOffset = pullResult.getMaxOffset();
+            this.bytes = MemoryPool.sizeOfMessages(messages);
+        }
+    }
+
+    private class QueueWindow {
+
+        /**
+         * 拉取的起始位移 -> 这次拉到的消息,相邻两批首尾相接
+         */
+        private final TreeMap<Long, Batch> batches = new TreeMap<>();
+
+        private int messageCount = 0;
+
+        private volatile long lastAccess = System.currentTimeMillis();
+
+        PullResult read(long offset, int maxNums) {
+            final Map.Entry<Long, Batch> entry = batches.floorEntry(offset);
+            if (entry == null || offset >= entry.getValue().nextBeginOffset) {
+                return null;
+            }
+            //窗口里的批次首尾相接,不够maxNums条就接着读后面的批次
+            final List<MessageExt> messages = new ArrayList<>(maxNums);
+            long nextBeginOffset = offset;
+            Batch last = entry.getValue();
+            for (Batch batch : batches.tailMap(entry.getKey()).values()) {
+                last = batch;
+                nextBeginOffset = batch.nextBeginOffset;
+                for (MessageExt message : batch.messages) {
+                    if (message.getQueueOffset() < offset) {
+                        continue;
+                    }
+                    if (messages.size() == maxNums) {
+                        nextBeginOffset = message.getQueueOffset();
+                        break;
+                    }
+                    messages.add(message);
+                }
+                if (messages.size() == maxNums) {
+                    break;
+                }
+            }
+            if (messages.isEmpty()) {
+                //这一段在broker上被过滤掉了(按"*"拉一般不会有)
+                return new PullResult(PullStatus.NO_MATCHED_MSG, nextBeginOffset, last.minOffset, last.maxOffset, null);
+            }
+            return new PullResult(PullStatus.FOUND, nextBeginOffset, last.minOffset, last.maxOffset, messages);
+        }
+
+        /**
+         * @return false if the memory pool has no room for the batch, it is not cached then
+         */
+        boolean append(long offset, PullResult pullResult, int windowSize) {
+            //和窗口接不上,说明这个task跑到最前面了,窗口从这里重新开始
+            if (!batches.isEmpty() && batches.lastEntry().getValue().nextBeginOffset != offset) {
+                clear();
+            }
+            final Batch batch = new Batch(pullResult);
+            if (!memoryPool.tryReserve(MEMORY_OWNER, batch.bytes)) {
+                //缓存只是为了少拉几次,不为它等内存
+                return false;
+            }
+            batches.put(offset, batch);
+            messageCount += batch.messages.size();
+            while (messageCount > windowSize && batches.size() > 1) {
+                evict(batches.pollFirstEntry().getValue());
+            }
+            return true;
+        }
+
+        void clear() {
+            for (Batch batch : batches.values()) {
+                evict(batch);
+            }
+            batches.clear();
+        }
+
+        private void evict(Batch batch) {
+            messageCount -= batch.messages.size();
+            memoryPool.release(MEMORY_OWNER, batch.bytes);
+        }
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.connectorwrapper;
+
+import io.openmessaging.connector.api.data.SinkDataEntry;
+import io.openmessaging.connector.api.sink.SinkTask;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.rocketmq.client.exception.MQClientException;
+import org.apache.rocketmq.client.producer.DefaultMQProducer;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.client.producer.SendStatus;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.apache.rocketmq.connect.runtime.common.ConnectKeyValue;
+import org.apache.rocketmq.connect.runtime.common.LoggerName;
+import org.apache.rocketmq.connect.runtime.config.RuntimeConfigDefine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Puts a batch of one queue to a sink task so that one bad message does not stop the queue.
+ *
+ * A failing batch is split in halves until the first failing message is found, everything before it is put. That
+ * message is tried again on later pulls with exponential backoff, only its queue waits in between. When the retries
+ * are used up it goes to the dead letter topic with the failure in its properties, and the queue moves on. A message
+ * which can not be converted to a sink entry goes the same way through {@link #fail(MessageQueue, MessageExt, Throwable)}.
+ */
+public class SinkErrorHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.ROCKETMQ_RUNTIME);
+
+    public static final String TOLERANCE_NONE = "none";
+
+    public static final String TOLERANCE_ALL = "all";
+
+    public static final String PROPERTY_CONNECTOR = "connect-dlq-connector";
+
+    public static final String PROPERTY_ORIGINAL_TOPIC = "connect-dlq-original-topic";
+
+    public static final String PROPERTY_ORIGINAL_BROKER = "connect-dlq-original-broker";
+
+    public static final String PROPERTY_ORIGINAL_QUEUE_ID = "connect-dlq-original-queue-id";
+
+    public static final String PROPERTY_ORIGINAL_OFFSET = "connect-dlq-original-offset";
+
+    public static final String PROPERTY_ORIGINAL_MSG_ID = "connect-dlq-original-msg-id";
+
+    public static final String PROPERTY_ERROR_CLASS = "connect-dlq-error-class";
+
+    public static final String PROPERTY_ERROR_MESSAGE = "connect-dlq-error-message";
+
+    public static final String PROPERTY_ATTEMPTS = "connect-dlq-attempts";
+
+    private static final int MAX_ERROR_MESSAGE_LENGTH = 1024;
+
+    private final String connectorName;
+
+    private final boolean tolerant;
+
+    private final int maxRetries;
+
+    private final long initialBackoffMs;
+
+    private final long maxBackoffMs;
+
+    private final String deadLetterTopic;
+
+    /**
+     * Null if there is no dead letter topic.
+     */
+    private final DefaultMQProducer deadLetterProducer;
+
+    /**
+     * The message each queue is retrying.
+     */
+    private final Map<MessageQueue, RetryState> retries = new ConcurrentHashMap<>();
+
+    private final AtomicLong failedPuts = new AtomicLong();
+
+    private final AtomicLong failedConversions = new AtomicLong();
+
+    private final AtomicLong deadLettered = new AtomicLong();
+
+    private final AtomicLong skipped = new AtomicLong();
+
+    public SinkErrorHandler(String connectorName, ConnectKeyValue taskConfig, DefaultMQProducer deadLetterProducer) {
+        this.connectorName = connectorName;
+        this.tolerant = TOLERANCE_ALL.equalsIgnoreCase(taskConfig.getString(RuntimeConfigDefine.ERRORS_TOLERANCE, TOLERANCE_NONE));
+        this.maxRetries = taskConfig.getInt(RuntimeConfigDefine.ERRORS_RETRY_MAX, 3);
+        this.initialBackoffMs = taskConfig.getLong(RuntimeConfigDefine.ERRORS_RETRY_BACKOFF_INITIAL_MS, 500);
+        this.maxBackoffMs = taskConfig.getLong(RuntimeConfigDefine.ERRORS_RETRY_BACKOFF_MAX_MS, 30 * 1000);
+        this.deadLetterTopic = taskConfig.getString(RuntimeConfigDefine.ERRORS_DEADLETTER_TOPIC);
+        this.deadLetterProducer = StringUtils.isEmpty(deadLetterTopic) ? null : deadLetterProducer;
+    }
+
+    public boolean isTolerant() {
+        return tolerant;
+    }
+
+    public void start() throws MQClientException {
+        if (tolerant && deadLetterProducer != null) {
+            deadLetterProducer.start();
+        }
+    }
+
+    public void stop() {
+        if (tolerant && deadLetterProducer != null) {
+            deadLetterProducer.shutdown();
+        }
+    }
+
+    /**
+     * Put the messages of one queue, entries.get(i) is the converted messages.get(i).
+     *
+     * @return number of leading messages which are done, put or sent to the dead letter topic. If it is less than all
+     * messages, the queue should pull again from the next message after {@link #backoffMillis(MessageQueue)}.
+     */
+    public int put(SinkTask sinkTask, MessageQueue queue, List<MessageExt> messages, List<SinkDataEntry> entries) {
+        RetryState retry = retries.get(queue);
+        if (retry != null && retry.offset != messages.get(0).getQueueOffset()) {
+            //重平衡或者位点被重置了,不再是之前失败的那条
+            retries.remove(queue);
+            retry = null;
+        }
+        int done = 0;
+        if (retry != null) {
+            //先单独重试上次失败的那条,不用再二分
+            done = putRange(sinkTask, queue, messages, entries, 0, 1);
+            if (done == 0) {
+                return 0;
+            }
+        }
+        return done + putRange(sinkTask, queue, messages, entries, done, messages.size());
+    }
+
+    /**
+     * @return number of messages from the start of the range which are done
+     */
+    private int putRange(SinkTask sinkTask, MessageQueue queue, List<MessageExt> messages, List<SinkDataEntry> entries,
+        int from, int to) {
+        if (from >= to) {
+            return 0;
+        }
+        Throwable error;
+        try {
+            sinkTask.put(entries.subList(from, to));
+            if (to - from == 1) {
+                retries.remove(queue);
+            }
+            return to - from;
+        } catch (Throwable e) {
+            failedPuts.incrementAndGet();
+            error = e;
+        }
+        if (to - from == 1) {
+            return failed(queue, messages.get(from), error) ? 1 : 0;
+        }
+        int mid = (from + to) >>> 1;
+        int left = putRange(sinkTask, queue, messages, entries, from, mid);
+        if (left < mid - from) {
+            return left;
+        }
+        return left + putRange(sinkTask, queue, messages, entries, mid, to);
+    }
+
+    /**
+     * A message failed before it could be put, e.g. its body can not be decoded. It is retried and dead lettered like
+     * a message the sink task failed to put.
+     *
+     * @return true if the message is done with, false if it should be pulled again after {@link #backoffMillis(MessageQueue)}
+     */
+    public boolean fail(MessageQueue queue, MessageExt message, Throwable error) {
+        failedConversions.incrementAndGet();
+        return failed(queue, message, error);
+    }
+
+    /**
+     * @return true if the message is done with, false if it should be retried
+     */
+    private boolean failed(MessageQueue queue, MessageExt message, Throwable error) {
+        RetryState retry = retries.get(queue);
+        int attempts = retry != null && retry.offset == message.getQueueOffset() ? retry.attempts + 1 : 1;
+        if (attempts <= maxRetries) {
+            retries.put(queue, new RetryState(message.getQueueOffset(), attempts));
+            log.warn("Sink task of connector {} failed to put {} offset {}, attempt {} of {}", connectorName, queue,
+                message.getQueueOffset(), attempts, maxRetries + 1, error);
+            return false;
+        }
+        if (deadLetterProducer == null) {
+            skipped.incrementAndGet();
+            log.error("Sink task of connector {} skips {} offset {} msgId {} after {} attempts", connectorName, queue,
+                message.getQueueOffset(), message.getMsgId(), attempts, error);
+            retries.remove(queue);
+            return true;
+        }
+        try {
+            SendResult result = deadLetterProducer.send(toDeadLetter(queue, message, error, attempts));
+            if (result.getSendStatus() != SendStatus.SEND_OK) {
+                throw new IllegalStateException("send status " + result.getSendStatus());
+            }
+        } catch (Exception e) {
+            //死信也发不出去就不能跳过,按最后一次继续重试
+            retries.put(queue, new RetryState(message.getQueueOffset(), maxRetries));
+            log.error("Send {} offset {} to dead letter topic {} failed", queue, message.getQueueOffset(), deadLetterTopic, e);
+            return false;
+        }
+        deadLettered.incrementAndGet();
+        log.error("Sink task of connector {} sent {} offset {} msgId {} to dead letter topic {} after {} attempts",
+            connectorName, queue, message.getQueueOffset(), message.getMsgId(), deadLetterTopic, attempts, error);
+        retries.remove(queue);
+        return true;
+    }
+
+    private Message toDeadLetter(MessageQueue queue, MessageExt message, Throwable error, int attempts) {
+        Message deadLetter = new Message(deadLetterTopic, message.getTags(), message.getKeys(), message.getBody());
+        if (message.getProperties() != null) {
+            for (Map.Entry<String, String> property : message.getProperties().entrySet()) {
+                //系统属性(keys,tags,offset等)不能也不需要带过去
+                if (!MessageConst.STRING_HASH_SET.contains(property.getKey())) {
+                    deadLetter.putUserProperty(property.getKey(), property.getValue());
+                }
+            }
+        }
+        putProperty(deadLetter, PROPERTY_CONNECTOR, connectorName);
+        putProperty(deadLetter, PROPERTY_ORIGINAL_TOPIC, queue.getTopic());
+        putProperty(deadLetter, PROPERTY_ORIGINAL_BROKER, queue.getBrokerName());
+        putProperty(deadLetter, PROPERTY_ORIGINAL_QUEUE_ID, String.valueOf(queue.getQueueId()));
+        putProperty(deadLetter, PROPERTY_ORIGINAL_OFFSET, String.valueOf(message.getQueueOffset()));
+        putProperty(deadLetter, PROPERTY_ORIGINAL_MSG_ID, message.getMsgId());
+        putProperty(deadLetter, PROPERTY_ERROR_CLASS, error.getClass().getName());
+        putProperty(deadLetter, PROPERTY_ERROR_MESSAGE, StringUtils.abbreviate(String.valueOf(error.getMessage()), MAX_ERROR_MESSAGE_LENGTH));
+        putProperty(deadLetter, PROPERTY_ATTEMPTS, String.valueOf(attempts));
+        return deadLetter;
+    }
+
+    private static void putProperty(Message message, String name, String value) {
+        if (StringUtils.isNotBlank(value)) {
+            message.putUserProperty(name, value);
+        }
+    }
+
+    /**
+     * @return how long the queue waits before its failed message is tried again
+     */
+    public long backoffMillis(MessageQueue queue) {
+        RetryState retry = retries.get(queue);
+        int attempts = retry == null ? 1 : retry.attempts;
+        long backoff = initialBackoffMs << Math.min(attempts - 1, 30);
+        return backoff <= 0 ? maxBackoffMs : Math.min(backoff, maxBackoffMs);
+    }
+
+    /**
+     * Forget the retries of queues which are no longer assigned.
+     */
+    public void retainQueues(Collection<MessageQueue> queues) {
+        retries.keySet().retainAll(queues);
+    }
+
+    public Map<String, Object> getJsonObject() {
+        Map<String, Object> obj = new HashMap<>();
+        obj.put("tolerance", tolerant ? TOLERANCE_ALL : TOLERANCE_NONE);
+        obj.put("failedPuts", failedPuts.get());
+        obj.put("failedConversions", failedConversions.get());
+        obj.put("retryingQueues", retries.size());
+        obj.put("deadLettered", deadLettered.get());
+        obj.put("skipped", skipped.get());
+        return obj;
+    }
+
+    private static class RetryState {
+
+        private final long offset;
+
+        private final int attempts;
+
+        RetryState(long offset, int attempts) {
+            this.offset = offset;
+            this.attempts = attempts;
+        }
+    }
+}
@@ -0,0 +1,453 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.connectorwrapper;
+
+import io.openmessaging.connector.api.data.SinkDataEntry;
+import io.openmessaging.connector.api.sink.SinkTask;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.apache.rocketmq.connect.runtime.common.LoggerName;
+import org.apache.rocketmq.connect.runtime.utils.MemoryPool;
+import org.apache.rocketmq.connect.runtime.utils.Plugin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Puts the messages of the sink queues to a sink task from several lanes at once, for sinks which write record by
+ * record to a remote system and would otherwise be limited to one thread per queue.
+ *
+ * A message goes to the lane chosen by the hash of its key, so messages with the same key are put in order by the
+ * same lane. Messages without a key are spread by queue offset. The offset of a queue only advances to its lowest
+ * offset which is not put yet. A failed put is retried by its lane, the other lanes go on. When the retries are used
+ * up the lanes fail, see {@link #getFailure()}, and the task has to stop. The sink task must accept put calls from
+ * several threads.
+ */
+public class SinkKeyLanes {
+
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.ROCKETMQ_RUNTIME);
+
+    private static final long RETRY_INTERVAL = 1000;
+
+    private static final long POLL_INTERVAL = 100;
+
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    private final String connectorName;
+
+    private final SinkTask sinkTask;
+
+    private final ClassLoader classLoader;
+
+    private final Function<List<MessageExt>, List<SinkDataEntry>> converter;
+
+    /**
+     * 某个queue的最低未完成位移前进时回调,在这个queue的锁里调用,所以同一个queue的位移是递增的
+     */
+    private final BiConsumer<MessageQueue, Long> offsetListener;
+
+    private final Lane[] lanes;
+
+    private final ConcurrentHashMap<MessageQueue, QueueProgress> progressMap = new ConcurrentHashMap<>();
+
+    private volatile boolean running = false;
+
+    /**
+     * task离开RUNNING以后lane不再重试,提交batch也不再等lane的空位
+     */
+    private final BooleanSupplier taskRunning;
+
+    private final int maxRetries;
+
+    /**
+     * 某个lane的put重试用完以后的异常
+     */
+    private volatile Throwable failure;
+
+    /**
+     * 排在lane里的消息在put完或者丢弃之前占着worker的内存预算
+     */
+    private final MemoryPool memoryPool;
+
+    public SinkKeyLanes(String connectorName, int laneCount, int laneCapacity, SinkTask sinkTask,
+        ClassLoader classLoader, Function<List<MessageExt>, List<SinkDataEntry>> converter,
+        BiConsumer<MessageQueue, Long> offsetListener) {
+        this(connectorName, laneCount, laneCapacity, sinkTask, classLoader, converter, offsetListener,
+            MemoryPool.unlimited(), () -> true, DEFAULT_MAX_RETRIES);
+    }
+
+    /**
+     * @param taskRunning false once the task leaves RUNNING
+     * @param maxRetries how often a failed put is retried before the lanes fail
+     */
+    public SinkKeyLanes(String connectorName, int laneCount, int laneCapacity, SinkTask sinkTask,
+        ClassLoader classLoader, Function<List<MessageExt>, List<SinkDataEntry>> converter,
+        BiConsumer<MessageQueue, Long> offsetListener, MemoryPool memoryPool, BooleanSupplier taskRunning,
+        int maxRetries) {
+        this.memoryPool = memoryPool;
+        this.taskRunning = taskRunning;
+        this.maxRetries = maxRetries;
+        this.connectorName = connectorName;
+        this.sinkTask = sinkTask;
+        this.classLoader = classLoader;
+        this.converter = converter;
+        this.offsetListener = offsetListener;
+        this.lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(i, laneCapacity);
+        }
+    }
+
+    public void start() {
+        running = true;
+        for (Lane lane : lanes) {
+            lane.thread.start();
+        }
+    }
+
+    /**
+     * Stop taking new batches, and wait until the lanes put what is queued. Batches left when the timeout elapses are
+     * not put, their offsets are not committed.
+     */
+    public void stop(long timeoutMs) {
+        running = false;
+        final long deadline = System.currentTimeMillis() + timeoutMs;
+        for (Lane lane : lanes) {
+            try {
+                lane.thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (lane.thread.isAlive()) {
+                log.warn("sink lane {} of connector {} is still putting after {}ms, interrupt it", lane.index, connectorName, timeoutMs);
+                lane.thread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return the error of the put which failed after all retries, null while the lanes work
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    private boolean isRunning() {
+        return running && failure == null && taskRunning.getAsBoolean();
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * @return where the next pull of the queue starts, ahead of the committed offset while batches are in the lanes
+     */
+    public long nextPullOffset(MessageQueue queue, long committedOffset) {
+        final QueueProgress progress = progressMap.get(queue);
+        return progress == null ? committedOffset : progress.nextPullOffset();
+    }
+
+    /**
+     * Hand a pulled batch to the lanes, blocks while the lane of any message is full or the memory pool is used up.
+     * Gives up when the lanes stop, fail or the task leaves RUNNING. The messages not handed over then stay in flight,
+     * so the offset of the queue does not pass them.
+     *
+     * @param offset the offset the batch was pulled from
+     */
+    public void submit(MessageQueue queue, long offset, List<MessageExt> messages, long nextBeginOffset) throws InterruptedException {
+        final QueueProgress progress = progressMap.computeIfAbsent(queue, q -> new QueueProgress(q, offset));
+        final List<MessageExt>[] parts = new List[lanes.length];
+        for (MessageExt message : messages) {
+            final int index = laneOf(message);
+            if (parts[index] == null) {
+                parts[index] = new ArrayList<>();
+            }
+            parts[index].add(message);
+        }
+        progress.add(messages, nextBeginOffset);
+        if (messages.isEmpty()) {
+            //整批都被过滤掉了,位移直接前进
+            progress.complete(messages);
+            return;
+        }
+        for (int i = 0; i < parts.length; i++) {
+            if (parts[i] != null) {
+                final long bytes = MemoryPool.sizeOfMessages(parts[i]);
+                memoryPool.reserve(connectorName, bytes, this::isRunning);
+                final LaneBatch batch = new LaneBatch(progress, parts[i], bytes);
+                boolean queued = false;
+                try {
+                    //调用方拿着pullLock,lane卡住时不能一直等,否则task停不下来
+                    while (!queued && isRunning()) {
+                        queued = lanes[i].batches.offer(batch, POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                    }
+                } finally {
+                    if (!queued) {
+                        memoryPool.release(connectorName, bytes);
+                    }
+                }
+                if (!queued) {
+                    log.warn("sink lanes of connector {} stopped, batch of queue {} at offset {} is not put", connectorName, queue, offset);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * The queue is no longer consumed by this task. Waits until the lanes put its batches, the batches left when the
+     * timeout elapses are dropped, and the offset of the queue does not advance any more.
+     *
+     * @return true if all batches of the queue were put
+     */
+    public boolean revoke(MessageQueue queue, long timeoutMs) {
+        final QueueProgress progress = progressMap.remove(queue);
+        return progress == null || progress.revoke(timeoutMs);
+    }
+
+    private int laneOf(MessageExt message) {
+        final String key = message.getKeys();
+        if (StringUtils.isEmpty(key)) {
+            return (int) (message.getQueueOffset() % lanes.length);
+        }
+        return (key.hashCode() & Integer.MAX_VALUE) % lanes.length;
+    }
+
+    public Object getJsonObject() {
+        Map<String, Object> obj = new HashMap<>();
+        obj.put("lanes", lanes.length);
+        List<Object> laneList = new ArrayList<>(lanes.length);
+        for (Lane lane : lanes) {
+            Map<String, Object> laneObj = new HashMap<>();
+            laneObj.put("queued", lane.batches.size());
+            laneObj.put("puts", lane.puts.get());
+            laneObj.put("records", lane.records.get());
+            laneObj.put("retries", lane.retries.get());
+            laneList.add(laneObj);
+        }
+        obj.put("laneStats", laneList);
+        final Throwable error = failure;
+        if (error != null) {
+            obj.put("failure", error.toString());
+        }
+        Map<String, Object> inFlight = new HashMap<>();
+        for (Map.Entry<MessageQueue, QueueProgress> entry : progressMap.entrySet()) {
+            inFlight.put(entry.getKey().toString(), entry.getValue().inFlightCount());
+        }
+        obj.put("inFlight", inFlight);
+        return obj;
+    }
+
+    /**
+     * 一个queue在lane里还没put完的位移
+     */
+    private class QueueProgress {
+
+        private final MessageQueue queue;
+
+        private final TreeSet<Long> inFlight = new TreeSet<>();
+
+        /**
+         * 下次从这里拉
+         */
+        private long cursor;
+
+        /**
+         * 最后一次通知出去的位移
+         */
+        private long watermark;
+
+        private boolean revoked = false;
+
+        QueueProgress(MessageQueue queue, long offset) {
+            this.queue = queue;
+            this.cursor = offset;
+            this.watermark = offset;
+        }
+
+        synchronized long nextPullOffset() {
+            return cursor;
+        }
+
+        synchronized int inFlightCount() {
+            return inFlight.size();
+        }
+
+        synchronized boolean isRevoked() {
+            return revoked;
+        }
+
+        synchronized void add(List<MessageExt> messages, long nextBeginOffset) {
+            for (MessageExt message : messages) {
+                inFlight.add(message.getQueueOffset());
+            }
+            cursor = nextBeginOffset;
+        }
+
+        synchronized void complete(List<MessageExt> messages) {
+            for (MessageExt message : messages) {
+                inFlight.remove(message.getQueueOffset());
+            }
+            final long lowest = inFlight.isEmpty() ? cursor : inFlight.first();
+            if (!revoked && lowest > watermark) {
+                watermark = lowest;
+                offsetListener.accept(queue, lowest);
+            }
+            if (inFlight.isEmpty()) {
+                notifyAll();
+            }
+        }
+
+        synchronized boolean revoke(long timeoutMs) {
+            final long deadline = System.currentTimeMillis() + timeoutMs;
+            long remaining = timeoutMs;
+            try {
+                while (!inFlight.isEmpty() && remaining > 0) {
+                    wait(remaining);
+                    remaining = deadline - System.currentTimeMillis();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            revoked = true;
+            return inFlight.isEmpty();
+        }
+    }
+
+    private static class LaneBatch {
+
+        private final QueueProgress progress;
+
+        private final List<MessageExt> messages;
+
+        private final long bytes;
+
+        LaneBatch(QueueProgress progress, List<MessageExt> messages, long bytes) {
+            this.progress = progress;
+            this.messages = messages;
+            this.bytes = bytes;
+        }
+    }
+
+    private class Lane implements Runnable {
+
+        private final int index;
+
+        private final BlockingQueue<LaneBatch> batches;
+
+        private final Thread thread;
+
+        private final AtomicLong puts = new AtomicLong();
+
+        private final AtomicLong records = new AtomicLong();
+
+        private final AtomicLong retries = new AtomicLong();
+
+        Lane(int index, int capacity) {
+            this.index = index;
+            this.batches = new ArrayBlockingQueue<>(capacity);
+            this.thread = new Thread(this, "sink-lane-" + connectorName + "-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            Plugin.compareAndSwapLoaders(classLoader);
+            try {
+                while ((running || !batches.isEmpty()) && failure == null) {
+                    final LaneBatch batch = batches.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                    if (batch == null) {
+                        continue;
+                    }
+                    try {
+                        if (!put(batch)) {
+                            return;
+                        }
+                    } finally {
+                        memoryPool.release(connectorName, batch.bytes);
+                    }
+                }
+            } catch (InterruptedException e) {
+                log.warn("sink lane {} of connector {} interrupted, {} batches not put", index, connectorName, batches.size());
+            } finally {
+                //没put的batch不会再有人处理
+                LaneBatch batch;
+                while ((batch = batches.poll()) != null) {
+                    memoryPool.release(connectorName, batch.bytes);
+                }
+            }
+        }
+
+        /**
+         * @return false if the lane has to stop before the batch is put
+         */
+        private boolean put(LaneBatch batch) throws InterruptedException {
+            //queue已经被收回,新的owner会消费这些消息
+            if (batch.progress.isRevoked()) {
+                return true;
+            }
+            List<SinkDataEntry> entries = null;
+            int attempts = 0;
+            while (true) {
+                try {
+                    //转换也可能失败,比如注册的schema还查不到,和put失败一样重试
+                    if (entries == null) {
+                        entries = converter.apply(batch.messages);
+                    }
+                    sinkTask.put(entries);
+                    break;
+                } catch (Throwable e) {
+                    //同一个lane后面的消息可能是同一个key的,只能在这里重试,重试用完或者任务停止时整个lane停下,位移停在这批前面
+                    retries.incrementAndGet();
+                    if (batch.progress.isRevoked()) {
+                        return true;
+                    }
+                    if (!running || !taskRunning.getAsBoolean()) {
+                        log.error("sink lane {} of connector {} put failed while stopping, batch is not put", index, connectorName, e);
+                        return false;
+                    }
+                    if (++attempts > maxRetries) {
+                        log.error("sink lane {} of connector {} put failed {} times, the lanes stop", index, connectorName, attempts, e);
+                        failure = e;
+                        return false;
+                    }
+                    log.error("sink lane {} of connector {} put failed, retry in {}ms", index, connectorName, RETRY_INTERVAL, e);
+                    Thread.sleep(RETRY_INTERVAL);
+                }
+            }
+            puts.incrementAndGet();
+            records.addAndGet(entries.size());
+            batch.progress.complete(batch.messages);
+            return true;
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.connectorwrapper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.rocketmq.client.consumer.DefaultMQPullConsumer;
+import org.apache.rocketmq.client.consumer.MessageSelector;
+import org.apache.rocketmq.client.consumer.PullResult;
+import org.apache.rocketmq.client.consumer.PullStatus;
+import org.apache.rocketmq.client.exception.MQBrokerException;
+import org.apache.rocketmq.client.exception.MQClientException;
+import org.apache.rocketmq.common.filter.ExpressionType;
+import org.apache.rocketmq.common.message.MessageConst;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.apache.rocketmq.common.protocol.ResponseCode;
+import org.apache.rocketmq.connect.runtime.common.ConnectKeyValue;
+import org.apache.rocketmq.connect.runtime.common.LoggerName;
+import org.apache.rocketmq.connect.runtime.config.RuntimeConfigDefine;
+import org.apache.rocketmq.remoting.exception.RemotingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pulls the messages of a sink queue with the filter of the connector, so the messages the sink does not want stay on
+ * the broker.
+ *
+ * The tag filter, the SQL92 property filter and the skip of messages written by source connectors (the by_connector
+ * property, which stops Kafka and RocketMQ bridged both ways from echoing each other) are combined into one selector.
+ * A broker without property filtering rejects SQL92 pulls with {@link ResponseCode#SYSTEM_ERROR} and a "does not
+ * support" remark, a broker older than 4.1.0 is rejected by the client. Only then the skip of connector messages is
+ * done on the client instead, a user SQL92 filter can not be applied and its pulls keep failing. Other pull failures
+ * are thrown and the pull is retried with the same filter.
+ *
+ * Without filter the pulls go through the {@link SharedQueueFetcher} of the worker if it is enabled.
+ */
+public class SinkMessageFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.ROCKETMQ_RUNTIME);
+
+    /**
+     * Set on every message a source task sends.
+     */
+    public static final String BY_CONNECTOR = "by_connector";
+
+    static final String SKIP_CONNECTOR_MESSAGES_SQL = "(" + BY_CONNECTOR + " IS NULL OR " + BY_CONNECTOR + " <> 'true')";
+
+    private static final String TAG_ALL = "*";
+
+    /**
+     * PullMessageProcessor的remark,没有单独的response code
+     */
+    private static final String BROKER_FILTER_NOT_SUPPORTED = "does not support consumer to filter message";
+
+    /**
+     * 4.1.0以前的broker在客户端就被拒绝了
+     */
+    private static final String CLIENT_FILTER_NOT_SUPPORTED = "does not upgrade to support for filter message";
+
+    private final String tags;
+
+    private final String sql;
+
+    private final boolean skipConnectorMessages;
+
+    private volatile MessageSelector selector;
+
+    private final SharedQueueFetcher sharedFetcher;
+
+    /**
+     * broker不支持SQL92时在这里过滤by_connector
+     */
+    private volatile boolean clientSideSkip = false;
+
+    private final AtomicLong messagesPulled = new AtomicLong();
+
+    private final AtomicLong bytesPulled = new AtomicLong();
+
+    private final AtomicLong messagesDelivered = new AtomicLong();
+
+    private final AtomicLong bytesDelivered = new AtomicLong();
+
+    private final AtomicLong filteredByBroker = new AtomicLong();
+
+    private final AtomicLong filteredByClient = new AtomicLong();
+
+    public SinkMessageFilter(ConnectKeyValue taskConfig) {
+        this(taskConfig, null);
+    }
+
+    public SinkMessageFilter(ConnectKeyValue taskConfig, SharedQueueFetcher sharedFetcher) {
+        this.sharedFetcher = sharedFetcher;
+        this.tags = StringUtils.defaultIfBlank(taskConfig.getString(RuntimeConfigDefine.SINK_FILTER_TAGS), TAG_ALL).trim();
+        this.sql = StringUtils.trimToNull(taskConfig.getString(RuntimeConfigDefine.SINK_FILTER_SQL));
+        this.skipConnectorMessages = Boolean.parseBoolean(taskConfig.getString(RuntimeConfigDefine.SINK_SKIP_CONNECTOR_MESSAGES));
+        this.selector = buildSelector(tags, sql, skipConnectorMessages);
+    }
+
+    /**
+     * @return a tag selector when only tags are filtered, otherwise a SQL92 selector with the tags folded in
+     */
+    static MessageSelector buildSelector(String tags, String sql, boolean skipConnectorMessages) {
+        if (sql == null && !skipConnectorMessages) {
+            return MessageSelector.byTag(tags);
+        }
+        List<String> conditions = new ArrayList<>();
+        if (!TAG_ALL.equals(tags)) {
+            List<String> quoted = new ArrayList<>();
+            for (String tag : tags.split("\\|\\|")) {
+                if (StringUtils.isNotBlank(tag)) {
+                    quoted.add("'" + tag.trim().replace("'", "''") + "'");
+                }
+            }
+            conditions.add("(" + MessageConst.PROPERTY_TAGS + " IS NOT NULL AND " + MessageConst.PROPERTY_TAGS
+                + " IN (" + StringUtils.join(quoted, ", ") + "))");
+        }
+        if (sql != null) {
+            conditions.add("(" + sql + ")");
+        }
+        if (skipConnectorMessages) {
+            conditions.add(SKIP_CONNECTOR_MESSAGES_SQL);
+        }
+        return MessageSelector.bySql(StringUtils.join(conditions, " AND "));
+    }
+
+    public MessageSelector getSelector() {
+        return selector;
+    }
+
+    public PullResult pull(DefaultMQPullConsumer consumer, MessageQueue queue, long offset, int maxNums)
+        throws MQClientException, RemotingException, MQBrokerException, InterruptedException {
+        final MessageSelector current = selector;
+        PullResult pullResult;
+        try {
+            //不过滤时和原来一样按"*"拉,过滤条件不同的task拉到的消息不一样,不能共享
+            if (sharedFetcher != null && TAG_ALL.equals(current.getExpression())) {
+                pullResult = sharedFetcher.pull(consumer, queue, offset, maxNums);
+            } else if (ExpressionType.TAG.equals(current.getExpressionType())) {
+                pullResult = consumer.pull(queue, current.getExpression(), offset, maxNums);
+            } else {
+                pullResult = consumer.pull(queue, current, offset, maxNums);
+            }
+        } catch (MQBrokerException | MQClientException e) {
+            if (ExpressionType.TAG.equals(current.getExpressionType()) || sql != null || !filterNotSupported(e)) {
+                //其他错误(broker繁忙、切主等)不降级,抛出去由task重试
+                throw e;
+            }
+            //只有跳过connector消息用到了SQL92,broker不支持时改成在客户端过滤
+            log.warn("broker rejected SQL92 filter {}, skip messages with {} on the client: {}", current.getExpression(), BY_CONNECTOR, e.getMessage());
+            selector = MessageSelector.byTag(tags);
+            clientSideSkip = true;
+            return pull(consumer, queue, offset, maxNums);
+        }
+        if (pullResult.getPullStatus() == PullStatus.FOUND) {
+            final List<MessageExt> messages = pullResult.getMsgFoundList();
+            messagesPulled.addAndGet(messages.size());
+            bytesPulled.addAndGet(bodySize(messages));
+            filteredByBroker.addAndGet(Math.max(0, pullResult.getNextBeginOffset() - offset - messages.size()));
+        } else if (pullResult.getPullStatus() == PullStatus.NO_MATCHED_MSG) {
+            filteredByBroker.addAndGet(Math.max(0, pullResult.getNextBeginOffset() - offset));
+        }
+        return pullResult;
+    }
+
+    /**
+     * @return the pull failed because the broker can not filter by the expression type, not because of its state
+     */
+    static boolean filterNotSupported(Exception e) {
+        if (e instanceof MQBrokerException) {
+            final MQBrokerException brokerException = (MQBrokerException) e;
+            return brokerException.getResponseCode() == ResponseCode.SYSTEM_ERROR
+                && StringUtils.contains(brokerException.getErrorMessage(), BROKER_FILTER_NOT_SUPPORTED);
+        }
+        return e instanceof MQClientException && StringUtils.contains(e.getMessage(), CLIENT_FILTER_NOT_SUPPORTED);
+    }
+
+    /**
+     * @return the pulled messages which are handed to the sink task
+     */
+    public List<MessageExt> filter(List<MessageExt> messages) {
+        List<MessageExt> delivered = messages;
+        if (clientSideSkip) {
+            delivered = new ArrayList<>(messages.size());
+            for (MessageExt message : messages) {
+                if (Boolean.parseBoolean(message.getUserProperty(BY_CONNECTOR))) {
+                    filteredByClient.incrementAndGet();
+                } else {
+                    delivered.add(message);
+                }
+            }
+        }
+        messagesDelivered.addAndGet(delivered.size());
+        bytesDelivered.addAndGet(bodySize(delivered));
+        return delivered;
+    }
+
+    private static long bodySize(List<MessageExt> messages) {
+        long size = 0;
+        for (MessageExt message : messages) {
+            if (message.getBody() != null) {
+                size += message.getBody().length;
+            }
+        }
+        return size;
+    }
+
+    public Map<String, Object> getJsonObject() {
+        Map<String, Object> obj = new HashMap<>();
+        obj.put("expressionType", selector.getExpressionType());
+        obj.put("expression", selector.getExpression());
+        obj.put("clientSideSkip", clientSideSkip);
+        obj.put("messagesPulled", messagesPulled.get());
+        obj.put("bytesPulled", bytesPulled.get());
+        obj.put("messagesDelivered", messagesDelivered.get());
+        obj.put("bytesDelivered", bytesDelivered.get());
+        obj.put("filteredByBroker", filteredByBroker.get());
+        obj.put("filteredByClient", filteredByClient.get());
+        if (sharedFetcher != null) {
+            obj.put("sharedFetch", sharedFetcher.getJsonObject());
+        }
+        return obj;
+    }
+}
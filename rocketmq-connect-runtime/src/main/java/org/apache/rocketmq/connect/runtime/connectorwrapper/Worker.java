@@ -36,9 +36,14 @@ import org.apache.rocketmq.connect.runtime.common.ConnectKeyValue;
 import org.apache.rocketmq.connect.runtime.common.LoggerName;
 import org.apache.rocketmq.connect.runtime.config.ConnectConfig;
 import org.apache.rocketmq.connect.runtime.config.RuntimeConfigDefine;
+import org.apache.rocketmq.connect.runtime.converter.SchemaBinaryConverter;
 import org.apache.rocketmq.connect.runtime.service.PositionManagementService;
+import org.apache.rocketmq.connect.runtime.service.SchemaRegistryService;
 import org.apache.rocketmq.connect.runtime.service.TaskPositionCommitService;
+import org.apache.rocketmq.connect.runtime.store.MappedSpillQueue;
 import org.apache.rocketmq.connect.runtime.utils.ConnectUtil;
+import org.apache.rocketmq.connect.runtime.utils.FilePathConfigUtil;
+import org.apache.rocketmq.connect.runtime.utils.MemoryPool;
 import org.apache.rocketmq.connect.runtime.utils.Plugin;
 import org.apache.rocketmq.connect.runtime.utils.PluginClassLoader;
 import org.apache.rocketmq.connect.runtime.utils.ServiceThread;
@@ -71,6 +76,16 @@ public class Worker {
      */
     private Map<ConnectKeyValueWrapper, WorkerTask> currentEpochWorkerTaskMap = new ConcurrentHashMap<>();
 
+    /**
+     * restartTasks停止了但在drain超时内没有退出的task,退出之后由maintainTaskState重新创建
+     */
+    private final Map<WorkerTask, Future> pendingRestartTasks = new ConcurrentHashMap<>();
+
+    /**
+     * 重新加载的插件还有旧版本的task没退出,等这些task都退出了再释放旧的类加载器
+     */
+    private final Map<Plugin.PluginReload, Set<WorkerTask>> pendingReleases = new ConcurrentHashMap<>();
+
     /**
      * Thread pool for connectors and tasks.
      */
@@ -95,6 +110,21 @@ public class Worker {
 
     private final Plugin plugin;
 
+    /**
+     * 开启sinkSharedFetchEnable时本worker上的sink task共享拉到的消息
+     */
+    private final SharedQueueFetcher sharedFetcher;
+
+    /**
+     * 本worker上所有task缓存的记录共用的内存预算
+     */
+    private final MemoryPool memoryPool;
+
+    /**
+     * 开启schemaRegistryEnable时给SchemaBinaryConverter用,否则为null
+     */
+    private final SchemaRegistryService schemaRegistryService;
+
     /**
      * Atomic state variable
      */
@@ -105,6 +135,12 @@ public class Worker {
     public Worker(ConnectConfig connectConfig,
                   PositionManagementService positionManagementService, PositionManagementService offsetManagementService,
                   Plugin plugin) {
+        this(connectConfig, positionManagementService, offsetManagementService, plugin, null);
+    }
+
+    public Worker(ConnectConfig connectConfig,
+                  PositionManagementService positionManagementService, PositionManagementService offsetManagementService,
+                  Plugin plugin, SchemaRegistryService schemaRegistryService) {
         this.connectConfig = connectConfig;
         //这里这个cached很重要 因为task基本都是要永久运行
         this.taskExecutor = Executors.newCachedThreadPool(new DefaultThreadFactory("WorkTask-Executor-"));
@@ -115,6 +151,9 @@ public class Worker {
             positionManagementService,
             offsetManagementService);
         this.plugin = plugin;
+        this.memoryPool = new MemoryPool(connectConfig.getWorkerMemoryBudget() > 0 ? connectConfig.getWorkerMemoryBudget() : Runtime.getRuntime().maxMemory() / 4);
+        this.sharedFetcher = connectConfig.isSinkSharedFetchEnable() ? new SharedQueueFetcher(connectConfig.getSinkSharedFetchWindow(), memoryPool) : null;
+        this.schemaRegistryService = schemaRegistryService;
     }
 
     /**
@@ -157,6 +196,10 @@ public class Worker {
         }
     }
 
+    public MemoryPool getMemoryPool() {
+        return memoryPool;
+    }
+
     public Set<WorkerTask> getWorkingTasks() {
         Collection<WorkerTask> values = currentEpochWorkerTaskMap.values();
         Set<WorkerTask> tasks = values.stream().filter(workerTask -> workerTask.getState() == WorkerTaskState.RUNNING).collect(Collectors.toSet());
@@ -223,7 +266,7 @@ public class Worker {
     /**
      * myself
      */
-    public void maintainTaskState() throws ExecutionException, InterruptedException {
+    public synchronized void maintainTaskState() throws ExecutionException, InterruptedException {
 
         //confirm task list
         Map<String, List<ConnectKeyValue>> newTaskConfigs = new HashMap<>();
@@ -234,6 +277,8 @@ public class Worker {
         Map<String, List<ConnectKeyValue>> lastTaskConfigsSnapshot = new HashMap<>(this.lastMaintainTaskConfigsSnapshot);
         lastMaintainTaskConfigsSnapshot = new ConcurrentHashMap<>(newTaskConfigs);
 
+        restartDrainedTasks();
+
 
         //上次本次都存在的一些task
         Map<String, List<ConnectKeyValue>> inCommon = difference(lastTaskConfigsSnapshot,newTaskConfigs,0);
@@ -297,6 +342,173 @@ public class Worker {
         }
     }
 
+    /**
+     * Restart only the tasks of this worker which run one of the given classes, so they pick up the class loader the
+     * plugin now resolves the class to. Every affected task is stopped and drained before it is started again, the
+     * other tasks keep running. A task which does not exit within the drain timeout is not restarted now, it keeps
+     * its slot and is recreated by {@link #maintainTaskState()} once it has exited, so two versions never run at once.
+     * The class loader the reload retired is released once no task of the old version is left, right away or when
+     * the last pending task has exited.
+     *
+     * @param reload reload of the plugin, its classes are the task classes, for direct tasks the source or sink task class
+     * @return number of restarted tasks and of tasks still draining
+     */
+    public synchronized TaskRestart restartTasks(Plugin.PluginReload reload, long drainTimeoutMs) {
+        final Set<String> classNames = reload.getClassNames();
+        List<WorkerTask> affected = new ArrayList<>();
+        for (WorkerTask workerTask : currentEpochWorkerTaskMap.values()) {
+            ConnectKeyValue config = workerTask.getTaskConfig();
+            if (classNames.contains(config.getString(RuntimeConfigDefine.TASK_CLASS))
+                || classNames.contains(config.getString(RuntimeConfigDefine.SOURCE_TASK_CLASS))
+                || sinkTaskClasses(config).stream().anyMatch(classNames::contains)) {
+                affected.add(workerTask);
+            }
+        }
+        if (affected.isEmpty()) {
+            plugin.release(reload);
+            return new TaskRestart(0, 0);
+        }
+        for (WorkerTask workerTask : affected) {
+            workerTask.stop();
+        }
+        //等旧的task真正退出,避免新旧两个task同时处理同一批数据
+        long deadline = System.currentTimeMillis() + drainTimeoutMs;
+        List<WorkerTask> drained = new ArrayList<>();
+        Set<WorkerTask> pending = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        for (WorkerTask workerTask : affected) {
+            Future future = taskToFutureMap.get(workerTask);
+            if (future != null) {
+                try {
+                    future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    //cancel之后future马上就是done了,线程却可能还在跑,所以不cancel,等它自己退出
+                    log.warn("task {} did not stop in {} ms, restart it after it exits", workerTask.getTaskConfig(), drainTimeoutMs);
+                    pendingRestartTasks.put(workerTask, future);
+                    pending.add(workerTask);
+                    continue;
+                } catch (Exception e) {
+                    log.error("", e);
+                }
+            }
+            taskToFutureMap.remove(workerTask);
+            currentEpochWorkerTaskMap.remove(ConnectKeyValueWrapper.wrap(workerTask.getTaskConfig()));
+            pendingRestartTasks.remove(workerTask);
+            taskExited(workerTask);
+            drained.add(workerTask);
+        }
+        if (pending.isEmpty()) {
+            plugin.release(reload);
+        } else {
+            //旧版本的task还在跑,它们退出以后在restartDrainedTasks里释放
+            pendingReleases.put(reload, pending);
+        }
+        taskPositionCommitService.commitTaskPosition();
+
+        int restarted = 0;
+        for (WorkerTask workerTask : drained) {
+            if (recreateTask(workerTask)) {
+                restarted++;
+            }
+        }
+        return new TaskRestart(restarted, pending.size());
+    }
+
+    /**
+     * 重新创建restartTasks时没有按时退出、现在已经退出的task,已经不再分配给本节点的直接丢掉
+     */
+    private void restartDrainedTasks() {
+        for (Map.Entry<WorkerTask, Future> entry : pendingRestartTasks.entrySet()) {
+            WorkerTask workerTask = entry.getKey();
+            if (!entry.getValue().isDone()) {
+                continue;
+            }
+            pendingRestartTasks.remove(workerTask);
+            taskExited(workerTask);
+            ConnectKeyValueWrapper key = ConnectKeyValueWrapper.wrap(workerTask.getTaskConfig());
+            if (currentEpochWorkerTaskMap.get(key) != workerTask) {
+                continue;
+            }
+            taskToFutureMap.remove(workerTask);
+            currentEpochWorkerTaskMap.remove(key);
+            recreateTask(workerTask);
+        }
+    }
+
+    /**
+     * 旧版本的task退出了,它是某次重新加载最后一个没退出的task时释放那次替换下来的类加载器
+     */
+    private void taskExited(WorkerTask workerTask) {
+        Iterator<Map.Entry<Plugin.PluginReload, Set<WorkerTask>>> iterator = pendingReleases.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Plugin.PluginReload, Set<WorkerTask>> entry = iterator.next();
+            if (entry.getValue().remove(workerTask) && entry.getValue().isEmpty()) {
+                iterator.remove();
+                log.info("last task of the old version of plugin {} exited, release its class loader", entry.getKey().getLocation());
+                plugin.release(entry.getKey());
+            }
+        }
+    }
+
+    private boolean recreateTask(WorkerTask workerTask) {
+        ConnectKeyValue keyValue = workerTask.getTaskConfig();
+        try {
+            WorkerTask task = createTask(workerTask.getConnectorName(), keyValue);
+            Future<?> future = taskExecutor.submit(task);
+            taskToFutureMap.put(task, future);
+            currentEpochWorkerTaskMap.put(ConnectKeyValueWrapper.wrap(keyValue), task);
+            return true;
+        } catch (Exception ex) {
+            //下次负载均衡发现少了这个task会再创建
+            log.error(String.format("restart task failed connector=%s ConnectKeyValue=%s", workerTask.getConnectorName(), keyValue), ex);
+            lastMaintainTaskConfigsSnapshot.computeIfPresent(workerTask.getConnectorName(), (k, v) -> {
+                List<ConnectKeyValue> remain = new ArrayList<>(v);
+                remain.removeIf(c -> StringUtils.equals(c.getString(RuntimeConfigDefine.TASK_UID), keyValue.getString(RuntimeConfigDefine.TASK_UID)));
+                return remain;
+            });
+            return false;
+        }
+    }
+
+    public static class TaskRestart {
+
+        private final int restarted;
+
+        private final int pending;
+
+        TaskRestart(int restarted, int pending) {
+            this.restarted = restarted;
+            this.pending = pending;
+        }
+
+        public int getRestarted() {
+            return restarted;
+        }
+
+        /**
+         * Tasks which did not exit within the drain timeout, they still use the old class loader.
+         */
+        public int getPending() {
+            return pending;
+        }
+    }
+
+    /**
+     * @return sink task classes of a direct task, SINK_TASK_CLASSES if set, otherwise SINK_TASK_CLASS
+     */
+    static List<String> sinkTaskClasses(ConnectKeyValue keyValue) {
+        String sinkTaskClasses = keyValue.getString(RuntimeConfigDefine.SINK_TASK_CLASSES);
+        if (StringUtils.isBlank(sinkTaskClasses)) {
+            return Collections.singletonList(keyValue.getString(RuntimeConfigDefine.SINK_TASK_CLASS));
+        }
+        List<String> classes = new ArrayList<>();
+        for (String sinkTaskClass : sinkTaskClasses.split(",")) {
+            if (StringUtils.isNotBlank(sinkTaskClass)) {
+                classes.add(sinkTaskClass.trim());
+            }
+        }
+        return classes;
+    }
+
     /**
      * @param connectorName connector的name
      * @param keyValue task的keyValue
@@ -310,11 +522,13 @@ public class Worker {
                 String sourceTaskClass = keyValue.getString(RuntimeConfigDefine.SOURCE_TASK_CLASS);
                 Task sourceTask = getTask(sourceTaskClass);
 
-                String sinkTaskClass = keyValue.getString(RuntimeConfigDefine.SINK_TASK_CLASS);
-                Task sinkTask = getTask(sinkTaskClass);
+                List<SinkTask> sinkTasks = new ArrayList<>();
+                for (String sinkTaskClass : sinkTaskClasses(keyValue)) {
+                    sinkTasks.add((SinkTask) getTask(sinkTaskClass));
+                }
 
                 WorkerDirectTask workerDirectTask = new WorkerDirectTask(connectorName,
-                        (SourceTask) sourceTask, (SinkTask) sinkTask, keyValue, positionManagementService, workerState);
+                        (SourceTask) sourceTask, sinkTasks, keyValue, positionManagementService, workerState, memoryPool);
                 return workerDirectTask;
             }
 
@@ -335,6 +549,9 @@ public class Worker {
             if (StringUtils.isNotEmpty(converterClazzName)) {
                 Class converterClazz = Class.forName(converterClazzName);
                 recordConverter = (Converter) converterClazz.newInstance();
+                if (recordConverter instanceof SchemaBinaryConverter) {
+                    ((SchemaBinaryConverter) recordConverter).setSchemaRegistryService(schemaRegistryService);
+                }
             }
             if (isolationFlag) {
                 Plugin.compareAndSwapLoaders(loader);
@@ -342,7 +559,14 @@ public class Worker {
             if (task instanceof SourceTask) {
                 DefaultMQProducer producer = ConnectUtil.initDefaultMQProducer(connectConfig);
                 //必须保证提交到线程池之前，这里的类加载动作就全部完成。否线程池的类加载器是appClassLoader
-                WorkerSourceTask workerSourceTask = new WorkerSourceTask(connectorName,(SourceTask) task, keyValue, positionManagementService, recordConverter, producer, workerState,isolationFlag?loader:currentThreadLoader);
+                MappedSpillQueue spillQueue = null;
+                if (Boolean.parseBoolean(keyValue.getString(RuntimeConfigDefine.SOURCE_SPILL_ENABLE))) {
+                    //按task的uid放,task数量变了uid不变,上次落盘的记录还能补发
+                    spillQueue = new MappedSpillQueue(FilePathConfigUtil.getSourceSpillPath(connectConfig.getStorePathRootDir(), connectorName, keyValue.getString(RuntimeConfigDefine.TASK_UID)),
+                        keyValue.getInt(RuntimeConfigDefine.SOURCE_SPILL_SEGMENT_BYTES, MappedSpillQueue.DEFAULT_SEGMENT_BYTES),
+                        keyValue.getLong(RuntimeConfigDefine.SOURCE_SPILL_MAX_BYTES, MappedSpillQueue.DEFAULT_MAX_BYTES));
+                }
+                WorkerSourceTask workerSourceTask = new WorkerSourceTask(connectorName,(SourceTask) task, keyValue, positionManagementService, recordConverter, producer, workerState,isolationFlag?loader:currentThreadLoader, memoryPool, spillQueue);
                 Plugin.compareAndSwapLoaders(currentThreadLoader);
                 return workerSourceTask;
 
@@ -351,16 +575,18 @@ public class Worker {
                 if (connectConfig.isAutoCreateGroupEnable()) {
                     //这里我们可以借鉴一下！rocketMQ控制台的创建和使用
                     //TODO consumerGroup的维度以connectorName为准。相同connectorName作为组,其下各个task的配置一定是相同的。不同的connectorName用来同步不同的topic或者一组固定的topic
-                    //connector之间如果有重复的topic,则因为组不同，必然从rocketMQ拉2次消息重复投递。
+                    //connector之间如果有重复的topic,则因为组不同，必然从rocketMQ拉2次消息重复投递。开启sinkSharedFetchEnable后同一个worker上的只拉一次
                     //组内配置完全相同，拉消息应该没问题。但是持久化文件和位移在节点间的同步机制都不会看消费组
                     //因为我们的目的是同步topic,不管是那个connectorName,只能能把消息同步过去就OK就算这个topic同步成功,不需要在乎位移。
                     //1、划分group，而不是一次性订阅所有topic，是为了让每个组负责自己的一个topic，各个组共同完成MQ集群的同步。组内可以用taskNum横向扩展最大到queue的读写数量上。
                     //2、不划分group，直接一次性订阅所有topic，假设有100个task用来同步数据。这100个task都是单独的consumer实例，共同消费所有的topic进行负载均衡分配
-                    consumer.setConsumerGroup(connectConfig.getRmqConsumerGroup()+"-"+connectorName);
+                    consumer.setConsumerGroup(ConnectUtil.getSinkConsumerGroup(connectConfig, connectorName));
                     log.info("create sub group for sink task:"+consumer.getConsumerGroup());
                     ConnectUtil.createSubGroup(connectConfig, consumer.getConsumerGroup());
                 }
-                WorkerSinkTask workerSinkTask = new WorkerSinkTask(connectorName,(SinkTask) task, keyValue, offsetManagementService, recordConverter, consumer, workerState,isolationFlag?loader:currentThreadLoader);
+                DefaultMQProducer deadLetterProducer = StringUtils.isEmpty(keyValue.getString(RuntimeConfigDefine.ERRORS_DEADLETTER_TOPIC)) ? null : ConnectUtil.initDefaultMQProducer(connectConfig);
+                SinkErrorHandler errorHandler = new SinkErrorHandler(connectorName, keyValue, deadLetterProducer);
+                WorkerSinkTask workerSinkTask = new WorkerSinkTask(connectorName,(SinkTask) task, keyValue, offsetManagementService, recordConverter, consumer, workerState,isolationFlag?loader:currentThreadLoader, errorHandler, connectConfig.isSinkOffsetSyncEnable(), sharedFetcher, memoryPool);
                 Plugin.compareAndSwapLoaders(currentThreadLoader);
                 return workerSinkTask;
             }else {
@@ -22,8 +22,6 @@ import com.alibaba.fastjson.serializer.SerializerFeature;
 import io.openmessaging.KeyValue;
 import io.openmessaging.connector.api.PositionStorageReader;
 import io.openmessaging.connector.api.common.QueueMetaData;
-import io.openmessaging.connector.api.data.DataEntryBuilder;
-import io.openmessaging.connector.api.data.Schema;
 import io.openmessaging.connector.api.data.SinkDataEntry;
 import io.openmessaging.connector.api.data.SourceDataEntry;
 import io.openmessaging.connector.api.sink.SinkTask;
@@ -32,23 +30,58 @@ import io.openmessaging.connector.api.source.SourceTask;
 import io.openmessaging.connector.api.source.SourceTaskContext;
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.rocketmq.connect.runtime.ConnectController;
 import org.apache.rocketmq.connect.runtime.common.ConnectKeyValue;
 import org.apache.rocketmq.connect.runtime.common.LoggerName;
+import org.apache.rocketmq.connect.runtime.config.RuntimeConfigDefine;
 import org.apache.rocketmq.connect.runtime.service.PositionManagementService;
 import org.apache.rocketmq.connect.runtime.store.PositionStorageReaderImpl;
+import org.apache.rocketmq.connect.runtime.utils.MemoryPool;
+import org.apache.rocketmq.connect.runtime.utils.SpscRingBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * A wrapper of {@link SinkTask} and {@link SourceTask} for runtime.
+ * A wrapper of {@link SinkTask} and {@link SourceTask} for runtime. With more than one sink task every polled record is
+ * delivered to all of them, and the source position only moves as far as every attached sink has put.
  */
 public class WorkerDirectTask implements WorkerTask {
 
     private static final Logger log = LoggerFactory.getLogger(LoggerName.ROCKETMQ_RUNTIME);
 
+    private static final int DEFAULT_RING_CAPACITY = 4096;
+
+    private static final int DEFAULT_SINK_BATCH_SIZE = 512;
+
+    /**
+     * ring buffer满或空时等待的时间
+     */
+    private static final long IDLE_PARK_NANOS = 100_000L;
+
+    private static final long DEFAULT_SLOW_SINK_TIMEOUT_MS = 5000;
+
+    /**
+     * put失败后同一批记录隔多久重试
+     */
+    private static final long PUT_RETRY_INTERVAL_MS = 1000;
+
+    /**
+     * A full sink buffer blocks the source, so the slowest sink sets the pace for all of them.
+     */
+    public static final String SLOW_SINK_THROTTLE = "throttle";
+
+    /**
+     * A sink whose buffer stays full longer than the slow sink timeout stops getting records until the task is
+     * restarted, and no longer holds back the source position.
+     */
+    public static final String SLOW_SINK_DETACH = "detach";
+
     /**
      * Connector name of current task.
      */
@@ -60,9 +93,9 @@ public class WorkerDirectTask implements WorkerTask {
     private SourceTask sourceTask;
 
     /**
-     * The implements of the sink task.
+     * The implements of the sink tasks.
      */
-    private SinkTask sinkTask;
+    private List<SinkTask> sinkTasks;
 
     /**
      * The configs of current sink task.
@@ -80,20 +113,62 @@ public class WorkerDirectTask implements WorkerTask {
 
     private final AtomicReference<WorkerState> workerState;
 
+    /**
+     * Set by the source thread after its last record is in the ring buffer.
+     */
+    private volatile boolean sourceStopped = false;
+
+    /**
+     * Sequence of the last record the source thread polled.
+     */
+    private volatile long polledSequence = -1;
+
+    /**
+     * Positions of every polled batch, in sequence order, until every attached sink has put the whole batch.
+     */
+    private final Queue<PositionMark> pendingPositions = new ConcurrentLinkedQueue<>();
+
+    private volatile List<SinkLane> lanes = Collections.emptyList();
+
+    /**
+     * worker上所有task共用的内存预算,poll到的记录所有sink都put完之前占着
+     */
+    private final MemoryPool memoryPool;
+
     public WorkerDirectTask(String connectorName,
         SourceTask sourceTask,
         SinkTask sinkTask,
         ConnectKeyValue taskConfig,
         PositionManagementService positionManagementService,
         AtomicReference<WorkerState> workerState) {
+        this(connectorName, sourceTask, Collections.singletonList(sinkTask), taskConfig, positionManagementService, workerState);
+    }
+
+    public WorkerDirectTask(String connectorName,
+        SourceTask sourceTask,
+        List<SinkTask> sinkTasks,
+        ConnectKeyValue taskConfig,
+        PositionManagementService positionManagementService,
+        AtomicReference<WorkerState> workerState) {
+        this(connectorName, sourceTask, sinkTasks, taskConfig, positionManagementService, workerState, MemoryPool.unlimited());
+    }
+
+    public WorkerDirectTask(String connectorName,
+        SourceTask sourceTask,
+        List<SinkTask> sinkTasks,
+        ConnectKeyValue taskConfig,
+        PositionManagementService positionManagementService,
+        AtomicReference<WorkerState> workerState,
+        MemoryPool memoryPool) {
         this.connectorName = connectorName;
         this.sourceTask = sourceTask;
-        this.sinkTask = sinkTask;
+        this.sinkTasks = sinkTasks;
         this.taskConfig = taskConfig;
         this.positionManagementService = positionManagementService;
         this.positionStorageReader = new PositionStorageReaderImpl(positionManagementService);
         this.state = new AtomicReference<>(WorkerTaskState.NEW);
         this.workerState = workerState;
+        this.memoryPool = memoryPool;
     }
 
     /**
@@ -105,16 +180,27 @@ public class WorkerDirectTask implements WorkerTask {
             starkSinkTask();
             startSourceTask();
             log.info("Direct task start, config:{}", JSON.toJSONString(taskConfig));
-            while (WorkerState.STARTED == workerState.get() && WorkerTaskState.RUNNING == state.get()) {
-                try {
-                    //poll()完直接sendRecord()
-                    Collection<SourceDataEntry> toSendEntries = sourceTask.poll();
-                    if (null != toSendEntries && toSendEntries.size() > 0) {
-                        sendRecord(toSendEntries);
+            //多个sink只能走pipeline,每个sink一个线程
+            if (sinkTasks.size() > 1 || Boolean.parseBoolean(taskConfig.getString(RuntimeConfigDefine.DIRECT_PIPELINE_ENABLE))) {
+                runPipelined();
+            } else {
+                while (isRunning()) {
+                    try {
+                        //poll()完直接sendRecord()
+                        Collection<SourceDataEntry> toSendEntries = sourceTask.poll();
+                        if (null != toSendEntries && toSendEntries.size() > 0) {
+                            final long bytes = MemoryPool.sizeOf(toSendEntries);
+                            memoryPool.reserve(connectorName, bytes, this::isRunning);
+                            try {
+                                sendRecord(toSendEntries);
+                            } finally {
+                                memoryPool.release(connectorName, bytes);
+                            }
+                        }
+                    } catch (Exception e) {
+                        log.error("Direct task runtime exception", e);
+                        state.set(WorkerTaskState.ERROR);
                     }
-                } catch (Exception e) {
-                    log.error("Direct task runtime exception", e);
-                    state.set(WorkerTaskState.ERROR);
                 }
             }
             stopSourceTask();
@@ -129,46 +215,389 @@ public class WorkerDirectTask implements WorkerTask {
         }
     }
 
-    private void sendRecord(Collection<SourceDataEntry> sourceDataEntries) {
-        List<SinkDataEntry> sinkDataEntries = new ArrayList<>(sourceDataEntries.size());
-        ByteBuffer position = null;
-        ByteBuffer partition = null;
-        for (SourceDataEntry sourceDataEntry : sourceDataEntries) {
-            Schema schema = sourceDataEntry.getSchema();
-            Object[] payload = sourceDataEntry.getPayload();
-            DataEntryBuilder dataEntryBuilder = new DataEntryBuilder(schema)
-                .entryType(sourceDataEntry.getEntryType())
-                .queue(sourceDataEntry.getQueueName())
-                .timestamp(sourceDataEntry.getTimestamp());
-            if (schema.getFields() != null) {
-                schema.getFields().forEach(field -> dataEntryBuilder.putFiled(field.getName(), payload[field.getIndex()]));
+    private boolean isRunning() {
+        return WorkerState.STARTED == workerState.get() && WorkerTaskState.RUNNING == state.get();
+    }
+
+    /**
+     * The current thread polls the source task, and every sink task has a thread draining its own ring buffer in
+     * batches. Poll and put overlap. A full ring buffer throttles the source or detaches the sink, see
+     * {@link RuntimeConfigDefine#DIRECT_SLOW_SINK_POLICY}.
+     */
+    private void runPipelined() throws InterruptedException {
+        int capacity = taskConfig.getInt(RuntimeConfigDefine.DIRECT_RING_CAPACITY, DEFAULT_RING_CAPACITY);
+        int batchSize = taskConfig.getInt(RuntimeConfigDefine.DIRECT_SINK_BATCH_SIZE, DEFAULT_SINK_BATCH_SIZE);
+        boolean detachSlowSink = SLOW_SINK_DETACH.equalsIgnoreCase(taskConfig.getString(RuntimeConfigDefine.DIRECT_SLOW_SINK_POLICY));
+        long slowSinkTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(taskConfig.getLong(RuntimeConfigDefine.DIRECT_SLOW_SINK_TIMEOUT, DEFAULT_SLOW_SINK_TIMEOUT_MS));
+        sourceStopped = false;
+        List<SinkLane> sinkLanes = new ArrayList<>(sinkTasks.size());
+        for (int i = 0; i < sinkTasks.size(); i++) {
+            sinkLanes.add(new SinkLane(i, sinkTasks.get(i), capacity, batchSize));
+        }
+        lanes = sinkLanes;
+        sinkLanes.forEach(lane -> lane.thread.start());
+        long sequence = polledSequence;
+        long reserved = 0;
+        try {
+            while (isRunning()) {
+                reserved = 0;
+                try {
+                    Collection<SourceDataEntry> toSendEntries = sourceTask.poll();
+                    if (null == toSendEntries || toSendEntries.isEmpty()) {
+                        continue;
+                    }
+                    //内存预算用完时在这里等,sink put完释放之后再往ring里放
+                    final long bytes = MemoryPool.sizeOf(toSendEntries);
+                    memoryPool.reserve(connectorName, bytes, this::isRunning);
+                    reserved = bytes;
+                    Map<ByteBuffer, ByteBuffer> positions = new HashMap<>();
+                    boolean offered = true;
+                    for (SourceDataEntry sourceDataEntry : toSendEntries) {
+                        DirectRecord record = new DirectRecord(sourceDataEntry, ++sequence);
+                        if (null != record.partition && null != record.position) {
+                            positions.put(record.partition, record.position);
+                        }
+                        for (SinkLane lane : sinkLanes) {
+                            if (!lane.detached && !offer(lane, record, detachSlowSink, slowSinkTimeoutNanos)) {
+                                offered = false;
+                                break;
+                            }
+                        }
+                        if (!offered) {
+                            break;
+                        }
+                        polledSequence = sequence;
+                    }
+                    if (!offered) {
+                        //task停止时sink还在重试,这批没有全部放进去,不记它的位点
+                        break;
+                    }
+                    if (!positions.isEmpty() || bytes > 0) {
+                        pendingPositions.add(new PositionMark(sequence, positions, bytes));
+                        reserved = 0;
+                        //sink可能在加入之前就已经put完了
+                        commitWatermark();
+                    }
+                    if (sinkLanes.stream().allMatch(lane -> lane.detached)) {
+                        throw new IllegalStateException("all sink tasks are detached");
+                    }
+                } catch (Exception e) {
+                    log.error("Direct task runtime exception", e);
+                    state.set(WorkerTaskState.ERROR);
+                    memoryPool.release(connectorName, reserved);
+                    reserved = 0;
+                }
+            }
+        } finally {
+            memoryPool.release(connectorName, reserved);
+            //sink线程把已经poll到的数据都put完再退出,detach的sink也要等它当前的put返回,之后才能stop sink task
+            sourceStopped = true;
+            for (SinkLane lane : sinkLanes) {
+                lane.thread.join();
+            }
+            commitWatermark();
+            //sink都detach了或者没put完的,不会再有人释放
+            PositionMark mark;
+            while ((mark = pendingPositions.poll()) != null) {
+                memoryPool.release(connectorName, mark.bytes);
+            }
+        }
+    }
+
+    /**
+     * @return false if the task stopped while the buffer of the sink was full
+     */
+    private boolean offer(SinkLane lane, DirectRecord record, boolean detachSlowSink, long slowSinkTimeoutNanos) {
+        if (lane.ring.offer(record)) {
+            return true;
+        }
+        long waitStart = System.nanoTime();
+        while (!lane.ring.offer(record)) {
+            if (!lane.thread.isAlive()) {
+                throw new IllegalStateException("direct sink thread exited");
             }
-            SinkDataEntry sinkDataEntry = dataEntryBuilder.buildSinkDataEntry(-1L);
-            sinkDataEntries.add(sinkDataEntry);
-            position = sourceDataEntry.getSourcePosition();//string
-            partition = sourceDataEntry.getSourcePartition();//string
+            //sink一直put失败时buffer不会空,不能在这里等到停不下来
+            if (!isRunning()) {
+                return false;
+            }
+            if (detachSlowSink && System.nanoTime() - waitStart > slowSinkTimeoutNanos) {
+                lane.detached = true;
+                log.warn("Sink task {} of direct task {} is {} records behind, detach it", lane.sinkTask.getClass().getName(),
+                    connectorName, lane.lag());
+                commitWatermark();
+                return true;
+            }
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
         }
+        return true;
+    }
 
+    /**
+     * Store the position of every record all attached sinks have put.
+     */
+    private synchronized void commitWatermark() {
+        long watermark = Long.MAX_VALUE;
+        boolean attached = false;
+        for (SinkLane lane : lanes) {
+            if (!lane.detached) {
+                watermark = Math.min(watermark, lane.acked);
+                attached = true;
+            }
+        }
+        if (!attached) {
+            return;
+        }
+        Map<ByteBuffer, ByteBuffer> positions = null;
+        long releasedBytes = 0;
+        PositionMark mark;
+        while ((mark = pendingPositions.peek()) != null && mark.sequence <= watermark) {
+            pendingPositions.poll();
+            releasedBytes += mark.bytes;
+            if (mark.positions.isEmpty()) {
+                continue;
+            }
+            if (positions == null) {
+                positions = mark.positions;
+            } else {
+                positions.putAll(mark.positions);
+            }
+        }
+        memoryPool.release(connectorName, releasedBytes);
         try {
-            sinkTask.put(sinkDataEntries);
-            try {
-                if (null != position && null != partition) {
-                    positionManagementService.putPosition(position, partition);
+            if (positions != null) {
+                positionManagementService.putPosition(positions);
+            }
+        } catch (Exception e) {
+            log.error("Source task save position info failed.", e);
+        }
+    }
+
+    /**
+     * Last position of every source partition in one polled batch.
+     */
+    private static class PositionMark {
+
+        /**
+         * Sequence of the last record of the batch.
+         */
+        private final long sequence;
+
+        private final Map<ByteBuffer, ByteBuffer> positions;
+
+        /**
+         * Bytes of the batch reserved from the memory pool.
+         */
+        private final long bytes;
+
+        PositionMark(long sequence, Map<ByteBuffer, ByteBuffer> positions, long bytes) {
+            this.sequence = sequence;
+            this.positions = positions;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * One sink task of the pipeline, with its own buffer and thread.
+     */
+    private class SinkLane implements Runnable {
+
+        private final SinkTask sinkTask;
+
+        private final SpscRingBuffer<DirectRecord> ring;
+
+        private final int batchSize;
+
+        private final Thread thread;
+
+        /**
+         * Sequence of the last record put to the sink task.
+         */
+        private volatile long acked;
+
+        private volatile boolean detached = false;
+
+        private volatile long retries = 0;
+
+        /**
+         * The sink gave up a batch when the task stopped, the position is held at {@link #acked}.
+         */
+        private volatile boolean failed = false;
+
+        SinkLane(int index, SinkTask sinkTask, int capacity, int batchSize) {
+            this.sinkTask = sinkTask;
+            this.ring = new SpscRingBuffer<>(capacity);
+            this.batchSize = batchSize;
+            this.acked = polledSequence;
+            this.thread = new Thread(this, "DirectSinkThread-" + connectorName + "-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            List<DirectRecord> batch = new ArrayList<>(batchSize);
+            List<SinkDataEntry> sinkDataEntries = new ArrayList<>(batchSize);
+            while (!detached) {
+                //上一批没put成功时不取新的,先重试它
+                if (batch.isEmpty()) {
+                    if (ring.drainTo(batch, batchSize) == 0) {
+                        if (sourceStopped && ring.isEmpty()) {
+                            return;
+                        }
+                        LockSupport.parkNanos(IDLE_PARK_NANOS);
+                        continue;
+                    }
+                    for (DirectRecord record : batch) {
+                        sinkDataEntries.add(record.sinkDataEntry);
+                    }
                 }
+                try {
+                    sinkTask.put(sinkDataEntries);
+                } catch (Exception e) {
+                    //acked不动,位点停在这批前面,后面的批次也不会越过它
+                    retries++;
+                    if (sourceStopped) {
+                        //位点停在acked,这个sink没收到的记录重启后会再poll到
+                        failed = true;
+                        log.error("Send message error, direct task is stopping, records from sequence {} are not put.", acked + 1, e);
+                        return;
+                    }
+                    log.error("Send message error, retry in {}ms.", PUT_RETRY_INTERVAL_MS, e);
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(PUT_RETRY_INTERVAL_MS));
+                    continue;
+                }
+                acked = batch.get(batch.size() - 1).sequence;
+                commitWatermark();
+                batch.clear();
+                sinkDataEntries.clear();
+            }
+        }
+
+        long lag() {
+            return Math.max(0, polledSequence - acked);
+        }
+
+        Map<String, Object> toJsonObject() {
+            Map<String, Object> obj = new LinkedHashMap<>();
+            obj.put("sinkTaskClass", sinkTask.getClass().getName());
+            obj.put("lag", lag());
+            obj.put("buffered", ring.size());
+            obj.put("retries", retries);
+            obj.put("failed", failed);
+            obj.put("detached", detached);
+            return obj;
+        }
+    }
+
+    private void sendRecord(Collection<SourceDataEntry> sourceDataEntries) throws InterruptedException {
+        List<DirectRecord> records = new ArrayList<>(sourceDataEntries.size());
+        for (SourceDataEntry sourceDataEntry : sourceDataEntries) {
+            records.add(new DirectRecord(sourceDataEntry, -1));
+        }
+        putAndCommit(records);
+    }
+
+    /**
+     * Put the records to the sink task, and only if that succeeds store the last position of every source partition
+     * in the batch. A failed put is retried until it succeeds or the task stops, the source is not polled meanwhile.
+     */
+    private void putAndCommit(List<DirectRecord> records) throws InterruptedException {
+        List<SinkDataEntry> sinkDataEntries = new ArrayList<>(records.size());
+        Map<ByteBuffer, ByteBuffer> positions = new HashMap<>();
+        for (DirectRecord record : records) {
+            sinkDataEntries.add(record.sinkDataEntry);
+            if (null != record.partition && null != record.position) {
+                positions.put(record.partition, record.position);
+            }
+        }
+
+        while (true) {
+            try {
+                sinkTasks.get(0).put(sinkDataEntries);
+                break;
             } catch (Exception e) {
-                log.error("Source task save position info failed.", e);
+                //这批不能丢,否则下一批的位点会越过它。task停止时不存位点,重启后从上次的位点重新poll
+                if (!isRunning()) {
+                    log.error("Send message error, direct task is stopping, positions of the batch are not stored.", e);
+                    return;
+                }
+                log.error("Send message error, retry in {}ms.", PUT_RETRY_INTERVAL_MS, e);
+                Thread.sleep(PUT_RETRY_INTERVAL_MS);
+            }
+        }
+        try {
+            if (!positions.isEmpty()) {
+                positionManagementService.putPosition(positions);
             }
         } catch (Exception e) {
-            log.error("Send message error, error info: {}.", e);
+            log.error("Source task save position info failed.", e);
+        }
+    }
+
+    /**
+     * A source entry converted for the sink task, with the source position it came from.
+     */
+    private static class DirectRecord {
+
+        private final SinkDataEntry sinkDataEntry;
+
+        private final ByteBuffer partition;
+
+        private final ByteBuffer position;
+
+        private final long sequence;
+
+        DirectRecord(SourceDataEntry sourceDataEntry, long sequence) {
+            //payload已经是按schema字段下标排好的,不需要再经过DataEntryBuilder逐个字段复制
+            this.sinkDataEntry = new SinkDataEntry(-1L, sourceDataEntry.getTimestamp(), sourceDataEntry.getEntryType(),
+                sourceDataEntry.getQueueName(), sourceDataEntry.getSchema(), sourceDataEntry.getShardingKey(),
+                sourceDataEntry.getPayload());
+            this.partition = sourceDataEntry.getSourcePartition();
+            this.position = sourceDataEntry.getSourcePosition();
+            this.sequence = sequence;
         }
     }
 
     private void starkSinkTask() {
+        for (int i = 0; i < sinkTasks.size(); i++) {
+            starkSinkTask(sinkTasks.get(i), sinkTaskConfig(taskConfig, i));
+        }
+    }
+
+    /**
+     * @return config of the sink at the index of sink-task-classes: the shared task config with the keys under
+     * {@code sink.<index>.} put over it, without the keys of any sink
+     */
+    static ConnectKeyValue sinkTaskConfig(ConnectKeyValue taskConfig, int index) {
+        final String prefix = RuntimeConfigDefine.SINK_TASK_CONFIG_PREFIX + index + ".";
+        ConnectKeyValue sinkConfig = new ConnectKeyValue();
+        Map<String, String> own = new HashMap<>();
+        for (Map.Entry<String, String> entry : taskConfig.getProperties().entrySet()) {
+            final String key = entry.getKey();
+            if (key.startsWith(prefix)) {
+                own.put(key.substring(prefix.length()), entry.getValue());
+            } else if (!isSinkKey(key)) {
+                sinkConfig.put(key, entry.getValue());
+            }
+        }
+        own.forEach(sinkConfig::put);
+        return sinkConfig;
+    }
+
+    private static boolean isSinkKey(String key) {
+        if (!key.startsWith(RuntimeConfigDefine.SINK_TASK_CONFIG_PREFIX)) {
+            return false;
+        }
+        int dot = key.indexOf('.', RuntimeConfigDefine.SINK_TASK_CONFIG_PREFIX.length());
+        return dot > RuntimeConfigDefine.SINK_TASK_CONFIG_PREFIX.length()
+            && StringUtils.isNumeric(key.substring(RuntimeConfigDefine.SINK_TASK_CONFIG_PREFIX.length(), dot));
+    }
+
+    private void starkSinkTask(SinkTask sinkTask, ConnectKeyValue sinkConfig) {
         sinkTask.initialize(new SinkTaskContext() {
 
             @Override
             public KeyValue configs() {
-                return taskConfig;
+                return sinkConfig;
             }
 
             @Override
@@ -191,12 +620,14 @@ public class WorkerDirectTask implements WorkerTask {
 
             }
         });
-        sinkTask.start(taskConfig);
-        log.info("Sink task start, config:{}", JSON.toJSONString(taskConfig));
+        sinkTask.start(sinkConfig);
+        log.info("Sink task start, config:{}", JSON.toJSONString(sinkConfig));
     }
 
     private void stopSinkTask() {
-        sinkTask.stop();
+        for (SinkTask sinkTask : sinkTasks) {
+            sinkTask.stop();
+        }
         log.info("Sink task stop, config:{}", JSON.toJSONString(taskConfig));
     }
 
@@ -259,6 +690,12 @@ public class WorkerDirectTask implements WorkerTask {
         obj.put("taskConfig", taskConfig);
         obj.put("state", state.get().toString());
         obj.put("workerId", ConnectController.getInstance().getConnectConfig().getWorkerId());
+        List<SinkLane> sinkLanes = lanes;
+        if (!sinkLanes.isEmpty()) {
+            List<Object> sinks = new ArrayList<>(sinkLanes.size());
+            sinkLanes.forEach(lane -> sinks.add(lane.toJsonObject()));
+            obj.put("sinks", sinks);
+        }
         return obj;
     }
 }
@@ -29,12 +29,14 @@ import io.openmessaging.connector.api.sink.SinkTaskContext;
 import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.function.Consumer;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.rocketmq.client.consumer.*;
 import org.apache.rocketmq.client.exception.MQBrokerException;
 import org.apache.rocketmq.client.exception.MQClientException;
+import org.apache.rocketmq.client.impl.consumer.DefaultMQPullConsumerImpl;
 import org.apache.rocketmq.common.message.MessageExt;
 import org.apache.rocketmq.common.message.MessageQueue;
 import org.apache.rocketmq.connect.runtime.ConnectController;
@@ -42,9 +44,13 @@ import org.apache.rocketmq.connect.runtime.common.ConnectKeyValue;
 import org.apache.rocketmq.connect.runtime.common.LoggerName;
 import org.apache.rocketmq.connect.runtime.config.ConnectConfig;
 import org.apache.rocketmq.connect.runtime.config.RuntimeConfigDefine;
+import org.apache.rocketmq.connect.runtime.converter.SchemaBinaryConverter;
 import org.apache.rocketmq.connect.runtime.service.PositionManagementService;
+import org.apache.rocketmq.connect.runtime.service.SchemaRegistryService;
 import org.apache.rocketmq.connect.runtime.store.PositionStorageReaderImpl;
+import org.apache.rocketmq.connect.runtime.utils.MemoryPool;
 import org.apache.rocketmq.connect.runtime.utils.Plugin;
+import org.apache.rocketmq.connect.runtime.utils.PositionCodec;
 import org.apache.rocketmq.remoting.exception.RemotingException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -104,6 +110,51 @@ public class WorkerSinkTask implements WorkerTask {
     private final ConcurrentHashMap<MessageQueue, Long/*下次要消费的位移位置*/> messageQueuesOffsetMap;
     private final ConcurrentHashMap<MessageQueue, Long/*停止1秒*/> messageQueuesSuspendWhileMap = new ConcurrentHashMap<>();
 
+    private final ConcurrentHashMap<MessageQueue, ByteBuffer> partitionKeyCache = new ConcurrentHashMap<>();
+
+    /**
+     * 上次提交给consumer的位移,没变化的queue不再提交
+     */
+    private final ConcurrentHashMap<MessageQueue, Long> committedOffsetMap = new ConcurrentHashMap<>();
+
+    /**
+     * false时sink的位移不放到offsetManagementService,也就不会同步给其他节点,只用broker上的消费位移
+     */
+    private final boolean offsetSyncEnable;
+
+    private final AtomicLong offsetCommits = new AtomicLong();
+
+    private final AtomicLong offsetCommitsSkipped = new AtomicLong();
+
+    private final AtomicLong offsetSyncsSuppressed = new AtomicLong();
+
+    /**
+     * 每个queue的拉取、put和位移更新都在这个锁里,重平衡时拿到锁就说明被收回的queue没有正在put的消息了
+     */
+    private final ReentrantLock pullLock = new ReentrantLock();
+
+    /**
+     * 新分配的queue在这里等原来的owner提交最后的位移(fence),之后才放进messageQueuesOffsetMap开始拉取
+     */
+    private final ConcurrentHashMap<MessageQueue, Handoff> handoffMap = new ConcurrentHashMap<>();
+
+    private final long handoffTimeout;
+
+    private final AtomicLong handoffsFenced = new AtomicLong();
+
+    private final AtomicLong handoffsTimedOut = new AtomicLong();
+
+    private final AtomicLong queuesRevoked = new AtomicLong();
+
+    /**
+     * 配置了sink-key-lanes才有,每个queue的消息按key分到多个lane并发put
+     */
+    private final SinkKeyLanes keyLanes;
+
+    private final SinkMessageFilter messageFilter;
+
+    private final MemoryPool memoryPool;
+
     /**
      * 是否暂停消费
      */
@@ -117,11 +168,30 @@ public class WorkerSinkTask implements WorkerTask {
     private final AtomicReference<WorkerState> workerState;
 
     private final ClassLoader classLoader;
+
+    private final SinkErrorHandler errorHandler;
+
+    private static final long DEFAULT_SCHEMA_RESOLVE_TIMEOUT = 60 * 1000;
+
+    private final long schemaResolveTimeout;
+
+    /**
+     * 每个queue第一条查不到schema的消息:{offset, 第一次失败的时间}
+     */
+    private final Map<MessageQueue, long[]> schemaUnresolvedSince = new ConcurrentHashMap<>();
     /**
      * 避免GC
      */
     private static final Integer MAX_MESSAGE_NUM = 64;
 
+    private static final long DEFAULT_HANDOFF_TIMEOUT = 3000;
+
+    private static final long HANDOFF_CHECK_INTERVAL = 100;
+
+    private static final int DEFAULT_LANE_CAPACITY = 16;
+
+    private static final long LANE_STOP_TIMEOUT = 30 * 1000;
+
     public WorkerSinkTask(String connectorName,
                           SinkTask sinkTask,
                           ConnectKeyValue taskConfig,
@@ -130,7 +200,42 @@ public class WorkerSinkTask implements WorkerTask {
                           DefaultMQPullConsumer consumerPullRocketMQ,
                           AtomicReference<WorkerState> workerState,
                           ClassLoader classLoader) {
+        this(connectorName, sinkTask, taskConfig, offsetManagementService, recordConverter, consumerPullRocketMQ,
+            workerState, classLoader, new SinkErrorHandler(connectorName, taskConfig, null), true);
+    }
+
+    public WorkerSinkTask(String connectorName,
+                          SinkTask sinkTask,
+                          ConnectKeyValue taskConfig,
+                          PositionManagementService offsetManagementService,
+                          Converter recordConverter,
+                          DefaultMQPullConsumer consumerPullRocketMQ,
+                          AtomicReference<WorkerState> workerState,
+                          ClassLoader classLoader,
+                          SinkErrorHandler errorHandler,
+                          boolean offsetSyncEnable) {
+        this(connectorName, sinkTask, taskConfig, offsetManagementService, recordConverter, consumerPullRocketMQ,
+            workerState, classLoader, errorHandler, offsetSyncEnable, null, MemoryPool.unlimited());
+    }
+
+    /**
+     * @param sharedFetcher 不为null时,没有过滤条件的拉取和本worker上其他sink task共享
+     * @param memoryPool 拉到的消息put完之前占着的worker内存预算
+     */
+    public WorkerSinkTask(String connectorName,
+                          SinkTask sinkTask,
+                          ConnectKeyValue taskConfig,
+                          PositionManagementService offsetManagementService,
+                          Converter recordConverter,
+                          DefaultMQPullConsumer consumerPullRocketMQ,
+                          AtomicReference<WorkerState> workerState,
+                          ClassLoader classLoader,
+                          SinkErrorHandler errorHandler,
+                          boolean offsetSyncEnable,
+                          SharedQueueFetcher sharedFetcher,
+                          MemoryPool memoryPool) {
         this.connectorName = connectorName;
+        this.memoryPool = memoryPool;
         this.sinkTask = sinkTask;
         this.taskConfig = taskConfig;
         this.consumerPullRocketMQ = consumerPullRocketMQ;
@@ -142,6 +247,21 @@ public class WorkerSinkTask implements WorkerTask {
         this.state = new AtomicReference<>(WorkerTaskState.NEW);
         this.workerState = workerState;
         this.classLoader = classLoader;
+        this.errorHandler = errorHandler;
+        this.offsetSyncEnable = offsetSyncEnable;
+        this.handoffTimeout = taskConfig.getLong(RuntimeConfigDefine.SINK_HANDOFF_TIMEOUT, DEFAULT_HANDOFF_TIMEOUT);
+        this.schemaResolveTimeout = taskConfig.getLong(RuntimeConfigDefine.ERRORS_SCHEMA_RESOLVE_TIMEOUT_MS, DEFAULT_SCHEMA_RESOLVE_TIMEOUT);
+        this.messageFilter = new SinkMessageFilter(taskConfig, sharedFetcher);
+        int laneCount = taskConfig.getInt(RuntimeConfigDefine.SINK_KEY_LANES, 0);
+        if (laneCount > 1 && errorHandler.isTolerant()) {
+            //逐条容错按queue记录重试状态,和一个queue多个lane并发put不能一起用
+            log.warn("{} is ignored by connector {} because errors are tolerated", RuntimeConfigDefine.SINK_KEY_LANES, connectorName);
+            laneCount = 0;
+        }
+        this.keyLanes = laneCount > 1 ? new SinkKeyLanes(connectorName, laneCount,
+            taskConfig.getInt(RuntimeConfigDefine.SINK_LANE_CAPACITY, DEFAULT_LANE_CAPACITY), sinkTask, classLoader,
+            this::convertToSinkDataEntries, this::advanceOffset, memoryPool, this::isRunning,
+            taskConfig.getInt(RuntimeConfigDefine.ERRORS_RETRY_MAX, SinkKeyLanes.DEFAULT_MAX_RETRIES)) : null;
     }
 
     /**
@@ -176,23 +296,11 @@ public class WorkerSinkTask implements WorkerTask {
             });
 
             String topicNamesStr = taskConfig.getString(QUEUENAMES_CONFIG);
-            //自定义的sink offset
-            Consumer<String> updateOffsetByStore = topic -> {
-
-                for (Map.Entry<MessageQueue, Long> entry : messageQueuesOffsetMap.entrySet()) {
-                    MessageQueue messageQueue = entry.getKey();
-                    //读真正的rocketMQ上存储的自定义的sink端消费偏移量
-                    if (messageQueue.getTopic().equals(topic) || topic==null) {
-                        ByteBuffer byteBuffer = offsetStorageReader.getPosition(convertToByteBufferKey(messageQueue));
-                        if (null != byteBuffer) {
-                            //这里为什么又要把messageQueuesOffsetMap的偏移量覆盖掉呢？
-                            //是因为刚刚put的offset是rocketMQ的角度看的，而这里的offset是sink端处理的消费位移，这两个未必一样，所以如果sink处理失败，还是以sink的位移为准咯
-                            messageQueuesOffsetMap.put(messageQueue, convertToOffset(byteBuffer));
-                        }
-                    }
-                }
-            };
             sinkTask.start(taskConfig);
+            errorHandler.start();
+            if (keyLanes != null) {
+                keyLanes.start();
+            }
 
             String[] topicNames = topicNamesStr.split(COMMA);
             for (String topicName : topicNames) {
@@ -203,29 +311,24 @@ public class WorkerSinkTask implements WorkerTask {
                      */
                     @Override
                     public void messageQueueChanged(String topic, Set<MessageQueue> mqAll, Set<MessageQueue> mqDivided) {
-                        //负载均衡发生时先提交一次位移,但此时消息还在拉取。所以考虑加个lock锁一下,此时别的节点可能已经开始消费数据并提交位移了，但是别的节点的位移可能有点延迟，还比较早，就会发生重复
-                        commitOffset();
-
-                        //只清空当前topic的queue
-                        if (messageQueuesOffsetMap.size()>0) {
-                            for (Map.Entry<MessageQueue, Long> entry : messageQueuesOffsetMap.entrySet()) {
-                                if (entry.getKey().getTopic().equals(topic)) {
-                                    messageQueuesOffsetMap.remove(entry.getKey());
-                                }
+                        //只处理当前topic的queue,没变的queue继续拉,不重新读位移
+                        List<MessageQueue> revoked = new ArrayList<>();
+                        for (MessageQueue messageQueue : messageQueuesOffsetMap.keySet()) {
+                            if (messageQueue.getTopic().equals(topic) && !mqDivided.contains(messageQueue)) {
+                                revoked.add(messageQueue);
                             }
                         }
+                        handoffMap.keySet().removeIf(messageQueue -> messageQueue.getTopic().equals(topic) && !mqDivided.contains(messageQueue));
+                        //先停掉被收回的queue并提交最后的位移,别的节点等到这个位移才开始拉,这样就不会重复消费
+                        fenceRevokedQueues(revoked);
 
                         for (MessageQueue messageQueue : mqDivided) {
-                            try {
-                                final long offset = consumerPullRocketMQ.fetchConsumeOffset(messageQueue,true);
-                                //因为rocketMQ是手动提交位移，且只提交messageQueuesOffsetMap的位移，也就意味着一定已经发送到kafka了
-                                messageQueuesOffsetMap.put(messageQueue,offset);
-                            }catch (Exception ex){
-                                log.error("consumer fetchConsumeOffset failed",ex);
+                            if (!messageQueuesOffsetMap.containsKey(messageQueue) && !handoffMap.containsKey(messageQueue)) {
+                                startHandoff(messageQueue);
                             }
-                            //再用自定义的sink offset覆盖一下
-                            updateOffsetByStore.accept(topic);
                         }
+                        errorHandler.retainQueues(messageQueuesOffsetMap.keySet());
+                        schemaUnresolvedSince.keySet().retainAll(messageQueuesOffsetMap.keySet());
                     }
                 });
             }
@@ -245,12 +348,15 @@ public class WorkerSinkTask implements WorkerTask {
             //running area
             while (WorkerState.STARTED == workerState.get() && WorkerTaskState.RUNNING == state.get()) {
                 // this method can block up to 3 minutes long
+                completeHandoffs();
                 if (messageQueuesOffsetMap.size()==0) {
-                    //没可以拉的queue就等1秒再拉
-                    Thread.sleep(1000);
-                    if (messageQueuesOffsetMap.size()==0) {
-                        continue;
-                    }
+                    //没可以拉的queue就等1秒再拉,有等待交接的queue就100毫秒后再看一下
+                    Thread.sleep(handoffMap.isEmpty() ? 1000 : HANDOFF_CHECK_INTERVAL);
+                    continue;
+                }
+                if (keyLanes != null && keyLanes.getFailure() != null) {
+                    //lane的put重试用完了,task进入ERROR,位移停在没put的消息前面
+                    throw new IllegalStateException("sink lanes of connector " + connectorName + " failed", keyLanes.getFailure());
                 }
                 try {
                     pullMessageFromQueues();
@@ -275,6 +381,11 @@ public class WorkerSinkTask implements WorkerTask {
                 log.warn("",ex);
             }
 
+            if (keyLanes != null) {
+                //lane里已经拉下来的消息put完,位移才是最新的
+                keyLanes.stop(LANE_STOP_TIMEOUT);
+            }
+
             try {
                 commitOffset();
             }catch (Exception ex){
@@ -287,6 +398,12 @@ public class WorkerSinkTask implements WorkerTask {
                 log.error("",ex);
             }
 
+            try {
+                errorHandler.stop();
+            }catch (Exception ex){
+                log.error("",ex);
+            }
+
             try {
                 //sinkTask也要关闭啊 ，这源码写的问题也太多了把。
                 sinkTask.stop();
@@ -330,8 +447,8 @@ public class WorkerSinkTask implements WorkerTask {
 
         log.debug("START pullMessageFromQueues...");
 
-        for (Map.Entry<MessageQueue, Long> entry : messageQueuesOffsetMap.entrySet()) {
-            if (messageQueuesStateMap.containsKey(entry.getKey())) {
+        for (MessageQueue queue : messageQueuesOffsetMap.keySet()) {
+            if (messageQueuesStateMap.containsKey(queue)) {
                 continue;
             }
 
@@ -339,46 +456,291 @@ public class WorkerSinkTask implements WorkerTask {
                 break;
             }
 
-            final Long nextPullTime = messageQueuesSuspendWhileMap.get(entry.getKey());
+            final Long nextPullTime = messageQueuesSuspendWhileMap.get(queue);
             if (nextPullTime!=null && nextPullTime > System.currentTimeMillis()) {
                 continue;
             }
-            logger4SinkMsg.info("consumerPullRocketMQ pull offset {}:{}",entry.getKey(),entry.getValue());
-            final PullResult pullResult = consumerPullRocketMQ.pull(entry.getKey(), "*", entry.getValue(), MAX_MESSAGE_NUM);
-
-            if (pullResult.getPullStatus().equals(PullStatus.FOUND)) {
-                final List<MessageExt> messages = pullResult.getMsgFoundList();
-                //调用sink.put()进行处理,如果这里抛出异常，那么就下面也不会走了。只要这里不抛异常,后面正常提交位移发到rocketMQ上面去
-                //如果抛出异常，那么不会提交位移
-                try {
-                    receiveMessages(messages);
-                }catch (Throwable ex){
-                    //如果抛出异常,每个Queue按照之前的offset再重新消费一次 直到成功或者任务被手动终止，这里continue掉不更新位移，然后继续消费下一个messageQueue
-                    //TODO 发送到告警信息里面
-                    messageQueuesSuspendWhileMap.put(entry.getKey(), System.currentTimeMillis() + 1000);
-                    logger4SinkMsg.error("handle receiveMessages failed batch {}",messages);
+            pullLock.lock();
+            try {
+                //拿到锁之前可能已经重平衡,queue被收回了就不再拉
+                final Long offset = messageQueuesOffsetMap.get(queue);
+                if (offset == null || messageQueuesStateMap.containsKey(queue)) {
                     continue;
                 }
-                if (ConnectConfig.isLogMsgDetail()) {
-                    for (MessageExt messageExt : messages) {
-                        final String byConnector = messageExt.getUserProperty("by_connector");
-                        if (!Boolean.parseBoolean(byConnector)) {
-                            logger4SinkMsg.info("successful to send msg to kafka msgId:"+messageExt.getMsgId());
+                pullMessageFromQueue(queue, keyLanes == null ? offset : keyLanes.nextPullOffset(queue, offset));
+            } finally {
+                pullLock.unlock();
+            }
+        }
+    }
+
+    private void pullMessageFromQueue(MessageQueue queue, long offset) throws MQClientException, RemotingException, MQBrokerException, InterruptedException {
+        logger4SinkMsg.info("consumerPullRocketMQ pull offset {}:{}",queue,offset);
+        final PullResult pullResult = messageFilter.pull(consumerPullRocketMQ, queue, offset, MAX_MESSAGE_NUM);
+
+        if (pullResult.getPullStatus().equals(PullStatus.FOUND) || pullResult.getPullStatus().equals(PullStatus.NO_MATCHED_MSG)) {
+            //NO_MATCHED_MSG是这一段消息都被broker过滤掉了,位移也要前进
+            List<MessageExt> messages = pullResult.getPullStatus().equals(PullStatus.FOUND)
+                ? messageFilter.filter(pullResult.getMsgFoundList()) : Collections.emptyList();
+            long nextBeginOffset = pullResult.getNextBeginOffset();
+            if (keyLanes != null) {
+                //lane put完以后通过advanceOffset更新位移,这里接着往下拉
+                keyLanes.submit(queue, offset, messages, nextBeginOffset);
+                return;
+            }
+            if (messages.isEmpty()) {
+                advanceOffset(queue, nextBeginOffset);
+                return;
+            }
+            //内存预算用完时在这里等,put完才拉这个task的下一批
+            final long bytes = MemoryPool.sizeOfMessages(messages);
+            memoryPool.reserve(connectorName, bytes, this::isRunning);
+            try {
+                if (errorHandler.isTolerant()) {
+                    //逐条容错:失败的消息之前的正常提交,这个queue从失败的消息开始退避重试,其他queue不受影响
+                    final List<SinkDataEntry> entries = new ArrayList<>(messages.size());
+                    RuntimeException convertError = null;
+                    for (MessageExt message : messages) {
+                        try {
+                            entries.add(convertToSinkDataEntry(message));
+                        } catch (RuntimeException e) {
+                            //转换失败的消息之前的先put
+                            convertError = e;
+                            break;
                         }
                     }
+                    int done = entries.isEmpty() ? 0 : errorHandler.put(sinkTask, queue, messages.subList(0, entries.size()), entries);
+                    if (done < entries.size()) {
+                        messageQueuesSuspendWhileMap.put(queue, System.currentTimeMillis() + errorHandler.backoffMillis(queue));
+                    } else if (convertError != null) {
+                        done += convertFailed(queue, messages.get(done), convertError);
+                    }
+                    if (done < messages.size()) {
+                        if (done == 0) {
+                            return;
+                        }
+                        nextBeginOffset = messages.get(done).getQueueOffset();
+                        messages = messages.subList(0, done);
+                    }
+                } else {
+                    //调用sink.put()进行处理,如果这里抛出异常，那么就下面也不会走了。只要这里不抛异常,后面正常提交位移发到rocketMQ上面去
+                    //如果抛出异常，那么不会提交位移
+                    try {
+                        receiveMessages(messages);
+                    }catch (Throwable ex){
+                        //如果抛出异常,每个Queue按照之前的offset再重新消费一次 直到成功或者任务被手动终止，这里return掉不更新位移，然后继续消费下一个messageQueue
+                        //TODO 发送到告警信息里面
+                        messageQueuesSuspendWhileMap.put(queue, System.currentTimeMillis() + 1000);
+                        logger4SinkMsg.error("handle receiveMessages failed batch {}",messages, ex);
+                        return;
+                    }
                 }
+            } finally {
+                memoryPool.release(connectorName, bytes);
+            }
+            if (ConnectConfig.isLogMsgDetail()) {
+                for (MessageExt messageExt : messages) {
+                    final String byConnector = messageExt.getUserProperty("by_connector");
+                    if (!Boolean.parseBoolean(byConnector)) {
+                        logger4SinkMsg.info("successful to send msg to kafka msgId:"+messageExt.getMsgId());
+                    }
+                }
+            }
 
-                //更新消费位移,如果此时已经发生重平衡,原先的queue不属于自己了,那么位移还是要提交的。这里一定会造成消息重复。另外原本的rocketMQ的offset提交机制应该也会重复。
-                messageQueuesOffsetMap.put(entry.getKey(), pullResult.getNextBeginOffset());
-                logger4SinkMsg.info("messageQueuesOffsetMap put offset {}:{} ",entry.getKey(),pullResult.getNextBeginOffset());
-                //放到这个service里面的会同步到rocketMQ上其他节点 有必要吗？大家都是同一个消费组，既然是同一个消费组那么位移本来就在broker有保存，何必同步给其他节点？
-                offsetManagementService.putPosition(convertToByteBufferKey(entry.getKey()), convertToByteBufferValue(pullResult.getNextBeginOffset()));
-                logger4SinkMsg.info("offsetManagementService put offset {}:{} ",entry.getKey(),pullResult.getNextBeginOffset());
-            }else{
-                //如果本queue没拉到消息就延迟5秒
-                messageQueuesSuspendWhileMap.put(entry.getKey(), System.currentTimeMillis() + 5000);
+            advanceOffset(queue, nextBeginOffset);
+        }else{
+            //如果本queue没拉到消息就延迟5秒
+            messageQueuesSuspendWhileMap.put(queue, System.currentTimeMillis() + 5000);
+        }
+    }
+
+    /**
+     * 注册的schema还查不到时只在超时前整条重试,超时以后和解码失败、没开注册中心一样交给errorHandler,按次数重试后发死信
+     *
+     * @return 1 if the message is done with, 0 if the queue pulls it again later
+     */
+    private int convertFailed(MessageQueue queue, MessageExt message, RuntimeException error) {
+        final long now = System.currentTimeMillis();
+        if (error instanceof SchemaNotResolvedException) {
+            final long[] since = schemaUnresolvedSince.get(queue);
+            if (since == null || since[0] != message.getQueueOffset()) {
+                schemaUnresolvedSince.put(queue, new long[] {message.getQueueOffset(), now});
+            }
+            if (since == null || since[0] != message.getQueueOffset() || now - since[1] < schemaResolveTimeout) {
+                messageQueuesSuspendWhileMap.put(queue, now + 1000);
+                logger4SinkMsg.warn("schema of message {} in {} is not resolvable yet, retry later: {}", message.getMsgId(), queue, error.getMessage());
+                return 0;
+            }
+        }
+        schemaUnresolvedSince.remove(queue);
+        if (errorHandler.fail(queue, message, error)) {
+            return 1;
+        }
+        messageQueuesSuspendWhileMap.put(queue, now + errorHandler.backoffMillis(queue));
+        return 0;
+    }
+
+    private void advanceOffset(MessageQueue queue, long nextBeginOffset) {
+        //更新消费位移,queue等不到put完成就已经被收回时(超过交接等待时间)不再更新,位移已经由重平衡提交了
+        if (messageQueuesOffsetMap.replace(queue, nextBeginOffset) == null) {
+            log.warn("queue {} was revoked while its put was in flight, offset {} is not committed", queue, nextBeginOffset);
+            return;
+        }
+        logger4SinkMsg.info("messageQueuesOffsetMap put offset {}:{} ",queue,nextBeginOffset);
+        //放到这个service里面的会同步到rocketMQ上其他节点 有必要吗？大家都是同一个消费组，既然是同一个消费组那么位移本来就在broker有保存，何必同步给其他节点？
+        if (offsetSyncEnable) {
+            offsetManagementService.putPosition(convertToByteBufferKey(queue), convertToByteBufferValue(nextBeginOffset));
+            logger4SinkMsg.info("offsetManagementService put offset {}:{} ",queue,nextBeginOffset);
+        } else {
+            offsetSyncsSuppressed.incrementAndGet();
+        }
+    }
+
+    /**
+     * 被收回的queue先标记为REVOKED不再拉取,等正在put的消息处理完,然后把最后的位移同步提交到broker(fence),最后才交出去。
+     * 新的owner看到broker上的位移变了才开始拉,所以重平衡基本不会重复消费。
+     */
+    private void fenceRevokedQueues(List<MessageQueue> revoked) {
+        if (revoked.isEmpty()) {
+            return;
+        }
+        for (MessageQueue queue : revoked) {
+            messageQueuesStateMap.put(queue, QueueState.REVOKED);
+        }
+        final long deadline = System.currentTimeMillis() + handoffTimeout;
+        boolean drained = false;
+        try {
+            drained = pullLock.tryLock(handoffTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Map<MessageQueue, Long> fences = new HashMap<>();
+        try {
+            if (!drained) {
+                log.warn("put of revoked queues {} not finished in {}ms, hand them off without waiting", revoked, handoffTimeout);
+            }
+            for (MessageQueue queue : revoked) {
+                //还在lane里的消息也要等put完
+                if (keyLanes != null && !keyLanes.revoke(queue, drained ? Math.max(0, deadline - System.currentTimeMillis()) : 0)) {
+                    log.warn("lanes did not put all messages of revoked queue {} in {}ms, the rest is left to the new owner", queue, handoffTimeout);
+                }
+                final Long offset = messageQueuesOffsetMap.remove(queue);
+                if (offset != null) {
+                    fences.put(queue, offset);
+                }
+                messageQueuesSuspendWhileMap.remove(queue);
+                messageQueuesStateMap.remove(queue);
+            }
+        } finally {
+            if (drained) {
+                pullLock.unlock();
+            }
+        }
+        for (Map.Entry<MessageQueue, Long> fence : fences.entrySet()) {
+            commitFence(fence.getKey(), fence.getValue());
+        }
+        committedOffsetMap.keySet().removeAll(revoked);
+        queuesRevoked.addAndGet(revoked.size());
+        if (offsetSyncEnable) {
+            offsetManagementService.synchronize();
+        }
+    }
+
+    /**
+     * 收回的queue在consumer重平衡时已经从offsetStore移除,定时persist不会再提交它,所以这里同步发到broker
+     */
+    private void commitFence(MessageQueue queue, long offset) {
+        try {
+            consumerPullRocketMQ.updateConsumeOffset(queue, offset);
+            final DefaultMQPullConsumerImpl consumerImpl = consumerPullRocketMQ.getDefaultMQPullConsumerImpl();
+            if (consumerImpl != null) {
+                consumerImpl.updateConsumeOffsetToBroker(queue, offset, false);
+            }
+            offsetCommits.incrementAndGet();
+            log.info("revoked queue {} fenced at offset {}", queue, offset);
+        } catch (Exception e) {
+            log.error(String.format("revoked queue %s fence offset %s failed, the new owner may consume again from an older offset", queue, offset), e);
+        }
+    }
+
+    /**
+     * 新分配的queue: broker上的位移已经是最新的(没有积压或者从来没消费过)就直接开始拉,否则等原owner的fence
+     */
+    private void startHandoff(MessageQueue queue) {
+        final long offset;
+        try {
+            offset = consumerPullRocketMQ.fetchConsumeOffset(queue, true);
+        } catch (Exception ex) {
+            log.error("consumer fetchConsumeOffset failed", ex);
+            return;
+        }
+        boolean caughtUp = offset < 0;
+        if (!caughtUp && handoffTimeout > 0) {
+            try {
+                caughtUp = offset >= consumerPullRocketMQ.maxOffset(queue);
+            } catch (Exception ex) {
+                log.warn("consumer maxOffset of {} failed", queue, ex);
+            }
+        }
+        if (caughtUp || handoffTimeout <= 0) {
+            assignQueue(queue, offset);
+            return;
+        }
+        handoffMap.put(queue, new Handoff(offset, System.currentTimeMillis() + handoffTimeout));
+    }
+
+    /**
+     * 在拉取线程里检查等待交接的queue,broker上的位移或者同步过来的sink位移比分配时大了,说明原owner已经提交了fence
+     */
+    private void completeHandoffs() {
+        final long now = System.currentTimeMillis();
+        for (Map.Entry<MessageQueue, Handoff> entry : handoffMap.entrySet()) {
+            final MessageQueue queue = entry.getKey();
+            final Handoff handoff = entry.getValue();
+            if (now < handoff.nextCheck) {
+                continue;
             }
+            handoff.nextCheck = now + HANDOFF_CHECK_INTERVAL;
+            final long offset;
+            try {
+                offset = Math.max(consumerPullRocketMQ.fetchConsumeOffset(queue, true), storedOffset(queue));
+            } catch (Exception ex) {
+                log.warn("consumer fetchConsumeOffset of {} failed", queue, ex);
+                continue;
+            }
+            if (offset > handoff.offset) {
+                handoffsFenced.incrementAndGet();
+            } else if (now >= handoff.deadline) {
+                handoffsTimedOut.incrementAndGet();
+                log.info("queue {} got no fence in {}ms, start from offset {}", queue, handoffTimeout, offset);
+            } else {
+                continue;
+            }
+            //listener可能已经又把它收回了
+            if (handoffMap.remove(queue, handoff)) {
+                assignQueue(queue, offset);
+            }
+        }
+    }
+
+    private void assignQueue(MessageQueue queue, long offset) {
+        //broker上的位移和同步过来的sink位移都是put成功以后才提交的,取大的那个
+        final long start = Math.max(offset, storedOffset(queue));
+        if (start == offset) {
+            committedOffsetMap.put(queue, offset);
+        }
+        messageQueuesOffsetMap.put(queue, start);
+    }
+
+    /**
+     * 不同步位移时store里的只会是旧的,不用
+     */
+    private long storedOffset(MessageQueue queue) {
+        if (!offsetSyncEnable) {
+            return -1;
         }
+        final ByteBuffer byteBuffer = offsetStorageReader.getPosition(convertToByteBufferKey(queue));
+        return byteBuffer == null ? -1 : convertToOffset(byteBuffer);
     }
 
     /**
@@ -392,13 +754,25 @@ public class WorkerSinkTask implements WorkerTask {
                 if (entry.getValue()==null) {
                     continue;
                 }
+                if (entry.getValue().equals(committedOffsetMap.get(entry.getKey()))) {
+                    offsetCommitsSkipped.incrementAndGet();
+                    continue;
+                }
                 consumerPullRocketMQ.updateConsumeOffset(entry.getKey(),entry.getValue());
+                committedOffsetMap.put(entry.getKey(), entry.getValue());
+                offsetCommits.incrementAndGet();
                 logger4SinkMsg.info(String.format("consumerPullRocketMQ commit offset finish %s:%s", entry.getKey(),entry.getValue()));
             } catch (MQClientException e) {
                 logger4SinkMsg.error(String.format("consumerPullRocketMQ commit offset failed %s:%s", entry.getKey(),entry.getValue()),e);
             }
         }
+        //重平衡后不属于自己的queue
+        committedOffsetMap.keySet().retainAll(messageQueuesOffsetMap.keySet());
+    }
+    private boolean isRunning() {
+        return WorkerState.STARTED == workerState.get() && WorkerTaskState.RUNNING == state.get();
     }
+
     @Override
     public void stop() {
         log.info(String.format("task with config:{%s} will stop",this));
@@ -411,15 +785,19 @@ public class WorkerSinkTask implements WorkerTask {
      * @param messages
      */
     private void receiveMessages(List<MessageExt> messages) {
-        final List<SinkDataEntry> sinkDataEntries = new ArrayList<>(MAX_MESSAGE_NUM);
-        for (MessageExt message : messages) {
-            SinkDataEntry sinkDataEntry = convertToSinkDataEntry(message);
-            sinkDataEntries.add(sinkDataEntry);
-        }
+        final List<SinkDataEntry> sinkDataEntries = convertToSinkDataEntries(messages);
         sinkTask.put(sinkDataEntries);
         sinkDataEntries.clear();
     }
 
+    private List<SinkDataEntry> convertToSinkDataEntries(List<MessageExt> messages) {
+        final List<SinkDataEntry> sinkDataEntries = new ArrayList<>(messages.size());
+        for (MessageExt message : messages) {
+            sinkDataEntries.add(convertToSinkDataEntry(message));
+        }
+        return sinkDataEntries;
+    }
+
     /**
      * 原来的是OLD结尾,这里处理一下,拉下来的消息就是普通消息，不是SourceDataEntry.
      * 如果是老的kafka sender改造为rocketMQ,那么理论上应该可以完美从rocketMQ消息格式转换到kafka格式再发回去，tags理论上没用，注意kafka消息的header和key正常转换即可
@@ -430,9 +808,28 @@ public class WorkerSinkTask implements WorkerTask {
     private SinkDataEntry convertToSinkDataEntry(MessageExt message) {
         String topic = message.getTopic();
         String keys = message.getKeys();
-        byte[] body = message.getBody();
+        Object body = message.getBody();
         Map<String, String> properties = message.getProperties();
 
+        //source端用同一个converter编码的消息才解码,其他的还是key/value/header
+        final String converterName = message.getProperty(WorkerSourceTask.RECORD_CONVERTER_PROPERTY);
+        if (recordConverter != null && recordConverter.getClass().getName().equals(converterName)) {
+            final String schemaId = message.getProperty(WorkerSourceTask.SCHEMA_ID_PROPERTY);
+            if (schemaId != null) {
+                //不带schema的消息离开注册的schema读不出来,查不到时抛出去,容错模式下由convertFailed决定重试还是发死信
+                return convertRegistered(message, resolveSchema(schemaId));
+            }
+            try {
+                final Object record = recordConverter.byteToObject(message.getBody());
+                if (record instanceof DataEntry) {
+                    return toSinkDataEntry(message, (DataEntry) record);
+                }
+                body = record;
+            } catch (RuntimeException e) {
+                log.warn("decode message {} of {} by {} failed, deliver the raw body", message.getMsgId(), connectorName, converterName, e);
+            }
+        }
+
         Schema schema = new Schema();
         List<Field> fields = new ArrayList<>();
         fields.add(new Field(0, "key", FieldType.STRING));
@@ -455,11 +852,60 @@ public class WorkerSinkTask implements WorkerTask {
         return sinkDataEntry;
     }
 
+    private SinkDataEntry convertRegistered(MessageExt message, Schema schema) {
+        try {
+            return toSinkDataEntry(message, ((SchemaBinaryConverter) recordConverter).byteToObject(message.getBody(), schema));
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("decode message " + message.getMsgId() + " with schema "
+                + message.getProperty(WorkerSourceTask.SCHEMA_ID_PROPERTY) + " failed", e);
+        }
+    }
+
+    private SinkDataEntry toSinkDataEntry(MessageExt message, DataEntry entry) {
+        return new SinkDataEntry(message.getQueueOffset(), entry.getTimestamp(), entry.getEntryType(), message.getTopic(),
+            entry.getSchema(), entry.getShardingKey(), entry.getPayload());
+    }
+
+    /**
+     * @param schemaId schema registry id in hex
+     * @throws SchemaNotResolvedException if the registry does not know the schema yet
+     * @throws IllegalStateException if the schema registry is not enabled
+     */
+    private Schema resolveSchema(String schemaId) {
+        final SchemaRegistryService schemaRegistryService = ((SchemaBinaryConverter) recordConverter).getSchemaRegistryService();
+        if (schemaRegistryService == null) {
+            throw new IllegalStateException("schema registry is not enabled, can not resolve schema " + schemaId);
+        }
+        final Schema schema = schemaRegistryService.getSchema(Long.parseUnsignedLong(schemaId, 16));
+        if (schema == null) {
+            throw new SchemaNotResolvedException("unknown schema " + schemaId);
+        }
+        return schema;
+    }
+
+    /**
+     * The schema registry does not know the schema id yet, the system topic message with it may not be consumed yet.
+     * Other conversion failures do not go away by retrying the same message.
+     */
+    static class SchemaNotResolvedException extends IllegalStateException {
+
+        SchemaNotResolvedException(String message) {
+            super(message);
+        }
+    }
+
     @Override
     public String getConnectorName() {
         return connectorName;
     }
 
+    /**
+     * @return next offset to pull of every queue the task pulls now
+     */
+    public Map<MessageQueue, Long> getFetchOffsets() {
+        return new HashMap<>(messageQueuesOffsetMap);
+    }
+
     @Override
     public WorkerTaskState getState() {
         return state.get();
@@ -486,15 +932,55 @@ public class WorkerSinkTask implements WorkerTask {
         obj.put("taskConfig", taskConfig);
         obj.put("state", state.get().toString());
         obj.put("workerId", ConnectController.getInstance().getConnectConfig().getWorkerId());
+        obj.put("errors", errorHandler.getJsonObject());
+        Map<String, Object> offsets = new HashMap<>();
+        offsets.put("commits", offsetCommits.get());
+        offsets.put("unchangedCommitsSkipped", offsetCommitsSkipped.get());
+        offsets.put("offsetSyncsSuppressed", offsetSyncsSuppressed.get());
+        obj.put("offsets", offsets);
+        Map<String, Object> handoff = new HashMap<>();
+        handoff.put("fenced", handoffsFenced.get());
+        handoff.put("timedOut", handoffsTimedOut.get());
+        handoff.put("waiting", handoffMap.size());
+        handoff.put("revoked", queuesRevoked.get());
+        obj.put("handoff", handoff);
+        if (keyLanes != null) {
+            obj.put("keyLanes", keyLanes.getJsonObject());
+        }
+        obj.put("filter", messageFilter.getJsonObject());
         return obj;
     }
 
     private enum QueueState {
-        PAUSE
+        PAUSE,
+        /**
+         * 重平衡时被收回,正在等put完成后提交fence位移
+         */
+        REVOKED
     }
 
+    private static class Handoff {
+
+        /**
+         * 分配时broker上的位移
+         */
+        private final long offset;
+
+        private final long deadline;
+
+        private volatile long nextCheck;
+
+        Handoff(long offset, long deadline) {
+            this.offset = offset;
+            this.deadline = deadline;
+        }
+    }
+
+    /**
+     * The partition key of a queue is built once and reused for every pull.
+     */
     private ByteBuffer convertToByteBufferKey(MessageQueue messageQueue) {
-        return ByteBuffer.wrap((messageQueue.getTopic() + COMMA + messageQueue.getBrokerName() + COMMA + messageQueue.getQueueId()).getBytes());
+        return partitionKeyCache.computeIfAbsent(messageQueue, PositionCodec::encodeQueuePartition);
     }
 
     private MessageQueue convertToMessageQueue(ByteBuffer byteBuffer) {
@@ -505,10 +991,10 @@ public class WorkerSinkTask implements WorkerTask {
     }
 
     private ByteBuffer convertToByteBufferValue(Long offset) {
-        return ByteBuffer.wrap(String.valueOf(offset).getBytes());
+        return PositionCodec.encodeLong(offset);
     }
 
     private Long convertToOffset(ByteBuffer byteBuffer) {
-        return Long.valueOf(new String(byteBuffer.array()));
+        return PositionCodec.decodeLong(byteBuffer);
     }
 }
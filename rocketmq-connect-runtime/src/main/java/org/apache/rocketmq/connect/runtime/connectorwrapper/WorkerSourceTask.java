@@ -27,24 +27,40 @@ import io.openmessaging.connector.api.data.SourceDataEntry;
 import io.openmessaging.connector.api.source.SourceTask;
 import io.openmessaging.connector.api.source.SourceTaskContext;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.rocketmq.client.exception.MQClientException;
 import org.apache.rocketmq.client.producer.*;
 import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageAccessor;
+import org.apache.rocketmq.common.message.MessageDecoder;
 import org.apache.rocketmq.common.message.MessageQueue;
 import org.apache.rocketmq.common.queue.ConcurrentTreeMap;
 import org.apache.rocketmq.connect.runtime.ConnectController;
 import org.apache.rocketmq.connect.runtime.common.ConnectKeyValue;
 import org.apache.rocketmq.connect.runtime.common.LoggerName;
 import org.apache.rocketmq.connect.runtime.config.ConnectConfig;
+import org.apache.rocketmq.connect.runtime.config.RuntimeConfigDefine;
+import org.apache.rocketmq.connect.runtime.converter.SchemaBinaryConverter;
 import org.apache.rocketmq.connect.runtime.service.PositionManagementService;
+import org.apache.rocketmq.connect.runtime.service.SchemaRegistryService;
+import org.apache.rocketmq.connect.runtime.store.MappedSpillQueue;
 import org.apache.rocketmq.connect.runtime.store.PositionStorageReaderImpl;
+import org.apache.rocketmq.connect.runtime.utils.MemoryPool;
 import org.apache.rocketmq.connect.runtime.utils.Plugin;
+import org.apache.rocketmq.connect.runtime.utils.PositionCodec;
+import org.apache.rocketmq.connect.runtime.utils.SourceTaskLag;
 import org.checkerframework.checker.units.qual.C;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -55,8 +71,32 @@ import org.slf4j.LoggerFactory;
 public class WorkerSourceTask implements WorkerTask {
 
     private static final Logger log = LoggerFactory.getLogger(LoggerName.ROCKETMQ_RUNTIME);
+
+    private static final byte[] DEFAULT_EMPTY_BODY = "default empty body for no exception to send".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Message property with the class of the record converter which encoded the body, sink tasks decode only the
+     * messages with it.
+     */
+    public static final String RECORD_CONVERTER_PROPERTY = "connect_record_converter";
+
+    /**
+     * Message property with the schema registry id of the record schema, in hex, when the body is encoded without it.
+     */
+    public static final String SCHEMA_ID_PROPERTY = "connect_schema_id";
+
+    /**
+     * arg是key的murmur2,同一个key总是发到同一个queue
+     */
+    private static final MessageQueueSelector KEY_HASH_SELECTOR = (mqs, msg, arg) -> mqs.get((Integer) arg % mqs.size());
     private static Logger logger4SourceMsg = LoggerFactory.getLogger("logger4SourceMsg");
 
+    private static final int SPILL_REPLAY_BATCH = 256;
+
+    private static final long SPILL_REPLAY_TIMEOUT = 30 * 1000;
+
+    private static final long SPILL_RETRY_INTERVAL = 1000;
+
     /**
      * Connector name of current task.
      */
@@ -90,7 +130,7 @@ public class WorkerSourceTask implements WorkerTask {
     private DefaultMQProducer producerToRocketMQ;
 
     /**
-     * A converter to parse source data entry to byte[].
+     * A converter to parse source data entry to byte[], used for the entries which are not raw key/value/header records.
      */
     private Converter recordConverter;
 
@@ -101,6 +141,25 @@ public class WorkerSourceTask implements WorkerTask {
 
     private final ClassLoader classLoader;
 
+    /**
+     * worker上所有task共用的内存预算,poll到的记录发送完之前占着
+     */
+    private final MemoryPool memoryPool;
+
+    /**
+     * 发送失败的记录和它后面的记录先按顺序落到这里,补发成功后才提交position。为null时不开启
+     */
+    private final MappedSpillQueue spillQueue;
+
+    /**
+     * 补发失败后等一会儿再试,broker没恢复时不用每次poll都等发送超时
+     */
+    private long nextReplayTime = 0;
+
+    private final AtomicLong spilledRecords = new AtomicLong();
+
+    private final AtomicLong replayedRecords = new AtomicLong();
+
     /**
      * @param classLoader pluginClassLoader或者appClassLoader
      */
@@ -112,6 +171,36 @@ public class WorkerSourceTask implements WorkerTask {
         DefaultMQProducer producerToRocketMQ,
         AtomicReference<WorkerState> workerState,
         ClassLoader classLoader) {
+        this(connectorName, sourceTask, taskConfig, positionManagementService, recordConverter, producerToRocketMQ,
+            workerState, classLoader, MemoryPool.unlimited());
+    }
+
+    public WorkerSourceTask(String connectorName,
+        SourceTask sourceTask,
+        ConnectKeyValue taskConfig,
+        PositionManagementService positionManagementService,
+        Converter recordConverter,
+        DefaultMQProducer producerToRocketMQ,
+        AtomicReference<WorkerState> workerState,
+        ClassLoader classLoader,
+        MemoryPool memoryPool) {
+        this(connectorName, sourceTask, taskConfig, positionManagementService, recordConverter, producerToRocketMQ,
+            workerState, classLoader, memoryPool, null);
+    }
+
+    /**
+     * @param spillQueue 不为null时broker不可用期间的记录落到本地文件,恢复后补发
+     */
+    public WorkerSourceTask(String connectorName,
+        SourceTask sourceTask,
+        ConnectKeyValue taskConfig,
+        PositionManagementService positionManagementService,
+        Converter recordConverter,
+        DefaultMQProducer producerToRocketMQ,
+        AtomicReference<WorkerState> workerState,
+        ClassLoader classLoader,
+        MemoryPool memoryPool,
+        MappedSpillQueue spillQueue) {
         this.connectorName = connectorName;
         this.sourceTask = sourceTask;
         this.taskConfig = taskConfig;
@@ -122,6 +211,8 @@ public class WorkerSourceTask implements WorkerTask {
         this.state = new AtomicReference<>(WorkerTaskState.NEW);
         this.workerState = workerState;
         this.classLoader = classLoader;
+        this.memoryPool = memoryPool;
+        this.spillQueue = spillQueue;
     }
     public WorkerSourceTask(String connectorName,
                             SourceTask sourceTask,
@@ -150,6 +241,10 @@ public class WorkerSourceTask implements WorkerTask {
             //这个参数会导致消息无序
             producerToRocketMQ.setSendLatencyFaultEnable(true);
             producerToRocketMQ.start();
+            if (spillQueue != null) {
+                //上次没补发完的接着补发
+                spillQueue.load();
+            }
 
             sourceTask.initialize(new SourceTaskContext() {
                 @Override
@@ -169,9 +264,19 @@ public class WorkerSourceTask implements WorkerTask {
             //running area
             while (WorkerState.STARTED == workerState.get() && WorkerTaskState.RUNNING == state.get()) {
                 try{
+                    if (spillQueue != null && !spillQueue.isEmpty()) {
+                        replaySpilled();
+                    }
                     Collection<SourceDataEntry> toSendEntries = sourceTask.poll();
                     if (null != toSendEntries && toSendEntries.size() > 0) {
-                        sendRecord(toSendEntries);
+                        //内存预算用完时在这里等,不再poll新的记录
+                        final long bytes = MemoryPool.sizeOf(toSendEntries);
+                        memoryPool.reserve(connectorName, bytes, this::isRunning);
+                        try {
+                            sendRecord(toSendEntries);
+                        } finally {
+                            memoryPool.release(connectorName, bytes);
+                        }
                     }
                 }catch (Exception ex){
                     log.info("",ex);
@@ -191,6 +296,10 @@ public class WorkerSourceTask implements WorkerTask {
                 log.error("",ex);
             }
 
+            if (spillQueue != null) {
+                spillQueue.close();
+            }
+
             try{
                 sourceTask.stop();
             }catch (Exception ex){
@@ -208,6 +317,10 @@ public class WorkerSourceTask implements WorkerTask {
         }
     }
 
+    private boolean isRunning() {
+        return WorkerState.STARTED == workerState.get() && WorkerTaskState.RUNNING == state.get();
+    }
+
     @Override
     public void stop() {
         log.info(String.format("task with config:{%s} will stop",this));
@@ -223,12 +336,18 @@ public class WorkerSourceTask implements WorkerTask {
     private void sendRecord(Collection<SourceDataEntry> sourceDataEntries) {
         SendCallback sendCallback;
 
-        final Map<String/*topic*/, ConcurrentSkipListMap<Long/*position*/,String/*msgId*/>> callBackOffsetTreeMap = new ConcurrentHashMap<>(10);
-        Map<String/*topic*/, TreeSet<Long/*position*/>> sendOffsetTeeSet = new HashMap<>(callBackOffsetTreeMap.size());
+        //每个partition按发送顺序记录position,回调只标记自己那一条,最后提交连续成功的最后一条的position,position本身不做解析
+        final Map<ByteBuffer/*partition*/, List<SendingPosition>> sendingPositions = new HashMap<>(8);
 
         boolean successAll = true;
         CountDownLatch countDownLatch = new CountDownLatch(sourceDataEntries.size());
 
+        //前面还有没补发的记录时,这一批也要落盘,保证顺序
+        boolean spilling = spillQueue != null && !spillQueue.isEmpty();
+        final List<SendingPosition> sendOrder = spillQueue == null ? Collections.emptyList() : new ArrayList<>(sourceDataEntries.size());
+        //有一条发送失败以后这一批后面的都不再发送,开启落盘时等发出去的都回来后从失败的那条开始按顺序落盘
+        final AtomicBoolean sendFailed = new AtomicBoolean(false);
+
         for (SourceDataEntry sourceDataEntry : sourceDataEntries) {
             try {
                 //这个partition在kafka connect中 = record.topic() + "-" + record.partition()
@@ -241,18 +360,46 @@ public class WorkerSourceTask implements WorkerTask {
                 //mz 这里的queueName其实是topic名称
                 sourceMessage.setTopic(sourceDataEntry.getQueueName());
 
-                byte[] key = (byte[])sourceDataEntry.getPayload()[0];
-                byte[] value = (byte[])sourceDataEntry.getPayload()[1];
-                Map<String,byte[]> header = (Map<String,byte[]>)sourceDataEntry.getPayload()[2];
+                final Object[] payload = sourceDataEntry.getPayload();
+                final byte[] key;
+                final byte[] value;
+                final Map<String,byte[]> header;
+                if (recordConverter != null && !isRawRecord(payload)) {
+                    //结构化的记录(jdbc/mongo等)整条交给converter,sink端按消息属性找到同一个converter解出来
+                    final String shardingKey = sourceDataEntry.getShardingKey();
+                    key = shardingKey == null ? null : shardingKey.getBytes(StandardCharsets.UTF_8);
+                    final long schemaId = registerSchema(sourceDataEntry);
+                    if (schemaId != SchemaRegistryService.NO_SCHEMA_ID) {
+                        //schema在注册中心,消息里只带id
+                        value = ((SchemaBinaryConverter) recordConverter).objectToByteWithoutSchema(sourceDataEntry);
+                        sourceMessage.putUserProperty(SCHEMA_ID_PROPERTY, Long.toHexString(schemaId));
+                    } else {
+                        value = recordConverter.objectToByte(sourceDataEntry);
+                    }
+                    header = null;
+                    sourceMessage.putUserProperty(RECORD_CONVERTER_PROPERTY, recordConverter.getClass().getName());
+                } else {
+                    key = (byte[]) payload[0];
+                    value = (byte[]) payload[1];
+                    header = (Map<String, byte[]>) payload[2];
+                }
 
+                //带key的消息按key的hash选queue,直接对key的字节做murmur2,不再经过String来回转换
+                int keyHash = -1;
                 if (key!=null && key.length>0) {
-                    sourceMessage.setKeys(new String(key));
+                    sourceMessage.setKeys(new String(key, StandardCharsets.UTF_8));
+                    keyHash = toPositive(murmur2(key));
                 }
                 sourceMessage.putUserProperty("by_connector","true");
-                sourceMessage.setBody(value.length==0?"default empty body for no exception to send".getBytes(StandardCharsets.UTF_8):value);
-
-                final String partitionStr = new String(partition.array());
-                final String positionStr = new String(position.array());
+                sourceMessage.setBody(value == null || value.length == 0 ? DEFAULT_EMPTY_BODY : value);
+
+                final SendingPosition sendingPosition = new SendingPosition(position);
+                if (spillQueue != null) {
+                    sendingPosition.message = sourceMessage;
+                    sendingPosition.keyHash = keyHash;
+                    sendingPosition.partition = partition;
+                    sendOrder.add(sendingPosition);
+                }
 
                 //拉取消息时候指定位移
                 sendCallback = new SendCallback() {
@@ -260,18 +407,12 @@ public class WorkerSourceTask implements WorkerTask {
                     public void onSuccess(SendResult result) {
                         try {
                             if (result.getSendStatus() != SendStatus.SEND_OK) {
-                                log.warn("not store ok send message to RocketMQ: kafka offset:{},rocketMQ msg:{}", partitionStr +":"+ positionStr,sourceMessage);
-                                return;
-                            }
-
-                            final ConcurrentSkipListMap<Long, String> skipListMap = callBackOffsetTreeMap.get(partitionStr);
-                            if (skipListMap==null) {
-                                log.warn("ignore offset cuz timeOut");
-                                //如果发现它没了,则一定是countLatch超时了被清理掉了,那么不需要提交位移
+                                sendFailed.set(true);
+                                log.warn("not store ok send message to RocketMQ: source position:{},rocketMQ msg:{}", sendingPosition.describe(partition),sourceMessage);
                                 return;
                             }
-                            //比如从P1分区拉下来5条消息，其中序号5的消息最先回来，那么这里位移就会被序号1的盖掉,所以序号1没放进去之前,序号5不准放进去，利用treeMap
-                            skipListMap.put(Long.parseLong(positionStr), result.getMsgId());
+                            //比如从P1分区拉下来5条消息，其中序号5的消息最先回来，提交位移时只会提交到第一个没回来的消息之前
+                            sendingPosition.msgId = result.getMsgId();
                         }finally {
                             countDownLatch.countDown();
                         }
@@ -279,49 +420,49 @@ public class WorkerSourceTask implements WorkerTask {
 
                     @Override
                     public void onException(Throwable throwable) {
+                        sendFailed.set(true);
                         countDownLatch.countDown();
                         if (null != throwable) {
-                            log.warn("failed send message to RocketMQ: kafka offset:{},rocketMQ msg:{}", partitionStr +":"+ positionStr,sourceMessage);
+                            log.warn("failed send message to RocketMQ: source position:{},rocketMQ msg:{}", sendingPosition.describe(partition),sourceMessage);
                         }
                     }
                 };
 
                 boolean ignore = false;
-                //header
+                //header,只按key取需要的几个,不遍历整个map(kafka connector传过来的是record headers的视图,遍历会复制)
                 if (header!=null) {
-                    final byte[] byConnectors = header.get("by_connector");
-                    if(byConnectors!=null && byConnectors.length >0 && Boolean.parseBoolean(new String(byConnectors))){
+                    if(isTrue(header.get("by_connector"))){
                         //skip msg
                         ignore = true;
                     }else{
-                        for (Map.Entry<String, byte[]> entry : header.entrySet()) {
-                            if("TAGS".equals(entry.getKey())){
-                                if (entry.getValue() != null && entry.getValue().length > 0) {
-                                    sourceMessage.setTags(new String(entry.getValue()));
-                                }
-                            }else if("FullLinkContext".equals(entry.getKey())){
-                                if (entry.getValue() != null && entry.getValue().length > 0) {
-                                    sourceMessage.putUserProperty(entry.getKey(),new String(entry.getValue()));
-                                }
-                            }else{
-                                //do nothing,不同步其他key,因为有可能冲突,并且也没必要同步其他key
-                            }
-                            //sourceMessage.putUserProperty(entry.getKey(),new String(entry.getValue()));
+                        final byte[] tags = header.get("TAGS");
+                        if (tags != null && tags.length > 0) {
+                            sourceMessage.setTags(new String(tags, StandardCharsets.UTF_8));
                         }
+                        final byte[] fullLinkContext = header.get("FullLinkContext");
+                        if (fullLinkContext != null && fullLinkContext.length > 0) {
+                            sourceMessage.putUserProperty("FullLinkContext", new String(fullLinkContext, StandardCharsets.UTF_8));
+                        }
+                        //不同步其他key,因为有可能冲突,并且也没必要同步其他key
                     }
                 }
 
-                callBackOffsetTreeMap.putIfAbsent(partitionStr, new ConcurrentSkipListMap<>());
-
-                sendOffsetTeeSet.putIfAbsent(partitionStr, new TreeSet<>());
-
-                TreeSet<Long> treeSet = sendOffsetTeeSet.get(partitionStr);
-                treeSet.add(Long.parseLong(positionStr));
-
+                sendingPositions.computeIfAbsent(partition, k -> new ArrayList<>()).add(sendingPosition);
 
                 //send to rocketMQ
                 try {
-                    if (ignore) {
+                    sendingPosition.ignored = ignore;
+                    if (spilling) {
+                        //忽略的消息也落盘,补发到它时才提交它的position
+                        spill(sendingPosition, ignore);
+                        countDownLatch.countDown();
+                    } else if (sendFailed.get()) {
+                        if (spillQueue == null) {
+                            throw new MQClientException("Send message to rocketMQ error, skip the rest of the batch of " + connectorName, null);
+                        }
+                        //不发送,在后面和失败的那条一起按顺序落盘
+                        countDownLatch.countDown();
+                    } else if (ignore) {
                         //直接进入下一条消息，这条消息无需发送
                         final SendResult sendResult = new SendResult();
                         sendResult.setSendStatus(SendStatus.SEND_OK);
@@ -330,22 +471,24 @@ public class WorkerSourceTask implements WorkerTask {
                         sendCallback.onSuccess(sendResult);
                     }else{
                         //需要设置messageQueueSelector 如果kafka的key不null的话,这样从kafka拉下来就都能send到同一个rocketMQ的queue里了
-                        if (sourceMessage.getKeys()!=null && sourceMessage.getKeys().length()>0) {
+                        if (keyHash >= 0) {
                             //带key的消息一定要保证顺序性
-                            final SendResult sendResult = producerToRocketMQ.send(sourceMessage, new MessageQueueSelector() {
-                                @Override
-                                public MessageQueue select(List<MessageQueue> mqs, Message msg, Object arg) {
-                                    int i = toPositive(murmur2(sourceMessage.getKeys().getBytes(StandardCharsets.UTF_8))) % mqs.size();
-                                    return mqs.get(i);
-                                }
-                            }, null);
+                            final SendResult sendResult = producerToRocketMQ.send(sourceMessage, KEY_HASH_SELECTOR, keyHash);
                             sendCallback.onSuccess(sendResult);
                         }else{
                             producerToRocketMQ.send(sourceMessage,sendCallback);
                         }
                     }
+                } catch (MQClientException e) {
+                    throw e;
                 } catch (Exception e) {
-                    throw new MQClientException("Send message to rocketMQ error. message: {}",e);
+                    if (spillQueue == null || spilling) {
+                        throw new MQClientException("Send message to rocketMQ error. message: {}",e);
+                    }
+                    //前面异步发送的可能还没回来,不能直接落盘,等它们回来后从第一条失败的开始落盘
+                    log.warn("Send message to rocketMQ error, spill it and the following messages of {}", connectorName, e);
+                    sendFailed.set(true);
+                    countDownLatch.countDown();
                 }
             }catch (Exception ex){
                 //任何一条有失败,break掉继续重新拉,但尝试提交一次位移
@@ -365,35 +508,298 @@ public class WorkerSourceTask implements WorkerTask {
         } catch (InterruptedException e) {
             log.warn("",e);
         }finally {
+            //从第一条发送失败的开始,后面的不管是否发送成功都按顺序落盘,补发时不会被后面的消息超过,position等补发以后再提交
+            boolean failed = false;
+            for (SendingPosition sendingPosition : sendOrder) {
+                if (sendingPosition.spilled) {
+                    continue;
+                }
+                failed = failed || sendingPosition.msgId == null;
+                if (failed) {
+                    try {
+                        spill(sendingPosition, sendingPosition.ignored);
+                    } catch (Exception e) {
+                        log.error("spill message of {} failed, it will be polled again after restart", connectorName, e);
+                        break;
+                    }
+                }
+            }
             //尝试提交位移,能提交多少算多少
-            for (Map.Entry<String, TreeSet<Long>> entry : sendOffsetTeeSet.entrySet()) {
-                final String partitionStr = entry.getKey();
-                final TreeSet<Long> sendOffSet = entry.getValue();
-                final ConcurrentSkipListMap<Long, String> callBackSkipMap = callBackOffsetTreeMap.get(partitionStr);
-                //总共发出去的消息,减去已收到的,结果就是未回来的消息,找最后一个回来的消息提交它的位移即可
-                Long lastOffset = null;
-                //1 2 3
-                //1 2
-                for (Long offset : sendOffSet) {
-                    final String msgId = callBackSkipMap.get(offset);
-                    if (msgId!=null) {
-                        lastOffset = offset;
+            for (Map.Entry<ByteBuffer, List<SendingPosition>> entry : sendingPositions.entrySet()) {
+                final ByteBuffer partition = entry.getKey();
+                //总共发出去的消息,按发送顺序找到第一条未回来的消息,提交它前面一条的位移即可
+                SendingPosition lastAcked = null;
+                for (SendingPosition sendingPosition : entry.getValue()) {
+                    final String msgId = sendingPosition.msgId;
+                    if (msgId!=null && !sendingPosition.spilled) {
+                        lastAcked = sendingPosition;
                         if (ConnectConfig.isLogMsgDetail()) {
-                            logger4SourceMsg.info("Successful send message to RocketMQ: kafka offset:{},rocketMQ msgID:{}", partitionStr +":"+offset,msgId);
+                            logger4SourceMsg.info("Successful send message to RocketMQ: source position:{},rocketMQ msgID:{}", sendingPosition.describe(partition),msgId);
                         }
                     }else{
-                        logger4SourceMsg.error(String.format("some msg call back not enter %s:%s",partitionStr,offset));
+                        logger4SourceMsg.error(String.format("some msg call back not enter %s",sendingPosition.describe(partition)));
                         //没回来,直接就可以更新位移了
                         break;
                     }
                 }
-                if (lastOffset!=null) {
-                    logger4SourceMsg.info(String.format("positionManagementService putPosition %s:%s",partitionStr,lastOffset));
-                    positionManagementService.putPosition(ByteBuffer.wrap(partitionStr.getBytes(StandardCharsets.UTF_8)),ByteBuffer.wrap(String.valueOf(lastOffset).getBytes(StandardCharsets.UTF_8)));
+                if (lastAcked!=null) {
+                    logger4SourceMsg.info(String.format("positionManagementService putPosition %s",lastAcked.describe(partition)));
+                    positionManagementService.putPosition(partition,lastAcked.position);
+                }
+            }
+            sendingPositions.clear();
+        }
+    }
+
+    /**
+     * @return registry id of the entry schema, or NO_SCHEMA_ID if the schema is sent with the record
+     */
+    private long registerSchema(SourceDataEntry sourceDataEntry) {
+        if (!(recordConverter instanceof SchemaBinaryConverter) || sourceDataEntry.getSchema() == null) {
+            return SchemaRegistryService.NO_SCHEMA_ID;
+        }
+        final SchemaRegistryService schemaRegistryService = ((SchemaBinaryConverter) recordConverter).getSchemaRegistryService();
+        return schemaRegistryService == null ? SchemaRegistryService.NO_SCHEMA_ID : schemaRegistryService.register(sourceDataEntry.getSchema());
+    }
+
+    /**
+     * @return the payload is key bytes, value bytes and header map, which is sent as it is
+     */
+    static boolean isRawRecord(Object[] payload) {
+        return payload != null && payload.length == 3
+            && (payload[0] == null || payload[0] instanceof byte[])
+            && payload[1] instanceof byte[]
+            && (payload[2] == null || payload[2] instanceof Map);
+    }
+
+    /**
+     * Write a record to the spill queue, waits while the disk limit is reached and the spilled records can not be sent.
+     *
+     * @param skip the record is not sent, only its position is committed when the replay reaches it
+     */
+    private void spill(SendingPosition sendingPosition, boolean skip) throws IOException, InterruptedException {
+        final byte[] record = SpilledRecord.encode(skip ? null : sendingPosition.message, sendingPosition.keyHash,
+            sendingPosition.partition, sendingPosition.position);
+        while (!spillQueue.append(record)) {
+            //磁盘额度用完了,不再poll,先补发腾出空间
+            if (!isRunning()) {
+                throw new IllegalStateException("spill queue of " + connectorName + " is full");
+            }
+            if (!replaySpilled()) {
+                Thread.sleep(SPILL_RETRY_INTERVAL);
+            }
+        }
+        sendingPosition.spilled = true;
+        spilledRecords.incrementAndGet();
+    }
+
+    /**
+     * Send the oldest spilled records, and commit their positions once the broker stored them. Stops at the first record
+     * which fails, it and the records after it are sent again by the next replay.
+     *
+     * @return true if any record was replayed
+     */
+    private boolean replaySpilled() throws IOException, InterruptedException {
+        if (System.currentTimeMillis() < nextReplayTime) {
+            return false;
+        }
+        final List<byte[]> batch = spillQueue.peek(SPILL_REPLAY_BATCH);
+        if (batch.isEmpty()) {
+            return false;
+        }
+        final List<SpilledRecord> records = new ArrayList<>(batch.size());
+        final String[] msgIds = new String[batch.size()];
+        final CountDownLatch countDownLatch = new CountDownLatch(batch.size());
+        int attempted = 0;
+        for (byte[] bytes : batch) {
+            final SpilledRecord record;
+            try {
+                record = SpilledRecord.decode(bytes);
+            } catch (Exception e) {
+                if (attempted > 0) {
+                    //先补发前面的,下次它排在第一条时再挪走
+                    break;
+                }
+                log.error("Spilled record of {} can not be decoded, quarantine it", connectorName, e);
+                spillQueue.quarantine();
+                return true;
+            }
+            final int index = attempted++;
+            records.add(record);
+            if (record.message == null) {
+                msgIds[index] = "by_connector = true so ignore";
+                countDownLatch.countDown();
+                continue;
+            }
+            try {
+                if (record.keyHash >= 0) {
+                    final SendResult sendResult = producerToRocketMQ.send(record.message, KEY_HASH_SELECTOR, record.keyHash);
+                    if (sendResult.getSendStatus() == SendStatus.SEND_OK) {
+                        msgIds[index] = sendResult.getMsgId();
+                    }
+                    countDownLatch.countDown();
+                } else {
+                    producerToRocketMQ.send(record.message, new SendCallback() {
+                        @Override
+                        public void onSuccess(SendResult sendResult) {
+                            if (sendResult.getSendStatus() == SendStatus.SEND_OK) {
+                                msgIds[index] = sendResult.getMsgId();
+                            }
+                            countDownLatch.countDown();
+                        }
+
+                        @Override
+                        public void onException(Throwable e) {
+                            countDownLatch.countDown();
+                        }
+                    });
                 }
+            } catch (Exception e) {
+                log.warn("Replay spilled message of {} failed", connectorName, e);
+                countDownLatch.countDown();
+                break;
             }
-            sendOffsetTeeSet = null;
-            callBackOffsetTreeMap.clear();
+        }
+        for (int i = attempted; i < batch.size(); i++) {
+            countDownLatch.countDown();
+        }
+        countDownLatch.await(SPILL_REPLAY_TIMEOUT, TimeUnit.MILLISECONDS);
+
+        int done = 0;
+        final Map<ByteBuffer, ByteBuffer> positions = new HashMap<>();
+        while (done < records.size() && msgIds[done] != null) {
+            final SpilledRecord record = records.get(done++);
+            if (record.partition != null && record.position != null) {
+                positions.put(record.partition, record.position);
+            }
+        }
+        if (!positions.isEmpty()) {
+            positionManagementService.putPosition(positions);
+        }
+        spillQueue.poll(done);
+        replayedRecords.addAndGet(done);
+        if (done < records.size()) {
+            log.warn("Replay spilled messages of {} stopped after {} of {}, {} left, retry in {}ms", connectorName, done,
+                records.size(), spillQueue.size(), SPILL_RETRY_INTERVAL);
+            nextReplayTime = System.currentTimeMillis() + SPILL_RETRY_INTERVAL;
+        }
+        return done > 0;
+    }
+
+    /**
+     * Position of one sent entry, msgId is set by the send callback once the broker stored it.
+     */
+    private static class SendingPosition {
+
+        private final ByteBuffer position;
+
+        private volatile String msgId;
+
+        /**
+         * 只在开启落盘时记录,发送失败时用来落盘
+         */
+        private Message message;
+
+        private int keyHash = -1;
+
+        private ByteBuffer partition;
+
+        private boolean spilled = false;
+
+        /**
+         * by_connector的消息,不发送,落盘时只记position
+         */
+        private boolean ignored = false;
+
+        private SendingPosition(ByteBuffer position) {
+            this.position = position;
+        }
+
+        private String describe(ByteBuffer partition) {
+            return new String(partition.array(), StandardCharsets.UTF_8) + ":" + PositionCodec.toDisplayString(position);
+        }
+    }
+
+    /**
+     * A message kept in the spill queue with the source position it came from. A record without message was not sent
+     * on purpose, only its position is committed.
+     */
+    static class SpilledRecord {
+
+        final Message message;
+
+        final int keyHash;
+
+        final ByteBuffer partition;
+
+        final ByteBuffer position;
+
+        SpilledRecord(Message message, int keyHash, ByteBuffer partition, ByteBuffer position) {
+            this.message = message;
+            this.keyHash = keyHash;
+            this.partition = partition;
+            this.position = position;
+        }
+
+        static byte[] encode(Message message, int keyHash, ByteBuffer partition, ByteBuffer position) throws IOException {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(message == null || message.getBody() == null ? 64 : message.getBody().length + 256);
+            final DataOutputStream out = new DataOutputStream(bytes);
+            out.writeBoolean(message != null);
+            if (message != null) {
+                out.writeUTF(message.getTopic());
+                writeBytes(out, MessageDecoder.messageProperties2String(message.getProperties()).getBytes(StandardCharsets.UTF_8));
+                writeBytes(out, message.getBody());
+                out.writeInt(keyHash);
+            }
+            writeBytes(out, toBytes(partition));
+            writeBytes(out, toBytes(position));
+            out.flush();
+            return bytes.toByteArray();
+        }
+
+        static SpilledRecord decode(byte[] record) throws IOException {
+            final DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+            Message message = null;
+            int keyHash = -1;
+            if (in.readBoolean()) {
+                message = new Message();
+                message.setTopic(in.readUTF());
+                MessageAccessor.setProperties(message, MessageDecoder.string2messageProperties(new String(readBytes(in), StandardCharsets.UTF_8)));
+                message.setBody(readBytes(in));
+                keyHash = in.readInt();
+            }
+            final byte[] partition = readBytes(in);
+            final byte[] position = readBytes(in);
+            return new SpilledRecord(message, keyHash, partition == null ? null : ByteBuffer.wrap(partition),
+                position == null ? null : ByteBuffer.wrap(position));
+        }
+
+        private static byte[] toBytes(ByteBuffer buffer) {
+            if (buffer == null) {
+                return null;
+            }
+            final byte[] bytes = new byte[buffer.remaining()];
+            buffer.duplicate().get(bytes);
+            return bytes;
+        }
+
+        private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+            if (bytes == null) {
+                out.writeInt(-1);
+                return;
+            }
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private static byte[] readBytes(DataInputStream in) throws IOException {
+            final int length = in.readInt();
+            if (length < 0) {
+                return null;
+            }
+            final byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return bytes;
         }
     }
 
@@ -428,10 +834,32 @@ public class WorkerSourceTask implements WorkerTask {
         obj.put("taskConfig", taskConfig);
         obj.put("state", state.get().toString());
         obj.put("workerId", ConnectController.getInstance().getConnectConfig().getWorkerId());
+        if (spillQueue != null) {
+            Map<String, Object> spill = spillQueue.getJsonObject();
+            spill.put("spilled", spilledRecords.get());
+            spill.put("replayed", replayedRecords.get());
+            obj.put("spill", spill);
+        }
+        long[] lag = SourceTaskLag.read(taskConfig.getString(RuntimeConfigDefine.TASK_UID));
+        if (lag[0] >= 0) {
+            //TaskAutoScaleService从各节点推送的任务状态里汇总
+            obj.put("sourceLag", lag[0]);
+            obj.put("sourceQueueNum", lag[1]);
+        }
         return obj;
     }
 
 
+    /**
+     * 等价于Boolean.parseBoolean(new String(value)),但不创建String
+     */
+    static boolean isTrue(byte[] value) {
+        if (value == null || value.length != 4) {
+            return false;
+        }
+        return (value[0] | 0x20) == 't' && (value[1] | 0x20) == 'r' && (value[2] | 0x20) == 'u' && (value[3] | 0x20) == 'e';
+    }
+
     /**
      * 把kafka的搬过来了
      */
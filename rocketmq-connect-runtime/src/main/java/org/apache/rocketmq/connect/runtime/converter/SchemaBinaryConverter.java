@@ -0,0 +1,575 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.converter;
+
+import com.alibaba.fastjson.JSON;
+import io.openmessaging.connector.api.data.Converter;
+import io.openmessaging.connector.api.data.DataEntry;
+import io.openmessaging.connector.api.data.EntryType;
+import io.openmessaging.connector.api.data.Field;
+import io.openmessaging.connector.api.data.FieldType;
+import io.openmessaging.connector.api.data.Schema;
+import io.openmessaging.connector.api.data.SinkDataEntry;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.rocketmq.connect.runtime.service.SchemaRegistryService;
+
+/**
+ * Compact binary encoding of a whole {@link DataEntry}, in the spirit of Avro: the schema is written once in front of
+ * the values, and every value is written by the type of its field without any name or tag.
+ *
+ * <pre>
+ * magic, version, schema length, schema (name, data source, fields), entry type, timestamp, queue name, sharding key,
+ * null bitmap of the fields, values of the non null fields in field order
+ * </pre>
+ *
+ * Ints and longs are zigzag varints, floats are fixed width, strings and bytes are length prefixed, datetimes are epoch
+ * millis. ARRAY and MAP fields carry no element type, so they are written as json. An entry without schema has its
+ * payload written as json.
+ *
+ * The codec of a schema (its serialized form, field types and payload indexes) is built once and cached, on the write
+ * side by the schema and on the read side by its serialized form, so all entries decoded from one schema share one
+ * {@link Schema} instance. Decoding gives a {@link SinkDataEntry} without queue offset.
+ *
+ * With a {@link SchemaRegistryService} the schema can be left out of the record, the message carries its registry id
+ * instead and the reader resolves it before decoding.
+ */
+public class SchemaBinaryConverter implements Converter<DataEntry> {
+
+    static final byte MAGIC = 0x53;
+
+    static final byte VERSION = 1;
+
+    /**
+     * Same layout without the schema, which is kept in the schema registry.
+     */
+    static final byte VERSION_REGISTERED_SCHEMA = 2;
+
+    private static final int MAX_CACHED_SCHEMAS = 1024;
+
+    private static final int MAX_RETAINED_BUFFER = 1024 * 1024;
+
+    private static final byte NULL_ORDINAL = -1;
+
+    private static final EntryType[] ENTRY_TYPES = EntryType.values();
+
+    private static final FieldType[] FIELD_TYPES = FieldType.values();
+
+    private static final ThreadLocal<BinaryOutput> OUTPUT = ThreadLocal.withInitial(BinaryOutput::new);
+
+    private final Map<Schema, SchemaCodec> encoders = new ConcurrentHashMap<>();
+
+    private final Map<ByteBuffer/*schema bytes*/, SchemaCodec> decoders = new ConcurrentHashMap<>();
+
+    /**
+     * 同一个source一般一直用同一个schema对象,先按引用比较,省掉schema的hashCode
+     */
+    private volatile SchemaCodec lastEncoder;
+
+    private volatile SchemaRegistryService schemaRegistryService;
+
+    @Override
+    public byte[] objectToByte(DataEntry entry) {
+        return encode(entry, true);
+    }
+
+    /**
+     * Encode the entry without its schema, for an entry whose schema is registered in the schema registry.
+     */
+    public byte[] objectToByteWithoutSchema(DataEntry entry) {
+        return encode(entry, false);
+    }
+
+    private byte[] encode(DataEntry entry, boolean withSchema) {
+        final BinaryOutput out = OUTPUT.get();
+        out.reset();
+        out.writeByte(MAGIC);
+        out.writeByte(withSchema ? VERSION : VERSION_REGISTERED_SCHEMA);
+        final Schema schema = entry.getSchema();
+        final SchemaCodec codec = schema == null ? null : encoder(schema);
+        if (withSchema) {
+            if (codec == null) {
+                out.writeVarInt(0);
+            } else {
+                out.writeVarInt(codec.schemaBytes.length);
+                out.writeBytes(codec.schemaBytes);
+            }
+        }
+        out.writeByte(entry.getEntryType() == null ? NULL_ORDINAL : (byte) entry.getEntryType().ordinal());
+        final Long timestamp = entry.getTimestamp();
+        out.writeByte(timestamp == null ? 0 : 1);
+        if (timestamp != null) {
+            out.writeVarLong(timestamp);
+        }
+        out.writeString(entry.getQueueName());
+        out.writeString(entry.getShardingKey());
+        final Object[] payload = entry.getPayload();
+        if (codec == null) {
+            out.writeBlob(payload == null ? null : JSON.toJSONBytes(payload));
+        } else {
+            codec.writeValues(out, payload);
+        }
+        final byte[] bytes = out.toByteArray();
+        out.trim();
+        return bytes;
+    }
+
+    @Override
+    public DataEntry byteToObject(byte[] bytes) {
+        return decode(bytes, null);
+    }
+
+    /**
+     * Decode a record encoded without its schema.
+     *
+     * @param schema the schema the record was written with, resolved from the schema registry
+     */
+    public DataEntry byteToObject(byte[] bytes, Schema schema) {
+        return decode(bytes, schema);
+    }
+
+    private DataEntry decode(byte[] bytes, Schema registeredSchema) {
+        final BinaryInput in = new BinaryInput(bytes);
+        if (in.readByte() != MAGIC) {
+            throw new IllegalArgumentException("not a schema binary record");
+        }
+        final byte version = in.readByte();
+        final SchemaCodec codec;
+        if (version == VERSION) {
+            final int schemaLength = in.readVarInt();
+            codec = schemaLength == 0 ? null : decoder(bytes, in.position, schemaLength);
+            in.position += schemaLength;
+        } else if (version == VERSION_REGISTERED_SCHEMA) {
+            if (registeredSchema == null) {
+                throw new IllegalArgumentException("schema of the record is in the schema registry");
+            }
+            //注册中心返回的是共享的schema对象,按引用就能命中
+            codec = encoder(registeredSchema);
+        } else {
+            throw new IllegalArgumentException("unsupported schema binary version " + version);
+        }
+        final byte entryType = in.readByte();
+        final Long timestamp = in.readByte() == 0 ? null : in.readVarLong();
+        final String queueName = in.readString();
+        final String shardingKey = in.readString();
+        final Object[] payload;
+        if (codec == null) {
+            final byte[] json = in.readBlob();
+            payload = json == null ? null : JSON.parseArray(new String(json, StandardCharsets.UTF_8)).toArray();
+        } else {
+            payload = codec.readValues(in);
+        }
+        return new SinkDataEntry(null, timestamp, entryType == NULL_ORDINAL ? null : ENTRY_TYPES[entryType], queueName,
+            codec == null ? null : codec.schema, shardingKey, payload);
+    }
+
+    public SchemaRegistryService getSchemaRegistryService() {
+        return schemaRegistryService;
+    }
+
+    public void setSchemaRegistryService(SchemaRegistryService schemaRegistryService) {
+        this.schemaRegistryService = schemaRegistryService;
+    }
+
+    private SchemaCodec encoder(Schema schema) {
+        final SchemaCodec last = lastEncoder;
+        if (last != null && last.schema == schema) {
+            return last;
+        }
+        SchemaCodec codec = encoders.get(schema);
+        if (codec == null) {
+            if (encoders.size() >= MAX_CACHED_SCHEMAS) {
+                encoders.clear();
+            }
+            codec = new SchemaCodec(schema, serialize(schema));
+            encoders.put(schema, codec);
+        }
+        lastEncoder = codec;
+        return codec;
+    }
+
+    private SchemaCodec decoder(byte[] bytes, int offset, int length) {
+        final ByteBuffer key = ByteBuffer.wrap(bytes, offset, length);
+        SchemaCodec codec = decoders.get(key);
+        if (codec == null) {
+            if (decoders.size() >= MAX_CACHED_SCHEMAS) {
+                decoders.clear();
+            }
+            final byte[] schemaBytes = Arrays.copyOfRange(bytes, offset, offset + length);
+            codec = new SchemaCodec(deserialize(schemaBytes), schemaBytes);
+            decoders.put(ByteBuffer.wrap(schemaBytes), codec);
+        }
+        return codec;
+    }
+
+    /**
+     * @return serialized form of the schema, the same for equal schemas
+     */
+    public static byte[] serialize(Schema schema) {
+        final BinaryOutput out = new BinaryOutput();
+        out.writeString(schema.getName());
+        out.writeString(schema.getDataSource());
+        final List<Field> fields = schema.getFields() == null ? new ArrayList<>() : schema.getFields();
+        out.writeVarInt(fields.size());
+        for (Field field : fields) {
+            out.writeVarInt(field.getIndex());
+            out.writeString(field.getName());
+            out.writeByte(field.getType() == null ? NULL_ORDINAL : (byte) field.getType().ordinal());
+        }
+        return out.toByteArray();
+    }
+
+    public static Schema deserialize(byte[] schemaBytes) {
+        final BinaryInput in = new BinaryInput(schemaBytes);
+        final Schema schema = new Schema();
+        schema.setName(in.readString());
+        schema.setDataSource(in.readString());
+        final int size = in.readVarInt();
+        final List<Field> fields = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            final int index = in.readVarInt();
+            final String name = in.readString();
+            final byte type = in.readByte();
+            fields.add(new Field(index, name, type == NULL_ORDINAL ? null : FIELD_TYPES[type]));
+        }
+        schema.setFields(fields);
+        return schema;
+    }
+
+    /**
+     * Serialized form, field types and payload indexes of one schema.
+     */
+    private static class SchemaCodec {
+
+        private final Schema schema;
+
+        private final byte[] schemaBytes;
+
+        private final String[] names;
+
+        private final FieldType[] types;
+
+        private final int[] indexes;
+
+        private final int payloadLength;
+
+        SchemaCodec(Schema schema, byte[] schemaBytes) {
+            this.schema = schema;
+            this.schemaBytes = schemaBytes;
+            final List<Field> fields = schema.getFields() == null ? new ArrayList<>() : schema.getFields();
+            this.names = new String[fields.size()];
+            this.types = new FieldType[fields.size()];
+            this.indexes = new int[fields.size()];
+            int length = 0;
+            for (int i = 0; i < fields.size(); i++) {
+                names[i] = fields.get(i).getName();
+                types[i] = fields.get(i).getType();
+                indexes[i] = fields.get(i).getIndex();
+                length = Math.max(length, indexes[i] + 1);
+            }
+            this.payloadLength = length;
+        }
+
+        void writeValues(BinaryOutput out, Object[] payload) {
+            final int bitmapOffset = out.size;
+            final int bitmapLength = (types.length + 7) >>> 3;
+            for (int i = 0; i < bitmapLength; i++) {
+                out.writeByte(0);
+            }
+            for (int i = 0; i < types.length; i++) {
+                final Object value = payload == null || indexes[i] >= payload.length ? null : payload[indexes[i]];
+                if (value == null) {
+                    continue;
+                }
+                out.buffer[bitmapOffset + (i >>> 3)] |= 1 << (i & 7);
+                try {
+                    writeValue(out, types[i], value);
+                } catch (RuntimeException e) {
+                    throw new IllegalArgumentException("can not write " + value.getClass().getName() + " as "
+                        + types[i] + " to field " + names[i] + " of schema " + schema.getName(), e);
+                }
+            }
+        }
+
+        Object[] readValues(BinaryInput in) {
+            final Object[] payload = new Object[payloadLength];
+            final int bitmapOffset = in.position;
+            in.position += (types.length + 7) >>> 3;
+            for (int i = 0; i < types.length; i++) {
+                if ((in.bytes[bitmapOffset + (i >>> 3)] & (1 << (i & 7))) != 0) {
+                    payload[indexes[i]] = readValue(in, types[i]);
+                }
+            }
+            return payload;
+        }
+    }
+
+    private static void writeValue(BinaryOutput out, FieldType type, Object value) {
+        if (type == null) {
+            out.writeBlob(JSON.toJSONBytes(value));
+            return;
+        }
+        switch (type) {
+            case INT32:
+                out.writeVarInt(value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString()));
+                break;
+            case INT64:
+                out.writeVarLong(value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString()));
+                break;
+            case BIG_INTEGER:
+                out.writeBlob(toBigInteger(value).toByteArray());
+                break;
+            case FLOAT32:
+                out.writeInt(Float.floatToIntBits(value instanceof Number ? ((Number) value).floatValue() : Float.parseFloat(value.toString())));
+                break;
+            case FLOAT64:
+                out.writeLong(Double.doubleToLongBits(value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value.toString())));
+                break;
+            case BOOLEAN:
+                out.writeByte((value instanceof Boolean ? (Boolean) value : Boolean.parseBoolean(value.toString())) ? 1 : 0);
+                break;
+            case STRING:
+                out.writeBlob(value.toString().getBytes(StandardCharsets.UTF_8));
+                break;
+            case BYTES:
+                out.writeBlob(toBytes(value));
+                break;
+            case DATETIME:
+                out.writeVarLong(toMillis(value));
+                break;
+            default:
+                //ARRAY和MAP没有元素类型,用json
+                out.writeBlob(JSON.toJSONBytes(value));
+        }
+    }
+
+    private static Object readValue(BinaryInput in, FieldType type) {
+        if (type == null) {
+            return JSON.parse(new String(in.readBlob(), StandardCharsets.UTF_8));
+        }
+        switch (type) {
+            case INT32:
+                return in.readVarInt();
+            case INT64:
+                return in.readVarLong();
+            case BIG_INTEGER:
+                return new BigInteger(in.readBlob());
+            case FLOAT32:
+                return Float.intBitsToFloat(in.readInt());
+            case FLOAT64:
+                return Double.longBitsToDouble(in.readLong());
+            case BOOLEAN:
+                return in.readByte() != 0;
+            case STRING:
+                return new String(in.readBlob(), StandardCharsets.UTF_8);
+            case BYTES:
+                return in.readBlob();
+            case DATETIME:
+                return new Date(in.readVarLong());
+            default:
+                return JSON.parse(new String(in.readBlob(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static BigInteger toBigInteger(Object value) {
+        if (value instanceof BigInteger) {
+            return (BigInteger) value;
+        }
+        if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).toBigInteger();
+        }
+        if (value instanceof Number) {
+            return BigInteger.valueOf(((Number) value).longValue());
+        }
+        return new BigInteger(value.toString());
+    }
+
+    private static byte[] toBytes(Object value) {
+        if (value instanceof byte[]) {
+            return (byte[]) value;
+        }
+        if (value instanceof ByteBuffer) {
+            final ByteBuffer buffer = ((ByteBuffer) value).duplicate();
+            final byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return bytes;
+        }
+        return value.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long toMillis(Object value) {
+        if (value instanceof Date) {
+            return ((Date) value).getTime();
+        }
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof Instant) {
+            return ((Instant) value).toEpochMilli();
+        }
+        throw new IllegalArgumentException("unsupported datetime " + value.getClass().getName());
+    }
+
+    private static class BinaryOutput {
+
+        private byte[] buffer = new byte[256];
+
+        private int size;
+
+        void reset() {
+            size = 0;
+        }
+
+        /**
+         * 不留住特别大的buffer
+         */
+        void trim() {
+            if (buffer.length > MAX_RETAINED_BUFFER) {
+                buffer = new byte[256];
+            }
+        }
+
+        private void ensure(int length) {
+            if (size + length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length << 1, size + length));
+            }
+        }
+
+        void writeByte(int value) {
+            ensure(1);
+            buffer[size++] = (byte) value;
+        }
+
+        void writeBytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        void writeInt(int value) {
+            ensure(4);
+            buffer[size++] = (byte) (value >>> 24);
+            buffer[size++] = (byte) (value >>> 16);
+            buffer[size++] = (byte) (value >>> 8);
+            buffer[size++] = (byte) value;
+        }
+
+        void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        void writeVarInt(int value) {
+            writeVarLong(value);
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            long zigzag = (value << 1) ^ (value >> 63);
+            while ((zigzag & ~0x7FL) != 0) {
+                buffer[size++] = (byte) ((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            buffer[size++] = (byte) zigzag;
+        }
+
+        /**
+         * Length prefixed bytes, length 0 is null and length n+1 is n bytes.
+         */
+        void writeBlob(byte[] bytes) {
+            if (bytes == null) {
+                writeVarInt(0);
+                return;
+            }
+            writeVarInt(bytes.length + 1);
+            writeBytes(bytes);
+        }
+
+        void writeString(String value) {
+            writeBlob(value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+    }
+
+    private static class BinaryInput {
+
+        private final byte[] bytes;
+
+        private int position;
+
+        BinaryInput(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        byte readByte() {
+            return bytes[position++];
+        }
+
+        int readInt() {
+            return ((bytes[position++] & 0xFF) << 24) | ((bytes[position++] & 0xFF) << 16)
+                | ((bytes[position++] & 0xFF) << 8) | (bytes[position++] & 0xFF);
+        }
+
+        long readLong() {
+            return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+        }
+
+        int readVarInt() {
+            return (int) readVarLong();
+        }
+
+        long readVarLong() {
+            long zigzag = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[position++];
+                zigzag |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        byte[] readBlob() {
+            final int length = readVarInt();
+            if (length == 0) {
+                return null;
+            }
+            final byte[] blob = Arrays.copyOfRange(bytes, position, position + length - 1);
+            position += length - 1;
+            return blob;
+        }
+
+        String readString() {
+            final byte[] blob = readBlob();
+            return blob == null ? null : new String(blob, StandardCharsets.UTF_8);
+        }
+    }
+}
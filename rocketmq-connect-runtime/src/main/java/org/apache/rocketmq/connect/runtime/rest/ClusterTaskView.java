@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.rest;
+
+import com.alibaba.fastjson.JSON;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.apache.rocketmq.common.protocol.body.Connection;
+import org.apache.rocketmq.common.protocol.body.ConsumerConnection;
+import org.apache.rocketmq.connect.runtime.ConnectController;
+import org.apache.rocketmq.connect.runtime.common.LoggerName;
+import org.apache.rocketmq.connect.runtime.service.TaskStatusService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cluster wide task view behind /getAllTask.
+ *
+ * Workers that pushed their status recently are answered from memory, the others are called over http in parallel
+ * with a timeout, and a worker that does not answer in time is reported under {@link #FAILED_WORKERS} instead of
+ * failing the whole request. The aggregated view is cached for a short time, so frequent polling does not reach the
+ * workers at all.
+ */
+public class ClusterTaskView {
+
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.ROCKETMQ_RUNTIME);
+
+    public static final String FAILED_WORKERS = "failedWorkers";
+
+    private final ConnectController connectController;
+
+    private final CloseableHttpClient httpClient;
+
+    private final RequestConfig requestConfig;
+
+    private final long requestTimeout;
+
+    private final long cacheTtl;
+
+    private final ExecutorService fetchExecutor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "ClusterTaskViewFetchThread");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile View cachedView;
+
+    public ClusterTaskView(ConnectController connectController, CloseableHttpClient httpClient) {
+        this.connectController = connectController;
+        this.httpClient = httpClient;
+        this.requestTimeout = connectController.getConnectConfig().getWorkerRequestTimeout();
+        this.cacheTtl = connectController.getConnectConfig().getClusterViewCacheTtl();
+        this.requestConfig = RequestConfig.custom()
+            .setConnectTimeout((int) requestTimeout)
+            .setConnectionRequestTimeout((int) requestTimeout)
+            .setSocketTimeout((int) requestTimeout)
+            .build();
+    }
+
+    /**
+     * @param byWorker true: clientId -> task status of that worker, false: task state -> tasks of all workers
+     */
+    public Map<Object, Object> getAllTask(boolean byWorker) {
+        View view = getView();
+        Map<Object, Object> result = new HashMap<>();
+        if (byWorker) {
+            result.putAll(view.workers);
+        } else {
+            for (Map<Object, Object> worker : view.workers.values()) {
+                for (Map.Entry<Object, Object> entry : worker.entrySet()) {
+                    ((Collection<Object>) result.computeIfAbsent(entry.getKey(), k -> new ArrayList<>()))
+                        .addAll((Collection<Object>) entry.getValue());
+                }
+            }
+        }
+        if (!view.failed.isEmpty()) {
+            result.put(FAILED_WORKERS, view.failed);
+        }
+        return result;
+    }
+
+    private View getView() {
+        View view = cachedView;
+        if (view != null && System.currentTimeMillis() - view.createTime < cacheTtl) {
+            return view;
+        }
+        //并发的请求只有一个去刷新,其他的等它的结果
+        synchronized (this) {
+            view = cachedView;
+            if (view != null && System.currentTimeMillis() - view.createTime < cacheTtl) {
+                return view;
+            }
+            view = loadView();
+            cachedView = view;
+            return view;
+        }
+    }
+
+    private View loadView() {
+        View view = new View();
+        TaskStatusService taskStatusService = connectController.getTaskStatusService();
+        ConsumerConnection consumerConnection = connectController.getClusterManagementService().fetchConsumerConnection();
+        Map<String, CompletableFuture<String>> requests = new LinkedHashMap<>();
+        for (Connection connection : consumerConnection.getConnectionSet()) {
+            String clientId = connection.getClientId();
+            String pushed = taskStatusService == null ? null : taskStatusService.getWorkerTaskStatus(clientId);
+            if (pushed != null) {
+                view.workers.put(clientId, JSON.parseObject(pushed, HashMap.class));
+                continue;
+            }
+            String url = workerUrl(connection);
+            if (url == null) {
+                log.error("consumerID format is wrong and will ignore this consumer");
+                continue;
+            }
+            requests.put(clientId, CompletableFuture.supplyAsync(() -> fetch(url), fetchExecutor));
+        }
+
+        long deadline = System.currentTimeMillis() + requestTimeout;
+        for (Map.Entry<String, CompletableFuture<String>> request : requests.entrySet()) {
+            try {
+                long remaining = Math.max(0, deadline - System.currentTimeMillis());
+                String rs = request.getValue().get(remaining, TimeUnit.MILLISECONDS);
+                view.workers.put(request.getKey(), JSON.parseObject(rs, HashMap.class));
+            } catch (TimeoutException e) {
+                request.getValue().cancel(true);
+                view.failed.put(request.getKey(), "timeout after " + requestTimeout + "ms");
+            } catch (Exception e) {
+                log.error("get allocated task from {} failed", request.getKey(), e);
+                Throwable cause = e.getCause() == null ? e : e.getCause();
+                view.failed.put(request.getKey(), String.valueOf(cause.getMessage()));
+            }
+        }
+        view.createTime = System.currentTimeMillis();
+        return view;
+    }
+
+    private String fetch(String url) {
+        HttpGet httpGet = new HttpGet(url);
+        httpGet.setConfig(requestConfig);
+        try (CloseableHttpResponse response = httpClient.execute(httpGet)) {
+            return EntityUtils.toString(response.getEntity(), "UTF-8");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * clientId的格式为 ip@pid#httpPort#workerId,见ClusterManagementServiceImpl中设置的instanceName
+     */
+    static String workerUrl(Connection connection) {
+        String[] split = connection.getClientId().split("@");
+        String restPort = null;
+        String clientAddr = connection.getClientAddr();
+        if (clientAddr == null) {
+            return null;
+        }
+        clientAddr = clientAddr.split(":")[0];
+        if (split.length > 1) {
+            String[] strings = split[1].split("#");
+            if (strings.length > 1) {
+                restPort = strings[1];
+            }
+        }
+        if (restPort == null) {
+            return null;
+        }
+        return "http://" + clientAddr + ":" + restPort + RestHandler.GET_ALLOCATED_TASK;
+    }
+
+    private static class View {
+
+        private final Map<String, Map<Object, Object>> workers = new HashMap<>();
+
+        private final Map<String, String> failed = new HashMap<>();
+
+        private long createTime;
+    }
+}
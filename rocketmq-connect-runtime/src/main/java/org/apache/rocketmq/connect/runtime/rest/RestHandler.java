@@ -24,29 +24,23 @@ import com.google.common.collect.Maps;
 import io.javalin.Context;
 import io.javalin.Javalin;
 
-import java.io.IOException;
 import java.io.InputStream;
 import java.util.*;
 import java.util.function.BiFunction;
 
 import org.apache.commons.collections4.MapUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.http.HttpEntity;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.utils.HttpClientUtils;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
-import org.apache.http.util.EntityUtils;
-import org.apache.rocketmq.common.protocol.body.Connection;
-import org.apache.rocketmq.common.protocol.body.ConsumerConnection;
 import org.apache.rocketmq.connect.runtime.ConnectController;
 import org.apache.rocketmq.connect.runtime.common.ConnectKeyValue;
 import org.apache.rocketmq.connect.runtime.common.LoggerName;
 import org.apache.rocketmq.connect.runtime.config.ConnectConfig;
 import org.apache.rocketmq.connect.runtime.config.RuntimeConfigDefine;
-import org.apache.rocketmq.connect.runtime.connectorwrapper.WorkerTask;
+import org.apache.rocketmq.connect.runtime.connectorwrapper.Worker;
+import org.apache.rocketmq.connect.runtime.service.ConsumerLagService;
+import org.apache.rocketmq.connect.runtime.utils.Plugin;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -64,8 +58,12 @@ public class RestHandler {
 
     private static final String TASK_CONFIGS = "taskConfigs";
 
+    private static final long PLUGIN_RELOAD_DRAIN_TIMEOUT_MS = 30 * 1000;
+
     final CloseableHttpClient httpClient;
 
+    private final ClusterTaskView clusterTaskView;
+
     public CloseableHttpClient getHttpClient() {
         return httpClient;
     }
@@ -77,6 +75,7 @@ public class RestHandler {
         app = app.start(connectController.getConnectConfig().getHttpPort());
 
         httpClient = HttpClients.createDefault();
+        clusterTaskView = new ClusterTaskView(connectController, httpClient);
 
         //查看全部connector info以及对应的task info
         app.get("/getConnectorTask", this::getConnectorTask);
@@ -97,14 +96,27 @@ public class RestHandler {
         app.get(GET_ALLOCATED_TASK, this::getAllocatedTask);
         //查看所有task的状态，内部会调用其他节点的getAllocatedTask
         app.get("/getAllTask/:byWorker", this::getAllTask);
+        //查看本worker各个connector占用的内存预算
+        app.get("/worker/memory", this::getWorkerMemory);
         //插件重新加载
         app.get("/plugin/reload", this::reloadPlugins);
+        //只重新加载一个插件,并只重启用到它的task
+        app.get("/plugin/reload/single", this::reloadPlugin);
 
 
         //新增connector
         app.get("/connectors/create/:connectorName", this::handleCreateConnector);
         app.get("/connectors/update/:connectorName", this::handleUpdateConnector);
+        //请求体为json {connectorName: {config}},一次创建多个connector
+        app.post("/connectors/bulk/create", this::handleBulkCreateConnector);
         app.get("/connectors/taskNum/:connectorName/:taskNum", this::handleTaskNum);
+        //查看自动调整task数量的记录,只有第一个存活的节点会调整
+        app.get("/autoscale/decisions", this::getAutoScaleDecisions);
+
+        app.get("/lag", this::getAllLag);
+        app.get("/lag/:connectorName", this::getConnectorLag);
+        //prometheus text format
+        app.get("/metrics", this::getMetrics);
 
         //启用
         app.get("/connectors/all/enable", this::handleEnableAllConnector);
@@ -124,65 +136,13 @@ public class RestHandler {
 
     private void getAllTask(Context context) {
         boolean byWorker = Boolean.parseBoolean(context.pathParam("byWorker"));
-
-        final ConsumerConnection consumerConnection = connectController.getClusterManagementService().fetchConsumerConnection();
-        Map map = new HashMap<>();
-        for (Connection connection : consumerConnection.getConnectionSet()) {
-            final String clientId = connection.getClientId();
-            final String[] split = clientId.split("@");
-            String restPort = null;
-
-            String clientAddr = connection.getClientAddr();
-            clientAddr = clientAddr.split(":")[0];
-
-            if (split.length>1) {
-                final String pidAndPort = split[1];
-                if (pidAndPort!=null) {
-                    final String[] strings = pidAndPort.split("#");
-                    if (strings.length>1) {
-                        restPort = strings[1];
-                    }
-                }
-            }
-            if (restPort == null || clientAddr == null) {
-                log.error("consumerID format is wrong and will ignore this consumer");
-                continue;
-            }
-
-            HttpUriRequest httpUriRequest  = new HttpGet("http://"+clientAddr+":"+restPort+GET_ALLOCATED_TASK);
-            CloseableHttpResponse execute = null;
-            try {
-                execute = httpClient.execute(httpUriRequest);
-                final HttpEntity entity = execute.getEntity();
-                final String rs = EntityUtils.toString(entity, "UTF-8");
-                final HashMap rsMap = JSON.parseObject(rs, HashMap.class);
-                if (byWorker) {
-                    map.put(connection.getClientId(),rsMap);
-                }else{
-                    for (Object key : rsMap.keySet()) {
-                        map.merge(key, rsMap.get(key), (oldV, newV) -> {
-                            final boolean all = ((Collection) oldV).addAll(((Collection) newV));
-                            return oldV;
-                        });
-                    }
-                }
-            }catch (IOException e) {
-                log.error("",e);
-                context.result("failed");
-                return;
-            }finally {
-                if (execute!=null) {
-                    try {
-                        execute.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-            }
+        try {
+            Map<Object, Object> map = clusterTaskView.getAllTask(byWorker);
+            context.result(JSON.toJSONString(map, SerializerFeature.PrettyFormat));
+        } catch (Exception e) {
+            log.error("", e);
+            context.result("failed");
         }
-
-        context.result(JSON.toJSONString(map, SerializerFeature.PrettyFormat));
-        return;
     }
 
     private void handleLogMsg(Context context) {
@@ -212,16 +172,39 @@ public class RestHandler {
     }
 
     private void getAllocatedTask(Context context) {
-        Map<String, Object> formatter = new HashMap<>();
-        formatter.put("pendingTasks", convertWorkerTaskToString(connectController.getWorker().getPendingTasks()));
-        formatter.put("runningTasks",  convertWorkerTaskToString(connectController.getWorker().getWorkingTasks()));
-        formatter.put("stoppingTasks",  convertWorkerTaskToString(connectController.getWorker().getStoppingTasks()));
-        formatter.put("stoppedTasks",  convertWorkerTaskToString(connectController.getWorker().getStoppedTasks()));
-        formatter.put("errorTasks",  convertWorkerTaskToString(connectController.getWorker().getErrorTasks()));
-
+        Map<String, Object> formatter = connectController.getTaskStatusService().getLocalTaskStatus();
         context.result(JSON.toJSONString(formatter, SerializerFeature.PrettyFormat,SerializerFeature.WriteDateUseDateFormat));
     }
 
+    private void getAutoScaleDecisions(Context context) {
+        context.result(JSON.toJSONString(connectController.getTaskAutoScaleService().getDecisions(), SerializerFeature.PrettyFormat));
+    }
+
+    private void getAllLag(Context context) {
+        context.result(JSON.toJSONString(connectController.getConsumerLagService().getJsonObject(), SerializerFeature.PrettyFormat));
+    }
+
+    private void getConnectorLag(Context context) {
+        String connectorName = context.pathParam("connectorName");
+        ConsumerLagService.ConnectorLag lag = connectController.getConsumerLagService().getLag(connectorName);
+        if (lag == null) {
+            context.result("failed: no lag of sink connector " + connectorName);
+            return;
+        }
+        context.result(JSON.toJSONString(lag.toJsonObject(true), SerializerFeature.PrettyFormat));
+    }
+
+    private void getMetrics(Context context) {
+        StringBuilder sb = new StringBuilder();
+        connectController.getConsumerLagService().writeMetrics(sb);
+        context.contentType("text/plain; version=0.0.4; charset=utf-8");
+        context.result(sb.toString());
+    }
+
+    private void getWorkerMemory(Context context) {
+        context.result(JSON.toJSONString(connectController.getWorker().getMemoryPool().getJsonObject(), SerializerFeature.PrettyFormat));
+    }
+
     private void getConnectorTask(Context context) {
         Map<String, ConnectKeyValue> connectorConfigs = connectController.getConfigManagementService().getConnectorConfigs(RuntimeConfigDefine.CONFIG_ENABLE_DISABLE_LST);
         Map<String, List<ConnectKeyValue>> taskConfigs = connectController.getConfigManagementService().getTaskConfigs(RuntimeConfigDefine.CONFIG_ENABLE_DISABLE_LST);
@@ -355,18 +338,81 @@ public class RestHandler {
     }
 
     //启用
-    private void handleEnableAllConnector(Context context) {
+    private void handleBulkCreateConnector(Context context) {
+        String body = context.body();
+        if (StringUtils.isBlank(body)) {
+            context.result("failed! request body is required ");
+            return;
+        }
+        log.info("handle bulk Connector Config: {}", body);
         try {
-            Map<String, ConnectKeyValue> connectorConfigs = connectController.getConfigManagementService().getConnectorConfigs(RuntimeConfigDefine.CONFIG_DISABLE_LST);
-            StringBuilder msg = new StringBuilder("success");
-            for (String connector : connectorConfigs.keySet()) {
-                try{
-                    connectController.getConfigManagementService().enableConnectorConfig(connector);
-                }catch (Exception ex){
-                    msg.append(String.format("failed %s:",connector)+ex.getMessage()).append("\n");
+            Map<String, Object> connectors = JSON.parseObject(body, Map.class);
+            Map<String, ConnectKeyValue> configs = new LinkedHashMap<>();
+            //格式不对的connector单独报失败,不影响其他的
+            Map<String, String> invalid = new LinkedHashMap<>();
+            for (Map.Entry<String, Object> entry : connectors.entrySet()) {
+                String error = validateBulkEntry(entry.getKey(), entry.getValue());
+                if (error != null) {
+                    invalid.put(String.valueOf(entry.getKey()), "failed:" + error);
+                    continue;
                 }
+                Map<?, ?> keyValue = (Map<?, ?>) entry.getValue();
+                ConnectKeyValue config = new ConnectKeyValue();
+                for (Map.Entry<?, ?> item : keyValue.entrySet()) {
+                    config.put(item.getKey().toString(), item.getValue().toString());
+                }
+                config.put("connectorName", entry.getKey());
+                configs.put(entry.getKey(), config);
+            }
+            Map<String, String> result = new LinkedHashMap<>(invalid);
+            if (!configs.isEmpty()) {
+                result.putAll(connectController.getConfigManagementService().putNewConnectorConfigs(configs));
             }
-            context.result(msg.toString());
+            context.result(formatBatchResult(result));
+        } catch (Exception e) {
+            log.error("Handle bulk createConnector error .", e);
+            context.result("failed:" + e.getMessage());
+        }
+    }
+
+    /**
+     * @return null if the entry of a bulk create request can be used, otherwise why not
+     */
+    static String validateBulkEntry(String connectorName, Object config) {
+        if (StringUtils.isBlank(connectorName)) {
+            return "connector name is required";
+        }
+        if (!(config instanceof Map)) {
+            return "config must be a json object";
+        }
+        for (Map.Entry<?, ?> item : ((Map<?, ?>) config).entrySet()) {
+            if (item.getKey() == null || item.getValue() == null) {
+                return "config value of " + item.getKey() + " is null";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 保持和原来逐个操作时一样的返回格式: success后面跟着失败的connector
+     */
+    private String formatBatchResult(Map<String, String> result) {
+        StringBuilder msg = new StringBuilder("success");
+        for (Map.Entry<String, String> entry : result.entrySet()) {
+            if (!"success".equals(entry.getValue())) {
+                msg.append(String.format("failed %s:", entry.getKey())).append(entry.getValue().substring("failed:".length())).append("\n");
+            }
+        }
+        return msg.toString();
+    }
+
+    private void handleEnableAllConnector(Context context) {
+        try {
+            Map<String, ConnectKeyValue> connectorConfigs = connectController.getConfigManagementService().getConnectorConfigs(RuntimeConfigDefine.CONFIG_DISABLE_LST);
+            //批量修改,只同步一次配置,只触发一次负载均衡
+            Map<String, String> result = connectController.getConfigManagementService()
+                .changeConnectorStatus(new ArrayList<>(connectorConfigs.keySet()), RuntimeConfigDefine.CONFIG_STATUS_ENABLE);
+            context.result(formatBatchResult(result));
         } catch (Exception e) {
             log.error("", e);
             context.result("failed:"+e.getMessage());
@@ -376,15 +422,10 @@ public class RestHandler {
     private void handleDisableAllConnector(Context context) {
         try {
             Map<String, ConnectKeyValue> connectorConfigs = connectController.getConfigManagementService().getConnectorConfigs(RuntimeConfigDefine.CONFIG_ENABLE_LST);
-            StringBuilder msg = new StringBuilder("success");
-            for (String connector : connectorConfigs.keySet()) {
-                try{
-                    connectController.getConfigManagementService().disableConnectorConfig(connector);
-                }catch (Exception ex){
-                    msg.append(String.format("failed %s:",connector)+ex.getMessage()).append("\n");
-                }
-            }
-            context.result(msg.toString());
+            //批量修改,只同步一次配置,只触发一次负载均衡
+            Map<String, String> result = connectController.getConfigManagementService()
+                .changeConnectorStatus(new ArrayList<>(connectorConfigs.keySet()), RuntimeConfigDefine.CONFIG_STATUS_DISABLE);
+            context.result(formatBatchResult(result));
         } catch (Exception e) {
             log.error("", e);
             context.result("failed:"+e.getMessage());
@@ -394,15 +435,10 @@ public class RestHandler {
     private void handleRemoveAllConnector(Context context) {
         try {
             Map<String, ConnectKeyValue> connectorConfigs = connectController.getConfigManagementService().getConnectorConfigs(RuntimeConfigDefine.CONFIG_ENABLE_DISABLE_LST);
-            StringBuilder msg = new StringBuilder("success");
-            for (String connector : connectorConfigs.keySet()) {
-                try{
-                    connectController.getConfigManagementService().removeConnectorConfig(connector);
-                }catch (Exception ex){
-                    msg.append(String.format("failed %s:",connector)+ex.getMessage()).append("\n");
-                }
-            }
-            context.result(msg.toString());
+            //批量修改,只同步一次配置,只触发一次负载均衡
+            Map<String, String> result = connectController.getConfigManagementService()
+                .changeConnectorStatus(new ArrayList<>(connectorConfigs.keySet()), RuntimeConfigDefine.CONFIG_STATUS_REMOVE);
+            context.result(formatBatchResult(result));
         } catch (Exception e) {
             log.error("", e);
             context.result("failed:"+e.getMessage());
@@ -450,16 +486,35 @@ public class RestHandler {
 
 
 
-    private Set<Object> convertWorkerTaskToString(Set<WorkerTask> tasks) {
-        Set<Object> result = new HashSet<>();
-        for (WorkerTask task : tasks) {
-            result.add(((WorkerTask) task).getJsonObject());
-        }
-        return result;
-    }
 
     private void reloadPlugins(Context context) {
         connectController.getConfigManagementService().getPlugin().initPlugin();
         context.result("success");
     }
+
+    private void reloadPlugin(Context context) {
+        String location = context.queryParam("plugin");
+        if (StringUtils.isEmpty(location)) {
+            context.result("failed:plugin is required");
+            return;
+        }
+        Plugin plugin = connectController.getConfigManagementService().getPlugin();
+        try {
+            Plugin.PluginReload reload = plugin.reloadPlugin(location);
+            //旧的类加载器由worker在用它的task都退出以后释放
+            Worker.TaskRestart restart = connectController.getWorker().restartTasks(reload, PLUGIN_RELOAD_DRAIN_TIMEOUT_MS);
+            if (restart.getPending() > 0) {
+                log.warn("{} tasks of plugin {} did not stop in time, release the old class loader after they exit", restart.getPending(), reload.getLocation());
+            }
+            Map<String, Object> result = new HashMap<>();
+            result.put("location", reload.getLocation());
+            result.put("version", reload.getVersion());
+            result.put("restartedTasks", restart.getRestarted());
+            result.put("pendingTasks", restart.getPending());
+            context.result(JSON.toJSONString(result));
+        } catch (Exception e) {
+            log.error("reload plugin {} failed", location, e);
+            context.result("failed:" + e.getMessage());
+        }
+    }
 }
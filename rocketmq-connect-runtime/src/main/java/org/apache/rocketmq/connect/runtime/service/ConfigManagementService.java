@@ -18,8 +18,10 @@
 package org.apache.rocketmq.connect.runtime.service;
 
 import io.openmessaging.connector.api.Connector;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import org.apache.rocketmq.connect.runtime.common.ConfigSnapshot;
 import org.apache.rocketmq.connect.runtime.common.ConnectKeyValue;
 import org.apache.rocketmq.connect.runtime.utils.Plugin;
 
@@ -47,6 +49,11 @@ public interface ConfigManagementService {
      */
     Map<String, ConnectKeyValue> getConnectorConfigs(List<Integer> status);
 
+    /**
+     * Current immutable snapshot of connector and task configs, its version grows with every change.
+     */
+    ConfigSnapshot getConfigSnapshot();
+
     /**
      * Put the configs of the specified connector in the cluster.
      *
@@ -71,6 +78,22 @@ public interface ConfigManagementService {
     void disableConnectorConfig(String connectorName);
     void enableConnectorConfig(String connectorName);
 
+    /**
+     * Create many connectors at once. The changes are sent to the other workers in one message and trigger one
+     * rebalance.
+     *
+     * @return connector name to "success" or "failed:reason"
+     */
+    Map<String, String> putNewConnectorConfigs(Map<String, ConnectKeyValue> configs);
+
+    /**
+     * Enable, disable or remove many connectors at once, with one config message and one rebalance.
+     *
+     * @param status {@link org.apache.rocketmq.connect.runtime.config.RuntimeConfigDefine#CONFIG_STATUS} value
+     * @return connector name to "success" or "failed:reason"
+     */
+    Map<String, String> changeConnectorStatus(Collection<String> connectorNames, int status);
+
     void recomputeTaskConfigs(String connectorName, Connector connector, Long currentTimestamp);
 
     /**
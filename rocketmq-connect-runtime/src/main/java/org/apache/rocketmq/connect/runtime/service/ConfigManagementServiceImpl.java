@@ -20,12 +20,14 @@ package org.apache.rocketmq.connect.runtime.service;
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.TypeReference;
 import com.alibaba.fastjson.serializer.SerializerFeature;
+import com.google.common.collect.Iterables;
 import io.openmessaging.KeyValue;
 import io.openmessaging.connector.api.Connector;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.rocketmq.connect.runtime.common.ConfigSnapshot;
 import org.apache.rocketmq.connect.runtime.common.ConnectorAndTaskConfigs;
 import org.apache.rocketmq.connect.runtime.common.ConnectKeyValue;
 import org.apache.rocketmq.connect.runtime.common.LoggerName;
@@ -62,6 +64,33 @@ public class ConfigManagementServiceImpl implements ConfigManagementService {
      */
     private KeyValueStore<String/*connectorName*/, List<ConnectKeyValue>/*taskConfig*/> taskKeyValueStore;
 
+    /**
+     * Immutable copy of the two stores, replaced after every change. Reads go to the snapshot without locking, writes
+     * stay serialized on this service and publish a new snapshot with the next version.
+     */
+    private volatile ConfigSnapshot configSnapshot = ConfigSnapshot.EMPTY;
+
+    /**
+     * 批量操作进行中时,配置同步和监听器(负载均衡)都推迟到批量结束时各做一次,同步只发送改动过的connector
+     */
+    private int batchDepth = 0;
+
+    private final Set<String> batchChangedConnectors = new HashSet<>();
+
+    private boolean batchTriggerPending = false;
+
+    private final String workerId;
+
+    /**
+     * 本节点发出的上一条同步消息的快照版本,增量同步把它作为baseVersion带上
+     */
+    private long lastSentVersion = ConnectorAndTaskConfigs.FULL_SYNC;
+
+    /**
+     * 每个其他节点最后收到的同步消息的版本,增量的baseVersion对不上说明中间丢了消息
+     */
+    private final Map<String, Long> receivedVersions = new HashMap<>();
+
     /**
      * All listeners to trigger while config change.
      */
@@ -92,12 +121,14 @@ public class ConfigManagementServiceImpl implements ConfigManagementService {
 
         };
         this.plugin = plugin;
+        this.workerId = connectConfig.getWorkerId();
     }
 
     @Override
     public synchronized void start() {
         connectorKeyValueStore.load();
         taskKeyValueStore.load();
+        publishSnapshot();
         dataSynchronizer.start();
         sendOnlineConfig();
     }
@@ -116,17 +147,13 @@ public class ConfigManagementServiceImpl implements ConfigManagementService {
      * @return
      */
     @Override
-    public synchronized Map<String, ConnectKeyValue> getConnectorConfigs(List<Integer> status) {
-        Map<String, ConnectKeyValue> result = new HashMap<>();
-        Map<String, ConnectKeyValue> connectorConfigs = connectorKeyValueStore.getKVMap();
-        for (String connectorName : connectorConfigs.keySet()) {
-            ConnectKeyValue config = connectorConfigs.get(connectorName);
-            int configInt = config.getInt(RuntimeConfigDefine.CONFIG_STATUS);
-            if (status==null || status.contains(configInt)) {
-                result.put(connectorName, config);
-            }
-        }
-        return result;
+    public Map<String, ConnectKeyValue> getConnectorConfigs(List<Integer> status) {
+        return configSnapshot.getConnectorConfigs(status);
+    }
+
+    @Override
+    public ConfigSnapshot getConfigSnapshot() {
+        return configSnapshot;
     }
 
     @Override
@@ -188,11 +215,15 @@ public class ConfigManagementServiceImpl implements ConfigManagementService {
         //放到缓存里面 已经加了lock,所以负载均衡那边就会lock
         putTaskConfigs(connectorName, newKVLst);
 
-        exist.put(RuntimeConfigDefine.TASK_NUM, String.valueOf(newTaskNum));
-        exist.put(RuntimeConfigDefine.UPDATE_TIMESTAMP,currentTimeMillis);
+        //快照里的config不能改,复制一份再改
+        ConnectKeyValue updated = new ConnectKeyValue(new ConcurrentHashMap<>(exist.getProperties()));
+        updated.put(RuntimeConfigDefine.TASK_NUM, String.valueOf(newTaskNum));
+        updated.put(RuntimeConfigDefine.UPDATE_TIMESTAMP,currentTimeMillis);
+        connectorKeyValueStore.put(connectorName, updated);
+        publishSnapshot();
 
         //同步config数据到rocketMQ,这里一发消息,就会收到其他节点的消息也会触发重平衡监听,所以Lock是需要的...
-        sendSynchronizeConfig();
+        sendSynchronizeConfig(Collections.singleton(connectorName));
         //触发监听器，这里会启动task任务
         triggerListener();
         return String.format("oldTaskNum : %s newTaskNum : %s",oldTaskNum,newTaskNum);
@@ -218,14 +249,15 @@ public class ConfigManagementServiceImpl implements ConfigManagementService {
         }
 
 
-        //不管是已禁用还是启用状态,都可以覆盖原本的参数配置
+        //不管是已禁用还是启用状态,都可以覆盖原本的参数配置,快照里的config不能改,复制一份再改
+        ConnectKeyValue updated = new ConnectKeyValue(new ConcurrentHashMap<>(exist.getProperties()));
         for (Map.Entry<String, String> entry : configs.getProperties().entrySet()) {
-            exist.put(entry.getKey(), entry.getValue());
+            updated.put(entry.getKey(), entry.getValue());
         }
-        configs = exist;
+        configs = updated;
 
         Long currentTimestamp = System.currentTimeMillis();
-        exist.put(RuntimeConfigDefine.UPDATE_TIMESTAMP, currentTimestamp);
+        updated.put(RuntimeConfigDefine.UPDATE_TIMESTAMP, currentTimestamp);
 
 
         //mz 检查参数的kv对必须含有必要的某个key例如 connector-class
@@ -311,8 +343,9 @@ public class ConfigManagementServiceImpl implements ConfigManagementService {
         List<ConnectKeyValue> converterdConfigs = convertAndGetTaskConfigs(connectorName, connector, currentTimestamp);
         //放到缓存里面
         putTaskConfigs(connectorName, converterdConfigs);
+        publishSnapshot();
         //同步config数据到rocketMQ,这里一发消息,就会收到其他节点的消息也会触发重平衡监听,所以Lock是需要的...
-        sendSynchronizeConfig();
+        sendSynchronizeConfig(Collections.singleton(connectorName));
         //触发监听器，这里会启动task任务
         triggerListener();
     }
@@ -333,6 +366,21 @@ public class ConfigManagementServiceImpl implements ConfigManagementService {
                 newKeyValue.put(RuntimeConfigDefine.TASK_TYPE, Worker.TaskType.DIRECT.name());
                 newKeyValue.put(RuntimeConfigDefine.SOURCE_TASK_CLASS, connectConfig.getString(RuntimeConfigDefine.SOURCE_TASK_CLASS));
                 newKeyValue.put(RuntimeConfigDefine.SINK_TASK_CLASS, connectConfig.getString(RuntimeConfigDefine.SINK_TASK_CLASS));
+                for (String key : RuntimeConfigDefine.DIRECT_TASK_KEYS) {
+                    if (connectConfig.containsKey(key)) {
+                        newKeyValue.put(key, connectConfig.getString(key));
+                    }
+                }
+                for (String key : connectConfig.keySet()) {
+                    if (key.startsWith(RuntimeConfigDefine.SINK_TASK_CONFIG_PREFIX)) {
+                        newKeyValue.put(key, connectConfig.getString(key));
+                    }
+                }
+            }
+            for (String key : Iterables.concat(RuntimeConfigDefine.ERRORS_TASK_KEYS, RuntimeConfigDefine.SINK_TASK_KEYS, RuntimeConfigDefine.SOURCE_TASK_KEYS)) {
+                if (connectConfig.containsKey(key) && !newKeyValue.containsKey(key)) {
+                    newKeyValue.put(key, connectConfig.getString(key));
+                }
             }
             // mz 小改一下 判空 taskType=direct时候理论不需要这个taskClass
             newKeyValue.put(RuntimeConfigDefine.TASK_CLASS, connector.taskClass()!=null? connector.taskClass().getName():null);
@@ -359,12 +407,16 @@ public class ConfigManagementServiceImpl implements ConfigManagementService {
             throw new IllegalArgumentException("the connector had already been removed");
         }
 
+        config = new ConnectKeyValue(new ConcurrentHashMap<>(config.getProperties()));
         config.put(RuntimeConfigDefine.UPDATE_TIMESTAMP, System.currentTimeMillis());
         config.put(RuntimeConfigDefine.CONFIG_STATUS, RuntimeConfigDefine.CONFIG_STATUS_REMOVE);
 
         connectorKeyValueStore.put(connectorName, config);
-        log.info("After removal connector withe name "+connectorName+",the rest disable and enable configs are:\n" + JSON.toJSONString(getConnectorConfigs(RuntimeConfigDefine.CONFIG_ENABLE_DISABLE_LST),SerializerFeature.PrettyFormat));
-        sendSynchronizeConfig();
+        publishSnapshot();
+        if (batchDepth == 0) {
+            log.info("After removal connector withe name "+connectorName+",the rest disable and enable configs are:\n" + JSON.toJSONString(getConnectorConfigs(RuntimeConfigDefine.CONFIG_ENABLE_DISABLE_LST),SerializerFeature.PrettyFormat));
+        }
+        sendSynchronizeConfig(Collections.singleton(connectorName));
         triggerListener();
     }
 
@@ -384,12 +436,16 @@ public class ConfigManagementServiceImpl implements ConfigManagementService {
             throw new IllegalArgumentException("the connector had been disabled");
         }
 
+        config = new ConnectKeyValue(new ConcurrentHashMap<>(config.getProperties()));
         config.put(RuntimeConfigDefine.UPDATE_TIMESTAMP, System.currentTimeMillis());
         config.put(RuntimeConfigDefine.CONFIG_STATUS, RuntimeConfigDefine.CONFIG_STATUS_DISABLE);
 
         connectorKeyValueStore.put(connectorName, config);
-        log.info("After disable connector withe name "+connectorName+",the rest enable configs are:\n" + JSON.toJSONString(getConnectorConfigs(RuntimeConfigDefine.CONFIG_ENABLE_LST),SerializerFeature.PrettyFormat));
-        sendSynchronizeConfig();
+        publishSnapshot();
+        if (batchDepth == 0) {
+            log.info("After disable connector withe name "+connectorName+",the rest enable configs are:\n" + JSON.toJSONString(getConnectorConfigs(RuntimeConfigDefine.CONFIG_ENABLE_LST),SerializerFeature.PrettyFormat));
+        }
+        sendSynchronizeConfig(Collections.singleton(connectorName));
         triggerListener();
     }
 
@@ -411,29 +467,29 @@ public class ConfigManagementServiceImpl implements ConfigManagementService {
             throw new IllegalStateException(String.format("the connector with name %s is removed !",connectorName));
         }
 
+        config = new ConnectKeyValue(new ConcurrentHashMap<>(config.getProperties()));
         config.put(RuntimeConfigDefine.UPDATE_TIMESTAMP, System.currentTimeMillis());
         config.put(RuntimeConfigDefine.CONFIG_STATUS, RuntimeConfigDefine.CONFIG_STATUS_ENABLE);
 
         connectorKeyValueStore.put(connectorName, config);
-        log.info("After enable connector withe name "+connectorName+",the rest enable configs are:\n" + JSON.toJSONString(getConnectorConfigs(RuntimeConfigDefine.CONFIG_ENABLE_LST),SerializerFeature.PrettyFormat));
-        sendSynchronizeConfig();
+        publishSnapshot();
+        if (batchDepth == 0) {
+            log.info("After enable connector withe name "+connectorName+",the rest enable configs are:\n" + JSON.toJSONString(getConnectorConfigs(RuntimeConfigDefine.CONFIG_ENABLE_LST),SerializerFeature.PrettyFormat));
+        }
+        sendSynchronizeConfig(Collections.singleton(connectorName));
         triggerListener();
     }
 
     @Override
-    public synchronized Map<String, List<ConnectKeyValue>> getTaskConfigs(List<Integer> status) {
-        Map<String, List<ConnectKeyValue>> result = new HashMap<>();
-
-        Map<String, ConnectKeyValue> connectorConfigs = getConnectorConfigs(status);
-        Map<String, List<ConnectKeyValue>> taskConfigs = taskKeyValueStore.getKVMap();
+    public Map<String, List<ConnectKeyValue>> getTaskConfigs(List<Integer> status) {
+        return configSnapshot.getTaskConfigs(status);
+    }
 
-        if (taskConfigs != null && connectorConfigs != null) {
-            for (String connectorName : connectorConfigs.keySet()) {
-                List<ConnectKeyValue> values = taskConfigs.get(connectorName);
-                result.put(connectorName, values == null ? new ArrayList<>() : new ArrayList<>(values));
-            }
-        }
-        return result;
+    /**
+     * 调用方持有this的锁,把两个store的当前内容发布为下一个版本的快照
+     */
+    private void publishSnapshot() {
+        configSnapshot = new ConfigSnapshot(configSnapshot.getVersion() + 1, connectorKeyValueStore.getKVMap(), taskKeyValueStore.getKVMap());
     }
 
     private synchronized void putTaskConfigs(String connectorName, List<ConnectKeyValue> configs) {
@@ -457,6 +513,68 @@ public class ConfigManagementServiceImpl implements ConfigManagementService {
         this.connectorConfigUpdateListener.add(listener);
     }
 
+    @Override
+    public synchronized Map<String, String> putNewConnectorConfigs(Map<String, ConnectKeyValue> configs) {
+        return runInBatch(configs.keySet(), connectorName -> putNewConnectorConfig(connectorName, configs.get(connectorName)));
+    }
+
+    @Override
+    public synchronized Map<String, String> changeConnectorStatus(Collection<String> connectorNames, int status) {
+        return runInBatch(connectorNames, connectorName -> {
+            switch (status) {
+                case RuntimeConfigDefine.CONFIG_STATUS_ENABLE:
+                    enableConnectorConfig(connectorName);
+                    break;
+                case RuntimeConfigDefine.CONFIG_STATUS_DISABLE:
+                    disableConnectorConfig(connectorName);
+                    break;
+                case RuntimeConfigDefine.CONFIG_STATUS_REMOVE:
+                    removeConnectorConfig(connectorName);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown connector status " + status);
+            }
+        });
+    }
+
+    /**
+     * 逐个执行,单个失败不影响其他的,最后只发一次包含所有改动connector的同步消息,只触发一次负载均衡
+     * @return connectorName -> success 或者 failed:原因
+     */
+    private Map<String, String> runInBatch(Collection<String> connectorNames, ConnectorOperation operation) {
+        Map<String, String> result = new LinkedHashMap<>();
+        batchDepth++;
+        try {
+            for (String connectorName : connectorNames) {
+                try {
+                    operation.apply(connectorName);
+                    result.put(connectorName, "success");
+                } catch (Exception e) {
+                    log.warn("batch operation on connector {} failed", connectorName, e);
+                    result.put(connectorName, "failed:" + e.getMessage());
+                }
+            }
+        } finally {
+            if (--batchDepth == 0) {
+                if (!batchChangedConnectors.isEmpty()) {
+                    List<String> changed = new ArrayList<>(batchChangedConnectors);
+                    batchChangedConnectors.clear();
+                    sendSynchronizeConfig(changed);
+                }
+                if (batchTriggerPending) {
+                    batchTriggerPending = false;
+                    triggerListener();
+                }
+            }
+        }
+        return result;
+    }
+
+    @FunctionalInterface
+    private interface ConnectorOperation {
+        void apply(String connectorName) throws Exception;
+    }
+
     /**
      * 这个lock见recomputeTaskConfigs中的注释
      */
@@ -465,6 +583,10 @@ public class ConfigManagementServiceImpl implements ConfigManagementService {
         if (null == this.connectorConfigUpdateListener) {
             return;
         }
+        if (batchDepth > 0) {
+            batchTriggerPending = true;
+            return;
+        }
         for (ConnectorConfigUpdateListener listener : this.connectorConfigUpdateListener) {
             listener.onConfigUpdate();
         }
@@ -472,22 +594,74 @@ public class ConfigManagementServiceImpl implements ConfigManagementService {
 
     private synchronized void sendOnlineConfig() {
 
+        ConfigSnapshot snapshot = configSnapshot;
         ConnectorAndTaskConfigs configs = new ConnectorAndTaskConfigs();
-        configs.setConnectorConfigs(new HashMap<>(connectorKeyValueStore.getKVMap()));
-        configs.setTaskConfigs(new HashMap<>(taskKeyValueStore.getKVMap()));
+        configs.setConnectorConfigs(new HashMap<>(snapshot.getConnectorConfigs()));
+        configs.setTaskConfigs(new HashMap<>(snapshot.getTaskConfigs()));
+        stampVersion(configs, snapshot, ConnectorAndTaskConfigs.FULL_SYNC);
         dataSynchronizer.send(ConfigChangeEnum.ONLINE_KEY.name(), configs);
     }
 
     private synchronized void sendSynchronizeConfig() {
 
+        ConfigSnapshot snapshot = configSnapshot;
         ConnectorAndTaskConfigs configs = new ConnectorAndTaskConfigs();
-        configs.setConnectorConfigs(new HashMap<>(connectorKeyValueStore.getKVMap()));
-        configs.setTaskConfigs(new HashMap<>(taskKeyValueStore.getKVMap()));
+        configs.setConnectorConfigs(new HashMap<>(snapshot.getConnectorConfigs()));
+        configs.setTaskConfigs(new HashMap<>(snapshot.getTaskConfigs()));
+        stampVersion(configs, snapshot, ConnectorAndTaskConfigs.FULL_SYNC);
 
         //发送到rocketMQ,topic就是config的那个
         dataSynchronizer.send(ConfigChangeEnum.CONFIG_CHANG_KEY.name(), configs);
     }
 
+    /**
+     * 只同步改动过的connector及其task。接收方mergeConfig本来就是逐个connector按UPDATE_TIMESTAMP合并的,
+     * 没有带上的connector保持不变,所以增量和全量的合并结果一样。全量同步只在节点上线和停止时发送
+     */
+    private synchronized void sendSynchronizeConfig(Collection<String> connectorNames) {
+        if (batchDepth > 0) {
+            batchChangedConnectors.addAll(connectorNames);
+            return;
+        }
+        ConfigSnapshot snapshot = configSnapshot;
+        ConnectorAndTaskConfigs configs = new ConnectorAndTaskConfigs();
+        for (String connectorName : connectorNames) {
+            ConnectKeyValue connectorConfig = snapshot.getConnectorConfigs().get(connectorName);
+            if (connectorConfig == null) {
+                continue;
+            }
+            configs.getConnectorConfigs().put(connectorName, connectorConfig);
+            List<ConnectKeyValue> taskConfigs = snapshot.getTaskConfigs().get(connectorName);
+            if (taskConfigs != null) {
+                configs.getTaskConfigs().put(connectorName, taskConfigs);
+            }
+        }
+        if (configs.getConnectorConfigs().isEmpty()) {
+            return;
+        }
+        stampVersion(configs, snapshot, lastSentVersion);
+        dataSynchronizer.send(ConfigChangeEnum.CONFIG_CHANG_KEY.name(), configs);
+    }
+
+    private void stampVersion(ConnectorAndTaskConfigs configs, ConfigSnapshot snapshot, long baseVersion) {
+        configs.setWorkerId(workerId);
+        configs.setVersion(snapshot.getVersion());
+        configs.setBaseVersion(baseVersion);
+        lastSentVersion = snapshot.getVersion();
+    }
+
+    /**
+     * 记录其他节点的同步版本,增量消息之前有缺失时(或者还没收到过这个节点的全量)返回true。
+     * 增量照样合并,缺的部分靠全量同步补上
+     */
+    private boolean hasGap(ConnectorAndTaskConfigs configs) {
+        if (configs.getWorkerId() == null || configs.getWorkerId().equals(workerId)) {
+            return false;
+        }
+        Long received = receivedVersions.put(configs.getWorkerId(), configs.getVersion());
+        return configs.isDelta() && (received == null || received != configs.getBaseVersion());
+    }
+
     private class ConfigChangeCallback implements DataSynchronizerCallback<String, ConnectorAndTaskConfigs> {
 
         /**
@@ -511,12 +685,19 @@ public class ConfigManagementServiceImpl implements ConfigManagementService {
                 switch (ConfigChangeEnum.valueOf(key)) {
                     //这个不是connector上线，这个是connectorController上线才会发ONLINE
                     case ONLINE_KEY:
+                        hasGap(result);
                         mergeConfig(result);
                         changed = true;
                         sendSynchronizeConfig();
                         break;
                     case CONFIG_CHANG_KEY://就是source和sink的config信息。
+                        boolean gap = hasGap(result);
                         changed = mergeConfig(result);
+                        if (gap) {
+                            //发online让所有节点回一次全量同步
+                            log.warn("config sync from worker {} has a gap before version {}, request a full sync", result.getWorkerId(), result.getVersion());
+                            sendOnlineConfig();
+                        }
                         break;
                     default:
                         break;
@@ -539,7 +720,10 @@ public class ConfigManagementServiceImpl implements ConfigManagementService {
         boolean changed = false;
         for (String connectorName : newConnAndTaskConfig.getConnectorConfigs().keySet()) {
             ConnectKeyValue newConfig = newConnAndTaskConfig.getConnectorConfigs().get(connectorName);
-            ConnectKeyValue oldConfig = getConnectorConfigs(RuntimeConfigDefine.CONFIG_ENABLE_DISABLE_LST).get(connectorName);
+            ConnectKeyValue oldConfig = connectorKeyValueStore.get(connectorName);
+            if (oldConfig != null && oldConfig.getInt(RuntimeConfigDefine.CONFIG_STATUS) == RuntimeConfigDefine.CONFIG_STATUS_REMOVE) {
+                oldConfig = null;
+            }
             //删除配置该咋搞 new里面肯定是没有了这肯定不行啊，所以说new里面还是得有，但是持久化时候不会持久化到本地。
             //这样如果有一个节点内存里有这个REMOVE,那么其他节点都会收到。然后其他节点都会删除本地的这个config
             //当最后这个节点也下线了，那就是彻底删除了。
@@ -563,6 +747,9 @@ public class ConfigManagementServiceImpl implements ConfigManagementService {
                 }
             }
         }
+        if (changed) {
+            publishSnapshot();
+        }
         return changed;
     }
 
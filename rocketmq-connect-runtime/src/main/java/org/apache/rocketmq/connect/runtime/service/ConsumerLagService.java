@@ -0,0 +1,352 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.rocketmq.common.admin.ConsumeStats;
+import org.apache.rocketmq.common.admin.OffsetWrapper;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.apache.rocketmq.connect.runtime.common.ConnectKeyValue;
+import org.apache.rocketmq.connect.runtime.common.LoggerName;
+import org.apache.rocketmq.connect.runtime.config.ConnectConfig;
+import org.apache.rocketmq.connect.runtime.config.RuntimeConfigDefine;
+import org.apache.rocketmq.connect.runtime.connectorwrapper.Worker;
+import org.apache.rocketmq.connect.runtime.connectorwrapper.WorkerSinkTask;
+import org.apache.rocketmq.connect.runtime.connectorwrapper.WorkerTask;
+import org.apache.rocketmq.connect.runtime.utils.ConnectUtil;
+import org.apache.rocketmq.connect.runtime.utils.ServiceThread;
+import org.apache.rocketmq.tools.admin.DefaultMQAdminExt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically reads how far behind every sink connector is, and caches it for the REST api and the metrics endpoint.
+ *
+ * One consume stats request per connector gives, for every queue of its consumer group, the broker max offset, the
+ * committed consume offset and the store timestamp of the last consumed message. The lag of a queue is max offset minus
+ * consume offset, and while it is not zero its time lag is estimated as now minus that store timestamp, which is an upper
+ * bound of how long the oldest unconsumed message has waited. Queues pulled by sink tasks of this worker also show the
+ * next offset the task will pull, so the messages pulled but not committed yet can be told apart from the ones still on
+ * the broker.
+ */
+public class ConsumerLagService extends ServiceThread {
+
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.ROCKETMQ_RUNTIME);
+
+    private final ConnectConfig connectConfig;
+
+    private final ConfigManagementService configManagementService;
+
+    private final Worker worker;
+
+    private DefaultMQAdminExt adminExt;
+
+    private volatile Map<String, ConnectorLag> lags = Collections.emptyMap();
+
+    private volatile long lastUpdateTime;
+
+    public ConsumerLagService(ConnectConfig connectConfig, ConfigManagementService configManagementService, Worker worker) {
+        this(connectConfig, configManagementService, worker, null);
+    }
+
+    /**
+     * @param adminExt started admin to read consume stats with, null to start one with the service
+     */
+    public ConsumerLagService(ConnectConfig connectConfig, ConfigManagementService configManagementService, Worker worker,
+        DefaultMQAdminExt adminExt) {
+        this.connectConfig = connectConfig;
+        this.configManagementService = configManagementService;
+        this.worker = worker;
+        this.adminExt = adminExt;
+    }
+
+    @Override
+    public void run() {
+        log.info(this.getServiceName() + " service started");
+
+        while (!this.isStopped()) {
+            try {
+                refresh();
+            } catch (Exception e) {
+                log.error("refresh sink connector lag failed", e);
+            }
+            this.waitForRunning(connectConfig.getLagTrackInterval());
+        }
+
+        if (adminExt != null) {
+            adminExt.shutdown();
+        }
+        log.info(this.getServiceName() + " service end");
+    }
+
+    @Override
+    public String getServiceName() {
+        return ConsumerLagService.class.getSimpleName();
+    }
+
+    /**
+     * Read the lag of all enabled sink connectors and replace the cached one.
+     */
+    void refresh() throws Exception {
+        final Map<String, ConnectKeyValue> connectorConfigs = configManagementService.getConnectorConfigs(RuntimeConfigDefine.CONFIG_ENABLE_LST);
+        final Map<String, List<ConnectKeyValue>> taskConfigs = configManagementService.getTaskConfigs(RuntimeConfigDefine.CONFIG_ENABLE_LST);
+        final Map<String, Map<MessageQueue, Long>> fetchOffsets = localFetchOffsets();
+        final long now = System.currentTimeMillis();
+        final Map<String, ConnectorLag> refreshed = new TreeMap<>();
+        for (String connectorName : connectorConfigs.keySet()) {
+            final Set<String> topics = sinkTopics(taskConfigs.get(connectorName));
+            if (topics.isEmpty()) {
+                continue;
+            }
+            try {
+                final String group = ConnectUtil.getSinkConsumerGroup(connectConfig, connectorName);
+                final ConsumeStats consumeStats = getAdminExt().examineConsumeStats(group);
+                refreshed.put(connectorName, toConnectorLag(connectorName, group, topics, consumeStats, fetchOffsets, now));
+            } catch (Exception e) {
+                //读不到的connector保留上一次的结果
+                log.warn("read lag of connector {} failed", connectorName, e);
+                final ConnectorLag previous = lags.get(connectorName);
+                if (previous != null) {
+                    refreshed.put(connectorName, previous);
+                }
+            }
+        }
+        lags = refreshed;
+        lastUpdateTime = now;
+    }
+
+    /**
+     * @param fetchOffsets next offset to pull by connector and queue, several sink connectors can consume the same queue
+     */
+    static ConnectorLag toConnectorLag(String connectorName, String group, Set<String> topics, ConsumeStats consumeStats,
+        Map<String, Map<MessageQueue, Long>> fetchOffsets, long now) {
+        final ConnectorLag connectorLag = new ConnectorLag(connectorName, group);
+        final Map<MessageQueue, Long> connectorFetchOffsets = fetchOffsets.getOrDefault(connectorName, Collections.emptyMap());
+        for (Map.Entry<MessageQueue, OffsetWrapper> entry : consumeStats.getOffsetTable().entrySet()) {
+            final MessageQueue queue = entry.getKey();
+            if (!topics.contains(queue.getTopic())) {
+                continue;
+            }
+            final OffsetWrapper offset = entry.getValue();
+            final QueueLag queueLag = new QueueLag(queue);
+            queueLag.brokerOffset = offset.getBrokerOffset();
+            queueLag.consumerOffset = offset.getConsumerOffset();
+            queueLag.lag = Math.max(0, offset.getBrokerOffset() - offset.getConsumerOffset());
+            if (queueLag.lag > 0) {
+                //还没消费过的queue没有时间戳,估不出时间
+                queueLag.lagMillis = offset.getLastTimestamp() > 0 ? Math.max(0, now - offset.getLastTimestamp()) : -1;
+            }
+            final Long fetchOffset = connectorFetchOffsets.get(queue);
+            queueLag.fetchOffset = fetchOffset == null ? -1 : fetchOffset;
+            connectorLag.add(queueLag);
+        }
+        return connectorLag;
+    }
+
+    /**
+     * @return next offset to pull of every queue assigned to a sink task of this worker, by connector
+     */
+    private Map<String, Map<MessageQueue, Long>> localFetchOffsets() {
+        final Map<String, Map<MessageQueue, Long>> fetchOffsets = new HashMap<>();
+        if (worker == null) {
+            return fetchOffsets;
+        }
+        for (WorkerTask task : worker.getWorkingTasks()) {
+            if (task instanceof WorkerSinkTask) {
+                fetchOffsets.computeIfAbsent(task.getConnectorName(), k -> new HashMap<>())
+                    .putAll(((WorkerSinkTask) task).getFetchOffsets());
+            }
+        }
+        return fetchOffsets;
+    }
+
+    /**
+     * @return topics the sink tasks of a connector consume, empty if it is not a sink connector
+     */
+    static Set<String> sinkTopics(List<ConnectKeyValue> tasks) {
+        final Set<String> topics = new HashSet<>();
+        if (tasks == null) {
+            return topics;
+        }
+        for (ConnectKeyValue task : tasks) {
+            if (Worker.TaskType.DIRECT.name().equalsIgnoreCase(task.getString(RuntimeConfigDefine.TASK_TYPE))) {
+                continue;
+            }
+            final String topicNames = task.getString(WorkerSinkTask.QUEUENAMES_CONFIG);
+            if (StringUtils.isNotEmpty(topicNames)) {
+                for (String topic : topicNames.split(",")) {
+                    if (StringUtils.isNotBlank(topic)) {
+                        topics.add(topic.trim());
+                    }
+                }
+            }
+        }
+        return topics;
+    }
+
+    private synchronized DefaultMQAdminExt getAdminExt() throws Exception {
+        if (adminExt == null) {
+            adminExt = ConnectUtil.startMQAdminTool(connectConfig);
+        }
+        return adminExt;
+    }
+
+    /**
+     * @return cached lag of the connector, null if it is not a sink connector or was not read yet
+     */
+    public ConnectorLag getLag(String connectorName) {
+        return lags.get(connectorName);
+    }
+
+    /**
+     * Lag of every sink connector without the queues.
+     */
+    public Object getJsonObject() {
+        final Map<String, Object> obj = new HashMap<>();
+        obj.put("updateTime", lastUpdateTime);
+        final Map<String, Object> connectors = new TreeMap<>();
+        for (ConnectorLag connectorLag : lags.values()) {
+            connectors.put(connectorLag.connectorName, connectorLag.toJsonObject(false));
+        }
+        obj.put("connectors", connectors);
+        return obj;
+    }
+
+    /**
+     * Append the lag gauges in the prometheus text format.
+     */
+    public void writeMetrics(StringBuilder sb) {
+        final Map<String, ConnectorLag> current = lags;
+        sb.append("# HELP rocketmq_connect_sink_lag_messages Messages not consumed yet by the sink connector.\n");
+        sb.append("# TYPE rocketmq_connect_sink_lag_messages gauge\n");
+        for (ConnectorLag connectorLag : current.values()) {
+            for (QueueLag queueLag : connectorLag.queues) {
+                sb.append("rocketmq_connect_sink_lag_messages").append(queueLag.labels(connectorLag.connectorName))
+                    .append(' ').append(queueLag.lag).append('\n');
+            }
+        }
+        sb.append("# HELP rocketmq_connect_sink_lag_seconds Estimated age of the oldest message not consumed yet.\n");
+        sb.append("# TYPE rocketmq_connect_sink_lag_seconds gauge\n");
+        for (ConnectorLag connectorLag : current.values()) {
+            for (QueueLag queueLag : connectorLag.queues) {
+                if (queueLag.lagMillis >= 0) {
+                    sb.append("rocketmq_connect_sink_lag_seconds").append(queueLag.labels(connectorLag.connectorName))
+                        .append(' ').append(queueLag.lagMillis / 1000.0).append('\n');
+                }
+            }
+        }
+    }
+
+    public static class ConnectorLag {
+
+        private final String connectorName;
+
+        private final String consumerGroup;
+
+        private final List<QueueLag> queues = new ArrayList<>();
+
+        private long lag;
+
+        private long maxLagMillis;
+
+        ConnectorLag(String connectorName, String consumerGroup) {
+            this.connectorName = connectorName;
+            this.consumerGroup = consumerGroup;
+        }
+
+        void add(QueueLag queueLag) {
+            queues.add(queueLag);
+            lag += queueLag.lag;
+            maxLagMillis = Math.max(maxLagMillis, queueLag.lagMillis);
+        }
+
+        public long getLag() {
+            return lag;
+        }
+
+        public long getMaxLagMillis() {
+            return maxLagMillis;
+        }
+
+        public int getQueueNum() {
+            return queues.size();
+        }
+
+        public Map<String, Object> toJsonObject(boolean withQueues) {
+            final Map<String, Object> obj = new HashMap<>();
+            obj.put("consumerGroup", consumerGroup);
+            obj.put("lag", lag);
+            obj.put("maxLagMillis", maxLagMillis);
+            obj.put("queueNum", queues.size());
+            if (withQueues) {
+                final List<Object> queueObjs = new ArrayList<>(queues.size());
+                for (QueueLag queueLag : queues) {
+                    queueObjs.add(queueLag.toJsonObject());
+                }
+                obj.put("queues", queueObjs);
+            }
+            return obj;
+        }
+    }
+
+    private static class QueueLag {
+
+        private final MessageQueue queue;
+
+        private long brokerOffset;
+
+        private long consumerOffset;
+
+        private long fetchOffset;
+
+        private long lag;
+
+        private long lagMillis;
+
+        QueueLag(MessageQueue queue) {
+            this.queue = queue;
+        }
+
+        String labels(String connectorName) {
+            return "{connector=\"" + connectorName + "\",topic=\"" + queue.getTopic() + "\",broker=\""
+                + queue.getBrokerName() + "\",queue=\"" + queue.getQueueId() + "\"}";
+        }
+
+        Map<String, Object> toJsonObject() {
+            final Map<String, Object> obj = new HashMap<>();
+            obj.put("topic", queue.getTopic());
+            obj.put("brokerName", queue.getBrokerName());
+            obj.put("queueId", queue.getQueueId());
+            obj.put("brokerOffset", brokerOffset);
+            obj.put("consumerOffset", consumerOffset);
+            obj.put("fetchOffset", fetchOffset);
+            obj.put("lag", lag);
+            obj.put("lagMillis", lagMillis);
+            return obj;
+        }
+    }
+}
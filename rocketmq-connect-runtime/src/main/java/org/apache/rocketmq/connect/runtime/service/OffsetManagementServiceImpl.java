@@ -39,6 +39,7 @@ import org.apache.rocketmq.connect.runtime.store.FileBaseKeyValueStore;
 import org.apache.rocketmq.connect.runtime.store.KeyValueStore;
 import org.apache.rocketmq.connect.runtime.utils.ConnectUtil;
 import org.apache.rocketmq.connect.runtime.utils.FilePathConfigUtil;
+import org.apache.rocketmq.connect.runtime.utils.PositionCodec;
 import org.apache.rocketmq.connect.runtime.utils.datasync.BrokerBasedLog;
 import org.apache.rocketmq.connect.runtime.utils.datasync.DataSynchronizer;
 import org.apache.rocketmq.connect.runtime.utils.datasync.DataSynchronizerCallback;
@@ -94,9 +95,10 @@ public class OffsetManagementServiceImpl implements PositionManagementService {
                 Map<String, String> offsetMap = new ConcurrentHashMap<>();
                 data.entrySet().stream().forEach(e->{
                     if (e.getValue().hasArray() && e.getValue().array() != null) {
-                        String s = new String(e.getValue().array());
+                        //binary long offsets are written in decimal, so the file stays readable
+                        String s = PositionCodec.toDisplayString(e.getValue());
                         if(s!=null && s.length()>0){
-                            offsetMap.put(new String(e.getKey().array()),new String(e.getValue().array()));
+                            offsetMap.put(new String(e.getKey().array()),s);
                         }
                     }
                 });
@@ -117,7 +119,7 @@ public class OffsetManagementServiceImpl implements PositionManagementService {
                 Map map1 = new HashMap();
                 for (Map.Entry<ByteBuffer, ByteBuffer> entry : map.entrySet()) {
                     final String key1 = new String(entry.getKey().array());
-                    final String value1 = entry.getValue() == null ? "" : new String(entry.getValue().array());
+                    final String value1 = PositionCodec.toDisplayString(entry.getValue());
                     map1.put(key1, value1);
                 }
                 return "\n"+key+"="+JSON.toJSONString(map1,SerializerFeature.PrettyFormat);
@@ -271,29 +273,23 @@ public class OffsetManagementServiceImpl implements PositionManagementService {
 
         StringBuilder logBuilder = new StringBuilder();
         for (Map.Entry<ByteBuffer, ByteBuffer> newEntry : result.entrySet()) {
-            boolean find = false;
-            for (Map.Entry<ByteBuffer, ByteBuffer> existedEntry : offsetStore.getKVMap().entrySet()) {
-                if (newEntry.getKey().equals(existedEntry.getKey())) {
-                    find = true;
-                    final String newOffsetStr = new String(newEntry.getValue().array().length==0?"0".getBytes(StandardCharsets.UTF_8):newEntry.getValue().array());
-                    final String existedOffsetStr = new String(existedEntry.getValue().array().length==0?"0".getBytes(StandardCharsets.UTF_8):existedEntry.getValue().array());
-
-                    if(Long.parseLong(newOffsetStr) > Long.parseLong(existedOffsetStr)){
-                        changed = true;
-                        existedEntry.setValue(newEntry.getValue());
-                        logBuilder.append(String.format("receive a higher offset %s %s->%s", new String(existedEntry.getKey().array()), Long.parseLong(existedOffsetStr), Long.parseLong(newOffsetStr))).append("\n");
-                    }else if(Long.parseLong(newOffsetStr) == Long.parseLong(existedOffsetStr)){
-                        //do nothing
-                    }else{
-                        logBuilder.append(String.format("receive a lower offset %s %s->%s", new String(existedEntry.getKey().array()), Long.parseLong(existedOffsetStr), Long.parseLong(newOffsetStr))).append("\n");
-                    }
-                    break;
-                }
+            final ByteBuffer existedOffsetBuffer = offsetStore.get(newEntry.getKey());
+            if (existedOffsetBuffer == null) {
+                changed = true;
+                offsetStore.put(newEntry.getKey(), newEntry.getValue());
+                logBuilder.append(String.format("receive a new key offset %s:%s", new String(newEntry.getKey().array()), PositionCodec.toDisplayString(newEntry.getValue()))).append("\n");
+                continue;
             }
-            if (!find) {
+            final Long newOffset = PositionCodec.tryDecodeLong(newEntry.getValue());
+            final Long existedOffset = PositionCodec.tryDecodeLong(existedOffsetBuffer);
+            if (newOffset == null || existedOffset == null) {
+                logBuilder.append(String.format("receive a non numeric offset %s %s", new String(newEntry.getKey().array()), PositionCodec.toDisplayString(newEntry.getValue()))).append("\n");
+            } else if (newOffset > existedOffset) {
                 changed = true;
                 offsetStore.put(newEntry.getKey(), newEntry.getValue());
-                logBuilder.append(String.format("receive a new key offset %s:%s", new String(newEntry.getKey().array()),newEntry.getValue())).append("\n");
+                logBuilder.append(String.format("receive a higher offset %s %s->%s", new String(newEntry.getKey().array()), existedOffset, newOffset)).append("\n");
+            } else if (newOffset < existedOffset) {
+                logBuilder.append(String.format("receive a lower offset %s %s->%s", new String(newEntry.getKey().array()), existedOffset, newOffset)).append("\n");
             }
         }
         logger.info("\n"+logBuilder.toString());
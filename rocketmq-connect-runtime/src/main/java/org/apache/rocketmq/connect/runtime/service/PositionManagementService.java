@@ -20,6 +20,7 @@ package org.apache.rocketmq.connect.runtime.service;
 import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
+import org.apache.rocketmq.connect.runtime.utils.PositionCodec;
 
 /**
  * Interface for position manager.
@@ -62,6 +63,23 @@ public interface PositionManagementService {
 
     void putPosition(ByteBuffer partition, ByteBuffer position);
 
+    /**
+     * Get a numeric position, whether it was stored in binary or as a legacy decimal string.
+     *
+     * @param partition
+     * @return null if there is no position or it is not numeric
+     */
+    default Long getLongPosition(ByteBuffer partition) {
+        return PositionCodec.tryDecodeLong(getPosition(partition));
+    }
+
+    /**
+     * Put a numeric position in the fixed width binary form.
+     */
+    default void putLongPosition(ByteBuffer partition, long position) {
+        putPosition(partition, PositionCodec.encodeLong(position));
+    }
+
     /**
      * Remove a position info.
      *
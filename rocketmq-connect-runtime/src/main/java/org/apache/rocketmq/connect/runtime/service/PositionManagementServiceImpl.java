@@ -37,6 +37,7 @@ import org.apache.rocketmq.connect.runtime.store.FileBaseKeyValueStore;
 import org.apache.rocketmq.connect.runtime.store.KeyValueStore;
 import org.apache.rocketmq.connect.runtime.utils.ConnectUtil;
 import org.apache.rocketmq.connect.runtime.utils.FilePathConfigUtil;
+import org.apache.rocketmq.connect.runtime.utils.PositionCodec;
 import org.apache.rocketmq.connect.runtime.utils.datasync.BrokerBasedLog;
 import org.apache.rocketmq.connect.runtime.utils.datasync.DataSynchronizer;
 import org.apache.rocketmq.connect.runtime.utils.datasync.DataSynchronizerCallback;
@@ -89,7 +90,8 @@ public class PositionManagementServiceImpl implements PositionManagementService
                 Map<String, String> offsetMap = new ConcurrentHashMap<>();
                 data.entrySet().stream().forEach(e->{
                     if (e.getValue().hasArray() && e.getValue().array() != null) {
-                        offsetMap.put(new String(e.getKey().array()),new String(e.getValue().array()));
+                        //binary long positions are written in decimal, so the file stays readable
+                        offsetMap.put(new String(e.getKey().array()),PositionCodec.toDisplayString(e.getValue()));
                     }
                 });
                 return JSON.toJSONString(offsetMap, SerializerFeature.PrettyFormat);
@@ -109,7 +111,7 @@ public class PositionManagementServiceImpl implements PositionManagementService
                 Map map1 = new HashMap();
                 for (Map.Entry<ByteBuffer, ByteBuffer> entry : map.entrySet()) {
                     final String key1 = new String(entry.getKey().array());
-                    final String value1 = entry.getValue() == null ? "" : new String(entry.getValue().array());
+                    final String value1 = PositionCodec.toDisplayString(entry.getValue());
                     map1.put(key1, value1);
                 }
                 return "\n"+key+"="+JSON.toJSONString(map1,SerializerFeature.PrettyFormat);
@@ -273,29 +275,28 @@ public class PositionManagementServiceImpl implements PositionManagementService
         StringBuilder logBuilder = new StringBuilder();
 
         for (Map.Entry<ByteBuffer, ByteBuffer> newEntry : result.entrySet()) {
-            boolean find = false;
-            for (Map.Entry<ByteBuffer, ByteBuffer> existedEntry : positionStore.getKVMap().entrySet()) {
-                if (newEntry.getKey().equals(existedEntry.getKey())) {
-                    find = true;
-                    final String newOffsetStr = new String(newEntry.getValue().array().length==0?"0".getBytes(StandardCharsets.UTF_8):newEntry.getValue().array());
-                    final String existedOffsetStr = new String(existedEntry.getValue().array().length==0?"0".getBytes(StandardCharsets.UTF_8):existedEntry.getValue().array());
-
-                    if(Long.parseLong(newOffsetStr) > Long.parseLong(existedOffsetStr)){
-                        changed = true;
-                        existedEntry.setValue(newEntry.getValue());
-                        logBuilder.append(String.format("receive a higher position %s %s->%s", new String(existedEntry.getKey().array()), Long.parseLong(existedOffsetStr), Long.parseLong(newOffsetStr))).append("\n");
-                    }else if(Long.parseLong(newOffsetStr) == Long.parseLong(existedOffsetStr)){
-                        //do nothing
-                    }else{
-                        logBuilder.append(String.format("receive a lower position %s %s->%s", new String(existedEntry.getKey().array()), Long.parseLong(existedOffsetStr), Long.parseLong(newOffsetStr))).append("\n");
-                    }
-                    break;
-                }
+            final ByteBuffer existedPosition = positionStore.get(newEntry.getKey());
+            if (existedPosition == null) {
+                changed = true;
+                positionStore.put(newEntry.getKey(), newEntry.getValue());
+                logBuilder.append(String.format("receive a new key position %s:%s", new String(newEntry.getKey().array()), PositionCodec.toDisplayString(newEntry.getValue()))).append("\n");
+                continue;
             }
-            if (!find) {
+            final Long newOffset = PositionCodec.tryDecodeLong(newEntry.getValue());
+            final Long existedOffset = PositionCodec.tryDecodeLong(existedPosition);
+            if (newOffset == null || existedOffset == null) {
+                //不是数字的position(例如json)无法比较大小,以最新收到的为准
+                if (!newEntry.getValue().equals(existedPosition)) {
+                    changed = true;
+                    positionStore.put(newEntry.getKey(), newEntry.getValue());
+                    logBuilder.append(String.format("receive a changed position %s %s->%s", new String(newEntry.getKey().array()), PositionCodec.toDisplayString(existedPosition), PositionCodec.toDisplayString(newEntry.getValue()))).append("\n");
+                }
+            } else if (newOffset > existedOffset) {
                 changed = true;
                 positionStore.put(newEntry.getKey(), newEntry.getValue());
-                logBuilder.append(String.format("receive a new key position %s:%s", new String(newEntry.getKey().array()),newEntry.getValue())).append("\n");
+                logBuilder.append(String.format("receive a higher position %s %s->%s", new String(newEntry.getKey().array()), existedOffset, newOffset)).append("\n");
+            } else if (newOffset < existedOffset) {
+                logBuilder.append(String.format("receive a lower position %s %s->%s", new String(newEntry.getKey().array()), existedOffset, newOffset)).append("\n");
             }
         }
         logger.info("\n"+logBuilder.toString());
@@ -27,6 +27,7 @@ import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.serializer.SerializerFeature;
 import org.apache.rocketmq.connect.runtime.ConnectController;
 import org.apache.rocketmq.connect.runtime.common.AllocateResultConfigs;
+import org.apache.rocketmq.connect.runtime.common.ConfigSnapshot;
 import org.apache.rocketmq.connect.runtime.common.ConnectKeyValue;
 import org.apache.rocketmq.connect.runtime.common.LoggerName;
 import org.apache.rocketmq.connect.runtime.config.RuntimeConfigDefine;
@@ -64,6 +65,14 @@ public class RebalanceImpl {
 
     private final ConnectController connectController;
 
+    /**
+     * Config version and alive workers of the last successful rebalance. The allocation only depends on them, so
+     * while both stay the same a rebalance has nothing to do.
+     */
+    private long lastConfigVersion = -1;
+
+    private List<String> lastAllWorkers;
+
     public RebalanceImpl(Worker worker, ConfigManagementService configManagementService,
                          ClusterManagementService clusterManagementService, AllocateTaskStrategy strategy, ConnectController connectController) {
 
@@ -98,18 +107,24 @@ public class RebalanceImpl {
             }
         }
         log.debug("Current Alive workers : " + curAliveWorkers.size());
-        Map<String, ConnectKeyValue> allConnectors;
-        Map<String, List<ConnectKeyValue>> allTasks;
-        synchronized (configManagementService){
-            allConnectors = configManagementService.getConnectorConfigs(RuntimeConfigDefine.CONFIG_ENABLE_LST);
-            allTasks = configManagementService.getTaskConfigs(RuntimeConfigDefine.CONFIG_ENABLE_LST);
-        }
+        //快照是不可变的,connector和task的配置一定属于同一个版本,不需要再锁configManagementService
+        final ConfigSnapshot configSnapshot = configManagementService.getConfigSnapshot();
 
         //与cluster-consumer的instanceName相关
         final List<String> allWorkers = curAliveWorkers.stream().map(v -> v.split("@")[1].split("#")[2]).collect(Collectors.toList());
+        if (configSnapshot.getVersion() == lastConfigVersion && allWorkers.equals(lastAllWorkers)) {
+            log.debug("config version {} and alive workers have no changes, skip rebalance", lastConfigVersion);
+            return;
+        }
+        Map<String, ConnectKeyValue> allConnectors = configSnapshot.getConnectorConfigs(RuntimeConfigDefine.CONFIG_ENABLE_LST);
+        Map<String, List<ConnectKeyValue>> allTasks = configSnapshot.getTaskConfigs(RuntimeConfigDefine.CONFIG_ENABLE_LST);
+
         final String currWorker = clusterManagementService.getCurrentWorker().split("@")[1].split("#")[2];
         AllocateResultConfigs allocateResult = allocateTaskStrategy.allocate(allWorkers,currWorker, allTasks);
-        updateProcessConfigsInRebalance(allocateResult);
+        if (updateProcessConfigsInRebalance(allocateResult)) {
+            lastConfigVersion = configSnapshot.getVersion();
+            lastAllWorkers = allWorkers;
+        }
 
         log.debug("doRebalance Current ConnectorConfigs : " + JSON.toJSONString(allConnectors,SerializerFeature.PrettyFormat));
         log.debug("doRebalance Current TaskConfigs : " + JSON.toJSONString(allTasks,SerializerFeature.PrettyFormat));
@@ -120,8 +135,9 @@ public class RebalanceImpl {
      * Start all the connectors and tasks allocated to current process.
      *
      * @param allocateResult
+     * @return false if the allocation could not be applied
      */
-    private void updateProcessConfigsInRebalance(AllocateResultConfigs allocateResult) {
+    private boolean updateProcessConfigsInRebalance(AllocateResultConfigs allocateResult) {
 
         try {
             //worker自己其实早早就已经运行起来了
@@ -139,8 +155,10 @@ public class RebalanceImpl {
                 log.info("after rebalanced ,in this worker the allocated tasks changes :\n"+ JSON.toJSONString(printMap,SerializerFeature.PrettyFormat));
             }
             worker.setTasks(allocateResult.getTaskConfigs());
+            return true;
         } catch (Exception e) {
             log.error("RebalanceImpl#updateProcessConfigsInRebalance start connector or task failed", e);
+            return false;
         }
     }
 
@@ -28,6 +28,18 @@ public class RebalanceService extends ServiceThread {
 
     private static long waitInterval = Long.parseLong(System.getProperty("rocketmq.runtime.cluster.rebalance.waitInterval", "20000"));
 
+    /**
+     * 配置变更后等这么久没有新的变更再做负载均衡,连续修改多个connector时只做一次。0表示不等待
+     */
+    private static long debounceInterval = Long.parseLong(System.getProperty("rocketmq.runtime.cluster.rebalance.debounce", "500"));
+
+    /**
+     * 持续有配置变更时最多推迟这么久,避免一直不做负载均衡
+     */
+    private static final int MAX_DEBOUNCE_TIMES = 10;
+
+    private volatile long lastConfigUpdate = 0L;
+
     /**
      * Assign all connectors and tasks to all alive process in the cluster.
      */
@@ -61,6 +73,7 @@ public class RebalanceService extends ServiceThread {
         while (!this.isStopped()) {
 
             this.waitForRunning(waitInterval);
+            waitForConfigQuiet();
             try {
                 this.rebalanceImpl.doRebalance();
             } catch (Exception e) {
@@ -71,6 +84,21 @@ public class RebalanceService extends ServiceThread {
         log.info(this.getServiceName() + " service end");
     }
 
+    private void waitForConfigQuiet() {
+        if (debounceInterval <= 0) {
+            return;
+        }
+        long deadline = System.currentTimeMillis() + debounceInterval * MAX_DEBOUNCE_TIMES;
+        while (!this.isStopped()) {
+            long now = System.currentTimeMillis();
+            long remaining = Math.min(lastConfigUpdate + debounceInterval, deadline) - now;
+            if (remaining <= 0) {
+                return;
+            }
+            this.waitForRunning(remaining);
+        }
+    }
+
     @Override
     public String getServiceName() {
         return RebalanceService.class.getSimpleName();
@@ -95,6 +123,7 @@ public class RebalanceService extends ServiceThread {
          */
         @Override
         public void onConfigUpdate() {
+            lastConfigUpdate = System.currentTimeMillis();
             RebalanceService.this.wakeup();
         }
     }
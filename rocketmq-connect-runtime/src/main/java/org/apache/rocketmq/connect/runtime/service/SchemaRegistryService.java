@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.service;
+
+import io.openmessaging.connector.api.data.Schema;
+
+/**
+ * Interface for the schema registry, which gives every schema a stable id so messages carry the id instead of the
+ * schema.
+ */
+public interface SchemaRegistryService {
+
+    /**
+     * Id of no schema, never given to a schema.
+     */
+    long NO_SCHEMA_ID = 0;
+
+    /**
+     * Start the registry.
+     */
+    void start();
+
+    /**
+     * Stop the registry.
+     */
+    void stop();
+
+    /**
+     * Persist the known schemas in a persist store.
+     */
+    void persist();
+
+    /**
+     * Send the known schemas to the store again, so they are still there after older messages expire.
+     */
+    void republish();
+
+    /**
+     * Register the schema if it is new, the same schema always gets the same id on every worker.
+     *
+     * @return id of the schema, or {@link #NO_SCHEMA_ID} if it could not be published and the schema should be sent with
+     * the record
+     */
+    long register(Schema schema);
+
+    /**
+     * Resolve a schema by its id.
+     *
+     * @return the schema, shared by all callers, or null if it is not known
+     */
+    Schema getSchema(long schemaId);
+}
@@ -0,0 +1,278 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.service;
+
+import com.alibaba.fastjson.TypeReference;
+import io.openmessaging.connector.api.data.Schema;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.rocketmq.client.producer.DefaultMQProducer;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.client.producer.SendStatus;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.connect.runtime.common.LoggerName;
+import org.apache.rocketmq.connect.runtime.config.ConnectConfig;
+import org.apache.rocketmq.connect.runtime.converter.SchemaBinaryConverter;
+import org.apache.rocketmq.connect.runtime.store.FileBaseKeyValueStore;
+import org.apache.rocketmq.connect.runtime.store.KeyValueStore;
+import org.apache.rocketmq.connect.runtime.utils.ConnectUtil;
+import org.apache.rocketmq.connect.runtime.utils.FilePathConfigUtil;
+import org.apache.rocketmq.tools.admin.DefaultMQAdminExt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Schema registry on the schema store topic.
+ *
+ * The id of a schema is the CRC-64-AVRO fingerprint of its serialized form, so every worker gives the same schema the
+ * same id without asking the others. A new schema is sent to the schema store topic with its id as message key before
+ * the first record which uses it, and a worker which does not know an id queries the topic by that key. Known schemas
+ * are kept in a local file, and the resolved ones in a LRU cache. As messages of the topic expire, the known schemas are
+ * sent again at start and every schemaRepublishInterval.
+ */
+public class SchemaRegistryServiceImpl implements SchemaRegistryService {
+
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.ROCKETMQ_RUNTIME);
+
+    private static final long FINGERPRINT_EMPTY = 0xc15d213aa4d7a795L;
+
+    private static final long[] FINGERPRINT_TABLE = new long[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            long fp = i;
+            for (int j = 0; j < 8; j++) {
+                fp = (fp >>> 1) ^ (FINGERPRINT_EMPTY & -(fp & 1L));
+            }
+            FINGERPRINT_TABLE[i] = fp;
+        }
+    }
+
+    private static final int MAX_REGISTERED_SCHEMAS = 10000;
+
+    /**
+     * 查不到的id过一会儿再去topic上查,避免每条消息都查一次
+     */
+    private static final long MISS_RETRY_INTERVAL = 1000;
+
+    /**
+     * 发送失败的schema过一会儿再发,这期间它的记录带着整个schema发,source不用每条都同步等一次发送超时
+     */
+    private static final long PUBLISH_RETRY_INTERVAL = 30 * 1000;
+
+    private static final int QUERY_MAX_NUM = 32;
+
+    private final String schemaPrefix = "connector-schemaRegistry";
+
+    private final ConnectConfig connectConfig;
+
+    /**
+     * schema id(hex) -> base64 of the serialized schema.
+     */
+    private final KeyValueStore<String, String> schemaStore;
+
+    /**
+     * schema -> id, so a source building a new schema object for every record does not serialize it every time.
+     */
+    private final Map<Schema, Long> schemaIds = new ConcurrentHashMap<>();
+
+    private final Map<Long, Schema> schemaCache;
+
+    private final Map<Long, Long> misses = new ConcurrentHashMap<>();
+
+    /**
+     * schema -> time its last publish failed
+     */
+    private final Map<Schema, Long> publishFailures = new ConcurrentHashMap<>();
+
+    private final DefaultMQProducer producer;
+
+    private DefaultMQAdminExt adminExt;
+
+    public SchemaRegistryServiceImpl(ConnectConfig connectConfig) {
+        this(connectConfig, ConnectUtil.initDefaultMQProducer(connectConfig), null);
+        this.producer.setProducerGroup(ConnectUtil.createGroupName(schemaPrefix, connectConfig.getWorkerId()));
+    }
+
+    /**
+     * @param adminExt started admin to query the schema store topic with, null to start one when it is needed
+     */
+    SchemaRegistryServiceImpl(ConnectConfig connectConfig, DefaultMQProducer producer, DefaultMQAdminExt adminExt) {
+        this.connectConfig = connectConfig;
+        this.producer = producer;
+        this.adminExt = adminExt;
+        this.schemaStore = new FileBaseKeyValueStore<>(FilePathConfigUtil.getSchemaPath(connectConfig.getStorePathRootDir()),
+            new TypeReference<Map<String, String>>() {
+            });
+        final int cacheSize = Math.max(1, connectConfig.getSchemaCacheSize());
+        this.schemaCache = new LinkedHashMap<Long, Schema>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Schema> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    @Override
+    public void start() {
+        schemaStore.load();
+        try {
+            producer.start();
+        } catch (Exception e) {
+            log.error("start schema registry producer failed", e);
+        }
+        republish();
+    }
+
+    @Override
+    public void stop() {
+        schemaStore.persist();
+        producer.shutdown();
+        synchronized (this) {
+            if (adminExt != null) {
+                adminExt.shutdown();
+            }
+        }
+    }
+
+    @Override
+    public void persist() {
+        schemaStore.persist();
+    }
+
+    @Override
+    public long register(Schema schema) {
+        final Long registered = schemaIds.get(schema);
+        if (registered != null) {
+            return registered;
+        }
+        final Long lastFailure = publishFailures.get(schema);
+        if (lastFailure != null && System.currentTimeMillis() - lastFailure < PUBLISH_RETRY_INTERVAL) {
+            return NO_SCHEMA_ID;
+        }
+        final byte[] schemaBytes = SchemaBinaryConverter.serialize(schema);
+        final long schemaId = fingerprint(schemaBytes);
+        final String key = Long.toHexString(schemaId);
+        if (!schemaStore.containsKey(key)) {
+            //先发到topic上,别的worker上的sink才能查到
+            if (!publish(key, schemaBytes)) {
+                if (publishFailures.size() >= MAX_REGISTERED_SCHEMAS) {
+                    publishFailures.clear();
+                }
+                publishFailures.put(schema, System.currentTimeMillis());
+                return NO_SCHEMA_ID;
+            }
+            publishFailures.remove(schema);
+            schemaStore.put(key, Base64.getEncoder().encodeToString(schemaBytes));
+            log.info("register schema {} with id {}", schema.getName(), key);
+        }
+        if (schemaIds.size() >= MAX_REGISTERED_SCHEMAS) {
+            schemaIds.clear();
+        }
+        schemaIds.put(schema, schemaId);
+        return schemaId;
+    }
+
+    @Override
+    public Schema getSchema(long schemaId) {
+        synchronized (schemaCache) {
+            final Schema schema = schemaCache.get(schemaId);
+            if (schema != null) {
+                return schema;
+            }
+        }
+        final String key = Long.toHexString(schemaId);
+        String stored = schemaStore.get(key);
+        if (stored == null) {
+            stored = query(schemaId, key);
+            if (stored == null) {
+                return null;
+            }
+            schemaStore.put(key, stored);
+        }
+        final Schema schema = SchemaBinaryConverter.deserialize(Base64.getDecoder().decode(stored));
+        synchronized (schemaCache) {
+            final Schema cached = schemaCache.putIfAbsent(schemaId, schema);
+            return cached == null ? schema : cached;
+        }
+    }
+
+    @Override
+    public void republish() {
+        int published = 0;
+        for (Map.Entry<String, String> entry : schemaStore.getKVMap().entrySet()) {
+            if (publish(entry.getKey(), Base64.getDecoder().decode(entry.getValue()))) {
+                published++;
+            }
+        }
+        log.info("republish {} of {} schemas", published, schemaStore.size());
+    }
+
+    private boolean publish(String key, byte[] schemaBytes) {
+        try {
+            final Message message = new Message(connectConfig.getSchemaStoreTopic(), null, key, schemaBytes);
+            final SendResult result = producer.send(message);
+            return result != null && result.getSendStatus() == SendStatus.SEND_OK;
+        } catch (Exception e) {
+            log.warn("publish schema {} failed, records of it carry the whole schema", key, e);
+            return false;
+        }
+    }
+
+    private String query(long schemaId, String key) {
+        final long now = System.currentTimeMillis();
+        final Long lastMiss = misses.get(schemaId);
+        if (lastMiss != null && now - lastMiss < MISS_RETRY_INTERVAL) {
+            return null;
+        }
+        try {
+            for (MessageExt message : getAdminExt().queryMessage(connectConfig.getSchemaStoreTopic(), key, QUERY_MAX_NUM, 0, Long.MAX_VALUE).getMessageList()) {
+                //key可能碰上别的消息的hash,按指纹校验
+                if (message.getBody() != null && fingerprint(message.getBody()) == schemaId) {
+                    misses.remove(schemaId);
+                    return Base64.getEncoder().encodeToString(message.getBody());
+                }
+            }
+        } catch (Exception e) {
+            log.warn("query schema {} failed", key, e);
+        }
+        misses.put(schemaId, now);
+        return null;
+    }
+
+    private synchronized DefaultMQAdminExt getAdminExt() throws Exception {
+        if (adminExt == null) {
+            adminExt = ConnectUtil.startMQAdminTool(connectConfig);
+        }
+        return adminExt;
+    }
+
+    /**
+     * CRC-64-AVRO fingerprint, never {@link #NO_SCHEMA_ID}.
+     */
+    static long fingerprint(byte[] bytes) {
+        long fp = FINGERPRINT_EMPTY;
+        for (byte b : bytes) {
+            fp = (fp >>> 8) ^ FINGERPRINT_TABLE[(int) (fp ^ b) & 0xff];
+        }
+        return fp == NO_SCHEMA_ID ? 1 : fp;
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.service;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import org.apache.rocketmq.common.admin.ConsumeStats;
+import org.apache.rocketmq.connect.runtime.common.ConnectKeyValue;
+import org.apache.rocketmq.connect.runtime.common.LoggerName;
+import org.apache.rocketmq.connect.runtime.config.ConnectConfig;
+import org.apache.rocketmq.connect.runtime.config.RuntimeConfigDefine;
+import org.apache.rocketmq.connect.runtime.utils.ConnectUtil;
+import org.apache.rocketmq.connect.runtime.utils.ServiceThread;
+import org.apache.rocketmq.tools.admin.DefaultMQAdminExt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Grows and shrinks the task number of connectors with autoscale-enable by their lag, through
+ * {@link ConfigManagementService#dynamicUpdateTaskNum(String, int)}.
+ *
+ * The lag of a sink connector is the sum of broker max offset minus consume offset over the queues of its topics, in
+ * its consumer group. Source connectors have no consumer group, their tasks report the lag of the system they read
+ * from through {@link org.apache.rocketmq.connect.runtime.utils.SourceTaskLag}, every worker pushes it with the task
+ * status and the lag of a source connector is the sum over its running tasks. Only the kafka, mongo and redis sources
+ * report it, each in its own unit, other source connectors are left alone. A connector is scaled up when the lag per
+ * task stays above the high mark, and down by one task when it stays below the low mark, within its min and max task
+ * number and never above the number of queues. Only the first alive worker decides, so the workers do not scale the
+ * same connector at once. Every decision is logged and the last ones are kept for the REST api.
+ */
+public class TaskAutoScaleService extends ServiceThread {
+
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.ROCKETMQ_RUNTIME);
+
+    private static final long DEFAULT_LAG_HIGH = 10000;
+
+    private static final long DEFAULT_LAG_LOW = 100;
+
+    private static final int DEFAULT_MAX_STEP = 2;
+
+    private static final int DEFAULT_SUSTAIN_CHECKS = 3;
+
+    private static final long DEFAULT_COOLDOWN_MS = 5 * 60 * 1000;
+
+    private static final int MAX_DECISIONS = 200;
+
+    private final ConnectConfig connectConfig;
+
+    private final ConfigManagementService configManagementService;
+
+    private final ClusterManagementService clusterManagementService;
+
+    /**
+     * 各节点推送的任务状态,source task上报的堆积从这里读,为null时不调整source connector
+     */
+    private final TaskStatusService taskStatusService;
+
+    private DefaultMQAdminExt adminExt;
+
+    /**
+     * connector -> 连续满足扩容(正数)或缩容(负数)条件的检查次数
+     */
+    private final Map<String, Integer> sustained = new ConcurrentHashMap<>();
+
+    private final Map<String, Long> lastScaleTime = new ConcurrentHashMap<>();
+
+    private final Deque<ScaleDecision> decisions = new ConcurrentLinkedDeque<>();
+
+    public TaskAutoScaleService(ConnectConfig connectConfig, ConfigManagementService configManagementService,
+        ClusterManagementService clusterManagementService) {
+        this(connectConfig, configManagementService, clusterManagementService, null, null);
+    }
+
+    public TaskAutoScaleService(ConnectConfig connectConfig, ConfigManagementService configManagementService,
+        ClusterManagementService clusterManagementService, DefaultMQAdminExt adminExt) {
+        this(connectConfig, configManagementService, clusterManagementService, null, adminExt);
+    }
+
+    /**
+     * @param taskStatusService task status pushed by all workers, to read the lag source tasks report, null to scale
+     * sink connectors only
+     * @param adminExt started admin to read consume stats with, null to start one with the service
+     */
+    public TaskAutoScaleService(ConnectConfig connectConfig, ConfigManagementService configManagementService,
+        ClusterManagementService clusterManagementService, TaskStatusService taskStatusService, DefaultMQAdminExt adminExt) {
+        this.connectConfig = connectConfig;
+        this.configManagementService = configManagementService;
+        this.clusterManagementService = clusterManagementService;
+        this.taskStatusService = taskStatusService;
+        this.adminExt = adminExt;
+    }
+
+    @Override
+    public void run() {
+        log.info(this.getServiceName() + " service started");
+
+        while (!this.isStopped()) {
+            this.waitForRunning(connectConfig.getAutoScaleInterval());
+            try {
+                scale();
+            } catch (Exception e) {
+                log.error("auto scale tasks failed", e);
+            }
+        }
+
+        if (adminExt != null) {
+            adminExt.shutdown();
+        }
+        log.info(this.getServiceName() + " service end");
+    }
+
+    @Override
+    public String getServiceName() {
+        return TaskAutoScaleService.class.getSimpleName();
+    }
+
+    /**
+     * Check every connector with autoscale-enable once and scale the ones which need it.
+     */
+    void scale() throws Exception {
+        if (!isLeader()) {
+            //不是leader时清掉计数,成为leader后重新开始数
+            sustained.clear();
+            return;
+        }
+        final Map<String, ConnectKeyValue> connectorConfigs = configManagementService.getConnectorConfigs(RuntimeConfigDefine.CONFIG_ENABLE_LST);
+        final Map<String, List<ConnectKeyValue>> taskConfigs = configManagementService.getTaskConfigs(RuntimeConfigDefine.CONFIG_ENABLE_LST);
+        sustained.keySet().retainAll(connectorConfigs.keySet());
+        for (Map.Entry<String, ConnectKeyValue> entry : connectorConfigs.entrySet()) {
+            final String connectorName = entry.getKey();
+            final ConnectKeyValue config = entry.getValue();
+            if (!Boolean.parseBoolean(config.getString(RuntimeConfigDefine.AUTOSCALE_ENABLE))) {
+                continue;
+            }
+            final List<ConnectKeyValue> tasks = taskConfigs.get(connectorName);
+            final Set<String> topics = ConsumerLagService.sinkTopics(tasks);
+            try {
+                if (!topics.isEmpty()) {
+                    scaleSinkConnector(connectorName, config, tasks.size(), topics);
+                    continue;
+                }
+                final long[] sourceLag = sourceLag(connectorName);
+                if (sourceLag == null) {
+                    //direct connector和没有上报堆积的source connector,runtime看不到堆积
+                    log.warn("connector {} has autoscale-enable but reports no lag, skip it", connectorName);
+                    continue;
+                }
+                scaleConnector(connectorName, config, tasks == null ? 0 : tasks.size(), sourceLag[0], (int) sourceLag[1]);
+            } catch (Exception e) {
+                log.error("auto scale connector {} failed", connectorName, e);
+            }
+        }
+    }
+
+    private void scaleSinkConnector(String connectorName, ConnectKeyValue config, int taskNum, Set<String> topics) throws Exception {
+        final String group = ConnectUtil.getSinkConsumerGroup(connectConfig, connectorName);
+        final ConsumeStats consumeStats = getAdminExt().examineConsumeStats(group);
+        final ConsumerLagService.ConnectorLag connectorLag = ConsumerLagService.toConnectorLag(connectorName, group, topics,
+            consumeStats, Collections.emptyMap(), System.currentTimeMillis());
+        scaleConnector(connectorName, config, taskNum, connectorLag.getLag(), connectorLag.getQueueNum());
+    }
+
+    /**
+     * @return lag and queue number summed over the running tasks of a source connector on all workers, null if none
+     * of them reports its lag
+     */
+    long[] sourceLag(String connectorName) {
+        if (taskStatusService == null) {
+            return null;
+        }
+        long lag = 0;
+        long queues = 0;
+        boolean reported = false;
+        for (String worker : clusterManagementService.getAllAliveWorkers()) {
+            final String status = taskStatusService.getWorkerTaskStatus(worker);
+            if (status == null) {
+                continue;
+            }
+            final JSONArray runningTasks = JSON.parseObject(status).getJSONArray("runningTasks");
+            if (runningTasks == null) {
+                continue;
+            }
+            for (int i = 0; i < runningTasks.size(); i++) {
+                final JSONObject task = runningTasks.getJSONObject(i);
+                if (connectorName.equals(task.getString("connectorName")) && task.containsKey("sourceLag")) {
+                    lag += task.getLongValue("sourceLag");
+                    queues += task.getLongValue("sourceQueueNum");
+                    reported = true;
+                }
+            }
+        }
+        return reported ? new long[] {lag, queues} : null;
+    }
+
+    private void scaleConnector(String connectorName, ConnectKeyValue config, int taskNum, long lag, int queues) {
+        final long now = System.currentTimeMillis();
+        final int target = decide(connectorName, config, taskNum, lag, queues, now);
+        if (target == taskNum) {
+            return;
+        }
+        final ScaleDecision decision = new ScaleDecision(now, connectorName, taskNum, target, lag, queues);
+        try {
+            decision.result = configManagementService.dynamicUpdateTaskNum(connectorName, target);
+        } catch (Exception e) {
+            decision.result = "failed: " + e.getMessage();
+        }
+        lastScaleTime.put(connectorName, now);
+        sustained.remove(connectorName);
+        log.info("auto scale connector {} from {} to {} tasks, lag {} on {} queues, {}", connectorName, taskNum, target,
+            lag, queues, decision.result);
+        decisions.addFirst(decision);
+        while (decisions.size() > MAX_DECISIONS) {
+            decisions.pollLast();
+        }
+    }
+
+    /**
+     * @return the task number the connector should have, taskNum if it stays as it is
+     */
+    int decide(String connectorName, ConnectKeyValue config, int taskNum, long lag, int queues, long now) {
+        final int minTasks = Math.max(1, config.getInt(RuntimeConfigDefine.AUTOSCALE_MIN_TASKS, 1));
+        //比queue多的task拉不到消息
+        final int maxTasks = Math.max(minTasks, Math.min(config.getInt(RuntimeConfigDefine.AUTOSCALE_MAX_TASKS, Integer.MAX_VALUE), Math.max(1, queues)));
+        final long lagHigh = config.getLong(RuntimeConfigDefine.AUTOSCALE_LAG_HIGH, DEFAULT_LAG_HIGH);
+        final long lagLow = config.getLong(RuntimeConfigDefine.AUTOSCALE_LAG_LOW, DEFAULT_LAG_LOW);
+        final int maxStep = Math.max(1, config.getInt(RuntimeConfigDefine.AUTOSCALE_MAX_STEP, DEFAULT_MAX_STEP));
+        final int sustainChecks = Math.max(1, config.getInt(RuntimeConfigDefine.AUTOSCALE_SUSTAIN_CHECKS, DEFAULT_SUSTAIN_CHECKS));
+        final long cooldown = config.getLong(RuntimeConfigDefine.AUTOSCALE_COOLDOWN_MS, DEFAULT_COOLDOWN_MS);
+
+        final long lagPerTask = lag / Math.max(1, taskNum);
+        final int direction;
+        if (taskNum < minTasks) {
+            direction = 1;
+        } else if (taskNum > maxTasks) {
+            direction = -1;
+        } else if (lagPerTask > lagHigh && taskNum < maxTasks) {
+            direction = 1;
+        } else if (lagPerTask < lagLow && taskNum > minTasks) {
+            direction = -1;
+        } else {
+            direction = 0;
+        }
+        if (direction == 0) {
+            sustained.remove(connectorName);
+            return taskNum;
+        }
+        final int previous = sustained.getOrDefault(connectorName, 0);
+        final int count = Integer.signum(previous) == direction ? previous + direction : direction;
+        sustained.put(connectorName, count);
+        final boolean outOfBounds = taskNum < minTasks || taskNum > maxTasks;
+        if (!outOfBounds && Math.abs(count) < sustainChecks) {
+            return taskNum;
+        }
+        //手动修改task数量也算一次调整
+        final long lastChange = Math.max(lastScaleTime.getOrDefault(connectorName, 0L),
+            config.getLong(RuntimeConfigDefine.UPDATE_TIMESTAMP, 0L));
+        if (!outOfBounds && now - lastChange < cooldown) {
+            return taskNum;
+        }
+        if (direction > 0) {
+            //按堆积算需要几个task,一次最多加maxStep个
+            final long needed = lagHigh <= 0 ? maxTasks : (lag + lagHigh - 1) / lagHigh;
+            return (int) Math.max(minTasks, Math.min(maxTasks, Math.min(taskNum + maxStep, Math.max(taskNum + 1, needed))));
+        }
+        //缩容一次一个,避免来回抖动
+        return Math.min(maxTasks, Math.max(minTasks, taskNum - 1));
+    }
+
+    private boolean isLeader() {
+        final List<String> workers = new ArrayList<>(clusterManagementService.getAllAliveWorkers());
+        if (workers.isEmpty()) {
+            return false;
+        }
+        Collections.sort(workers);
+        return workers.get(0).equals(clusterManagementService.getCurrentWorker());
+    }
+
+    private synchronized DefaultMQAdminExt getAdminExt() throws Exception {
+        if (adminExt == null) {
+            adminExt = ConnectUtil.startMQAdminTool(connectConfig);
+        }
+        return adminExt;
+    }
+
+    /**
+     * Last decisions of this worker, newest first.
+     */
+    public List<Object> getDecisions() {
+        final List<Object> result = new ArrayList<>(decisions.size());
+        for (ScaleDecision decision : decisions) {
+            result.add(decision.toJsonObject());
+        }
+        return result;
+    }
+
+    private static class ScaleDecision {
+
+        private final long time;
+
+        private final String connectorName;
+
+        private final int oldTaskNum;
+
+        private final int newTaskNum;
+
+        private final long lag;
+
+        private final int queues;
+
+        private volatile String result;
+
+        ScaleDecision(long time, String connectorName, int oldTaskNum, int newTaskNum, long lag, int queues) {
+            this.time = time;
+            this.connectorName = connectorName;
+            this.oldTaskNum = oldTaskNum;
+            this.newTaskNum = newTaskNum;
+            this.lag = lag;
+            this.queues = queues;
+        }
+
+        Map<String, Object> toJsonObject() {
+            Map<String, Object> obj = new HashMap<>();
+            obj.put("time", time);
+            obj.put("connectorName", connectorName);
+            obj.put("oldTaskNum", oldTaskNum);
+            obj.put("newTaskNum", newTaskNum);
+            obj.put("lag", lag);
+            obj.put("queues", queues);
+            obj.put("result", result);
+            return obj;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.service;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.serializer.SerializerFeature;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.rocketmq.connect.runtime.common.LoggerName;
+import org.apache.rocketmq.connect.runtime.config.ConnectConfig;
+import org.apache.rocketmq.connect.runtime.connectorwrapper.Worker;
+import org.apache.rocketmq.connect.runtime.connectorwrapper.WorkerTask;
+import org.apache.rocketmq.connect.runtime.converter.JsonConverter;
+import org.apache.rocketmq.connect.runtime.utils.ConnectUtil;
+import org.apache.rocketmq.connect.runtime.utils.ServiceThread;
+import org.apache.rocketmq.connect.runtime.utils.datasync.BrokerBasedLog;
+import org.apache.rocketmq.connect.runtime.utils.datasync.DataSynchronizer;
+import org.apache.rocketmq.connect.runtime.utils.datasync.DataSynchronizerCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Every worker pushes the status of its tasks through the cluster topic, so the cluster wide task view can be built
+ * from memory instead of calling every worker over http.
+ */
+public class TaskStatusService extends ServiceThread {
+
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.ROCKETMQ_RUNTIME);
+
+    private static final String TASK_STATUS_PREFIX = "connector-taskStatus";
+
+    /**
+     * 状态没变化时也每隔这么多个周期推送一次,新上线的节点最晚在这个时间内拿到所有节点的状态
+     */
+    private static final int HEARTBEAT_TIMES = 10;
+
+    private final Worker worker;
+
+    private final ClusterManagementService clusterManagementService;
+
+    private final long syncInterval;
+
+    private DataSynchronizer<String, String> dataSynchronizer;
+
+    /**
+     * clientId -> 最近收到的状态
+     */
+    private final Map<String, WorkerStatus> workerStatus = new ConcurrentHashMap<>();
+
+    private String lastPushed;
+
+    private long lastPushTime;
+
+    public TaskStatusService(ConnectConfig connectConfig, Worker worker, ClusterManagementService clusterManagementService) {
+        this.worker = worker;
+        this.clusterManagementService = clusterManagementService;
+        this.syncInterval = connectConfig.getTaskStatusSyncInterval();
+        this.dataSynchronizer = new BrokerBasedLog<>(connectConfig,
+            connectConfig.getClusterStoreTopic(),
+            ConnectUtil.createGroupName(TASK_STATUS_PREFIX, connectConfig.getWorkerId()),
+            new TaskStatusChangeCallback(),
+            new JsonConverter(),
+            new JsonConverter(String.class));
+    }
+
+    @Override
+    public void start() {
+        dataSynchronizer.start();
+        super.start();
+    }
+
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        dataSynchronizer.stop();
+    }
+
+    @Override
+    public void run() {
+        log.info(this.getServiceName() + " service started");
+
+        while (!this.isStopped()) {
+            try {
+                pushTaskStatus();
+            } catch (Exception e) {
+                log.error("push task status failed", e);
+            }
+            this.waitForRunning(syncInterval);
+        }
+
+        log.info(this.getServiceName() + " service end");
+    }
+
+    @Override
+    public String getServiceName() {
+        return TaskStatusService.class.getSimpleName();
+    }
+
+    void pushTaskStatus() {
+        String clientId = clusterManagementService.getCurrentWorker();
+        String status = JSON.toJSONString(getLocalTaskStatus(), SerializerFeature.WriteDateUseDateFormat);
+        long now = System.currentTimeMillis();
+        workerStatus.put(clientId, new WorkerStatus(status, now));
+        if (status.equals(lastPushed) && now - lastPushTime < syncInterval * HEARTBEAT_TIMES) {
+            return;
+        }
+        dataSynchronizer.send(clientId, status);
+        lastPushed = status;
+        lastPushTime = now;
+    }
+
+    /**
+     * Status of the tasks on this worker, grouped by task state.
+     */
+    public Map<String, Object> getLocalTaskStatus() {
+        Map<String, Object> formatter = new HashMap<>();
+        formatter.put("pendingTasks", convertWorkerTaskToString(worker.getPendingTasks()));
+        formatter.put("runningTasks", convertWorkerTaskToString(worker.getWorkingTasks()));
+        formatter.put("stoppingTasks", convertWorkerTaskToString(worker.getStoppingTasks()));
+        formatter.put("stoppedTasks", convertWorkerTaskToString(worker.getStoppedTasks()));
+        formatter.put("errorTasks", convertWorkerTaskToString(worker.getErrorTasks()));
+        return formatter;
+    }
+
+    /**
+     * Last pushed status of a worker, in the same json format as {@link #getLocalTaskStatus()}.
+     *
+     * @return null if nothing was received from the worker, or the status is older than a missed heartbeat
+     */
+    public String getWorkerTaskStatus(String clientId) {
+        WorkerStatus status = workerStatus.get(clientId);
+        if (status == null || System.currentTimeMillis() - status.receiveTime > 2L * syncInterval * HEARTBEAT_TIMES) {
+            return null;
+        }
+        return status.status;
+    }
+
+    private Set<Object> convertWorkerTaskToString(Set<WorkerTask> tasks) {
+        Set<Object> result = new HashSet<>();
+        for (WorkerTask task : tasks) {
+            result.add(task.getJsonObject());
+        }
+        return result;
+    }
+
+    private static class WorkerStatus {
+
+        private final String status;
+
+        private final long receiveTime;
+
+        WorkerStatus(String status, long receiveTime) {
+            this.status = status;
+            this.receiveTime = receiveTime;
+        }
+    }
+
+    private class TaskStatusChangeCallback implements DataSynchronizerCallback<String, String> {
+
+        @Override
+        public void onCompletion(Throwable error, String clientId, String status) {
+            workerStatus.put(clientId, new WorkerStatus(status, System.currentTimeMillis()));
+        }
+    }
+}
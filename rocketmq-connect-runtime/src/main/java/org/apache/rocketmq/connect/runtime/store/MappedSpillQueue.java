@@ -0,0 +1,362 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.store;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import org.apache.rocketmq.connect.runtime.common.LoggerName;
+import org.apache.rocketmq.connect.runtime.utils.FileAndPropertyUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A FIFO of byte records in memory mapped segment files, for records which have to survive until they can be sent.
+ *
+ * Records are appended to the last segment and read from the first one. A segment is named after the offset of its
+ * first byte, so offsets keep growing across segments, and is deleted once all its records are read. Every record is
+ * its length, the crc32 of its content and the content; a zero length marks the end of a segment. The read offset is
+ * kept in a checkpoint file, after a crash the records read since the last checkpoint are read again. A record whose
+ * crc32 does not match is moved to the corrupted file, with the same framing, and removed from the queue.
+ *
+ * Not thread safe, a queue belongs to one task.
+ */
+public class MappedSpillQueue {
+
+    private static final Logger log = LoggerFactory.getLogger(LoggerName.ROCKETMQ_RUNTIME);
+
+    public static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+
+    public static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+
+    private static final int RECORD_HEADER = 8;
+
+    private static final String CHECKPOINT = "checkpoint";
+
+    private static final String CORRUPTED = "corrupted";
+
+    /**
+     * 每读这么多条存一次checkpoint
+     */
+    private static final int CHECKPOINT_INTERVAL = 1000;
+
+    private final File dir;
+
+    private final int segmentBytes;
+
+    private final long maxBytes;
+
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+
+    private long readOffset;
+
+    private long writeOffset;
+
+    private long records;
+
+    private long diskBytes;
+
+    private int readsSinceCheckpoint;
+
+    private long appended;
+
+    private long rejected;
+
+    private long corrupted;
+
+    public MappedSpillQueue(String dir, int segmentBytes, long maxBytes) {
+        this.dir = new File(dir);
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Map the segments left by the last run and find where to read and append.
+     */
+    public void load() throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("create spill dir " + dir + " failed");
+        }
+        final File[] files = dir.listFiles((d, name) -> name.matches("\\d{20}"));
+        if (files != null) {
+            for (File file : files) {
+                final Segment segment = new Segment(Long.parseLong(file.getName()), file, (int) file.length());
+                segments.put(segment.base, segment);
+                diskBytes += segment.capacity;
+            }
+        }
+        final String checkpoint = FileAndPropertyUtil.file2String(new File(dir, CHECKPOINT).getPath());
+        readOffset = checkpoint == null || checkpoint.trim().isEmpty() ? 0 : Long.parseLong(checkpoint.trim());
+        if (segments.isEmpty()) {
+            //接着checkpoint编号,不和已经读过的位置重叠
+            writeOffset = readOffset;
+            return;
+        }
+        //checkpoint之前的segment都读完了
+        while (segments.size() > 1 && segments.firstEntry().getValue().end() <= readOffset) {
+            deleteSegment(segments.pollFirstEntry().getValue());
+        }
+        readOffset = Math.max(readOffset, segments.firstKey());
+        //从读位置往后数一遍,最后一个segment里第一个不完整的记录就是写位置
+        long offset = readOffset;
+        for (Segment segment : segments.values()) {
+            int position = (int) (Math.max(offset, segment.base) - segment.base);
+            int length;
+            while ((length = segment.recordLength(position)) > 0) {
+                records++;
+                position += RECORD_HEADER + length;
+            }
+            offset = segment.base + position;
+        }
+        writeOffset = offset;
+        log.info("spill queue {} loaded, {} records, {} bytes on disk", dir, records, diskBytes);
+    }
+
+    /**
+     * @return false if the record does not fit into the disk limit, nothing is written then
+     */
+    public boolean append(byte[] record) throws IOException {
+        final int size = RECORD_HEADER + record.length;
+        Segment segment = segments.isEmpty() ? null : segments.lastEntry().getValue();
+        if (segment == null || writeOffset + size > segment.end()) {
+            final int capacity = Math.max(segmentBytes, size);
+            if (diskBytes + capacity > maxBytes) {
+                rejected++;
+                return false;
+            }
+            if (segment != null) {
+                segment.buffer.force();
+            }
+            //新segment接着上一个的末尾编号,上一个剩下的空间全是0,读到这里就会跳到下一个
+            final long base = segment == null ? writeOffset : segment.end();
+            segment = new Segment(base, new File(dir, String.format("%020d", base)), capacity);
+            segments.put(base, segment);
+            diskBytes += capacity;
+            writeOffset = base;
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(record);
+        final int position = (int) (writeOffset - segment.base);
+        //内容先写,长度最后写,写一半时崩溃读出来的长度是0
+        segment.buffer.putInt(position + 4, (int) crc.getValue());
+        for (int i = 0; i < record.length; i++) {
+            segment.buffer.put(position + RECORD_HEADER + i, record[i]);
+        }
+        segment.buffer.putInt(position, record.length);
+        writeOffset += size;
+        records++;
+        appended++;
+        return true;
+    }
+
+    /**
+     * @return up to max records from the read offset, they stay in the queue until {@link #poll(int)}. A corrupted
+     * record at the read offset is quarantined and skipped, one after it ends the result so it is at the read offset
+     * next time.
+     */
+    public List<byte[]> peek(int max) throws IOException {
+        final List<byte[]> result = new ArrayList<>(Math.min(max, 64));
+        long offset = readOffset;
+        while (result.size() < max && offset < writeOffset) {
+            final Segment segment = segments.floorEntry(offset).getValue();
+            final int position = (int) (offset - segment.base);
+            final int length = segment.recordLength(position);
+            if (length <= 0) {
+                offset = segment.end();
+                continue;
+            }
+            final byte[] record = new byte[length];
+            for (int i = 0; i < length; i++) {
+                record[i] = segment.buffer.get(position + RECORD_HEADER + i);
+            }
+            final CRC32 crc = new CRC32();
+            crc.update(record);
+            if ((int) crc.getValue() != segment.buffer.getInt(position + 4)) {
+                if (!result.isEmpty()) {
+                    break;
+                }
+                //坏记录挪走,不能每次补发都卡在它上面
+                quarantine(segment, position, length, offset);
+                offset = readOffset;
+                continue;
+            }
+            result.add(record);
+            offset += RECORD_HEADER + length;
+        }
+        return result;
+    }
+
+    /**
+     * Remove count records from the head, delete the segments read completely.
+     */
+    public void poll(int count) throws IOException {
+        for (int i = 0; i < count && readOffset < writeOffset; ) {
+            final Segment segment = segments.floorEntry(readOffset).getValue();
+            final int length = segment.recordLength((int) (readOffset - segment.base));
+            if (length <= 0) {
+                readOffset = segment.end();
+            } else {
+                readOffset += RECORD_HEADER + length;
+                records--;
+                i++;
+            }
+        }
+        boolean deleted = false;
+        while (segments.size() > 1 && segments.firstEntry().getValue().end() <= readOffset) {
+            deleteSegment(segments.pollFirstEntry().getValue());
+            deleted = true;
+        }
+        if (readOffset >= writeOffset && segments.size() == 1 && records == 0) {
+            //读完了,只留一个空segment没有意义
+            deleteSegment(segments.pollFirstEntry().getValue());
+            readOffset = writeOffset;
+            deleted = true;
+        }
+        readsSinceCheckpoint += count;
+        if (deleted || readsSinceCheckpoint >= CHECKPOINT_INTERVAL) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Move the record at the read offset to the corrupted file and remove it, for a record which can not be decoded.
+     */
+    public void quarantine() throws IOException {
+        while (readOffset < writeOffset) {
+            final Segment segment = segments.floorEntry(readOffset).getValue();
+            final int position = (int) (readOffset - segment.base);
+            final int length = segment.recordLength(position);
+            if (length > 0) {
+                quarantine(segment, position, length, readOffset);
+                return;
+            }
+            readOffset = segment.end();
+        }
+    }
+
+    private void quarantine(Segment segment, int position, int length, long offset) throws IOException {
+        final byte[] frame = new byte[RECORD_HEADER + length];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = segment.buffer.get(position + i);
+        }
+        final File file = new File(dir, CORRUPTED);
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(frame);
+        }
+        log.error("corrupted spill record at {} of {}, {} bytes, moved to {}", offset, dir, length, file);
+        //和poll一样,从读位置到这条记录之间只有segment结尾
+        readOffset = offset + RECORD_HEADER + length;
+        records--;
+        corrupted++;
+        poll(0);
+        checkpoint();
+    }
+
+    public boolean isEmpty() {
+        return records == 0;
+    }
+
+    public long size() {
+        return records;
+    }
+
+    public long getDiskBytes() {
+        return diskBytes;
+    }
+
+    public void close() {
+        for (Segment segment : segments.values()) {
+            segment.buffer.force();
+        }
+        try {
+            checkpoint();
+        } catch (IOException e) {
+            log.warn("checkpoint spill queue {} failed, records read since the last checkpoint will be read again", dir, e);
+        }
+        segments.clear();
+    }
+
+    private void checkpoint() throws IOException {
+        FileAndPropertyUtil.string2File(String.valueOf(readOffset), new File(dir, CHECKPOINT).getPath());
+        readsSinceCheckpoint = 0;
+    }
+
+    private void deleteSegment(Segment segment) {
+        diskBytes -= segment.capacity;
+        //映射在buffer被回收时才解除,linux上文件可以先删
+        if (!segment.file.delete()) {
+            log.warn("delete spill segment {} failed", segment.file);
+        }
+    }
+
+    public Map<String, Object> getJsonObject() {
+        Map<String, Object> obj = new HashMap<>();
+        obj.put("records", records);
+        obj.put("diskBytes", diskBytes);
+        obj.put("maxBytes", maxBytes);
+        obj.put("segments", segments.size());
+        obj.put("appended", appended);
+        obj.put("rejected", rejected);
+        obj.put("corrupted", corrupted);
+        return obj;
+    }
+
+    private static class Segment {
+
+        private final long base;
+
+        private final File file;
+
+        private final int capacity;
+
+        private final MappedByteBuffer buffer;
+
+        Segment(long base, File file, int capacity) throws IOException {
+            this.base = base;
+            this.file = file;
+            this.capacity = capacity;
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+                this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            }
+        }
+
+        long end() {
+            return base + capacity;
+        }
+
+        /**
+         * @return length of the record at the position, 0 if there is none
+         */
+        int recordLength(int position) {
+            if (position + RECORD_HEADER > capacity) {
+                return 0;
+            }
+            final int length = buffer.getInt(position);
+            return length > 0 && position + RECORD_HEADER + length <= capacity ? length : 0;
+        }
+    }
+}
@@ -115,6 +115,13 @@ public class ConnectUtil {
         return consumer;
     }
 
+    /**
+     * @return the consumer group the sink tasks of the connector pull with
+     */
+    public static String getSinkConsumerGroup(ConnectConfig connectConfig, String connectorName) {
+        return connectConfig.isAutoCreateGroupEnable() ? connectConfig.getRmqConsumerGroup() + "-" + connectorName : connectConfig.getRmqConsumerGroup();
+    }
+
     public static DefaultMQPushConsumer initDefaultMQPushConsumer(ConnectConfig connectConfig) {
         RPCHook rpcHook = null;
         if (connectConfig.getAclEnable()) {
@@ -36,4 +36,16 @@ public class FilePathConfigUtil {
     public static String getOffsetPath(final String rootDir) {
         return rootDir + File.separator + "config" + File.separator + "offset.json";
     }
+
+    public static String getSchemaPath(final String rootDir) {
+        return rootDir + File.separator + "config" + File.separator + "schema.json";
+    }
+
+    public static String getPluginIndexPath(final String rootDir) {
+        return rootDir + File.separator + "config" + File.separator + "pluginIndex.json";
+    }
+
+    public static String getSourceSpillPath(final String rootDir, final String connectorName, final String taskUid) {
+        return rootDir + File.separator + "spill" + File.separator + connectorName + File.separator + taskUid;
+    }
 }
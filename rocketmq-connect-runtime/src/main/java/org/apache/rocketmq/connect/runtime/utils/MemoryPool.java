@@ -0,0 +1,213 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.utils;
+
+import io.openmessaging.connector.api.data.SourceDataEntry;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import org.apache.rocketmq.common.message.MessageExt;
+
+/**
+ * Bytes of records the tasks of a worker hold in memory, shared by all connectors so a burst of one connector can not
+ * use up the heap of the worker.
+ *
+ * A task reserves the estimated size of a batch right after it got it, from {@code SourceTask.poll()} or the consumer
+ * pull, and releases it when the batch is put or sent. The batch is already on the heap when it reserves, so the pool
+ * does not stop a batch from being read, it stops the task from reading the next one while the pool is full: on top of
+ * the capacity each task holds at most the batch it is waiting with. Records a connector queues inside its task before
+ * {@code poll()} returns them are not counted, the connectors bound those queues themselves. A reservation waits while
+ * the pool is full. A reservation larger than the whole pool waits until the pool is empty.
+ */
+public class MemoryPool {
+
+    private static final long WAIT_INTERVAL_MS = 100;
+
+    /**
+     * 对象头、引用等,按一个记录大概的开销算
+     */
+    private static final long RECORD_OVERHEAD = 64;
+
+    private static final long OBJECT_OVERHEAD = 16;
+
+    private final long capacity;
+
+    private long used = 0;
+
+    private final ConcurrentHashMap<String, Usage> usages = new ConcurrentHashMap<>();
+
+    public MemoryPool(long capacity) {
+        this.capacity = capacity;
+    }
+
+    public static MemoryPool unlimited() {
+        return new MemoryPool(Long.MAX_VALUE);
+    }
+
+    /**
+     * Wait until the bytes fit into the pool and reserve them. When keepWaiting turns false the bytes are reserved
+     * even if the pool is full, so the caller can finish the records it already holds.
+     */
+    public void reserve(String owner, long bytes, BooleanSupplier keepWaiting) throws InterruptedException {
+        final Usage usage = usage(owner);
+        synchronized (this) {
+            if (!fits(bytes)) {
+                final long waitStart = System.currentTimeMillis();
+                usage.waits.incrementAndGet();
+                while (!fits(bytes) && keepWaiting.getAsBoolean()) {
+                    wait(WAIT_INTERVAL_MS);
+                }
+                usage.blockedMillis.addAndGet(System.currentTimeMillis() - waitStart);
+            }
+            used += bytes;
+        }
+        usage.used.addAndGet(bytes);
+    }
+
+    /**
+     * @return false if the bytes do not fit into the pool now, nothing is reserved then
+     */
+    public boolean tryReserve(String owner, long bytes) {
+        synchronized (this) {
+            if (!fits(bytes)) {
+                return false;
+            }
+            used += bytes;
+        }
+        usage(owner).used.addAndGet(bytes);
+        return true;
+    }
+
+    public void release(String owner, long bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+        synchronized (this) {
+            used -= bytes;
+            notifyAll();
+        }
+        usage(owner).used.addAndGet(-bytes);
+    }
+
+    private boolean fits(long bytes) {
+        //比整个pool还大的要等pool空了才能进
+        return used == 0 || bytes <= capacity - used;
+    }
+
+    private Usage usage(String owner) {
+        return usages.computeIfAbsent(owner, k -> new Usage());
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    public long getUsed(String owner) {
+        final Usage usage = usages.get(owner);
+        return usage == null ? 0 : usage.used.get();
+    }
+
+    public Map<String, Object> getJsonObject() {
+        Map<String, Object> obj = new HashMap<>();
+        obj.put("capacity", capacity);
+        obj.put("used", getUsed());
+        Map<String, Object> owners = new HashMap<>();
+        for (Map.Entry<String, Usage> entry : usages.entrySet()) {
+            Map<String, Object> usage = new HashMap<>();
+            usage.put("used", entry.getValue().used.get());
+            usage.put("waits", entry.getValue().waits.get());
+            usage.put("blockedMillis", entry.getValue().blockedMillis.get());
+            owners.put(entry.getKey(), usage);
+        }
+        obj.put("connectors", owners);
+        return obj;
+    }
+
+    public static long sizeOf(Collection<SourceDataEntry> sourceDataEntries) {
+        long size = 0;
+        for (SourceDataEntry entry : sourceDataEntries) {
+            size += RECORD_OVERHEAD + sizeOf(entry.getPayload()) + sizeOf(entry.getSourcePartition()) + sizeOf(entry.getSourcePosition());
+        }
+        return size;
+    }
+
+    public static long sizeOfMessages(Collection<MessageExt> messages) {
+        long size = 0;
+        for (MessageExt message : messages) {
+            size += RECORD_OVERHEAD + (message.getBody() == null ? 0 : message.getBody().length) + sizeOf(message.getProperties());
+        }
+        return size;
+    }
+
+    /**
+     * Estimated heap size of a record payload, exact for byte arrays and strings which are most of it.
+     */
+    public static long sizeOf(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof byte[]) {
+            return OBJECT_OVERHEAD + ((byte[]) value).length;
+        }
+        if (value instanceof String) {
+            return OBJECT_OVERHEAD + 2L * ((String) value).length();
+        }
+        if (value instanceof ByteBuffer) {
+            return OBJECT_OVERHEAD + ((ByteBuffer) value).capacity();
+        }
+        if (value instanceof Object[]) {
+            long size = OBJECT_OVERHEAD;
+            for (Object element : (Object[]) value) {
+                size += sizeOf(element);
+            }
+            return size;
+        }
+        if (value instanceof Map) {
+            long size = OBJECT_OVERHEAD;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                size += OBJECT_OVERHEAD + sizeOf(entry.getKey()) + sizeOf(entry.getValue());
+            }
+            return size;
+        }
+        if (value instanceof Collection) {
+            long size = OBJECT_OVERHEAD;
+            for (Object element : (Collection<?>) value) {
+                size += sizeOf(element);
+            }
+            return size;
+        }
+        return OBJECT_OVERHEAD;
+    }
+
+    private static class Usage {
+
+        private final AtomicLong used = new AtomicLong();
+
+        private final AtomicLong waits = new AtomicLong();
+
+        private final AtomicLong blockedMillis = new AtomicLong();
+    }
+}
@@ -18,9 +18,12 @@ package org.apache.rocketmq.connect.runtime.utils;
 
 import io.openmessaging.connector.api.Connector;
 import io.openmessaging.connector.api.Task;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -29,10 +32,13 @@ import java.security.PrivilegedAction;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.reflections.Configuration;
 import org.reflections.Reflections;
 import org.reflections.ReflectionsException;
@@ -46,21 +52,60 @@ public class Plugin extends URLClassLoader {
 
     private final List<String> pluginPaths;
 
-    private Map<String, PluginWrapper> classLoaderMap = new HashMap<>();
+    private static final String CONNECTOR_DESCRIPTOR = "META-INF/services/" + Connector.class.getName();
+
+    private static final String TASK_DESCRIPTOR = "META-INF/services/" + Task.class.getName();
+
+    private Map<String, PluginWrapper> classLoaderMap = new ConcurrentHashMap<>();
+
+    /**
+     * plugin location -> 当前版本,重新加载单个插件时新版本的类加载器和旧版本的同时存在,直到旧版本的task都重启完
+     */
+    private final Map<String, PluginVersion> pluginVersions = new ConcurrentHashMap<>();
+
+    /**
+     * Scan result of every plugin location, null to always scan.
+     */
+    private final PluginIndex pluginIndex;
+
+    private final Set<String> loadedLocations = new HashSet<>();
+
+    private int indexedLocations;
 
     public Plugin(List<String> pluginPaths) {
-        this(pluginPaths, Plugin.class.getClassLoader());
+        this(pluginPaths, Plugin.class.getClassLoader(), null);
+    }
+
+    public Plugin(List<String> pluginPaths, PluginIndex pluginIndex) {
+        this(pluginPaths, Plugin.class.getClassLoader(), pluginIndex);
     }
 
     public Plugin(List<String> pluginPaths, ClassLoader parent) {
+        this(pluginPaths, parent, null);
+    }
+
+    public Plugin(List<String> pluginPaths, ClassLoader parent, PluginIndex pluginIndex) {
         super(new URL[0], parent);
         this.pluginPaths = pluginPaths;
+        this.pluginIndex = pluginIndex;
+        if (pluginIndex != null) {
+            pluginIndex.load();
+        }
     }
 
     public void initPlugin() {
+        long begin = System.currentTimeMillis();
+        loadedLocations.clear();
+        indexedLocations = 0;
         for (String configPath : pluginPaths) {
             loadPlugin(configPath);
         }
+        if (pluginIndex != null) {
+            pluginIndex.retain(loadedLocations);
+            pluginIndex.persist();
+        }
+        log.info("Init {} plugin locations in {} ms, {} of them from index", loadedLocations.size(),
+            System.currentTimeMillis() - begin, indexedLocations);
     }
 
     private void loadPlugin(String path) {
@@ -81,7 +126,9 @@ public class Plugin extends URLClassLoader {
 
     private void doLoad(
         ClassLoader loader,
-        URL[] urls
+        URL[] urls,
+        Collection<String> connectors,
+        Collection<String> tasks
     ) {
         ConfigurationBuilder builder = new ConfigurationBuilder();
         builder.setClassLoaders(new ClassLoader[] {loader});
@@ -89,8 +136,58 @@ public class Plugin extends URLClassLoader {
         builder.setScanners(new SubTypesScanner());
         builder.useParallelExecutor();
         Reflections reflections = new PluginReflections(builder);
-        getPlugin(reflections, Connector.class, loader);
-        getPlugin(reflections, Task.class, loader);
+        for (Class<?> plugin : getPlugin(reflections, Connector.class, loader)) {
+            connectors.add(plugin.getName());
+        }
+        for (Class<?> plugin : getPlugin(reflections, Task.class, loader)) {
+            tasks.add(plugin.getName());
+        }
+    }
+
+    /**
+     * Register the classes named by the index or by the plugin's own service descriptors without scanning.
+     *
+     * @return false if any class can not be loaded, the plugin is then scanned
+     */
+    private boolean registerNamed(ClassLoader loader, Collection<String> connectors, Collection<String> tasks) {
+        Map<String, PluginWrapper> named = new HashMap<>();
+        try {
+            for (String className : connectors) {
+                named.put(className, new PluginWrapper(Class.forName(className, false, loader), loader));
+            }
+            for (String className : tasks) {
+                named.put(className, new PluginWrapper(Class.forName(className, false, loader), loader));
+            }
+        } catch (ClassNotFoundException | LinkageError e) {
+            log.warn("load indexed plugin class failed, scan the plugin instead", e);
+            return false;
+        }
+        classLoaderMap.putAll(named);
+        return true;
+    }
+
+    /**
+     * Class names listed in META-INF/services descriptors inside the plugin itself, parent loaders are not searched.
+     */
+    private static List<String> readDescriptor(PluginClassLoader loader, String descriptor) throws IOException {
+        List<String> classNames = new ArrayList<>();
+        Enumeration<URL> resources = loader.findResources(descriptor);
+        while (resources.hasMoreElements()) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(resources.nextElement().openStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int comment = line.indexOf('#');
+                    if (comment >= 0) {
+                        line = line.substring(0, comment);
+                    }
+                    line = line.trim();
+                    if (!line.isEmpty()) {
+                        classNames.add(line);
+                    }
+                }
+            }
+        }
+        return classNames;
     }
 
     private <T> Collection<Class<? extends T>> getPlugin(
@@ -139,8 +236,9 @@ public class Plugin extends URLClassLoader {
     private void registerPlugin(Path pluginLocation)
         throws IOException {
         log.info("Loading plugin from: {}", pluginLocation);
+        List<Path> pluginFiles = PluginUtils.pluginUrls(pluginLocation);
         List<URL> pluginUrls = new ArrayList<>();
-        for (Path path : PluginUtils.pluginUrls(pluginLocation)) {
+        for (Path path : pluginFiles) {
             pluginUrls.add(path.toUri().toURL());
         }
         URL[] urls = pluginUrls.toArray(new URL[0]);
@@ -152,7 +250,163 @@ public class Plugin extends URLClassLoader {
             urls,
             this
         );
-        doLoad(loader, urls);
+        String location = pluginLocation.toAbsolutePath().toString();
+        loadedLocations.add(location);
+
+        //1.索引里有且文件都没变化
+        PluginIndex.Entry entry = pluginIndex == null ? null : pluginIndex.get(location, pluginFiles);
+        if (entry != null && registerNamed(loader, entry.getConnectors(), entry.getTasks())) {
+            indexedLocations++;
+            addVersion(location, loader, entry.getConnectors(), entry.getTasks());
+            return;
+        }
+
+        //2.插件自己声明了connector和task
+        List<String> connectors = readDescriptor(loader, CONNECTOR_DESCRIPTOR);
+        List<String> tasks = readDescriptor(loader, TASK_DESCRIPTOR);
+        if (connectors.isEmpty() || tasks.isEmpty() || !registerNamed(loader, connectors, tasks)) {
+            //3.扫描所有的类
+            connectors.clear();
+            tasks.clear();
+            doLoad(loader, urls, connectors, tasks);
+        }
+        if (pluginIndex != null) {
+            pluginIndex.put(location, pluginFiles, connectors, tasks);
+        }
+        addVersion(location, loader, connectors, tasks);
+    }
+
+    private void addVersion(String location, PluginClassLoader loader, Collection<String> connectors, Collection<String> tasks) {
+        PluginVersion previous = pluginVersions.get(location);
+        Set<String> classNames = new HashSet<>(connectors);
+        classNames.addAll(tasks);
+        pluginVersions.put(location, new PluginVersion(previous == null ? 1 : previous.version + 1, loader, classNames));
+    }
+
+    /**
+     * Load a new version of one plugin location next to the current one. Classes of the other plugins keep their
+     * loaders, and objects created from the old version keep working until they are stopped.
+     *
+     * @param location plugin location, or the name of any connector or task class of the plugin
+     * @return the reload result, the caller restarts what uses {@link PluginReload#getClassNames()} and then calls
+     * {@link #release(PluginReload)}, the worker does both in
+     * {@link org.apache.rocketmq.connect.runtime.connectorwrapper.Worker#restartTasks(PluginReload, long)}
+     */
+    public synchronized PluginReload reloadPlugin(String location) throws IOException {
+        String pluginLocation = getPluginLocation(location);
+        if (pluginLocation == null) {
+            Path path = Paths.get(location).toAbsolutePath();
+            if (!Files.exists(path)) {
+                throw new IllegalArgumentException("unknown plugin " + location);
+            }
+            pluginLocation = path.toString();
+        }
+        PluginVersion old = pluginVersions.get(pluginLocation);
+        //先注册新版本,覆盖同名类的映射,注册期间和注册失败时旧版本的类一直能找到
+        registerPlugin(Paths.get(pluginLocation));
+        if (pluginIndex != null) {
+            pluginIndex.persist();
+        }
+        PluginVersion current = pluginVersions.get(pluginLocation);
+        if (old != null && current != null && current.loader != old.loader) {
+            //新版本里已经没有的类不再解析到旧版本
+            for (String className : old.classNames) {
+                PluginWrapper wrapper = classLoaderMap.get(className);
+                if (wrapper != null && wrapper.getClassLoader() == old.loader) {
+                    classLoaderMap.remove(className);
+                }
+            }
+        }
+        Set<String> classNames = new HashSet<>(current.classNames);
+        if (old != null) {
+            classNames.addAll(old.classNames);
+        }
+        log.info("Reloaded plugin {} to version {}, classes {}", pluginLocation, current.version, current.classNames);
+        return new PluginReload(pluginLocation, current.version, classNames, old == null ? null : old.loader);
+    }
+
+    /**
+     * Close the class loader of the replaced version, after everything created from it was stopped.
+     */
+    public void release(PluginReload reload) {
+        if (reload.retiredLoader == null) {
+            return;
+        }
+        try {
+            reload.retiredLoader.close();
+        } catch (IOException e) {
+            log.warn("close class loader of {} failed", reload.getLocation(), e);
+        }
+    }
+
+    /**
+     * @return the plugin location the class was loaded from, or null if it is not a plugin class
+     */
+    public String getPluginLocation(String className) {
+        PluginWrapper wrapper = classLoaderMap.get(className);
+        if (wrapper == null) {
+            return null;
+        }
+        //同一个类可能在多个位置,以当前生效的类加载器为准
+        for (Map.Entry<String, PluginVersion> entry : pluginVersions.entrySet()) {
+            if (entry.getValue().loader == wrapper.getClassLoader()) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    public int getPluginVersion(String location) {
+        PluginVersion version = pluginVersions.get(location);
+        return version == null ? 0 : version.version;
+    }
+
+    private static class PluginVersion {
+
+        private final int version;
+
+        private final PluginClassLoader loader;
+
+        private final Set<String> classNames;
+
+        PluginVersion(int version, PluginClassLoader loader, Set<String> classNames) {
+            this.version = version;
+            this.loader = loader;
+            this.classNames = classNames;
+        }
+    }
+
+    public static class PluginReload {
+
+        private final String location;
+
+        private final int version;
+
+        private final Set<String> classNames;
+
+        private final PluginClassLoader retiredLoader;
+
+        PluginReload(String location, int version, Set<String> classNames, PluginClassLoader retiredLoader) {
+            this.location = location;
+            this.version = version;
+            this.classNames = classNames;
+            this.retiredLoader = retiredLoader;
+        }
+
+        public String getLocation() {
+            return location;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        /**
+         * Connector and task classes of the old and the new version.
+         */
+        public Set<String> getClassNames() {
+            return classNames;
+        }
     }
 
     public ClassLoader getPluginClassLoader(String pluginName) {
@@ -163,6 +417,13 @@ public class Plugin extends URLClassLoader {
         return null;
     }
 
+    /**
+     * Plugin locations registered from the index by the last {@link #initPlugin()}.
+     */
+    public int getIndexedLocations() {
+        return indexedLocations;
+    }
+
     public ClassLoader currentThreadLoader() {
         return Thread.currentThread().getContextClassLoader();
     }
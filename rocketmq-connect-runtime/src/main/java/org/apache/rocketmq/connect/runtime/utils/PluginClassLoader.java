@@ -48,27 +48,33 @@ public class PluginClassLoader extends URLClassLoader {
         return "PluginClassLoader{pluginLocation=" + pluginLocation + "}";
     }
 
+    /**
+     * Child first, except for the classes {@link PluginUtils#shouldNotLoadInIsolation(String)} keeps in the parent.
+     * The loader is parallel capable, only loads of the same class name wait for each other, and classes which are
+     * already loaded are returned without taking any lock.
+     */
     @Override
-    public synchronized Class<?> loadClass(String name, boolean resolve)
+    public Class<?> loadClass(String name, boolean resolve)
         throws ClassNotFoundException {
-        synchronized (getClassLoadingLock(name)) {
-            Class<?> klass = findLoadedClass(name);
-            if (klass == null) {
-                try {
-                    if (!PluginUtils.shouldNotLoadInIsolation(name)) {
+        Class<?> klass = findLoadedClass(name);
+        if (klass == null) {
+            synchronized (getClassLoadingLock(name)) {
+                klass = findLoadedClass(name);
+                if (klass == null && !PluginUtils.shouldNotLoadInIsolation(name)) {
+                    try {
                         klass = findClass(name);
+                    } catch (ClassNotFoundException e) {
+                        log.trace("pluginClassLoader Class '{}' not found. Delegating to parent", name);
                     }
-                } catch (ClassNotFoundException e) {
-                    log.trace("pluginClassLoader Class '{}' not found. Delegating to parent", name);
+                }
+                if (klass == null) {
+                    klass = super.loadClass(name, false);
                 }
             }
-            if (klass == null) {
-                klass = super.loadClass(name, false);
-            }
-            if (resolve) {
-                resolveClass(klass);
-            }
-            return klass;
         }
+        if (resolve) {
+            resolveClass(klass);
+        }
+        return klass;
     }
 }
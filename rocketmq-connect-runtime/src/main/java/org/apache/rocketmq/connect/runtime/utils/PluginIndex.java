@@ -0,0 +1,268 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.utils;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.TypeReference;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Connector and task classes found in each plugin location, so unchanged plugins are not scanned again on the next
+ * startup.
+ *
+ * An entry is only used when every jar of the plugin still has the same path, size, modification time and checksum.
+ * The checksum covers the tail of the jar, where the zip central directory with the crc of every entry is stored, so
+ * it changes whenever any class changes without reading the whole jar.
+ */
+public class PluginIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(PluginIndex.class);
+
+    private static final int CHECKSUM_TAIL_BYTES = 64 * 1024;
+
+    private final String indexPath;
+
+    private Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private volatile boolean dirty = false;
+
+    public PluginIndex(String indexPath) {
+        this.indexPath = indexPath;
+    }
+
+    public void load() {
+        try {
+            String content = FileAndPropertyUtil.file2String(indexPath);
+            if (content != null && !content.isEmpty()) {
+                Map<String, Entry> loaded = JSON.parseObject(content, new TypeReference<Map<String, Entry>>() {
+                });
+                if (loaded != null) {
+                    entries = new ConcurrentHashMap<>(loaded);
+                }
+            }
+        } catch (Exception e) {
+            log.warn("load plugin index {} failed, all plugins will be scanned", indexPath, e);
+            entries = new ConcurrentHashMap<>();
+        }
+    }
+
+    public void persist() {
+        if (!dirty) {
+            return;
+        }
+        try {
+            FileAndPropertyUtil.string2File(JSON.toJSONString(entries), indexPath);
+            dirty = false;
+        } catch (IOException e) {
+            log.warn("persist plugin index {} failed", indexPath, e);
+        }
+    }
+
+    /**
+     * @return the indexed entry of the plugin, or null if it is not indexed or any of its files changed
+     */
+    public Entry get(String location, List<Path> files) {
+        Entry entry = entries.get(location);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            if (!entry.getFiles().equals(fingerprints(files))) {
+                return null;
+            }
+        } catch (IOException e) {
+            log.warn("fingerprint plugin {} failed", location, e);
+            return null;
+        }
+        return entry;
+    }
+
+    public void put(String location, List<Path> files, Collection<String> connectors, Collection<String> tasks) {
+        try {
+            Entry entry = new Entry();
+            entry.setFiles(fingerprints(files));
+            entry.setConnectors(new ArrayList<>(connectors));
+            entry.setTasks(new ArrayList<>(tasks));
+            entries.put(location, entry);
+            dirty = true;
+        } catch (IOException e) {
+            log.warn("fingerprint plugin {} failed, it will be scanned again next time", location, e);
+        }
+    }
+
+    /**
+     * Drop the entries of plugins which are no longer in the plugin paths.
+     */
+    public void retain(Collection<String> locations) {
+        if (entries.keySet().retainAll(locations)) {
+            dirty = true;
+        }
+    }
+
+    private static List<Fingerprint> fingerprints(List<Path> files) throws IOException {
+        List<Fingerprint> fingerprints = new ArrayList<>(files.size());
+        for (Path file : files) {
+            fingerprints.add(fingerprint(file));
+        }
+        return fingerprints;
+    }
+
+    static Fingerprint fingerprint(Path path) throws IOException {
+        Fingerprint fingerprint = new Fingerprint();
+        fingerprint.setPath(path.toAbsolutePath().toString());
+        CRC32 crc = new CRC32();
+        if (Files.isDirectory(path)) {
+            //class文件目录,用所有文件的路径、大小和修改时间
+            long size = 0;
+            long lastModified = 0;
+            try (Stream<Path> walk = Files.walk(path)) {
+                List<Path> classFiles = new ArrayList<>();
+                walk.filter(Files::isRegularFile).sorted().forEach(classFiles::add);
+                for (Path file : classFiles) {
+                    long fileSize = Files.size(file);
+                    long fileModified = Files.getLastModifiedTime(file).toMillis();
+                    size += fileSize;
+                    lastModified = Math.max(lastModified, fileModified);
+                    crc.update((path.relativize(file) + ":" + fileSize + ":" + fileModified).getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            fingerprint.setSize(size);
+            fingerprint.setLastModified(lastModified);
+        } else {
+            fingerprint.setSize(Files.size(path));
+            fingerprint.setLastModified(Files.getLastModifiedTime(path).toMillis());
+            try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "r")) {
+                int length = (int) Math.min(CHECKSUM_TAIL_BYTES, file.length());
+                byte[] tail = new byte[length];
+                file.seek(file.length() - length);
+                file.readFully(tail);
+                crc.update(tail);
+            }
+        }
+        fingerprint.setChecksum(crc.getValue());
+        return fingerprint;
+    }
+
+    public static class Entry {
+
+        private List<Fingerprint> files;
+
+        private List<String> connectors;
+
+        private List<String> tasks;
+
+        public List<Fingerprint> getFiles() {
+            return files;
+        }
+
+        public void setFiles(List<Fingerprint> files) {
+            this.files = files;
+        }
+
+        public List<String> getConnectors() {
+            return connectors;
+        }
+
+        public void setConnectors(List<String> connectors) {
+            this.connectors = connectors;
+        }
+
+        public List<String> getTasks() {
+            return tasks;
+        }
+
+        public void setTasks(List<String> tasks) {
+            this.tasks = tasks;
+        }
+    }
+
+    public static class Fingerprint {
+
+        private String path;
+
+        private long size;
+
+        private long lastModified;
+
+        private long checksum;
+
+        public String getPath() {
+            return path;
+        }
+
+        public void setPath(String path) {
+            this.path = path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public void setSize(long size) {
+            this.size = size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public void setLastModified(long lastModified) {
+            this.lastModified = lastModified;
+        }
+
+        public long getChecksum() {
+            return checksum;
+        }
+
+        public void setChecksum(long checksum) {
+            this.checksum = checksum;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Fingerprint that = (Fingerprint) o;
+            return size == that.size && lastModified == that.lastModified && checksum == that.checksum
+                && Objects.equals(path, that.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, size, lastModified, checksum);
+        }
+    }
+}
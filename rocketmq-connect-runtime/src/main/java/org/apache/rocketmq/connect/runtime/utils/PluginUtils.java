@@ -23,14 +23,16 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,83 +41,92 @@ public class PluginUtils {
     private static final Logger log = LoggerFactory.getLogger(PluginUtils.class);
 
     // Be specific about javax packages and exclude those existing in Java SE and Java EE libraries.
-    private static final Pattern BLACKLIST = Pattern.compile("^(?:"
-        + "java"
-        + "|javax\\.accessibility"
-        + "|javax\\.activation"
-        + "|javax\\.activity"
-        + "|javax\\.annotation"
-        + "|javax\\.batch\\.api"
-        + "|javax\\.batch\\.operations"
-        + "|javax\\.batch\\.runtime"
-        + "|javax\\.crypto"
-        + "|javax\\.decorator"
-        + "|javax\\.ejb"
-        + "|javax\\.el"
-        + "|javax\\.enterprise\\.concurrent"
-        + "|javax\\.enterprise\\.context"
-        + "|javax\\.enterprise\\.context\\.spi"
-        + "|javax\\.enterprise\\.deploy\\.model"
-        + "|javax\\.enterprise\\.deploy\\.shared"
-        + "|javax\\.enterprise\\.deploy\\.spi"
-        + "|javax\\.enterprise\\.event"
-        + "|javax\\.enterprise\\.inject"
-        + "|javax\\.enterprise\\.inject\\.spi"
-        + "|javax\\.enterprise\\.util"
-        + "|javax\\.faces"
-        + "|javax\\.imageio"
-        + "|javax\\.inject"
-        + "|javax\\.interceptor"
-        + "|javax\\.jms"
-        + "|javax\\.json"
-        + "|javax\\.jws"
-        + "|javax\\.lang\\.model"
-        + "|javax\\.mail"
-        + "|javax\\.management"
-        + "|javax\\.management\\.j2ee"
-        + "|javax\\.naming"
-        + "|javax\\.net"
-        + "|javax\\.persistence"
-        + "|javax\\.print"
-        + "|javax\\.resource"
-        + "|javax\\.rmi"
-        + "|javax\\.script"
-        + "|javax\\.security\\.auth"
-        + "|javax\\.security\\.auth\\.message"
-        + "|javax\\.security\\.cert"
-        + "|javax\\.security\\.jacc"
-        + "|javax\\.security\\.sasl"
-        + "|javax\\.servlet"
-        + "|javax\\.sound\\.midi"
-        + "|javax\\.sound\\.sampled"
-        + "|javax\\.sql"
-        + "|javax\\.swing"
-        + "|javax\\.tools"
-        + "|javax\\.transaction"
-        + "|javax\\.validation"
-        + "|javax\\.websocket"
-        + "|javax\\.ws\\.rs"
-        + "|javax\\.xml"
-        + "|javax\\.xml\\.bind"
-        + "|javax\\.xml\\.registry"
-        + "|javax\\.xml\\.rpc"
-        + "|javax\\.xml\\.soap"
-        + "|javax\\.xml\\.ws"
-        + "|org\\.ietf\\.jgss"
-        + "|org\\.omg\\.CORBA"
-        + "|org\\.omg\\.CosNaming"
-        + "|org\\.omg\\.Dynamic"
-        + "|org\\.omg\\.DynamicAny"
-        + "|org\\.omg\\.IOP"
-        + "|org\\.omg\\.Messaging"
-        + "|org\\.omg\\.PortableInterceptor"
-        + "|org\\.omg\\.PortableServer"
-        + "|org\\.omg\\.SendingContext"
-        + "|org\\.omg\\.stub\\.java\\.rmi"
-        + "|org\\.w3c\\.dom"
-        + "|org\\.xml\\.sax"
-        + ")\\..*$"
-        + "|io\\.openmessaging\\.KeyValue");
+    // Classes in these packages and their sub packages are always loaded by the parent.
+    private static final String[] BLACKLIST_PACKAGES = {
+        "java",
+        "javax.accessibility",
+        "javax.activation",
+        "javax.activity",
+        "javax.annotation",
+        "javax.batch.api",
+        "javax.batch.operations",
+        "javax.batch.runtime",
+        "javax.crypto",
+        "javax.decorator",
+        "javax.ejb",
+        "javax.el",
+        "javax.enterprise.concurrent",
+        "javax.enterprise.context",
+        "javax.enterprise.context.spi",
+        "javax.enterprise.deploy.model",
+        "javax.enterprise.deploy.shared",
+        "javax.enterprise.deploy.spi",
+        "javax.enterprise.event",
+        "javax.enterprise.inject",
+        "javax.enterprise.inject.spi",
+        "javax.enterprise.util",
+        "javax.faces",
+        "javax.imageio",
+        "javax.inject",
+        "javax.interceptor",
+        "javax.jms",
+        "javax.json",
+        "javax.jws",
+        "javax.lang.model",
+        "javax.mail",
+        "javax.management",
+        "javax.management.j2ee",
+        "javax.naming",
+        "javax.net",
+        "javax.persistence",
+        "javax.print",
+        "javax.resource",
+        "javax.rmi",
+        "javax.script",
+        "javax.security.auth",
+        "javax.security.auth.message",
+        "javax.security.cert",
+        "javax.security.jacc",
+        "javax.security.sasl",
+        "javax.servlet",
+        "javax.sound.midi",
+        "javax.sound.sampled",
+        "javax.sql",
+        "javax.swing",
+        "javax.tools",
+        "javax.transaction",
+        "javax.validation",
+        "javax.websocket",
+        "javax.ws.rs",
+        "javax.xml",
+        "javax.xml.bind",
+        "javax.xml.registry",
+        "javax.xml.rpc",
+        "javax.xml.soap",
+        "javax.xml.ws",
+        "org.ietf.jgss",
+        "org.omg.CORBA",
+        "org.omg.CosNaming",
+        "org.omg.Dynamic",
+        "org.omg.DynamicAny",
+        "org.omg.IOP",
+        "org.omg.Messaging",
+        "org.omg.PortableInterceptor",
+        "org.omg.PortableServer",
+        "org.omg.SendingContext",
+        "org.omg.stub.java.rmi",
+        "org.w3c.dom",
+        "org.xml.sax"
+    };
+
+    private static final Set<String> BLACKLIST_CLASSES = Collections.singleton("io.openmessaging.KeyValue");
+
+    private static final PackageTrie BLACKLIST = new PackageTrie(BLACKLIST_PACKAGES);
+
+    /**
+     * 每个类加载时都要判断,按包名缓存判断结果,包的数量是有限的
+     */
+    private static final Map<String, Boolean> PACKAGE_DECISIONS = new ConcurrentHashMap<>();
 
     private static final DirectoryStream.Filter<Path> PLUGIN_PATH_FILTER = new DirectoryStream
         .Filter<Path>() {
@@ -240,7 +251,63 @@ public class PluginUtils {
     }
 
     public static boolean shouldNotLoadInIsolation(String name) {
-        return BLACKLIST.matcher(name).matches();
+        int lastDot = name.lastIndexOf('.');
+        if (lastDot < 0) {
+            return false;
+        }
+        if (BLACKLIST_CLASSES.contains(name)) {
+            return true;
+        }
+        String packageName = name.substring(0, lastDot);
+        Boolean decision = PACKAGE_DECISIONS.get(packageName);
+        if (decision == null) {
+            decision = BLACKLIST.containsPrefixOf(packageName);
+            PACKAGE_DECISIONS.put(packageName, decision);
+        }
+        return decision;
+    }
+
+    /**
+     * Package names split at the dots, a package matches when it or one of its parents was added.
+     */
+    private static class PackageTrie {
+
+        private final Map<String, PackageTrie> children = new HashMap<>();
+
+        private boolean terminal;
+
+        PackageTrie(String[] packages) {
+            for (String packageName : packages) {
+                PackageTrie node = this;
+                for (String segment : packageName.split("\\.")) {
+                    node = node.children.computeIfAbsent(segment, k -> new PackageTrie());
+                }
+                node.terminal = true;
+            }
+        }
+
+        private PackageTrie() {
+        }
+
+        boolean containsPrefixOf(String packageName) {
+            PackageTrie node = this;
+            int begin = 0;
+            while (begin <= packageName.length()) {
+                int end = packageName.indexOf('.', begin);
+                if (end < 0) {
+                    end = packageName.length();
+                }
+                node = node.children.get(packageName.substring(begin, end));
+                if (node == null) {
+                    return false;
+                }
+                if (node.terminal) {
+                    return true;
+                }
+                begin = end + 1;
+            }
+            return false;
+        }
     }
 
 }
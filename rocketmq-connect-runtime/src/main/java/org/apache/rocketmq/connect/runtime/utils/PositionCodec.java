@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.apache.rocketmq.common.message.MessageQueue;
+
+/**
+ * Typed encoding of partitions and numeric positions.
+ *
+ * This class is the reference for the numeric position wire format. A position is exactly 9 bytes: the marker 0xFE
+ * followed by the long in 8 byte big-endian two's complement, e.g. 28236 is {@code FE 00 00 00 00 00 00 6E 4C} and -1
+ * is {@code FE FF FF FF FF FF FF FF FF}. Anything else is a legacy position, a decimal string or the JSON some
+ * connectors write. The marker 0xFE never occurs in UTF-8 text, so binary positions can not be confused with them, and
+ * {@link #decodeLong(ByteBuffer)} keeps reading decimal strings.
+ *
+ * Connectors are built without the runtime, the ones writing this format carry a copy of {@link #encodeLong(long)} and
+ * {@link #decodeLong(ByteBuffer)}: {@code org.apache.rocketmq.connect.kafka.util.PositionCodec} and
+ * {@code org.apache.rocketmq.connect.redis.converter.RedisPositionConverter}. Their tests check the example bytes above,
+ * change the format here and there together.
+ */
+public class PositionCodec {
+
+    public static final byte LONG_MARKER = (byte) 0xFE;
+
+    public static final int LONG_POSITION_LENGTH = 1 + Long.BYTES;
+
+    private static final String COMMA = ",";
+
+    public static ByteBuffer encodeLong(long position) {
+        byte[] bytes = new byte[LONG_POSITION_LENGTH];
+        bytes[0] = LONG_MARKER;
+        for (int i = LONG_POSITION_LENGTH - 1; i > 0; i--) {
+            bytes[i] = (byte) position;
+            position >>>= 8;
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    public static boolean isLong(ByteBuffer position) {
+        return position != null
+            && position.remaining() == LONG_POSITION_LENGTH
+            && position.get(position.position()) == LONG_MARKER;
+    }
+
+    /**
+     * Decode a numeric position, either the fixed width binary form or a legacy decimal string.
+     *
+     * @throws NumberFormatException if the position is neither of them
+     */
+    public static long decodeLong(ByteBuffer position) {
+        if (isLong(position)) {
+            long value = 0;
+            int offset = position.position() + 1;
+            for (int i = 0; i < Long.BYTES; i++) {
+                value = (value << 8) | (position.get(offset + i) & 0xFF);
+            }
+            return value;
+        }
+        if (position == null || position.remaining() == 0) {
+            return 0L;
+        }
+        return Long.parseLong(toUtf8(position).trim());
+    }
+
+    /**
+     * Like {@link #decodeLong(ByteBuffer)} but returns null instead of throwing for non numeric positions.
+     */
+    public static Long tryDecodeLong(ByteBuffer position) {
+        try {
+            return decodeLong(position);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Readable form of a position, used by the file stores and for logging. Binary longs are printed in decimal, so
+     * the persisted files stay readable by {@link #decodeLong(ByteBuffer)} and by older runtimes.
+     */
+    public static String toDisplayString(ByteBuffer position) {
+        if (position == null) {
+            return "";
+        }
+        if (isLong(position)) {
+            return String.valueOf(decodeLong(position));
+        }
+        return toUtf8(position);
+    }
+
+    /**
+     * Partition key of a RocketMQ queue, in the same layout the sink tasks always used: topic,brokerName,queueId.
+     */
+    public static ByteBuffer encodeQueuePartition(MessageQueue messageQueue) {
+        return ByteBuffer.wrap((messageQueue.getTopic() + COMMA + messageQueue.getBrokerName() + COMMA + messageQueue.getQueueId())
+            .getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String toUtf8(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), StandardCharsets.UTF_8);
+        }
+        return StandardCharsets.UTF_8.decode(buffer.duplicate()).toString();
+    }
+}
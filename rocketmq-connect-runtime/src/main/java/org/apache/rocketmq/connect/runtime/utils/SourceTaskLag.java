@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.utils;
+
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Lag a source task reports about the system it reads from, the runtime can not see it otherwise.
+ *
+ * The task registers an MXBean in the platform MBean server under
+ * {@code org.apache.rocketmq.connect:type=SourceTaskLag,task=<quoted task uid>}, with the task uid taken from the
+ * {@code sys-uid} key of its task config. The bean has two attributes: {@code Lag}, what is not read yet in the unit
+ * of the source, and {@code QueueNum}, the partitions or queues the task reads. A negative lag means the task does not
+ * know it. Connectors implement the bean themselves, so they do not depend on the runtime. The kafka source reports
+ * records behind the end offsets, the mongo source seconds behind the newest oplog entry and the redis source bytes
+ * behind the master repl offset, so the lag marks of a connector are set in the unit of its source. Other sources do
+ * not report a lag yet and are not scaled.
+ */
+public class SourceTaskLag {
+
+    public static final String DOMAIN = "org.apache.rocketmq.connect";
+
+    public static final String TYPE = "SourceTaskLag";
+
+    private static final long[] UNKNOWN = new long[] {-1, 0};
+
+    private SourceTaskLag() {
+    }
+
+    public static ObjectName objectName(String taskUid) throws Exception {
+        return new ObjectName(DOMAIN + ":type=" + TYPE + ",task=" + ObjectName.quote(taskUid));
+    }
+
+    /**
+     * @return lag and queue number the task reported, lag -1 if the task did not register the bean
+     */
+    public static long[] read(String taskUid) {
+        if (taskUid == null) {
+            return UNKNOWN;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = objectName(taskUid);
+            if (!server.isRegistered(name)) {
+                return UNKNOWN;
+            }
+            long lag = ((Number) server.getAttribute(name, "Lag")).longValue();
+            long queueNum = ((Number) server.getAttribute(name, "QueueNum")).longValue();
+            return new long[] {lag, queueNum};
+        } catch (Exception e) {
+            return UNKNOWN;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.utils;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue for exactly one producer thread and one consumer thread. The slots are allocated once, and neither
+ * side takes a lock: each side only writes its own index and publishes it with an ordered store.
+ *
+ * @param <E> element type
+ */
+public class SpscRingBuffer<E> {
+
+    private final Object[] slots;
+
+    private final int mask;
+
+    /**
+     * Next slot the producer writes.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Next slot the consumer reads.
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * 生产者看到的head,只有看起来满了才重新读一次,减少跨线程的volatile读
+     */
+    private long cachedHead;
+
+    /**
+     * 消费者看到的tail
+     */
+    private long cachedTail;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    public SpscRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new Object[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Producer side.
+     *
+     * @return false if the buffer is full
+     */
+    public boolean offer(E element) {
+        long currentTail = tail.get();
+        if (currentTail - cachedHead >= slots.length) {
+            cachedHead = head.get();
+            if (currentTail - cachedHead >= slots.length) {
+                return false;
+            }
+        }
+        slots[(int) (currentTail & mask)] = element;
+        tail.lazySet(currentTail + 1);
+        return true;
+    }
+
+    /**
+     * Consumer side. Move up to maxElements elements to the collection and free their slots.
+     *
+     * @return number of elements moved
+     */
+    @SuppressWarnings("unchecked")
+    public int drainTo(Collection<? super E> to, int maxElements) {
+        long currentHead = head.get();
+        if (currentHead >= cachedTail) {
+            cachedTail = tail.get();
+            if (currentHead >= cachedTail) {
+                return 0;
+            }
+        }
+        int count = (int) Math.min(maxElements, cachedTail - currentHead);
+        for (int i = 0; i < count; i++) {
+            int index = (int) ((currentHead + i) & mask);
+            to.add((E) slots[index]);
+            slots[index] = null;
+        }
+        head.lazySet(currentHead + count);
+        return count;
+    }
+
+    public int size() {
+        long currentHead = head.get();
+        return (int) (tail.get() - currentHead);
+    }
+
+    public boolean isEmpty() {
+        return tail.get() == head.get();
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+}
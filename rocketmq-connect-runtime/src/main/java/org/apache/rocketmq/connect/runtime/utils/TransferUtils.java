@@ -94,6 +94,23 @@ public class TransferUtils {
         return jsonObject.toString();
     }
 
+    /**
+     * 带上发送方和版本,接收方据此判断增量同步有没有缺失
+     */
+    public static String toJsonString(Map<String, String> connectorConfigs, Map<String, String> taskConfigs,
+        String workerId, long version, long baseVersion) {
+
+        JSONObject jsonObject = new JSONObject();
+        jsonObject.put("connector", connectorConfigs);
+        jsonObject.put("task", taskConfigs);
+        if (workerId != null) {
+            jsonObject.put("worker", workerId);
+            jsonObject.put("version", version);
+            jsonObject.put("baseVersion", baseVersion);
+        }
+        return jsonObject.toString();
+    }
+
     public static ConnectorAndTaskConfigs toConnAndTaskConfigs(String json) {
 
         JSONObject jsonObject = JSON.parseObject(json, JSONObject.class);
@@ -113,6 +130,12 @@ public class TransferUtils {
         ConnectorAndTaskConfigs res = new ConnectorAndTaskConfigs();
         res.setConnectorConfigs(transferedConnectorConfigs);
         res.setTaskConfigs(transferedTasksConfigs);
+        //旧版本的worker不带这些字段
+        if (jsonObject.containsKey("worker")) {
+            res.setWorkerId(jsonObject.getString("worker"));
+            res.setVersion(jsonObject.getLongValue("version"));
+            res.setBaseVersion(jsonObject.getLongValue("baseVersion"));
+        }
         return res;
     }
 
@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.rocketmq.connect.runtime.config.RuntimeConfigDefine;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ConfigSnapshotTest {
+
+    @Test
+    public void testFilterByStatus() {
+        Map<String, ConnectKeyValue> connectors = new HashMap<>();
+        connectors.put("enabled", connector(RuntimeConfigDefine.CONFIG_STATUS_ENABLE));
+        connectors.put("disabled", connector(RuntimeConfigDefine.CONFIG_STATUS_DISABLE));
+        connectors.put("removed", connector(RuntimeConfigDefine.CONFIG_STATUS_REMOVE));
+        Map<String, List<ConnectKeyValue>> tasks = new HashMap<>();
+        tasks.put("enabled", new ArrayList<>(Arrays.asList(new ConnectKeyValue(), new ConnectKeyValue())));
+        tasks.put("removed", new ArrayList<>(Arrays.asList(new ConnectKeyValue())));
+
+        ConfigSnapshot snapshot = new ConfigSnapshot(3, connectors, tasks);
+        assertEquals(3, snapshot.getVersion());
+        assertEquals(3, snapshot.getConnectorConfigs(null).size());
+        assertEquals(1, snapshot.getConnectorConfigs(RuntimeConfigDefine.CONFIG_ENABLE_LST).size());
+        assertEquals(2, snapshot.getConnectorConfigs(RuntimeConfigDefine.CONFIG_ENABLE_DISABLE_LST).size());
+        assertTrue(snapshot.getConnectorConfigs(RuntimeConfigDefine.CONFIG_DISABLE_LST).containsKey("disabled"));
+
+        Map<String, List<ConnectKeyValue>> enabledTasks = snapshot.getTaskConfigs(RuntimeConfigDefine.CONFIG_ENABLE_LST);
+        assertEquals(2, enabledTasks.get("enabled").size());
+        assertFalse(enabledTasks.containsKey("removed"));
+        assertTrue(snapshot.getTaskConfigs(RuntimeConfigDefine.CONFIG_ENABLE_DISABLE_LST).get("disabled").isEmpty());
+        assertEquals(1, snapshot.getTaskConfigs(Arrays.asList(RuntimeConfigDefine.CONFIG_STATUS_REMOVE)).get("removed").size());
+
+        //filtered once per snapshot
+        assertSame(enabledTasks, snapshot.getTaskConfigs(RuntimeConfigDefine.CONFIG_ENABLE_LST));
+    }
+
+    @Test
+    public void testIsolatedFromStores() {
+        Map<String, ConnectKeyValue> connectors = new HashMap<>();
+        connectors.put("a", connector(RuntimeConfigDefine.CONFIG_STATUS_ENABLE));
+        List<ConnectKeyValue> taskList = new ArrayList<>(Arrays.asList(new ConnectKeyValue()));
+        Map<String, List<ConnectKeyValue>> tasks = new HashMap<>();
+        tasks.put("a", taskList);
+
+        ConfigSnapshot snapshot = new ConfigSnapshot(1, connectors, tasks);
+        connectors.put("b", connector(RuntimeConfigDefine.CONFIG_STATUS_ENABLE));
+        taskList.add(new ConnectKeyValue());
+
+        assertEquals(1, snapshot.getConnectorConfigs().size());
+        assertEquals(1, snapshot.getTaskConfigs().get("a").size());
+        try {
+            snapshot.getConnectorConfigs(RuntimeConfigDefine.CONFIG_ENABLE_LST).remove("a");
+            assertTrue("snapshot must not be modifiable", false);
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
+
+    private static ConnectKeyValue connector(int status) {
+        ConnectKeyValue keyValue = new ConnectKeyValue();
+        keyValue.put(RuntimeConfigDefine.CONFIG_STATUS, status);
+        return keyValue;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.connectorwrapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.rocketmq.client.consumer.DefaultMQPullConsumer;
+import org.apache.rocketmq.client.consumer.PullResult;
+import org.apache.rocketmq.client.consumer.PullStatus;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.apache.rocketmq.connect.runtime.common.ConnectKeyValue;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.Silent.class)
+public class SharedQueueFetcherTest {
+
+    private static final int MESSAGES = 100;
+
+    private final MessageQueue queue = new MessageQueue("sinkTopic", "broker-a", 0);
+
+    @Mock
+    private DefaultMQPullConsumer leader;
+
+    @Mock
+    private DefaultMQPullConsumer follower;
+
+    private final SharedQueueFetcher fetcher = new SharedQueueFetcher(20);
+
+    @Before
+    public void init() throws Exception {
+        for (DefaultMQPullConsumer consumer : new DefaultMQPullConsumer[] {leader, follower}) {
+            when(consumer.pull(eq(queue), eq("*"), anyLong(), anyInt())).thenAnswer(invocation -> {
+                long offset = invocation.getArgument(2);
+                int max = invocation.getArgument(3);
+                long end = Math.min(MESSAGES, offset + max);
+                if (offset >= end) {
+                    return new PullResult(PullStatus.NO_NEW_MSG, offset, 0, MESSAGES, null);
+                }
+                List<MessageExt> messages = new ArrayList<>();
+                for (long i = offset; i < end; i++) {
+                    MessageExt message = new MessageExt();
+                    message.setQueueOffset(i);
+                    messages.add(message);
+                }
+                return new PullResult(PullStatus.FOUND, end, 0, MESSAGES, messages);
+            });
+        }
+    }
+
+    @Test
+    public void testFollowerReadsWindow() throws Exception {
+        PullResult first = fetcher.pull(leader, queue, 0, 8);
+        PullResult second = fetcher.pull(leader, queue, 8, 8);
+        assertEquals(16, second.getNextBeginOffset());
+
+        //和leader的批次不对齐也能从窗口读
+        PullResult shared = fetcher.pull(follower, queue, 4, 8);
+        assertEquals(PullStatus.FOUND, shared.getPullStatus());
+        assertEquals(4, shared.getMsgFoundList().get(0).getQueueOffset());
+        assertEquals(8, shared.getMsgFoundList().size());
+        assertEquals(12, shared.getNextBeginOffset());
+        assertEquals(16, fetcher.pull(follower, queue, 12, 8).getNextBeginOffset());
+        verify(follower, never()).pull(eq(queue), eq("*"), anyLong(), anyInt());
+        assertEquals(first.getMsgFoundList().size(), fetcher.pull(follower, queue, 0, 8).getMsgFoundList().size());
+
+        //follower追上以后由它去broker拉,leader再读窗口
+        assertEquals(24, fetcher.pull(follower, queue, 16, 8).getNextBeginOffset());
+        assertEquals(24, fetcher.pull(leader, queue, 16, 8).getNextBeginOffset());
+        verify(leader, times(2)).pull(eq(queue), eq("*"), anyLong(), anyInt());
+        assertEquals(3L, fetcher.getJsonObject().get("brokerPulls"));
+    }
+
+    @Test
+    public void testLaggingConsumerPullsOnItsOwn() throws Exception {
+        //窗口20条,leader拉到了40
+        for (long offset = 0; offset < 40; offset += 8) {
+            fetcher.pull(leader, queue, offset, 8);
+        }
+        PullResult lagging = fetcher.pull(follower, queue, 0, 8);
+        assertEquals(PullStatus.FOUND, lagging.getPullStatus());
+        verify(follower).pull(queue, "*", 0, 8);
+        assertEquals(1L, fetcher.getJsonObject().get("laggingPulls"));
+
+        //还在窗口里的不用拉
+        fetcher.pull(follower, queue, 32, 8);
+        verify(follower, times(1)).pull(eq(queue), eq("*"), anyLong(), anyInt());
+    }
+
+    @Test
+    public void testFilteredPullsNotShared() throws Exception {
+        ConnectKeyValue taskConfig = new ConnectKeyValue();
+        taskConfig.put("sink-filter-tags", "TagA");
+        when(follower.pull(eq(queue), eq("TagA"), anyLong(), anyInt())).thenReturn(new PullResult(PullStatus.NO_NEW_MSG, 0, 0, 0, null));
+        fetcher.pull(leader, queue, 0, 8);
+
+        new SinkMessageFilter(taskConfig, fetcher).pull(follower, queue, 0, 8);
+        verify(follower).pull(queue, "TagA", 0, 8);
+        new SinkMessageFilter(new ConnectKeyValue(), fetcher).pull(follower, queue, 0, 8);
+        verify(follower, never()).pull(eq(queue), eq("*"), anyLong(), anyInt());
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.connectorwrapper;
+
+import io.openmessaging.KeyValue;
+import io.openmessaging.connector.api.common.QueueMetaData;
+import io.openmessaging.connector.api.data.EntryType;
+import io.openmessaging.connector.api.data.Schema;
+import io.openmessaging.connector.api.data.SinkDataEntry;
+import io.openmessaging.connector.api.sink.SinkTask;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.rocketmq.client.producer.DefaultMQProducer;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.client.producer.SendStatus;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.apache.rocketmq.connect.runtime.common.ConnectKeyValue;
+import org.apache.rocketmq.connect.runtime.config.RuntimeConfigDefine;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SinkErrorHandlerTest {
+
+    private final MessageQueue queue = new MessageQueue("sourceTopic", "broker-a", 1);
+
+    @Mock
+    private DefaultMQProducer producer;
+
+    private ConnectKeyValue config;
+
+    private FailingSinkTask sinkTask;
+
+    @Before
+    public void init() {
+        config = new ConnectKeyValue();
+        config.put(RuntimeConfigDefine.ERRORS_TOLERANCE, SinkErrorHandler.TOLERANCE_ALL);
+        config.put(RuntimeConfigDefine.ERRORS_RETRY_MAX, 2);
+        config.put(RuntimeConfigDefine.ERRORS_RETRY_BACKOFF_INITIAL_MS, 100);
+        config.put(RuntimeConfigDefine.ERRORS_RETRY_BACKOFF_MAX_MS, 150);
+        config.put(RuntimeConfigDefine.ERRORS_DEADLETTER_TOPIC, "deadLetterTopic");
+        sinkTask = new FailingSinkTask();
+    }
+
+    @Test
+    public void testPoisonMessageRetriedThenDeadLettered() throws Exception {
+        SendResult sendResult = new SendResult();
+        sendResult.setSendStatus(SendStatus.SEND_OK);
+        when(producer.send(any(Message.class))).thenReturn(sendResult);
+        SinkErrorHandler handler = new SinkErrorHandler("connector", config, producer);
+        sinkTask.bad.add(4L);
+
+        //二分找到第4条,前面的都put成功
+        assertEquals(4, put(handler, 0, 10));
+        assertEquals(Arrays.asList(0L, 1L, 2L, 3L), sinkTask.delivered);
+        assertEquals(100, handler.backoffMillis(queue));
+
+        //从第4条开始重新拉,先单独重试它
+        int calls = sinkTask.calls;
+        assertEquals(0, put(handler, 4, 10));
+        assertEquals(calls + 1, sinkTask.calls);
+        assertEquals(150, handler.backoffMillis(queue));
+
+        //重试次数用完,发到死信后继续
+        assertEquals(6, put(handler, 4, 10));
+        assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 5L, 6L, 7L, 8L, 9L), sinkTask.delivered);
+
+        ArgumentCaptor<Message> captor = ArgumentCaptor.forClass(Message.class);
+        verify(producer).send(captor.capture());
+        Message deadLetter = captor.getValue();
+        assertEquals("deadLetterTopic", deadLetter.getTopic());
+        assertEquals("4", new String(deadLetter.getBody(), StandardCharsets.UTF_8));
+        assertEquals("sourceTopic", deadLetter.getUserProperty(SinkErrorHandler.PROPERTY_ORIGINAL_TOPIC));
+        assertEquals("1", deadLetter.getUserProperty(SinkErrorHandler.PROPERTY_ORIGINAL_QUEUE_ID));
+        assertEquals("4", deadLetter.getUserProperty(SinkErrorHandler.PROPERTY_ORIGINAL_OFFSET));
+        assertEquals("3", deadLetter.getUserProperty(SinkErrorHandler.PROPERTY_ATTEMPTS));
+        assertEquals(IllegalArgumentException.class.getName(), deadLetter.getUserProperty(SinkErrorHandler.PROPERTY_ERROR_CLASS));
+        assertEquals("bad record 4", deadLetter.getUserProperty(SinkErrorHandler.PROPERTY_ERROR_MESSAGE));
+        assertEquals("value", deadLetter.getUserProperty("userKey"));
+        assertEquals(1L, handler.getJsonObject().get("deadLettered"));
+    }
+
+    @Test
+    public void testKeepRetryingWhenDeadLetterFails() throws Exception {
+        when(producer.send(any(Message.class))).thenThrow(new IllegalStateException("broker down"));
+        config.put(RuntimeConfigDefine.ERRORS_RETRY_MAX, 0);
+        SinkErrorHandler handler = new SinkErrorHandler("connector", config, producer);
+        sinkTask.bad.add(0L);
+
+        assertEquals(0, put(handler, 0, 5));
+        assertEquals(0, put(handler, 0, 5));
+        assertTrue(sinkTask.delivered.isEmpty());
+    }
+
+    @Test
+    public void testSkipWithoutDeadLetterTopic() throws Exception {
+        config.put(RuntimeConfigDefine.ERRORS_DEADLETTER_TOPIC, "");
+        config.put(RuntimeConfigDefine.ERRORS_RETRY_MAX, 0);
+        SinkErrorHandler handler = new SinkErrorHandler("connector", config, producer);
+        sinkTask.bad.add(1L);
+        sinkTask.bad.add(6L);
+
+        assertEquals(8, put(handler, 0, 8));
+        assertEquals(Arrays.asList(0L, 2L, 3L, 4L, 5L, 7L), sinkTask.delivered);
+        assertEquals(2L, handler.getJsonObject().get("skipped"));
+        verify(producer, never()).send(any(Message.class));
+    }
+
+    @Test
+    public void testToleranceNoneByDefault() {
+        assertFalse(new SinkErrorHandler("connector", new ConnectKeyValue(), producer).isTolerant());
+    }
+
+    private int put(SinkErrorHandler handler, long from, long to) {
+        List<MessageExt> messages = new ArrayList<>();
+        List<SinkDataEntry> entries = new ArrayList<>();
+        for (long offset = from; offset < to; offset++) {
+            MessageExt message = new MessageExt();
+            message.setTopic(queue.getTopic());
+            message.setQueueId(queue.getQueueId());
+            message.setQueueOffset(offset);
+            message.setBody(String.valueOf(offset).getBytes(StandardCharsets.UTF_8));
+            message.putUserProperty("userKey", "value");
+            messages.add(message);
+            entries.add(new SinkDataEntry(offset, System.currentTimeMillis(), EntryType.CREATE, queue.getTopic(),
+                new Schema(), new Object[] {offset}));
+        }
+        return handler.put(sinkTask, queue, messages, entries);
+    }
+
+    private static class FailingSinkTask extends SinkTask {
+
+        private final Set<Long> bad = new HashSet<>();
+
+        private final List<Long> delivered = new ArrayList<>();
+
+        private int calls = 0;
+
+        @Override
+        public void put(Collection<SinkDataEntry> sinkDataEntries) {
+            calls++;
+            for (SinkDataEntry entry : sinkDataEntries) {
+                if (bad.contains(entry.getQueueOffset())) {
+                    throw new IllegalArgumentException("bad record " + entry.getQueueOffset());
+                }
+            }
+            for (SinkDataEntry entry : sinkDataEntries) {
+                delivered.add(entry.getQueueOffset());
+            }
+        }
+
+        @Override
+        public void commit(Map<QueueMetaData, Long> offsets) {
+        }
+
+        @Override
+        public void start(KeyValue config) {
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public void pause() {
+        }
+
+        @Override
+        public void resume() {
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.connectorwrapper;
+
+import io.openmessaging.KeyValue;
+import io.openmessaging.connector.api.common.QueueMetaData;
+import io.openmessaging.connector.api.data.SinkDataEntry;
+import io.openmessaging.connector.api.sink.SinkTask;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.rocketmq.client.consumer.DefaultMQPullConsumer;
+import org.apache.rocketmq.client.consumer.MessageQueueListener;
+import org.apache.rocketmq.client.consumer.PullResult;
+import org.apache.rocketmq.client.consumer.PullStatus;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.apache.rocketmq.connect.runtime.common.ConnectKeyValue;
+import org.apache.rocketmq.connect.runtime.config.RuntimeConfigDefine;
+import org.apache.rocketmq.connect.runtime.connectorwrapper.testimpl.TestPositionManageServiceImpl;
+import org.mockito.ArgumentCaptor;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Records per second of a sink task on a 4 queue topic whose sink writes record by record, without key lanes and with
+ * a growing number of lanes. The pull consumer is a mock which always has messages. Run the main method, it is not part
+ * of the unit tests.
+ */
+public class SinkKeyLanesBenchmark {
+
+    private static final String TOPIC = "benchmarkTopic";
+
+    private static final int QUEUES = 4;
+
+    private static final long RECORDS_PER_QUEUE = 10000;
+
+    private static final long RECORD_NANOS = 200_000;
+
+    private static final int KEYS = 1000;
+
+    public static void main(String[] args) throws Exception {
+        System.out.printf("%d queues, %d us per record%n", QUEUES, RECORD_NANOS / 1000);
+        System.out.printf("%-8s %12s%n", "lanes", "records/s");
+        for (int lanes : new int[] {0, 4, 16, 64}) {
+            System.out.printf("%-8d %12d%n", lanes, run(lanes));
+        }
+    }
+
+    private static long run(int lanes) throws Exception {
+        final long total = QUEUES * RECORDS_PER_QUEUE;
+        DefaultMQPullConsumer consumer = mock(DefaultMQPullConsumer.class);
+        Set<MessageQueue> queues = new HashSet<>();
+        for (int i = 0; i < QUEUES; i++) {
+            queues.add(new MessageQueue(TOPIC, "broker-a", i));
+        }
+        when(consumer.fetchConsumeOffset(any(MessageQueue.class), anyBoolean())).thenReturn(0L);
+        when(consumer.pull(any(MessageQueue.class), anyString(), anyLong(), anyInt())).thenAnswer(invocation -> {
+            MessageQueue queue = invocation.getArgument(0);
+            long offset = invocation.getArgument(2);
+            int max = invocation.getArgument(3);
+            long end = Math.min(RECORDS_PER_QUEUE, offset + max);
+            if (offset >= end) {
+                return new PullResult(PullStatus.NO_NEW_MSG, offset, 0, RECORDS_PER_QUEUE, null);
+            }
+            List<MessageExt> messages = new ArrayList<>();
+            for (long i = offset; i < end; i++) {
+                MessageExt message = new MessageExt();
+                message.setTopic(TOPIC);
+                message.setQueueId(queue.getQueueId());
+                message.setQueueOffset(i);
+                message.setKeys("key" + (i % KEYS));
+                message.setBody(new byte[64]);
+                messages.add(message);
+            }
+            return new PullResult(PullStatus.FOUND, end, 0, RECORDS_PER_QUEUE, messages);
+        });
+
+        ConnectKeyValue taskConfig = new ConnectKeyValue();
+        taskConfig.put(WorkerSinkTask.QUEUENAMES_CONFIG, TOPIC);
+        taskConfig.put(RuntimeConfigDefine.SINK_KEY_LANES, lanes);
+        RecordLatencySinkTask sinkTask = new RecordLatencySinkTask();
+        WorkerSinkTask task = new WorkerSinkTask("benchmark", sinkTask, taskConfig, new TestPositionManageServiceImpl(),
+            null, consumer, new AtomicReference<>(WorkerState.STARTED), SinkKeyLanesBenchmark.class.getClassLoader(),
+            new SinkErrorHandler("benchmark", taskConfig, null), false);
+        Thread thread = new Thread(task);
+        thread.start();
+        ArgumentCaptor<MessageQueueListener> listener = ArgumentCaptor.forClass(MessageQueueListener.class);
+        verify(consumer, timeout(5000)).registerMessageQueueListener(eq(TOPIC), listener.capture());
+
+        listener.getValue().messageQueueChanged(TOPIC, queues, queues);
+        //不算task等queue分配的时间
+        while (sinkTask.count.get() == 0) {
+            Thread.sleep(1);
+        }
+        long begin = System.nanoTime();
+        long first = sinkTask.count.get();
+        while (sinkTask.count.get() < total) {
+            Thread.sleep(1);
+        }
+        long elapsed = System.nanoTime() - begin;
+        task.stop();
+        thread.join();
+        return (total - first) * 1_000_000_000L / elapsed;
+    }
+
+    /**
+     * Every record waits like one insert into a database.
+     */
+    private static class RecordLatencySinkTask extends SinkTask {
+
+        private final AtomicLong count = new AtomicLong();
+
+        @Override
+        public void put(Collection<SinkDataEntry> sinkDataEntries) {
+            for (SinkDataEntry ignored : sinkDataEntries) {
+                LockSupport.parkNanos(RECORD_NANOS);
+            }
+            count.addAndGet(sinkDataEntries.size());
+        }
+
+        @Override
+        public void commit(Map<QueueMetaData, Long> offsets) {
+
+        }
+
+        @Override
+        public void start(KeyValue config) {
+
+        }
+
+        @Override
+        public void stop() {
+
+        }
+
+        @Override
+        public void pause() {
+
+        }
+
+        @Override
+        public void resume() {
+
+        }
+    }
+}
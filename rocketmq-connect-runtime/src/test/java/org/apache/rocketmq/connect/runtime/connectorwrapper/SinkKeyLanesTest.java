@@ -0,0 +1,267 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.connectorwrapper;
+
+import io.openmessaging.KeyValue;
+import io.openmessaging.connector.api.common.QueueMetaData;
+import io.openmessaging.connector.api.data.EntryType;
+import io.openmessaging.connector.api.data.Schema;
+import io.openmessaging.connector.api.data.SinkDataEntry;
+import io.openmessaging.connector.api.sink.SinkTask;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.apache.rocketmq.connect.runtime.utils.MemoryPool;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class SinkKeyLanesTest {
+
+    private final MessageQueue queue = new MessageQueue("sinkTopic", "broker-a", 0);
+
+    private final KeyedSinkTask sinkTask = new KeyedSinkTask();
+
+    private final List<Long> advances = new CopyOnWriteArrayList<>();
+
+    private SinkKeyLanes lanes;
+
+    @After
+    public void destroy() {
+        sinkTask.gate.countDown();
+        if (lanes != null) {
+            lanes.stop(5000);
+        }
+    }
+
+    @Test
+    public void testPerKeyOrder() throws Exception {
+        lanes = createLanes(8);
+        lanes.start();
+        long offset = 0;
+        for (int batch = 0; batch < 20; batch++) {
+            List<MessageExt> messages = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                messages.add(message(offset++, "key" + (i % 5)));
+            }
+            lanes.submit(queue, offset - messages.size(), messages, offset);
+            assertEquals(offset, lanes.nextPullOffset(queue, 0));
+        }
+        waitForOffset(offset);
+
+        for (List<Long> offsets : sinkTask.putByKey.values()) {
+            for (int i = 1; i < offsets.size(); i++) {
+                assertTrue(offsets.get(i - 1) < offsets.get(i));
+            }
+        }
+        assertEquals(offset, sinkTask.putByKey.values().stream().mapToInt(List::size).sum());
+        for (int i = 1; i < advances.size(); i++) {
+            assertTrue(advances.get(i - 1) < advances.get(i));
+        }
+    }
+
+    @Test
+    public void testOffsetStopsAtLowestUnfinished() throws Exception {
+        //2个lane时"a"和"b"在不同的lane
+        lanes = createLanes(2);
+        lanes.start();
+        sinkTask.blockedKey = "a";
+        List<MessageExt> messages = new ArrayList<>();
+        messages.add(message(0, "a"));
+        messages.add(message(1, "b"));
+        messages.add(message(2, "b"));
+        lanes.submit(queue, 0, messages, 3);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sinkTask.putByKey.get("b") == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        assertEquals(2, sinkTask.putByKey.get("b").size());
+        assertTrue(advances.isEmpty());
+
+        sinkTask.gate.countDown();
+        waitForOffset(3);
+    }
+
+    @Test
+    public void testRevokeDropsQueuedBatches() throws Exception {
+        lanes = createLanes(2);
+        lanes.start();
+        sinkTask.blockedKey = "a";
+        List<MessageExt> first = new ArrayList<>();
+        first.add(message(0, "a"));
+        lanes.submit(queue, 0, first, 1);
+        List<MessageExt> second = new ArrayList<>();
+        second.add(message(1, "a"));
+        lanes.submit(queue, 1, second, 2);
+
+        assertFalse(lanes.revoke(queue, 100));
+        sinkTask.gate.countDown();
+        Thread.sleep(300);
+        //正在put的那批put完了,但位移不再前进,排队的那批也不再put
+        assertTrue(advances.isEmpty());
+        assertEquals(1, sinkTask.putByKey.get("a").size());
+        assertEquals(0, lanes.nextPullOffset(queue, 0));
+    }
+
+    @Test
+    public void testFailedPutStopsLanes() throws Exception {
+        lanes = createLanes(1, 4, () -> true, 1);
+        lanes.start();
+        sinkTask.failedKey = "a";
+        long offset = 0;
+        //lane在重试时队列放满,提交不能一直卡住
+        for (int batch = 0; batch < 10; batch++) {
+            List<MessageExt> messages = new ArrayList<>();
+            messages.add(message(offset++, "a"));
+            lanes.submit(queue, offset - 1, messages, offset);
+        }
+        assertNotNull(lanes.getFailure());
+        assertTrue(advances.isEmpty());
+        assertTrue(sinkTask.putByKey.isEmpty());
+    }
+
+    @Test
+    public void testSubmitReturnsWhenTaskStops() throws Exception {
+        AtomicBoolean taskRunning = new AtomicBoolean(true);
+        lanes = createLanes(1, 1, taskRunning::get, SinkKeyLanes.DEFAULT_MAX_RETRIES);
+        lanes.start();
+        sinkTask.blockedKey = "a";
+        CountDownLatch submitted = new CountDownLatch(1);
+        Thread pullThread = new Thread(() -> {
+            try {
+                for (long offset = 0; offset < 3; offset++) {
+                    List<MessageExt> messages = new ArrayList<>();
+                    messages.add(message(offset, "a"));
+                    lanes.submit(queue, offset, messages, offset + 1);
+                }
+                submitted.countDown();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        pullThread.start();
+        assertFalse(submitted.await(300, TimeUnit.MILLISECONDS));
+
+        taskRunning.set(false);
+        assertTrue(submitted.await(1000, TimeUnit.MILLISECONDS));
+    }
+
+    private SinkKeyLanes createLanes(int laneCount) {
+        return createLanes(laneCount, 4, () -> true, SinkKeyLanes.DEFAULT_MAX_RETRIES);
+    }
+
+    private SinkKeyLanes createLanes(int laneCount, int laneCapacity, BooleanSupplier taskRunning, int maxRetries) {
+        return new SinkKeyLanes("connector", laneCount, laneCapacity, sinkTask, getClass().getClassLoader(), messages -> {
+            List<SinkDataEntry> entries = new ArrayList<>(messages.size());
+            for (MessageExt message : messages) {
+                entries.add(new SinkDataEntry(message.getQueueOffset(), System.currentTimeMillis(), EntryType.CREATE,
+                    queue.getTopic(), new Schema(), new Object[] {message.getKeys(), message.getQueueOffset()}));
+            }
+            return entries;
+        }, (messageQueue, offset) -> advances.add(offset), MemoryPool.unlimited(), taskRunning, maxRetries);
+    }
+
+    private void waitForOffset(long offset) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while ((advances.isEmpty() || advances.get(advances.size() - 1) < offset) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(offset, (long) advances.get(advances.size() - 1));
+    }
+
+    private MessageExt message(long offset, String key) {
+        MessageExt message = new MessageExt();
+        message.setTopic(queue.getTopic());
+        message.setQueueOffset(offset);
+        message.setKeys(key);
+        return message;
+    }
+
+    /**
+     * Keeps the offsets put for every key, puts of blockedKey wait for the gate.
+     */
+    private static class KeyedSinkTask extends SinkTask {
+
+        private final Map<String, List<Long>> putByKey = new ConcurrentHashMap<>();
+
+        private final CountDownLatch gate = new CountDownLatch(1);
+
+        private volatile String blockedKey;
+
+        private volatile String failedKey;
+
+        @Override
+        public void put(Collection<SinkDataEntry> sinkDataEntries) {
+            for (SinkDataEntry entry : sinkDataEntries) {
+                String key = (String) entry.getPayload()[0];
+                if (key.equals(failedKey)) {
+                    throw new IllegalStateException("poison message " + entry.getPayload()[1]);
+                }
+                if (key.equals(blockedKey)) {
+                    try {
+                        gate.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                LockSupport.parkNanos(10_000);
+                putByKey.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>()).add((Long) entry.getPayload()[1]);
+            }
+        }
+
+        @Override
+        public void commit(Map<QueueMetaData, Long> offsets) {
+
+        }
+
+        @Override
+        public void start(KeyValue config) {
+
+        }
+
+        @Override
+        public void stop() {
+
+        }
+
+        @Override
+        public void pause() {
+
+        }
+
+        @Override
+        public void resume() {
+
+        }
+    }
+}
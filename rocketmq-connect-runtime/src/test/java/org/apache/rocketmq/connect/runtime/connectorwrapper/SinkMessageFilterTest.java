@@ -0,0 +1,156 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.connectorwrapper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.apache.rocketmq.client.consumer.DefaultMQPullConsumer;
+import org.apache.rocketmq.client.consumer.MessageSelector;
+import org.apache.rocketmq.client.consumer.PullResult;
+import org.apache.rocketmq.client.consumer.PullStatus;
+import org.apache.rocketmq.client.exception.MQBrokerException;
+import org.apache.rocketmq.common.filter.ExpressionType;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.apache.rocketmq.common.protocol.ResponseCode;
+import org.apache.rocketmq.connect.runtime.common.ConnectKeyValue;
+import org.apache.rocketmq.connect.runtime.config.RuntimeConfigDefine;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SinkMessageFilterTest {
+
+    private final MessageQueue queue = new MessageQueue("sinkTopic", "broker-a", 0);
+
+    @Mock
+    private DefaultMQPullConsumer consumer;
+
+    @Test
+    public void testSelector() {
+        MessageSelector tagsOnly = SinkMessageFilter.buildSelector("TagA || TagB", null, false);
+        assertEquals(ExpressionType.TAG, tagsOnly.getExpressionType());
+        assertEquals("TagA || TagB", tagsOnly.getExpression());
+
+        MessageSelector combined = SinkMessageFilter.buildSelector("TagA || TagB", "a > 5", true);
+        assertEquals(ExpressionType.SQL92, combined.getExpressionType());
+        assertEquals("(TAGS IS NOT NULL AND TAGS IN ('TagA', 'TagB')) AND (a > 5) AND "
+            + SinkMessageFilter.SKIP_CONNECTOR_MESSAGES_SQL, combined.getExpression());
+    }
+
+    @Test
+    public void testSkipOnClientWhenBrokerRejectsSql() throws Exception {
+        ConnectKeyValue taskConfig = new ConnectKeyValue();
+        taskConfig.put(RuntimeConfigDefine.SINK_SKIP_CONNECTOR_MESSAGES, "true");
+        SinkMessageFilter filter = new SinkMessageFilter(taskConfig);
+        when(consumer.pull(eq(queue), any(MessageSelector.class), anyLong(), anyInt()))
+            .thenThrow(new MQBrokerException(ResponseCode.SYSTEM_ERROR, "The broker does not support consumer to filter message by SQL92"));
+        List<MessageExt> messages = new ArrayList<>();
+        messages.add(message(0, false));
+        messages.add(message(1, true));
+        messages.add(message(2, false));
+        when(consumer.pull(queue, "*", 0, 32)).thenReturn(new PullResult(PullStatus.FOUND, 3, 0, 3, messages));
+
+        PullResult pullResult = filter.pull(consumer, queue, 0, 32);
+        assertEquals(2, filter.filter(pullResult.getMsgFoundList()).size());
+        assertEquals(ExpressionType.TAG, filter.getSelector().getExpressionType());
+
+        Map<String, Object> stats = filter.getJsonObject();
+        assertEquals(3L, stats.get("messagesPulled"));
+        assertEquals(2L, stats.get("messagesDelivered"));
+        assertEquals(1L, stats.get("filteredByClient"));
+        assertEquals(9L, stats.get("bytesPulled"));
+        assertEquals(6L, stats.get("bytesDelivered"));
+    }
+
+    @Test
+    public void testKeepSqlWhenBrokerFailsOtherwise() throws Exception {
+        ConnectKeyValue taskConfig = new ConnectKeyValue();
+        taskConfig.put(RuntimeConfigDefine.SINK_SKIP_CONNECTOR_MESSAGES, "true");
+        SinkMessageFilter filter = new SinkMessageFilter(taskConfig);
+        when(consumer.pull(eq(queue), any(MessageSelector.class), anyLong(), anyInt()))
+            .thenThrow(new MQBrokerException(ResponseCode.SYSTEM_BUSY, "broker busy"))
+            .thenThrow(new MQBrokerException(ResponseCode.SYSTEM_ERROR, "store error"))
+            .thenReturn(new PullResult(PullStatus.NO_NEW_MSG, 0, 0, 0, new ArrayList<>()));
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                filter.pull(consumer, queue, 0, 32);
+                fail();
+            } catch (MQBrokerException e) {
+                assertEquals(ExpressionType.SQL92, filter.getSelector().getExpressionType());
+            }
+        }
+        assertEquals(PullStatus.NO_NEW_MSG, filter.pull(consumer, queue, 0, 32).getPullStatus());
+        assertEquals(false, filter.getJsonObject().get("clientSideSkip"));
+        verify(consumer, never()).pull(eq(queue), eq("*"), anyLong(), anyInt());
+    }
+
+    @Test
+    public void testBrokerFilteredOffsets() throws Exception {
+        ConnectKeyValue taskConfig = new ConnectKeyValue();
+        taskConfig.put(RuntimeConfigDefine.SINK_FILTER_SQL, "region = 'eu'");
+        SinkMessageFilter filter = new SinkMessageFilter(taskConfig);
+        List<MessageExt> messages = new ArrayList<>();
+        messages.add(message(3, false));
+        when(consumer.pull(eq(queue), any(MessageSelector.class), eq(0L), anyInt()))
+            .thenReturn(new PullResult(PullStatus.FOUND, 10, 0, 20, messages));
+        when(consumer.pull(eq(queue), any(MessageSelector.class), eq(10L), anyInt()))
+            .thenReturn(new PullResult(PullStatus.NO_MATCHED_MSG, 20, 0, 20, null));
+
+        filter.pull(consumer, queue, 0, 32);
+        filter.pull(consumer, queue, 10, 32);
+        assertEquals(19L, filter.getJsonObject().get("filteredByBroker"));
+
+        //用户的SQL92过滤没法在客户端做,broker不支持时不能退化
+        when(consumer.pull(eq(queue), any(MessageSelector.class), eq(20L), anyInt()))
+            .thenThrow(new MQBrokerException(ResponseCode.SYSTEM_ERROR, "The broker does not support consumer to filter message by SQL92"));
+        try {
+            filter.pull(consumer, queue, 20, 32);
+            fail();
+        } catch (MQBrokerException expected) {
+        }
+        assertEquals(ExpressionType.SQL92, filter.getSelector().getExpressionType());
+        verify(consumer, never()).pull(eq(queue), any(String.class), anyLong(), anyInt());
+    }
+
+    private MessageExt message(long offset, boolean byConnector) {
+        MessageExt message = new MessageExt();
+        message.setTopic(queue.getTopic());
+        message.setQueueOffset(offset);
+        message.setBody(("m" + offset + "_").getBytes(StandardCharsets.UTF_8));
+        if (byConnector) {
+            message.putUserProperty(SinkMessageFilter.BY_CONNECTOR, "true");
+        }
+        return message;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.connectorwrapper;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.rocketmq.connect.runtime.common.ConnectKeyValue;
+import org.apache.rocketmq.connect.runtime.config.RuntimeConfigDefine;
+import org.apache.rocketmq.connect.runtime.connectorwrapper.testimpl.TestPositionManageServiceImpl;
+import org.apache.rocketmq.connect.runtime.connectorwrapper.testimpl.TestRecordingSinkTask;
+import org.apache.rocketmq.connect.runtime.connectorwrapper.testimpl.TestSequenceSourceTask;
+
+/**
+ * Records per second of a direct task with a synthetic source and sink, inline and pipelined. The latency cases make
+ * every poll and put wait like a call to a remote system, the no latency case only measures the runtime overhead. Run
+ * the main method, it is not part of the unit tests.
+ */
+public class WorkerDirectTaskBenchmark {
+
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        //total, source batch, poll latency, put latency
+        long[][] cases = {
+            {2_000_000, 500, 0, 0},
+            {100_000, 100, 1_000_000, 1_000_000},
+            {100_000, 100, 500_000, 2_000_000},
+        };
+        //warm up
+        run(cases[0], false);
+        run(cases[0], true);
+
+        System.out.printf("%-10s %8s %10s %10s %12s%n", "mode", "batch", "poll us", "put us", "records/s");
+        for (long[] benchmarkCase : cases) {
+            for (int i = 0; i < ROUNDS; i++) {
+                for (boolean pipelined : new boolean[] {false, true}) {
+                    System.out.printf("%-10s %8d %10d %10d %12d%n", pipelined ? "pipelined" : "inline",
+                        benchmarkCase[1], benchmarkCase[2] / 1000, benchmarkCase[3] / 1000, run(benchmarkCase, pipelined));
+                }
+            }
+        }
+    }
+
+    private static long run(long[] benchmarkCase, boolean pipelined) throws Exception {
+        long total = benchmarkCase[0];
+        ConnectKeyValue config = new ConnectKeyValue();
+        config.put(RuntimeConfigDefine.DIRECT_PIPELINE_ENABLE, String.valueOf(pipelined));
+        config.put(RuntimeConfigDefine.DIRECT_SINK_BATCH_SIZE, (int) benchmarkCase[1]);
+        TestSequenceSourceTask sourceTask = new TestSequenceSourceTask(total, (int) benchmarkCase[1], 8, benchmarkCase[2]);
+        TestRecordingSinkTask sinkTask = new TestRecordingSinkTask(benchmarkCase[3], false);
+        WorkerDirectTask task = new WorkerDirectTask("benchmark", sourceTask, sinkTask, config,
+            new PositionCounter(), new AtomicReference<>(WorkerState.STARTED));
+
+        long begin = System.nanoTime();
+        Thread thread = new Thread(task);
+        thread.start();
+        while (sinkTask.getCount() < total) {
+            Thread.sleep(1);
+        }
+        long elapsed = System.nanoTime() - begin;
+        task.stop();
+        thread.join();
+        return total * 1_000_000_000L / elapsed;
+    }
+
+    private static class PositionCounter extends TestPositionManageServiceImpl {
+
+        private volatile int positions;
+
+        @Override
+        public void putPosition(Map<ByteBuffer, ByteBuffer> positions) {
+            this.positions += positions.size();
+        }
+
+        @Override
+        public void putPosition(ByteBuffer partition, ByteBuffer position) {
+            positions++;
+        }
+
+        @Override
+        public void removePosition(List<ByteBuffer> partitions) {
+        }
+    }
+}
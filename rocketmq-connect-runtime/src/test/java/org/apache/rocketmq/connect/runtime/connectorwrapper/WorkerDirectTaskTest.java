@@ -0,0 +1,276 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.connectorwrapper;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+import io.openmessaging.connector.api.sink.SinkTask;
+import org.apache.rocketmq.connect.runtime.common.ConnectKeyValue;
+import org.apache.rocketmq.connect.runtime.config.RuntimeConfigDefine;
+import org.apache.rocketmq.connect.runtime.connectorwrapper.testimpl.TestRecordingSinkTask;
+import org.apache.rocketmq.connect.runtime.connectorwrapper.testimpl.TestSequenceSourceTask;
+import org.apache.rocketmq.connect.runtime.service.PositionManagementService;
+import org.apache.rocketmq.connect.runtime.utils.PositionCodec;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+@RunWith(MockitoJUnitRunner.class)
+public class WorkerDirectTaskTest {
+
+    private static final int TOTAL = 1000;
+
+    private static final int PARTITIONS = 3;
+
+    @Mock
+    private PositionManagementService positionManagementService;
+
+    private final Map<ByteBuffer, ByteBuffer> committed = new HashMap<>();
+
+    @Before
+    public void init() {
+        doAnswer(invocation -> {
+            synchronized (committed) {
+                committed.putAll(invocation.getArgument(0));
+            }
+            return null;
+        }).when(positionManagementService).putPosition(anyMap());
+    }
+
+    @Test
+    public void testPipelined() throws Exception {
+        ConnectKeyValue config = new ConnectKeyValue();
+        config.put(RuntimeConfigDefine.DIRECT_PIPELINE_ENABLE, "true");
+        //比总数小很多,保证ring buffer会绕很多圈并且会满
+        config.put(RuntimeConfigDefine.DIRECT_RING_CAPACITY, 16);
+        config.put(RuntimeConfigDefine.DIRECT_SINK_BATCH_SIZE, 10);
+        TestRecordingSinkTask sinkTask = new TestRecordingSinkTask(0, true);
+        runUntilDelivered(config, sinkTask);
+
+        assertEquals(TOTAL, sinkTask.getPayloads().size());
+        for (int i = 0; i < TOTAL; i++) {
+            assertEquals((long) i, sinkTask.getPayloads().get(i));
+        }
+        assertLastPositionPerPartition();
+    }
+
+    @Test
+    public void testInline() throws Exception {
+        TestRecordingSinkTask sinkTask = new TestRecordingSinkTask(0, true);
+        runUntilDelivered(new ConnectKeyValue(), sinkTask);
+
+        assertEquals(TOTAL, sinkTask.getPayloads().size());
+        assertLastPositionPerPartition();
+        verify(positionManagementService, never()).putPosition(any(ByteBuffer.class), any(ByteBuffer.class));
+    }
+
+    @Test
+    public void testNoPositionWhenPutFails() throws Exception {
+        ConnectKeyValue config = new ConnectKeyValue();
+        config.put(RuntimeConfigDefine.DIRECT_PIPELINE_ENABLE, "true");
+        TestRecordingSinkTask sinkTask = new TestRecordingSinkTask(0, true);
+        sinkTask.setFail(true);
+        WorkerDirectTask task = new WorkerDirectTask("direct", new TestSequenceSourceTask(TOTAL, 7, PARTITIONS, 0),
+            sinkTask, config, positionManagementService, new AtomicReference<>(WorkerState.STARTED));
+        Thread thread = new Thread(task);
+        thread.start();
+        Thread.sleep(200);
+        task.stop();
+        thread.join(10000);
+
+        assertEquals(WorkerTaskState.STOPPED, task.getState());
+        verify(positionManagementService, never()).putPosition(anyMap());
+    }
+
+    @Test
+    public void testFailedPutRetried() throws Exception {
+        for (String pipeline : new String[] {"false", "true"}) {
+            synchronized (committed) {
+                committed.clear();
+            }
+            ConnectKeyValue config = new ConnectKeyValue();
+            config.put(RuntimeConfigDefine.DIRECT_PIPELINE_ENABLE, pipeline);
+            config.put(RuntimeConfigDefine.DIRECT_SINK_BATCH_SIZE, 10);
+            TestRecordingSinkTask sinkTask = new TestRecordingSinkTask(0, true);
+            sinkTask.setFailures(1);
+            runUntilDelivered(config, sinkTask);
+
+            //失败的那批重试成功,没有记录丢失
+            assertEquals(TOTAL, sinkTask.getPayloads().size());
+            for (int i = 0; i < TOTAL; i++) {
+                assertEquals((long) i, sinkTask.getPayloads().get(i));
+            }
+            assertLastPositionPerPartition();
+        }
+    }
+
+    @Test
+    public void testFanOut() throws Exception {
+        TestRecordingSinkTask first = new TestRecordingSinkTask(0, true);
+        TestRecordingSinkTask second = new TestRecordingSinkTask(0, true);
+        ConnectKeyValue config = new ConnectKeyValue();
+        config.put(RuntimeConfigDefine.DIRECT_RING_CAPACITY, 16);
+        runUntilDelivered(config, first, second);
+
+        assertEquals(TOTAL, first.getPayloads().size());
+        assertEquals(first.getPayloads(), second.getPayloads());
+        assertLastPositionPerPartition();
+    }
+
+    @Test
+    public void testFanOutSinkConfigs() throws Exception {
+        TestRecordingSinkTask first = new TestRecordingSinkTask(0, true);
+        TestRecordingSinkTask second = new TestRecordingSinkTask(0, true);
+        ConnectKeyValue config = new ConnectKeyValue();
+        config.put("connect-url", "shared");
+        config.put("table", "t");
+        config.put("sink.1.connect-url", "second");
+        runUntilDelivered(config, first, second);
+
+        assertEquals("shared", first.getConfig().getString("connect-url"));
+        assertEquals("second", second.getConfig().getString("connect-url"));
+        assertEquals("t", second.getConfig().getString("table"));
+        //别的sink的key不带给这个sink
+        assertFalse(first.getConfig().containsKey("sink.1.connect-url"));
+        assertFalse(second.getConfig().containsKey("sink.1.connect-url"));
+    }
+
+    @Test
+    public void testSlowSinkHoldsBackPosition() throws Exception {
+        TestRecordingSinkTask fast = new TestRecordingSinkTask(0, true);
+        TestRecordingSinkTask slow = new TestRecordingSinkTask(0, true);
+        CountDownLatch gate = new CountDownLatch(1);
+        slow.setGate(gate);
+        ConnectKeyValue config = new ConnectKeyValue();
+        config.put(RuntimeConfigDefine.DIRECT_RING_CAPACITY, 16);
+        WorkerDirectTask task = newTask(config, fast, slow);
+        Thread thread = new Thread(task);
+        thread.start();
+        Thread.sleep(300);
+
+        //throttle: fast的sink最多领先一个buffer,位点一直等slow
+        assertTrue(fast.getCount() < TOTAL);
+        synchronized (committed) {
+            assertTrue(committed.isEmpty());
+        }
+
+        gate.countDown();
+        waitDelivered(slow);
+        waitDelivered(fast);
+        task.stop();
+        thread.join(10000);
+        assertEquals(WorkerTaskState.STOPPED, task.getState());
+        assertLastPositionPerPartition();
+    }
+
+    @Test
+    public void testSlowSinkDetached() throws Exception {
+        TestRecordingSinkTask fast = new TestRecordingSinkTask(0, true);
+        TestRecordingSinkTask slow = new TestRecordingSinkTask(0, true);
+        CountDownLatch gate = new CountDownLatch(1);
+        slow.setGate(gate);
+        ConnectKeyValue config = new ConnectKeyValue();
+        config.put(RuntimeConfigDefine.DIRECT_RING_CAPACITY, 16);
+        config.put(RuntimeConfigDefine.DIRECT_SLOW_SINK_POLICY, WorkerDirectTask.SLOW_SINK_DETACH);
+        config.put(RuntimeConfigDefine.DIRECT_SLOW_SINK_TIMEOUT, 100);
+        WorkerDirectTask task = newTask(config, fast, slow);
+        Thread thread = new Thread(task);
+        thread.start();
+        try {
+            waitDelivered(fast);
+            task.stop();
+            //detach的sink还在put里,不能先stop它
+            thread.join(300);
+            assertTrue(thread.isAlive());
+            assertFalse(slow.isStopped());
+        } finally {
+            gate.countDown();
+        }
+        thread.join(10000);
+        assertEquals(WorkerTaskState.STOPPED, task.getState());
+        assertTrue(slow.isStopped());
+
+        assertEquals(TOTAL, fast.getPayloads().size());
+        assertTrue(slow.getCount() < TOTAL);
+        assertLastPositionPerPartition();
+    }
+
+    @Test
+    public void testFailingSinkHoldsBackPosition() throws Exception {
+        TestRecordingSinkTask healthy = new TestRecordingSinkTask(0, true);
+        TestRecordingSinkTask failing = new TestRecordingSinkTask(0, true);
+        failing.setFail(true);
+        runUntilDelivered(new ConnectKeyValue(), healthy, failing);
+
+        //healthy都put完了,但failing一条都没收到,位点不能前进
+        assertEquals(TOTAL, healthy.getPayloads().size());
+        assertEquals(0, failing.getCount());
+        verify(positionManagementService, never()).putPosition(anyMap());
+    }
+
+    private void runUntilDelivered(ConnectKeyValue config, TestRecordingSinkTask... sinkTasks) throws Exception {
+        WorkerDirectTask task = newTask(config, sinkTasks);
+        Thread thread = new Thread(task);
+        thread.start();
+        waitDelivered(sinkTasks[0]);
+        task.stop();
+        thread.join(10000);
+        assertEquals(WorkerTaskState.STOPPED, task.getState());
+    }
+
+    private WorkerDirectTask newTask(ConnectKeyValue config, TestRecordingSinkTask... sinkTasks) {
+        List<SinkTask> sinks = Arrays.asList(sinkTasks);
+        return new WorkerDirectTask("direct", new TestSequenceSourceTask(TOTAL, 7, PARTITIONS, 0),
+            sinks, config, positionManagementService, new AtomicReference<>(WorkerState.STARTED));
+    }
+
+    private void waitDelivered(TestRecordingSinkTask sinkTask) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (sinkTask.getCount() < TOTAL && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private void assertLastPositionPerPartition() {
+        synchronized (committed) {
+            assertEquals(PARTITIONS, committed.size());
+            for (int i = 0; i < PARTITIONS; i++) {
+                long last = TOTAL - PARTITIONS + i;
+                ByteBuffer position = committed.get(TestSequenceSourceTask.partition(last, PARTITIONS));
+                assertTrue(position != null);
+                assertEquals(last, PositionCodec.decodeLong(position));
+            }
+        }
+    }
+}
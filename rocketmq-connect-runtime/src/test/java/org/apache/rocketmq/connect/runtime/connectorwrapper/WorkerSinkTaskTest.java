@@ -0,0 +1,349 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.connectorwrapper;
+
+import io.openmessaging.connector.api.data.Converter;
+import io.openmessaging.connector.api.data.EntryType;
+import io.openmessaging.connector.api.data.Field;
+import io.openmessaging.connector.api.data.FieldType;
+import io.openmessaging.connector.api.data.Schema;
+import io.openmessaging.connector.api.data.SourceDataEntry;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.rocketmq.client.consumer.DefaultMQPullConsumer;
+import org.apache.rocketmq.client.consumer.MessageQueueListener;
+import org.apache.rocketmq.client.consumer.PullResult;
+import org.apache.rocketmq.client.consumer.PullStatus;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.apache.rocketmq.connect.runtime.common.ConnectKeyValue;
+import org.apache.rocketmq.connect.runtime.config.RuntimeConfigDefine;
+import org.apache.rocketmq.connect.runtime.connectorwrapper.testimpl.TestRecordingSinkTask;
+import org.apache.rocketmq.connect.runtime.converter.SchemaBinaryConverter;
+import org.apache.rocketmq.connect.runtime.service.PositionManagementService;
+import org.apache.rocketmq.connect.runtime.service.SchemaRegistryService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.Silent.class)
+public class WorkerSinkTaskTest {
+
+    private static final String TOPIC = "sinkTopic";
+
+    private static final int MESSAGES = 2;
+
+    private final MessageQueue queue = new MessageQueue(TOPIC, "broker-a", 0);
+
+    private final Set<MessageQueue> queues = Collections.singleton(queue);
+
+    @Mock
+    private DefaultMQPullConsumer consumer;
+
+    @Mock
+    private PositionManagementService offsetManagementService;
+
+    private final AtomicLong brokerOffset = new AtomicLong();
+
+    private final ConnectKeyValue taskConfig = new ConnectKeyValue();
+
+    private volatile byte[] convertedBody;
+
+    private volatile String schemaId;
+
+    @Mock
+    private SchemaRegistryService schemaRegistryService;
+
+    @Before
+    public void init() throws Exception {
+        taskConfig.put(WorkerSinkTask.QUEUENAMES_CONFIG, TOPIC);
+        when(consumer.fetchConsumeOffset(eq(queue), anyBoolean())).thenAnswer(invocation -> brokerOffset.get());
+        doAnswer(invocation -> {
+            brokerOffset.set(invocation.getArgument(1));
+            return null;
+        }).when(consumer).updateConsumeOffset(eq(queue), anyLong());
+        when(consumer.pull(eq(queue), anyString(), anyLong(), anyInt())).thenAnswer(invocation -> {
+            long offset = invocation.getArgument(2);
+            if (offset >= MESSAGES) {
+                return new PullResult(PullStatus.NO_NEW_MSG, offset, 0, MESSAGES, null);
+            }
+            List<MessageExt> messages = new ArrayList<>();
+            for (long i = offset; i < MESSAGES; i++) {
+                MessageExt message = new MessageExt();
+                message.setTopic(TOPIC);
+                message.setQueueOffset(i);
+                message.setBody(("message" + i).getBytes(StandardCharsets.UTF_8));
+                if (convertedBody != null) {
+                    message.setBody(convertedBody);
+                    message.putUserProperty(WorkerSourceTask.RECORD_CONVERTER_PROPERTY, SchemaBinaryConverter.class.getName());
+                    if (schemaId != null) {
+                        message.putUserProperty(WorkerSourceTask.SCHEMA_ID_PROPERTY, schemaId);
+                    }
+                }
+                messages.add(message);
+            }
+            return new PullResult(PullStatus.FOUND, MESSAGES, 0, MESSAGES, messages);
+        });
+    }
+
+    @Test
+    public void testUnchangedOffsetsNotCommittedAgain() throws Exception {
+        run(true);
+
+        verify(consumer, times(1)).updateConsumeOffset(queue, MESSAGES);
+        verify(offsetManagementService, times(1)).putPosition(any(ByteBuffer.class), any(ByteBuffer.class));
+    }
+
+    @Test
+    public void testOffsetSyncDisabled() throws Exception {
+        run(false);
+
+        verify(consumer, times(1)).updateConsumeOffset(queue, MESSAGES);
+        verify(offsetManagementService, never()).putPosition(any(ByteBuffer.class), any(ByteBuffer.class));
+        verify(offsetManagementService, never()).getPosition(any(ByteBuffer.class));
+    }
+
+    @Test
+    public void testRevokedQueueDrainedAndFenced() throws Exception {
+        TestRecordingSinkTask sinkTask = new TestRecordingSinkTask(0, true);
+        CountDownLatch gate = new CountDownLatch(1);
+        sinkTask.setGate(gate);
+        WorkerSinkTask task = createTask(sinkTask, true);
+        Thread thread = new Thread(task);
+        thread.start();
+        MessageQueueListener listener = captureListener();
+        listener.messageQueueChanged(TOPIC, queues, queues);
+        verify(consumer, timeout(5000)).pull(eq(queue), anyString(), eq(0L), anyInt());
+
+        //put还没完成,收回queue要等它
+        Thread rebalance = new Thread(() -> listener.messageQueueChanged(TOPIC, queues, Collections.emptySet()));
+        rebalance.start();
+        rebalance.join(300);
+        assertTrue(rebalance.isAlive());
+        assertEquals(0, brokerOffset.get());
+
+        gate.countDown();
+        rebalance.join(5000);
+        assertFalse(rebalance.isAlive());
+        assertEquals(MESSAGES, sinkTask.getCount());
+        assertEquals(MESSAGES, brokerOffset.get());
+        verify(offsetManagementService).synchronize();
+
+        task.stop();
+        thread.join(10000);
+        verify(consumer, times(1)).updateConsumeOffset(queue, MESSAGES);
+        verify(consumer, times(1)).pull(eq(queue), anyString(), anyLong(), anyInt());
+    }
+
+    @Test
+    public void testNewOwnerWaitsForFence() throws Exception {
+        when(consumer.maxOffset(queue)).thenReturn((long) MESSAGES);
+        TestRecordingSinkTask sinkTask = new TestRecordingSinkTask(0, true);
+        WorkerSinkTask task = createTask(sinkTask, false);
+        Thread thread = new Thread(task);
+        thread.start();
+        captureListener().messageQueueChanged(TOPIC, queues, queues);
+
+        //原owner还在消费,提交fence以后新owner才从fence开始拉
+        Thread.sleep(500);
+        verify(consumer, never()).pull(eq(queue), anyString(), anyLong(), anyInt());
+        brokerOffset.set(MESSAGES);
+        verify(consumer, timeout(5000)).pull(eq(queue), anyString(), eq((long) MESSAGES), anyInt());
+
+        task.stop();
+        thread.join(10000);
+        assertEquals(0, sinkTask.getCount());
+        verify(consumer, never()).pull(eq(queue), anyString(), eq(0L), anyInt());
+    }
+
+    @Test
+    public void testHandoffTimeout() throws Exception {
+        when(consumer.maxOffset(queue)).thenReturn((long) MESSAGES);
+        TestRecordingSinkTask sinkTask = new TestRecordingSinkTask(0, true);
+        taskConfig.put(RuntimeConfigDefine.SINK_HANDOFF_TIMEOUT, 300);
+        WorkerSinkTask task = createTask(sinkTask, false);
+        Thread thread = new Thread(task);
+        thread.start();
+        captureListener().messageQueueChanged(TOPIC, queues, queues);
+
+        //原owner没有提交fence(例如已经宕机),超时以后从broker上的位移开始
+        verify(consumer, timeout(5000)).pull(eq(queue), anyString(), eq(0L), anyInt());
+        task.stop();
+        thread.join(10000);
+        assertEquals(MESSAGES, sinkTask.getCount());
+    }
+
+    @Test
+    public void testRecordConverterDecodesMarkedMessages() throws Exception {
+        Schema schema = new Schema();
+        schema.setName("user");
+        schema.setFields(Arrays.asList(new Field(0, "id", FieldType.INT64), new Field(1, "name", FieldType.STRING)));
+        SourceDataEntry entry = new SourceDataEntry(null, null, 1L, EntryType.CREATE, TOPIC, schema, new Object[] {42L, "rocketmq"});
+        convertedBody = new SchemaBinaryConverter().objectToByte(entry);
+
+        TestRecordingSinkTask sinkTask = new TestRecordingSinkTask(0, true);
+        WorkerSinkTask task = createTask(sinkTask, false, new SchemaBinaryConverter());
+        Thread thread = new Thread(task);
+        thread.start();
+        captureListener().messageQueueChanged(TOPIC, queues, queues);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sinkTask.getCount() < MESSAGES && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        task.stop();
+        thread.join(10000);
+        assertEquals(Arrays.asList(42L, 42L), sinkTask.getPayloads());
+    }
+
+    @Test
+    public void testUnresolvedSchemaRetried() throws Exception {
+        Schema schema = new Schema();
+        schema.setName("user");
+        schema.setFields(Arrays.asList(new Field(0, "id", FieldType.INT64), new Field(1, "name", FieldType.STRING)));
+        SourceDataEntry entry = new SourceDataEntry(null, null, 1L, EntryType.CREATE, TOPIC, schema, new Object[] {42L, "rocketmq"});
+        convertedBody = new SchemaBinaryConverter().objectToByteWithoutSchema(entry);
+        schemaId = Long.toHexString(7L);
+        //schema消息还没建好索引,第一次查不到
+        when(schemaRegistryService.getSchema(7L)).thenReturn(null).thenReturn(schema);
+        SchemaBinaryConverter converter = new SchemaBinaryConverter();
+        converter.setSchemaRegistryService(schemaRegistryService);
+
+        TestRecordingSinkTask sinkTask = new TestRecordingSinkTask(0, true);
+        WorkerSinkTask task = createTask(sinkTask, false, converter);
+        Thread thread = new Thread(task);
+        thread.start();
+        captureListener().messageQueueChanged(TOPIC, queues, queues);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sinkTask.getCount() < MESSAGES && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        task.stop();
+        thread.join(10000);
+        assertEquals(Arrays.asList(42L, 42L), sinkTask.getPayloads());
+        verify(consumer, times(2)).pull(eq(queue), anyString(), eq(0L), anyInt());
+    }
+
+    @Test
+    public void testUndecodableMessageSkippedWhenTolerant() throws Exception {
+        taskConfig.put(RuntimeConfigDefine.ERRORS_TOLERANCE, SinkErrorHandler.TOLERANCE_ALL);
+        taskConfig.put(RuntimeConfigDefine.ERRORS_RETRY_MAX, 0);
+        convertedBody = "not a record".getBytes(StandardCharsets.UTF_8);
+        schemaId = Long.toHexString(7L);
+        //没有开注册中心,重试也解不出来,直接按errors配置跳过
+        assertSkipped(new SchemaBinaryConverter());
+    }
+
+    @Test
+    public void testUnresolvedSchemaGivesUpWhenTolerant() throws Exception {
+        taskConfig.put(RuntimeConfigDefine.ERRORS_TOLERANCE, SinkErrorHandler.TOLERANCE_ALL);
+        taskConfig.put(RuntimeConfigDefine.ERRORS_RETRY_MAX, 0);
+        taskConfig.put(RuntimeConfigDefine.ERRORS_SCHEMA_RESOLVE_TIMEOUT_MS, 0L);
+        convertedBody = "not a record".getBytes(StandardCharsets.UTF_8);
+        schemaId = Long.toHexString(7L);
+        when(schemaRegistryService.getSchema(7L)).thenReturn(null);
+        SchemaBinaryConverter converter = new SchemaBinaryConverter();
+        converter.setSchemaRegistryService(schemaRegistryService);
+        //超时前重试一次,超时以后不再卡住这个queue
+        assertSkipped(converter);
+        verify(schemaRegistryService, atLeast(2)).getSchema(7L);
+    }
+
+    private void assertSkipped(Converter converter) throws Exception {
+        TestRecordingSinkTask sinkTask = new TestRecordingSinkTask(0, true);
+        WorkerSinkTask task = createTask(sinkTask, false, converter);
+        Thread thread = new Thread(task);
+        thread.start();
+        captureListener().messageQueueChanged(TOPIC, queues, queues);
+        long deadline = System.currentTimeMillis() + 8000;
+        while (!Long.valueOf(MESSAGES).equals(task.getFetchOffsets().get(queue)) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Long offset = task.getFetchOffsets().get(queue);
+        task.stop();
+        thread.join(10000);
+        assertEquals(Long.valueOf(MESSAGES), offset);
+        assertEquals(0, sinkTask.getCount());
+    }
+
+    private WorkerSinkTask createTask(TestRecordingSinkTask sinkTask, boolean offsetSyncEnable) {
+        return createTask(sinkTask, offsetSyncEnable, null);
+    }
+
+    private WorkerSinkTask createTask(TestRecordingSinkTask sinkTask, boolean offsetSyncEnable, Converter recordConverter) {
+        return new WorkerSinkTask("sink", sinkTask, taskConfig, offsetManagementService, recordConverter, consumer,
+            new AtomicReference<>(WorkerState.STARTED), getClass().getClassLoader(),
+            new SinkErrorHandler("sink", taskConfig, null), offsetSyncEnable);
+    }
+
+    private MessageQueueListener captureListener() {
+        ArgumentCaptor<MessageQueueListener> listener = ArgumentCaptor.forClass(MessageQueueListener.class);
+        verify(consumer, timeout(5000)).registerMessageQueueListener(eq(TOPIC), listener.capture());
+        return listener.getValue();
+    }
+
+    private void run(boolean offsetSyncEnable) throws Exception {
+        TestRecordingSinkTask sinkTask = new TestRecordingSinkTask(0, true);
+        WorkerSinkTask task = createTask(sinkTask, offsetSyncEnable);
+        Thread thread = new Thread(task);
+        thread.start();
+
+        MessageQueueListener listener = captureListener();
+        listener.messageQueueChanged(TOPIC, queues, queues);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sinkTask.getCount() < MESSAGES && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(MESSAGES, sinkTask.getCount());
+
+        //queue没变的重平衡不重新读位移,停止时提交一次
+        listener.messageQueueChanged(TOPIC, queues, queues);
+        listener.messageQueueChanged(TOPIC, queues, queues);
+        task.stop();
+        thread.join(10000);
+        assertEquals(WorkerTaskState.STOPPED, task.getState());
+        assertEquals(MESSAGES, sinkTask.getCount());
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.connectorwrapper.testimpl;
+
+import io.openmessaging.KeyValue;
+import io.openmessaging.connector.api.common.QueueMetaData;
+import io.openmessaging.connector.api.data.SinkDataEntry;
+import io.openmessaging.connector.api.sink.SinkTask;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Counts the records put, and keeps the first payload field of each if asked to.
+ */
+public class TestRecordingSinkTask extends SinkTask {
+
+    private final long putNanos;
+
+    private final boolean record;
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final List<Object> payloads = new CopyOnWriteArrayList<>();
+
+    private volatile boolean fail = false;
+
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private volatile CountDownLatch gate;
+
+    private volatile boolean stopped = false;
+
+    private volatile KeyValue config;
+
+    /**
+     * @param putNanos time every put takes, as if it waited on a remote system
+     */
+    public TestRecordingSinkTask(long putNanos, boolean record) {
+        this.putNanos = putNanos;
+        this.record = record;
+    }
+
+    @Override
+    public void put(Collection<SinkDataEntry> sinkDataEntries) {
+        if (putNanos > 0) {
+            LockSupport.parkNanos(putNanos);
+        }
+        CountDownLatch currentGate = gate;
+        if (currentGate != null) {
+            try {
+                currentGate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (fail || failures.getAndUpdate(left -> Math.max(0, left - 1)) > 0) {
+            throw new IllegalStateException("put failed");
+        }
+        if (record) {
+            for (SinkDataEntry entry : sinkDataEntries) {
+                payloads.add(entry.getPayload()[0]);
+            }
+        }
+        count.addAndGet(sinkDataEntries.size());
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public List<Object> getPayloads() {
+        return payloads;
+    }
+
+    public void setFail(boolean fail) {
+        this.fail = fail;
+    }
+
+    /**
+     * The next puts fail.
+     */
+    public void setFailures(int failures) {
+        this.failures.set(failures);
+    }
+
+    /**
+     * Every put waits until the gate is open.
+     */
+    public void setGate(CountDownLatch gate) {
+        this.gate = gate;
+    }
+
+    @Override
+    public void commit(Map<QueueMetaData, Long> offsets) {
+
+    }
+
+    @Override
+    public void start(KeyValue config) {
+        this.config = config;
+    }
+
+    public KeyValue getConfig() {
+        return config;
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    @Override
+    public void pause() {
+
+    }
+
+    @Override
+    public void resume() {
+
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.connectorwrapper.testimpl;
+
+import io.openmessaging.KeyValue;
+import io.openmessaging.connector.api.data.EntryType;
+import io.openmessaging.connector.api.data.Schema;
+import io.openmessaging.connector.api.data.SourceDataEntry;
+import io.openmessaging.connector.api.source.SourceTask;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.rocketmq.connect.runtime.utils.PositionCodec;
+
+/**
+ * Emits the sequence 0..total-1 round robin over some source partitions. The payload is the sequence, and the position
+ * of every record is its sequence encoded with {@link PositionCodec#encodeLong(long)}.
+ */
+public class TestSequenceSourceTask extends SourceTask {
+
+    private final long total;
+
+    private final int batchSize;
+
+    private final int partitions;
+
+    private final long pollNanos;
+
+    private final Schema schema = new Schema();
+
+    private long next = 0;
+
+    /**
+     * @param pollNanos time every poll takes, as if it waited on a remote system
+     */
+    public TestSequenceSourceTask(long total, int batchSize, int partitions, long pollNanos) {
+        this.total = total;
+        this.batchSize = batchSize;
+        this.partitions = partitions;
+        this.pollNanos = pollNanos;
+    }
+
+    public static ByteBuffer partition(long sequence, int partitions) {
+        return ByteBuffer.wrap(("partition-" + sequence % partitions).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public Collection<SourceDataEntry> poll() {
+        if (pollNanos > 0) {
+            LockSupport.parkNanos(pollNanos);
+        }
+        if (next >= total) {
+            return Collections.emptyList();
+        }
+        int size = (int) Math.min(batchSize, total - next);
+        List<SourceDataEntry> entries = new ArrayList<>(size);
+        for (int i = 0; i < size; i++, next++) {
+            entries.add(new SourceDataEntry(partition(next, partitions), PositionCodec.encodeLong(next),
+                System.currentTimeMillis(), EntryType.CREATE, "test-queue", schema, new Object[] {next}));
+        }
+        return entries;
+    }
+
+    @Override
+    public void start(KeyValue config) {
+
+    }
+
+    @Override
+    public void stop() {
+
+    }
+
+    @Override
+    public void pause() {
+
+    }
+
+    @Override
+    public void resume() {
+
+    }
+}
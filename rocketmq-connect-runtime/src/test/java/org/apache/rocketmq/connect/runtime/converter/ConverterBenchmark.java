@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.converter;
+
+import io.openmessaging.connector.api.data.Converter;
+import io.openmessaging.connector.api.data.EntryType;
+import io.openmessaging.connector.api.data.FieldType;
+import io.openmessaging.connector.api.data.Schema;
+import io.openmessaging.connector.api.data.SourceDataEntry;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Serialization cost of a table row like the ones of the jdbc source, encoded and decoded whole by the fastjson converter
+ * and by the schema binary converter. Prints ns per record and bytes per record. Run the main method, it is not part of
+ * the unit tests.
+ */
+public class ConverterBenchmark {
+
+    private static final int RECORDS = 200_000;
+
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) {
+        Schema schema = SchemaBinaryConverterTest.schema(FieldType.INT64, FieldType.STRING, FieldType.STRING, FieldType.INT32,
+            FieldType.FLOAT64, FieldType.BOOLEAN, FieldType.DATETIME, FieldType.DATETIME, FieldType.BIG_INTEGER,
+            FieldType.STRING, FieldType.INT32, FieldType.BYTES);
+        List<SourceDataEntry> entries = new ArrayList<>(RECORDS);
+        for (int i = 0; i < RECORDS; i++) {
+            Object[] payload = new Object[] {(long) i, "user-" + i, "user" + i + "@example.com", i % 120, i * 0.37d, i % 2 == 0,
+                new Date(1600000000000L + i), new Date(), BigInteger.valueOf(i).shiftLeft(40), "Hangzhou, Zhejiang", i % 7,
+                ("avatar-" + i).getBytes(StandardCharsets.UTF_8)};
+            entries.add(new SourceDataEntry(null, null, System.currentTimeMillis(), EntryType.CREATE, "user_table", schema, payload));
+        }
+
+        //warm up
+        run(new JsonConverter(), entries);
+        run(new SchemaBinaryConverter(), entries);
+
+        System.out.printf("%-10s %14s %14s %14s%n", "converter", "encode ns/rec", "decode ns/rec", "bytes/rec");
+        for (int i = 0; i < ROUNDS; i++) {
+            print("json", run(new JsonConverter(), entries));
+            print("binary", run(new SchemaBinaryConverter(), entries));
+        }
+    }
+
+    private static void print(String name, long[] result) {
+        System.out.printf("%-10s %14d %14d %14d%n", name, result[0], result[1], result[2]);
+    }
+
+    /**
+     * @return encode ns per record, decode ns per record, bytes per record
+     */
+    private static long[] run(Converter converter, List<SourceDataEntry> entries) {
+        List<byte[]> encoded = new ArrayList<>(entries.size());
+        long bytes = 0;
+        long begin = System.nanoTime();
+        for (SourceDataEntry entry : entries) {
+            byte[] body = converter.objectToByte(entry);
+            bytes += body.length;
+            encoded.add(body);
+        }
+        long encodeNanos = System.nanoTime() - begin;
+        begin = System.nanoTime();
+        int decoded = 0;
+        for (byte[] body : encoded) {
+            if (converter.byteToObject(body) != null) {
+                decoded++;
+            }
+        }
+        long decodeNanos = System.nanoTime() - begin;
+        if (decoded != entries.size()) {
+            throw new IllegalStateException("decoded " + decoded + " of " + entries.size());
+        }
+        return new long[] {encodeNanos / entries.size(), decodeNanos / entries.size(), bytes / entries.size()};
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.converter;
+
+import io.openmessaging.connector.api.data.DataEntry;
+import io.openmessaging.connector.api.data.EntryType;
+import io.openmessaging.connector.api.data.Field;
+import io.openmessaging.connector.api.data.FieldType;
+import io.openmessaging.connector.api.data.Schema;
+import io.openmessaging.connector.api.data.SourceDataEntry;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class SchemaBinaryConverterTest {
+
+    private final SchemaBinaryConverter converter = new SchemaBinaryConverter();
+
+    @Test
+    public void testAllFieldTypes() {
+        Schema schema = schema(FieldType.values());
+        Date now = new Date();
+        Object[] payload = new Object[] {-7, Long.MAX_VALUE, new BigInteger("123456789012345678901234567890"), 1.5f, -2.25d,
+            true, "中文 text", "bytes".getBytes(StandardCharsets.UTF_8), Arrays.asList(1, 2), Collections.singletonMap("k", "v"), now};
+        SourceDataEntry entry = new SourceDataEntry(null, null, 100L, EntryType.UPDATE, "topic", schema, "shard-1", payload);
+
+        DataEntry decoded = converter.byteToObject(converter.objectToByte(entry));
+        assertThat(decoded.getTimestamp()).isEqualTo(100L);
+        assertThat(decoded.getEntryType()).isEqualTo(EntryType.UPDATE);
+        assertThat(decoded.getQueueName()).isEqualTo("topic");
+        assertThat(decoded.getShardingKey()).isEqualTo("shard-1");
+        assertThat(decoded.getSchema()).isEqualTo(schema);
+        Object[] values = decoded.getPayload();
+        assertThat(values[0]).isEqualTo(-7);
+        assertThat(values[1]).isEqualTo(Long.MAX_VALUE);
+        assertThat(values[2]).isEqualTo(payload[2]);
+        assertThat(values[3]).isEqualTo(1.5f);
+        assertThat(values[4]).isEqualTo(-2.25d);
+        assertThat(values[5]).isEqualTo(true);
+        assertThat(values[6]).isEqualTo("中文 text");
+        assertThat((byte[]) values[7]).isEqualTo(payload[7]);
+        assertThat((List<Object>) values[8]).containsExactly(1, 2);
+        assertThat((Map<String, Object>) values[9]).containsEntry("k", "v");
+        assertThat(values[10]).isEqualTo(now);
+    }
+
+    @Test
+    public void testNullsAndLooseTypes() {
+        Schema schema = schema(FieldType.INT32, FieldType.INT64, FieldType.STRING, FieldType.DATETIME, FieldType.BYTES);
+        //jdbc之类的source经常把数字放成字符串
+        Object[] payload = new Object[] {"12", null, 3, 1000L, null};
+        SourceDataEntry entry = new SourceDataEntry(null, null, null, null, null, schema, payload);
+
+        DataEntry decoded = converter.byteToObject(converter.objectToByte(entry));
+        assertThat(decoded.getTimestamp()).isNull();
+        assertThat(decoded.getEntryType()).isNull();
+        assertThat(decoded.getQueueName()).isNull();
+        assertThat(decoded.getPayload()).containsExactly(12, null, "3", new Date(1000L), null);
+    }
+
+    @Test
+    public void testSchemaShared() {
+        Schema schema = schema(FieldType.INT64, FieldType.STRING);
+        SchemaBinaryConverter reader = new SchemaBinaryConverter();
+        DataEntry first = reader.byteToObject(converter.objectToByte(
+            new SourceDataEntry(null, null, 1L, EntryType.CREATE, "topic", schema, new Object[] {1L, "a"})));
+        DataEntry second = reader.byteToObject(converter.objectToByte(
+            new SourceDataEntry(null, null, 2L, EntryType.CREATE, "topic", schema, new Object[] {2L, "b"})));
+        assertThat(second.getSchema()).isSameAs(first.getSchema());
+        assertThat(second.getPayload()).containsExactly(2L, "b");
+
+        //没有schema时payload按json写
+        DataEntry schemaless = reader.byteToObject(converter.objectToByte(
+            new SourceDataEntry(null, null, 3L, EntryType.CREATE, "topic", null, new Object[] {"x", 1})));
+        assertThat(schemaless.getSchema()).isNull();
+        assertThat(schemaless.getPayload()).containsExactly("x", 1);
+    }
+
+    @Test
+    public void testRegisteredSchemaLeftOut() {
+        Schema schema = schema(FieldType.INT64, FieldType.STRING);
+        SourceDataEntry entry = new SourceDataEntry(null, null, 1L, EntryType.CREATE, "topic", schema, new Object[] {1L, "a"});
+        byte[] withSchema = converter.objectToByte(entry);
+        byte[] withoutSchema = converter.objectToByteWithoutSchema(entry);
+        assertThat(withoutSchema.length).isLessThan(withSchema.length);
+
+        Schema registered = schema(FieldType.INT64, FieldType.STRING);
+        DataEntry decoded = new SchemaBinaryConverter().byteToObject(withoutSchema, registered);
+        assertThat(decoded.getSchema()).isSameAs(registered);
+        assertThat(decoded.getPayload()).containsExactly(1L, "a");
+        assertThatThrownBy(() -> converter.byteToObject(withoutSchema)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    static Schema schema(FieldType... types) {
+        Schema schema = new Schema();
+        schema.setName("table");
+        schema.setDataSource("db");
+        List<Field> fields = new ArrayList<>();
+        for (int i = 0; i < types.length; i++) {
+            fields.add(new Field(i, "field" + i, types[i]));
+        }
+        schema.setFields(fields);
+        return schema;
+    }
+}
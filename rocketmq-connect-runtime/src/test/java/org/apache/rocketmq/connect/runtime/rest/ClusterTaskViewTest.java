@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.rest;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.rocketmq.common.protocol.body.Connection;
+import org.apache.rocketmq.common.protocol.body.ConsumerConnection;
+import org.apache.rocketmq.connect.runtime.ConnectController;
+import org.apache.rocketmq.connect.runtime.config.ConnectConfig;
+import org.apache.rocketmq.connect.runtime.service.ClusterManagementService;
+import org.apache.rocketmq.connect.runtime.service.TaskStatusService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ClusterTaskViewTest {
+
+    private static final String PUSHED_WORKER = "127.0.0.1@1#8081#pushed";
+
+    private static final String SLOW_WORKER = "127.0.0.1@2#%d#slow";
+
+    private static final String HTTP_WORKER = "127.0.0.1@3#%d#http";
+
+    @Mock
+    private ConnectController connectController;
+
+    @Mock
+    private ClusterManagementService clusterManagementService;
+
+    @Mock
+    private TaskStatusService taskStatusService;
+
+    private HttpServer fastServer;
+
+    private HttpServer slowServer;
+
+    private final AtomicInteger httpCalls = new AtomicInteger();
+
+    private CloseableHttpClient httpClient;
+
+    private ClusterTaskView clusterTaskView;
+
+    private String httpWorker;
+
+    private String slowWorker;
+
+    @Before
+    public void init() throws Exception {
+        fastServer = startServer(0);
+        slowServer = startServer(3000);
+        httpWorker = String.format(HTTP_WORKER, fastServer.getAddress().getPort());
+        slowWorker = String.format(SLOW_WORKER, slowServer.getAddress().getPort());
+
+        ConnectConfig connectConfig = new ConnectConfig();
+        connectConfig.setWorkerRequestTimeout(500);
+        connectConfig.setClusterViewCacheTtl(60 * 1000);
+        when(connectController.getConnectConfig()).thenReturn(connectConfig);
+        when(connectController.getClusterManagementService()).thenReturn(clusterManagementService);
+        when(connectController.getTaskStatusService()).thenReturn(taskStatusService);
+        when(taskStatusService.getWorkerTaskStatus(PUSHED_WORKER)).thenReturn("{\"runningTasks\":[\"pushedTask\"],\"errorTasks\":[]}");
+
+        ConsumerConnection consumerConnection = new ConsumerConnection();
+        HashSet<Connection> connections = new HashSet<>();
+        connections.add(connection(PUSHED_WORKER));
+        connections.add(connection(httpWorker));
+        connections.add(connection(slowWorker));
+        consumerConnection.setConnectionSet(connections);
+        when(clusterManagementService.fetchConsumerConnection()).thenReturn(consumerConnection);
+
+        httpClient = HttpClients.createDefault();
+        clusterTaskView = new ClusterTaskView(connectController, httpClient);
+    }
+
+    @After
+    public void destroy() throws Exception {
+        fastServer.stop(0);
+        slowServer.stop(0);
+        httpClient.close();
+    }
+
+    @Test
+    public void testPartialResultWithinTimeout() {
+        long start = System.currentTimeMillis();
+        Map<Object, Object> byWorker = clusterTaskView.getAllTask(true);
+        assertTrue(System.currentTimeMillis() - start < 2000);
+
+        assertTrue(byWorker.containsKey(PUSHED_WORKER));
+        assertTrue(byWorker.containsKey(httpWorker));
+        assertFalse(byWorker.containsKey(slowWorker));
+        Map<String, String> failed = (Map<String, String>) byWorker.get(ClusterTaskView.FAILED_WORKERS);
+        assertTrue(failed.containsKey(slowWorker));
+
+        Map<Object, Object> merged = clusterTaskView.getAllTask(false);
+        Collection<Object> running = (Collection<Object>) merged.get("runningTasks");
+        assertEquals(2, running.size());
+        assertTrue(running.contains("pushedTask"));
+        assertTrue(running.contains("httpTask"));
+    }
+
+    @Test
+    public void testViewIsCached() {
+        clusterTaskView.getAllTask(true);
+        clusterTaskView.getAllTask(false);
+        clusterTaskView.getAllTask(true);
+
+        assertEquals(1, httpCalls.get());
+        verify(clusterManagementService, times(1)).fetchConsumerConnection();
+    }
+
+    private HttpServer startServer(long delay) throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext(RestHandler.GET_ALLOCATED_TASK, exchange -> {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException ignored) {
+            }
+            if (delay == 0) {
+                httpCalls.incrementAndGet();
+            }
+            byte[] body = "{\"runningTasks\":[\"httpTask\"],\"errorTasks\":[]}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            } catch (Exception ignored) {
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        return server;
+    }
+
+    private Connection connection(String clientId) {
+        Connection connection = new Connection();
+        connection.setClientId(clientId);
+        connection.setClientAddr("127.0.0.1:10911");
+        return connection;
+    }
+}
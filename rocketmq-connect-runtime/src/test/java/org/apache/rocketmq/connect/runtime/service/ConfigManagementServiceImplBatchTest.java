@@ -0,0 +1,155 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.service;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.apache.rocketmq.connect.runtime.common.ConnectKeyValue;
+import org.apache.rocketmq.connect.runtime.common.ConnectorAndTaskConfigs;
+import org.apache.rocketmq.connect.runtime.config.ConnectConfig;
+import org.apache.rocketmq.connect.runtime.config.RuntimeConfigDefine;
+import org.apache.rocketmq.connect.runtime.utils.Plugin;
+import org.apache.rocketmq.connect.runtime.utils.TestUtils;
+import org.apache.rocketmq.connect.runtime.utils.datasync.DataSynchronizer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ConfigManagementServiceImplBatchTest {
+
+    private static final String CONNECTOR_CLASS = "org.apache.rocketmq.connect.runtime.connectorwrapper.testimpl.TestConnector";
+
+    @Mock
+    private Plugin plugin;
+
+    private String storePath;
+
+    private ConfigManagementServiceImpl configManagementService;
+
+    private final List<ConnectorAndTaskConfigs> sent = new ArrayList<>();
+
+    private int triggered;
+
+    @Before
+    public void init() throws Exception {
+        storePath = System.getProperty("java.io.tmpdir") + File.separator + "batchConnectorStore-" + UUID.randomUUID();
+        ConnectConfig connectConfig = new ConnectConfig();
+        connectConfig.setStorePathRootDir(storePath);
+        connectConfig.setRmqConsumerGroup(UUID.randomUUID().toString());
+        connectConfig.setRmqProducerGroup(UUID.randomUUID().toString());
+        connectConfig.setNamesrvAddr("127.0.0.1:9876");
+        configManagementService = new ConfigManagementServiceImpl(connectConfig, plugin);
+
+        Field dataSynchronizerField = ConfigManagementServiceImpl.class.getDeclaredField("dataSynchronizer");
+        dataSynchronizerField.setAccessible(true);
+        dataSynchronizerField.set(configManagementService, new DataSynchronizer<String, ConnectorAndTaskConfigs>() {
+            @Override
+            public void start() {
+            }
+
+            @Override
+            public void stop() {
+            }
+
+            @Override
+            public void send(String key, ConnectorAndTaskConfigs value) {
+                sent.add(value);
+            }
+        });
+        configManagementService.registerListener(() -> triggered++);
+    }
+
+    @After
+    public void destroy() {
+        TestUtils.deleteFile(new File(storePath));
+    }
+
+    @Test
+    public void testBulkCreateSendsOnceAndTriggersOnce() {
+        Map<String, ConnectKeyValue> configs = new LinkedHashMap<>();
+        for (int i = 0; i < 5; i++) {
+            configs.put("connector-" + i, newConfig());
+        }
+        ConnectKeyValue invalid = new ConnectKeyValue();
+        configs.put("invalid", invalid);
+
+        Map<String, String> result = configManagementService.putNewConnectorConfigs(configs);
+
+        assertEquals("success", result.get("connector-0"));
+        assertTrue(result.get("invalid").startsWith("failed:"));
+        assertEquals(1, triggered);
+        assertEquals(1, sent.size());
+        assertEquals(5, sent.get(0).getConnectorConfigs().size());
+        assertEquals(5, sent.get(0).getTaskConfigs().size());
+        assertEquals(5, configManagementService.getConfigSnapshot().getConnectorConfigs(RuntimeConfigDefine.CONFIG_ENABLE_LST).size());
+    }
+
+    @Test
+    public void testBulkStatusChange() {
+        Map<String, ConnectKeyValue> configs = new LinkedHashMap<>();
+        configs.put("a", newConfig());
+        configs.put("b", newConfig());
+        configs.put("c", newConfig());
+        configManagementService.putNewConnectorConfigs(configs);
+        sent.clear();
+        triggered = 0;
+
+        configManagementService.changeConnectorStatus(Arrays.asList("a", "b"), RuntimeConfigDefine.CONFIG_STATUS_DISABLE);
+
+        assertEquals(1, triggered);
+        assertEquals(1, sent.size());
+        assertEquals(2, sent.get(0).getConnectorConfigs().size());
+        assertEquals(1, configManagementService.getConnectorConfigs(RuntimeConfigDefine.CONFIG_ENABLE_LST).size());
+        assertEquals(2, configManagementService.getConnectorConfigs(RuntimeConfigDefine.CONFIG_DISABLE_LST).size());
+    }
+
+    @Test
+    public void testSingleChangeSendsOnlyThatConnector() throws Exception {
+        Map<String, ConnectKeyValue> configs = new LinkedHashMap<>();
+        configs.put("a", newConfig());
+        configs.put("b", newConfig());
+        configManagementService.putNewConnectorConfigs(configs);
+        sent.clear();
+
+        configManagementService.removeConnectorConfig("a");
+
+        assertEquals(1, sent.size());
+        assertEquals(1, sent.get(0).getConnectorConfigs().size());
+        assertEquals(RuntimeConfigDefine.CONFIG_STATUS_REMOVE, sent.get(0).getConnectorConfigs().get("a").getInt(RuntimeConfigDefine.CONFIG_STATUS));
+    }
+
+    private ConnectKeyValue newConfig() {
+        ConnectKeyValue config = new ConnectKeyValue();
+        config.put(RuntimeConfigDefine.CONNECTOR_CLASS, CONNECTOR_CLASS);
+        config.put(RuntimeConfigDefine.SOURCE_RECORD_CONVERTER, "source-record-converter");
+        return config;
+    }
+}
@@ -17,14 +17,17 @@
 
 package org.apache.rocketmq.connect.runtime.service;
 
+import com.alibaba.fastjson.JSON;
 import java.io.File;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import org.apache.rocketmq.client.consumer.DefaultMQPushConsumer;
+import org.apache.rocketmq.client.consumer.DefaultMQPullConsumer;
 import org.apache.rocketmq.client.producer.DefaultMQProducer;
 import org.apache.rocketmq.client.producer.SendCallback;
 import org.apache.rocketmq.common.message.Message;
@@ -47,8 +50,10 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.mockito.stubbing.Answer;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doAnswer;
 
@@ -65,7 +70,7 @@ public class ConfigManagementServiceImplTest {
     private DefaultMQProducer producer;
 
     @Mock
-    private DefaultMQPushConsumer consumer;
+    private DefaultMQPullConsumer consumer;
 
     private ConfigManagementServiceImpl configManagementService;
 
@@ -76,6 +81,8 @@ public class ConfigManagementServiceImplTest {
     @Mock
     private Plugin plugin;
 
+    private final List<String> sentKeys = new ArrayList<>();
+
     @Before
     public void init() throws Exception {
         String consumerGroup = UUID.randomUUID().toString();
@@ -102,7 +109,9 @@ public class ConfigManagementServiceImplTest {
             @Override
             public Void answer(InvocationOnMock invocation) throws Exception {
                 final Message message = invocation.getArgument(0);
-                byte[] bytes = message.getBody();
+                //BrokerBasedLog把消息体包在{value, workerId}里,自己发出的消息consumer会跳过,这里只记录发了什么
+                HashMap<String, Object> parseMap = JSON.parseObject(message.getBody(), HashMap.class);
+                byte[] bytes = (byte[]) parseMap.get(BrokerBasedLog.VALUE);
 
                 final Field dataSynchronizerField = ConfigManagementServiceImpl.class.getDeclaredField("dataSynchronizer");
                 dataSynchronizerField.setAccessible(true);
@@ -111,13 +120,7 @@ public class ConfigManagementServiceImplTest {
                 final Method decodeKeyValueMethod = BrokerBasedLog.class.getDeclaredMethod("decodeKeyValue", byte[].class);
                 decodeKeyValueMethod.setAccessible(true);
                 Map<String, ConnectorAndTaskConfigs> map = (Map<String, ConnectorAndTaskConfigs>) decodeKeyValueMethod.invoke(dataSynchronizer, bytes);
-
-                final Field dataSynchronizerCallbackField = BrokerBasedLog.class.getDeclaredField("dataSynchronizerCallback");
-                dataSynchronizerCallbackField.setAccessible(true);
-                final DataSynchronizerCallback<String, ConnectorAndTaskConfigs> dataSynchronizerCallback = (DataSynchronizerCallback<String, ConnectorAndTaskConfigs>) dataSynchronizerCallbackField.get(dataSynchronizer);
-                for (String key : map.keySet()) {
-                    dataSynchronizerCallback.onCompletion(null, key, map.get(key));
-                }
+                sentKeys.addAll(map.keySet());
                 return null;
             }
         }).when(producer).send(any(Message.class), any(SendCallback.class));
@@ -221,5 +224,32 @@ public class ConfigManagementServiceImplTest {
         assertNotNull(connectKeyValues);
     }
 
-}
+    @Test
+    public void testSyncGapRequestsFullSync() throws Exception {
+        final Field dataSynchronizerField = ConfigManagementServiceImpl.class.getDeclaredField("dataSynchronizer");
+        dataSynchronizerField.setAccessible(true);
+        final Field dataSynchronizerCallbackField = BrokerBasedLog.class.getDeclaredField("dataSynchronizerCallback");
+        dataSynchronizerCallbackField.setAccessible(true);
+        final DataSynchronizerCallback<String, ConnectorAndTaskConfigs> callback = (DataSynchronizerCallback<String, ConnectorAndTaskConfigs>)
+            dataSynchronizerCallbackField.get(dataSynchronizerField.get(configManagementService));
+
+        callback.onCompletion(null, "CONFIG_CHANG_KEY", otherWorkerConfigs(3, ConnectorAndTaskConfigs.FULL_SYNC));
+        sentKeys.clear();
+        //deltas following each other
+        callback.onCompletion(null, "CONFIG_CHANG_KEY", otherWorkerConfigs(4, 3));
+        callback.onCompletion(null, "CONFIG_CHANG_KEY", otherWorkerConfigs(6, 4));
+        assertFalse(sentKeys.contains("ONLINE_KEY"));
+
+        //version 7 lost
+        callback.onCompletion(null, "CONFIG_CHANG_KEY", otherWorkerConfigs(8, 7));
+        assertTrue(sentKeys.contains("ONLINE_KEY"));
+    }
 
+    private static ConnectorAndTaskConfigs otherWorkerConfigs(long version, long baseVersion) {
+        ConnectorAndTaskConfigs configs = new ConnectorAndTaskConfigs();
+        configs.setWorkerId("otherWorker");
+        configs.setVersion(version);
+        configs.setBaseVersion(baseVersion);
+        return configs;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.service;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.rocketmq.client.exception.MQClientException;
+import org.apache.rocketmq.common.admin.ConsumeStats;
+import org.apache.rocketmq.common.admin.OffsetWrapper;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.apache.rocketmq.connect.runtime.common.ConnectKeyValue;
+import org.apache.rocketmq.connect.runtime.config.ConnectConfig;
+import org.apache.rocketmq.connect.runtime.config.RuntimeConfigDefine;
+import org.apache.rocketmq.connect.runtime.connectorwrapper.WorkerSinkTask;
+import org.apache.rocketmq.connect.runtime.utils.ConnectUtil;
+import org.apache.rocketmq.tools.admin.DefaultMQAdminExt;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ConsumerLagServiceTest {
+
+    private static final String SINK_CONNECTOR = "sinkConnector";
+
+    private static final String SOURCE_CONNECTOR = "sourceConnector";
+
+    private static final String TOPIC = "sinkTopic";
+
+    @Mock
+    private ConfigManagementService configManagementService;
+
+    @Mock
+    private DefaultMQAdminExt adminExt;
+
+    private ConnectConfig connectConfig;
+
+    private ConsumerLagService consumerLagService;
+
+    @Before
+    public void init() {
+        connectConfig = new ConnectConfig();
+        consumerLagService = new ConsumerLagService(connectConfig, configManagementService, null, adminExt);
+
+        Map<String, ConnectKeyValue> connectorConfigs = new HashMap<>();
+        connectorConfigs.put(SINK_CONNECTOR, new ConnectKeyValue());
+        connectorConfigs.put(SOURCE_CONNECTOR, new ConnectKeyValue());
+        when(configManagementService.getConnectorConfigs(RuntimeConfigDefine.CONFIG_ENABLE_LST)).thenReturn(connectorConfigs);
+        Map<String, List<ConnectKeyValue>> taskConfigs = new HashMap<>();
+        ConnectKeyValue sinkTask = new ConnectKeyValue();
+        sinkTask.put(WorkerSinkTask.QUEUENAMES_CONFIG, TOPIC);
+        taskConfigs.put(SINK_CONNECTOR, Collections.singletonList(sinkTask));
+        taskConfigs.put(SOURCE_CONNECTOR, Collections.singletonList(new ConnectKeyValue()));
+        when(configManagementService.getTaskConfigs(RuntimeConfigDefine.CONFIG_ENABLE_LST)).thenReturn(taskConfigs);
+    }
+
+    @Test
+    public void testQueueAndConnectorLag() throws Exception {
+        long storeTime = System.currentTimeMillis() - 60 * 1000;
+        ConsumeStats consumeStats = new ConsumeStats();
+        consumeStats.getOffsetTable().put(new MessageQueue(TOPIC, "broker-a", 0), offsetWrapper(100, 150, storeTime));
+        consumeStats.getOffsetTable().put(new MessageQueue(TOPIC, "broker-a", 1), offsetWrapper(200, 200, storeTime));
+        consumeStats.getOffsetTable().put(new MessageQueue(TOPIC, "broker-b", 0), offsetWrapper(0, 30, 0));
+        consumeStats.getOffsetTable().put(new MessageQueue("otherTopic", "broker-a", 0), offsetWrapper(0, 1000, storeTime));
+        when(adminExt.examineConsumeStats(ConnectUtil.getSinkConsumerGroup(connectConfig, SINK_CONNECTOR))).thenReturn(consumeStats);
+
+        consumerLagService.refresh();
+        //source connector的堆积runtime看不到,不读
+        verify(adminExt, times(1)).examineConsumeStats(anyString());
+        assertNull(consumerLagService.getLag(SOURCE_CONNECTOR));
+
+        ConsumerLagService.ConnectorLag lag = consumerLagService.getLag(SINK_CONNECTOR);
+        assertEquals(80, lag.getLag());
+        assertEquals(3, lag.getQueueNum());
+        assertTrue(lag.getMaxLagMillis() >= 60 * 1000 && lag.getMaxLagMillis() < 120 * 1000);
+
+        Map<MessageQueue, Map<String, Object>> queues = new HashMap<>();
+        for (Object obj : (List<Object>) lag.toJsonObject(true).get("queues")) {
+            Map<String, Object> queue = (Map<String, Object>) obj;
+            queues.put(new MessageQueue((String) queue.get("topic"), (String) queue.get("brokerName"), (Integer) queue.get("queueId")), queue);
+        }
+        assertEquals(50L, queues.get(new MessageQueue(TOPIC, "broker-a", 0)).get("lag"));
+        assertEquals(0L, queues.get(new MessageQueue(TOPIC, "broker-a", 1)).get("lagMillis"));
+        //没有消费过的queue估不出时间
+        assertEquals(-1L, queues.get(new MessageQueue(TOPIC, "broker-b", 0)).get("lagMillis"));
+
+        StringBuilder sb = new StringBuilder();
+        consumerLagService.writeMetrics(sb);
+        String metrics = sb.toString();
+        assertTrue(metrics.contains("rocketmq_connect_sink_lag_messages{connector=\"sinkConnector\",topic=\"sinkTopic\",broker=\"broker-a\",queue=\"0\"} 50\n"));
+        assertTrue(metrics.contains("rocketmq_connect_sink_lag_seconds{connector=\"sinkConnector\",topic=\"sinkTopic\",broker=\"broker-a\",queue=\"0\"} "));
+        assertFalse(metrics.contains("broker=\"broker-b\",queue=\"0\"} -"));
+    }
+
+    @Test
+    public void testKeepLastLagWhenReadFails() throws Exception {
+        ConsumeStats consumeStats = new ConsumeStats();
+        consumeStats.getOffsetTable().put(new MessageQueue(TOPIC, "broker-a", 0), offsetWrapper(10, 20, System.currentTimeMillis()));
+        when(adminExt.examineConsumeStats(anyString())).thenReturn(consumeStats)
+            .thenThrow(new MQClientException(-1, "broker not available"));
+
+        consumerLagService.refresh();
+        consumerLagService.refresh();
+        assertEquals(10, consumerLagService.getLag(SINK_CONNECTOR).getLag());
+    }
+
+    @Test
+    public void testFetchOffsetsByConnector() {
+        MessageQueue queue = new MessageQueue(TOPIC, "broker-a", 0);
+        ConsumeStats consumeStats = new ConsumeStats();
+        consumeStats.getOffsetTable().put(queue, offsetWrapper(10, 20, System.currentTimeMillis()));
+        //两个sink connector消费同一个topic,各自拉到的位置不一样
+        Map<String, Map<MessageQueue, Long>> fetchOffsets = new HashMap<>();
+        fetchOffsets.put(SINK_CONNECTOR, Collections.singletonMap(queue, 15L));
+        fetchOffsets.put("otherSinkConnector", Collections.singletonMap(queue, 18L));
+
+        ConsumerLagService.ConnectorLag lag = ConsumerLagService.toConnectorLag(SINK_CONNECTOR, "group",
+            Collections.singleton(TOPIC), consumeStats, fetchOffsets, System.currentTimeMillis());
+        Map<String, Object> queueObj = (Map<String, Object>) ((List<Object>) lag.toJsonObject(true).get("queues")).get(0);
+        assertEquals(15L, queueObj.get("fetchOffset"));
+
+        lag = ConsumerLagService.toConnectorLag("thirdSinkConnector", "group",
+            Collections.singleton(TOPIC), consumeStats, fetchOffsets, System.currentTimeMillis());
+        queueObj = (Map<String, Object>) ((List<Object>) lag.toJsonObject(true).get("queues")).get(0);
+        assertEquals(-1L, queueObj.get("fetchOffset"));
+    }
+
+    private OffsetWrapper offsetWrapper(long consumerOffset, long brokerOffset, long lastTimestamp) {
+        OffsetWrapper offsetWrapper = new OffsetWrapper();
+        offsetWrapper.setConsumerOffset(consumerOffset);
+        offsetWrapper.setBrokerOffset(brokerOffset);
+        offsetWrapper.setLastTimestamp(lastTimestamp);
+        return offsetWrapper;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.service;
+
+import io.openmessaging.connector.api.data.Field;
+import io.openmessaging.connector.api.data.FieldType;
+import io.openmessaging.connector.api.data.Schema;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.rocketmq.client.QueryResult;
+import org.apache.rocketmq.client.producer.DefaultMQProducer;
+import org.apache.rocketmq.client.producer.SendResult;
+import org.apache.rocketmq.client.producer.SendStatus;
+import org.apache.rocketmq.common.message.Message;
+import org.apache.rocketmq.common.message.MessageExt;
+import org.apache.rocketmq.connect.runtime.config.ConnectConfig;
+import org.apache.rocketmq.connect.runtime.converter.SchemaBinaryConverter;
+import org.apache.rocketmq.connect.runtime.utils.TestUtils;
+import org.apache.rocketmq.tools.admin.DefaultMQAdminExt;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SchemaRegistryServiceImplTest {
+
+    @Mock
+    private DefaultMQProducer producer;
+
+    @Mock
+    private DefaultMQAdminExt adminExt;
+
+    private Path root;
+
+    private ConnectConfig connectConfig;
+
+    @Before
+    public void init() throws Exception {
+        root = Files.createTempDirectory("schemaRegistryTest");
+        connectConfig = new ConnectConfig();
+        connectConfig.setStorePathRootDir(root.toString());
+    }
+
+    @After
+    public void destroy() {
+        TestUtils.deleteFile(root.toFile());
+    }
+
+    @Test
+    public void testSameIdForEqualSchemas() throws Exception {
+        SendResult sendOk = new SendResult();
+        sendOk.setSendStatus(SendStatus.SEND_OK);
+        when(producer.send(any(Message.class))).thenReturn(sendOk);
+        SchemaRegistryServiceImpl registry = new SchemaRegistryServiceImpl(connectConfig, producer, adminExt);
+        registry.start();
+
+        //source每行都新建一个schema对象
+        long id = registry.register(schema("user"));
+        assertNotEquals(SchemaRegistryService.NO_SCHEMA_ID, id);
+        assertEquals(id, registry.register(schema("user")));
+        assertNotEquals(id, registry.register(schema("order")));
+        verify(producer, times(2)).send(any(Message.class));
+        registry.stop();
+
+        //本地文件里有的schema不用再去topic上查
+        SchemaRegistryServiceImpl reloaded = new SchemaRegistryServiceImpl(connectConfig, producer, adminExt);
+        reloaded.start();
+        Schema resolved = reloaded.getSchema(id);
+        assertEquals(schema("user"), resolved);
+        assertSame(resolved, reloaded.getSchema(id));
+        verify(adminExt, never()).queryMessage(anyString(), anyString(), anyInt(), anyLong(), anyLong());
+    }
+
+    @Test
+    public void testResolveFromTopic() throws Exception {
+        byte[] schemaBytes = SchemaBinaryConverter.serialize(schema("user"));
+        long id = SchemaRegistryServiceImpl.fingerprint(schemaBytes);
+        List<MessageExt> messages = new ArrayList<>();
+        MessageExt message = new MessageExt();
+        message.setBody(schemaBytes);
+        messages.add(message);
+        when(adminExt.queryMessage(eq(connectConfig.getSchemaStoreTopic()), eq(Long.toHexString(id)), anyInt(), anyLong(), anyLong()))
+            .thenReturn(new QueryResult(0, messages));
+        when(adminExt.queryMessage(eq(connectConfig.getSchemaStoreTopic()), eq(Long.toHexString(id + 1)), anyInt(), anyLong(), anyLong()))
+            .thenReturn(new QueryResult(0, Collections.emptyList()));
+        SchemaRegistryServiceImpl registry = new SchemaRegistryServiceImpl(connectConfig, producer, adminExt);
+
+        assertEquals(schema("user"), registry.getSchema(id));
+        registry.getSchema(id);
+        verify(adminExt, times(1)).queryMessage(anyString(), eq(Long.toHexString(id)), anyInt(), anyLong(), anyLong());
+
+        //查不到的id一段时间内不再查
+        assertNull(registry.getSchema(id + 1));
+        assertNull(registry.getSchema(id + 1));
+        verify(adminExt, times(1)).queryMessage(anyString(), eq(Long.toHexString(id + 1)), anyInt(), anyLong(), anyLong());
+    }
+
+    @Test
+    public void testPublishFailed() throws Exception {
+        SendResult flushFailed = new SendResult();
+        flushFailed.setSendStatus(SendStatus.FLUSH_DISK_TIMEOUT);
+        when(producer.send(any(Message.class))).thenReturn(flushFailed);
+        SchemaRegistryServiceImpl registry = new SchemaRegistryServiceImpl(connectConfig, producer, adminExt);
+
+        //发不出去的schema跟着记录一起发,一段时间内不再发
+        assertEquals(SchemaRegistryService.NO_SCHEMA_ID, registry.register(schema("user")));
+        assertEquals(SchemaRegistryService.NO_SCHEMA_ID, registry.register(schema("user")));
+        verify(producer, times(1)).send(any(Message.class));
+        assertEquals(SchemaRegistryService.NO_SCHEMA_ID, registry.register(schema("order")));
+        verify(producer, times(2)).send(any(Message.class));
+    }
+
+    private Schema schema(String name) {
+        Schema schema = new Schema();
+        schema.setName(name);
+        schema.setDataSource("db");
+        List<Field> fields = new ArrayList<>();
+        fields.add(new Field(0, "id", FieldType.INT64));
+        fields.add(new Field(1, "name", FieldType.STRING));
+        schema.setFields(fields);
+        return schema;
+    }
+}
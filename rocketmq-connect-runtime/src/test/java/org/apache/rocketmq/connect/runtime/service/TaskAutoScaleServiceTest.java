@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.service;
+
+import com.alibaba.fastjson.JSONObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.rocketmq.common.admin.ConsumeStats;
+import org.apache.rocketmq.common.admin.OffsetWrapper;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.apache.rocketmq.connect.runtime.common.ConnectKeyValue;
+import org.apache.rocketmq.connect.runtime.config.ConnectConfig;
+import org.apache.rocketmq.connect.runtime.config.RuntimeConfigDefine;
+import org.apache.rocketmq.connect.runtime.connectorwrapper.WorkerSinkTask;
+import org.apache.rocketmq.tools.admin.DefaultMQAdminExt;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TaskAutoScaleServiceTest {
+
+    private static final String CONNECTOR = "sinkConnector";
+
+    private static final String TOPIC = "sinkTopic";
+
+    @Mock
+    private ConfigManagementService configManagementService;
+
+    @Mock
+    private ClusterManagementService clusterManagementService;
+
+    @Mock
+    private DefaultMQAdminExt adminExt;
+
+    @Mock
+    private TaskStatusService taskStatusService;
+
+    private ConnectConfig connectConfig;
+
+    private TaskAutoScaleService autoScaleService;
+
+    @Before
+    public void init() {
+        connectConfig = new ConnectConfig();
+        autoScaleService = new TaskAutoScaleService(connectConfig, configManagementService, clusterManagementService, taskStatusService, adminExt);
+    }
+
+    @Test
+    public void testScaleUpAfterSustainedLag() throws Exception {
+        ConnectKeyValue config = connectorConfig();
+        config.put(RuntimeConfigDefine.AUTOSCALE_SUSTAIN_CHECKS, 2);
+        mockConnector(config, 2);
+        when(clusterManagementService.getAllAliveWorkers()).thenReturn(Arrays.asList("worker-b", "worker-a"));
+        when(clusterManagementService.getCurrentWorker()).thenReturn("worker-a");
+        when(adminExt.examineConsumeStats(anyString())).thenReturn(consumeStats(8, 100000));
+        when(configManagementService.dynamicUpdateTaskNum(CONNECTOR, 4)).thenReturn("oldTaskNum : 2 newTaskNum : 4");
+
+        autoScaleService.scale();
+        verify(configManagementService, never()).dynamicUpdateTaskNum(anyString(), anyInt());
+
+        autoScaleService.scale();
+        verify(configManagementService).dynamicUpdateTaskNum(CONNECTOR, 4);
+        List<Object> decisions = autoScaleService.getDecisions();
+        assertEquals(1, decisions.size());
+        assertEquals(4, ((Map) decisions.get(0)).get("newTaskNum"));
+    }
+
+    @Test
+    public void testBoundsAndCooldown() {
+        ConnectKeyValue config = connectorConfig();
+        config.put(RuntimeConfigDefine.AUTOSCALE_MIN_TASKS, 2);
+        config.put(RuntimeConfigDefine.AUTOSCALE_MAX_TASKS, 6);
+        config.put(RuntimeConfigDefine.AUTOSCALE_COOLDOWN_MS, 60000L);
+        config.put(RuntimeConfigDefine.UPDATE_TIMESTAMP, 100000L);
+
+        //在冷却时间内不调整
+        assertEquals(3, autoScaleService.decide(CONNECTOR, config, 3, 0, 8, 120000));
+        //缩容一次一个,不低于min
+        assertEquals(2, autoScaleService.decide(CONNECTOR, config, 3, 0, 8, 200000));
+        assertEquals(2, autoScaleService.decide(CONNECTOR, config, 2, 0, 8, 300000));
+        //扩容一次最多max-step个,不超过max和queue数
+        assertEquals(4, autoScaleService.decide(CONNECTOR, config, 2, 1000000, 8, 400000));
+        assertEquals(6, autoScaleService.decide(CONNECTOR, config, 5, 1000000, 8, 500000));
+        assertEquals(3, autoScaleService.decide(CONNECTOR, config, 2, 1000000, 3, 600000));
+    }
+
+    @Test
+    public void testOnlyFirstWorkerScales() throws Exception {
+        when(clusterManagementService.getAllAliveWorkers()).thenReturn(Arrays.asList("worker-b", "worker-a"));
+        when(clusterManagementService.getCurrentWorker()).thenReturn("worker-b");
+
+        autoScaleService.scale();
+        verify(configManagementService, never()).getConnectorConfigs(RuntimeConfigDefine.CONFIG_ENABLE_LST);
+        verify(adminExt, never()).examineConsumeStats(anyString());
+    }
+
+    @Test
+    public void testScaleSourceConnectorByReportedLag() throws Exception {
+        ConnectKeyValue config = connectorConfig();
+        when(configManagementService.getConnectorConfigs(RuntimeConfigDefine.CONFIG_ENABLE_LST))
+            .thenReturn(Collections.singletonMap(CONNECTOR, config));
+        Map<String, List<ConnectKeyValue>> taskConfigs = new HashMap<>();
+        taskConfigs.put(CONNECTOR, Arrays.asList(new ConnectKeyValue(), new ConnectKeyValue()));
+        when(configManagementService.getTaskConfigs(RuntimeConfigDefine.CONFIG_ENABLE_LST)).thenReturn(taskConfigs);
+        when(clusterManagementService.getAllAliveWorkers()).thenReturn(Arrays.asList("worker-a", "worker-b"));
+        when(clusterManagementService.getCurrentWorker()).thenReturn("worker-a");
+        when(taskStatusService.getWorkerTaskStatus("worker-a")).thenReturn(taskStatus(CONNECTOR, 300000, 4));
+        when(taskStatusService.getWorkerTaskStatus("worker-b")).thenReturn(taskStatus(CONNECTOR, 100000, 4));
+        when(configManagementService.dynamicUpdateTaskNum(CONNECTOR, 4)).thenReturn("oldTaskNum : 2 newTaskNum : 4");
+
+        autoScaleService.scale();
+        verify(configManagementService).dynamicUpdateTaskNum(CONNECTOR, 4);
+        verify(adminExt, never()).examineConsumeStats(anyString());
+        Map decision = (Map) autoScaleService.getDecisions().get(0);
+        assertEquals(400000L, decision.get("lag"));
+        assertEquals(8, decision.get("queues"));
+    }
+
+    private String taskStatus(String connectorName, long lag, int queueNum) {
+        JSONObject task = new JSONObject();
+        task.put("connectorName", connectorName);
+        task.put("sourceLag", lag);
+        task.put("sourceQueueNum", queueNum);
+        JSONObject status = new JSONObject();
+        status.put("runningTasks", Collections.singletonList(task));
+        return status.toJSONString();
+    }
+
+    private ConnectKeyValue connectorConfig() {
+        ConnectKeyValue config = new ConnectKeyValue();
+        config.put(RuntimeConfigDefine.AUTOSCALE_ENABLE, "true");
+        config.put(RuntimeConfigDefine.AUTOSCALE_LAG_HIGH, 10000L);
+        config.put(RuntimeConfigDefine.AUTOSCALE_LAG_LOW, 100L);
+        config.put(RuntimeConfigDefine.AUTOSCALE_SUSTAIN_CHECKS, 1);
+        config.put(RuntimeConfigDefine.AUTOSCALE_COOLDOWN_MS, 0L);
+        return config;
+    }
+
+    private void mockConnector(ConnectKeyValue config, int taskNum) {
+        when(configManagementService.getConnectorConfigs(RuntimeConfigDefine.CONFIG_ENABLE_LST))
+            .thenReturn(Collections.singletonMap(CONNECTOR, config));
+        List<ConnectKeyValue> tasks = new ArrayList<>();
+        for (int i = 0; i < taskNum; i++) {
+            ConnectKeyValue task = new ConnectKeyValue();
+            task.put(WorkerSinkTask.QUEUENAMES_CONFIG, TOPIC);
+            tasks.add(task);
+        }
+        Map<String, List<ConnectKeyValue>> taskConfigs = new HashMap<>();
+        taskConfigs.put(CONNECTOR, tasks);
+        when(configManagementService.getTaskConfigs(RuntimeConfigDefine.CONFIG_ENABLE_LST)).thenReturn(taskConfigs);
+    }
+
+    private ConsumeStats consumeStats(int queues, long lagPerQueue) {
+        ConsumeStats consumeStats = new ConsumeStats();
+        for (int i = 0; i < queues; i++) {
+            consumeStats.getOffsetTable().put(new MessageQueue(TOPIC, "broker-a", i), offsetWrapper(1000, 1000 + lagPerQueue));
+        }
+        consumeStats.getOffsetTable().put(new MessageQueue("otherTopic", "broker-a", 0), offsetWrapper(0, 1000000));
+        return consumeStats;
+    }
+
+    private OffsetWrapper offsetWrapper(long consumerOffset, long brokerOffset) {
+        OffsetWrapper offsetWrapper = new OffsetWrapper();
+        offsetWrapper.setConsumerOffset(consumerOffset);
+        offsetWrapper.setBrokerOffset(brokerOffset);
+        return offsetWrapper;
+    }
+}
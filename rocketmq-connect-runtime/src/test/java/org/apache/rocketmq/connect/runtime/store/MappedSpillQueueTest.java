@@ -0,0 +1,146 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.store;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import org.apache.rocketmq.connect.runtime.utils.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MappedSpillQueueTest {
+
+    private File dir;
+
+    @Before
+    public void init() throws IOException {
+        dir = Files.createTempDirectory("mappedSpillQueueTest").toFile();
+    }
+
+    @After
+    public void destroy() {
+        TestUtils.deleteFile(dir);
+    }
+
+    @Test
+    public void testRecordsReadInOrderAcrossSegments() throws IOException {
+        MappedSpillQueue queue = new MappedSpillQueue(dir.getPath(), 256, 1024 * 1024);
+        queue.load();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(queue.append(record(i)));
+        }
+        assertEquals(100, queue.size());
+        assertTrue(segmentCount() > 1);
+
+        int next = 0;
+        while (!queue.isEmpty()) {
+            List<byte[]> records = queue.peek(7);
+            for (byte[] record : records) {
+                assertEquals("record-" + next++, new String(record, StandardCharsets.UTF_8));
+            }
+            queue.poll(records.size());
+        }
+        assertEquals(100, next);
+        assertEquals(0, segmentCount());
+        assertEquals(0, queue.getDiskBytes());
+    }
+
+    @Test
+    public void testDiskLimit() throws IOException {
+        MappedSpillQueue queue = new MappedSpillQueue(dir.getPath(), 256, 512);
+        queue.load();
+        int appended = 0;
+        while (queue.append(record(appended))) {
+            appended++;
+        }
+        assertTrue(appended > 0);
+        assertTrue(queue.getDiskBytes() <= 512);
+
+        queue.poll(appended);
+        assertTrue(queue.append(record(0)));
+    }
+
+    @Test
+    public void testReloadContinuesFromCheckpoint() throws IOException {
+        MappedSpillQueue queue = new MappedSpillQueue(dir.getPath(), 256, 1024 * 1024);
+        queue.load();
+        for (int i = 0; i < 30; i++) {
+            queue.append(record(i));
+        }
+        queue.poll(10);
+        queue.close();
+
+        MappedSpillQueue reloaded = new MappedSpillQueue(dir.getPath(), 256, 1024 * 1024);
+        reloaded.load();
+        assertEquals(20, reloaded.size());
+        assertEquals("record-10", new String(reloaded.peek(1).get(0), StandardCharsets.UTF_8));
+        reloaded.append(record(30));
+        List<byte[]> records = reloaded.peek(100);
+        assertEquals(21, records.size());
+        assertEquals("record-30", new String(records.get(20), StandardCharsets.UTF_8));
+
+        reloaded.poll(21);
+        assertTrue(reloaded.isEmpty());
+        reloaded.close();
+        MappedSpillQueue empty = new MappedSpillQueue(dir.getPath(), 256, 1024 * 1024);
+        empty.load();
+        assertTrue(empty.isEmpty());
+        empty.append(record(31));
+        assertEquals("record-31", new String(empty.peek(1).get(0), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testCorruptedRecordQuarantined() throws IOException {
+        MappedSpillQueue queue = new MappedSpillQueue(dir.getPath(), 256, 1024 * 1024);
+        queue.load();
+        for (int i = 0; i < 3; i++) {
+            queue.append(record(i));
+        }
+        //第二条记录的内容改掉一个字节,"record-0"加上8字节的头一共16字节
+        try (RandomAccessFile file = new RandomAccessFile(new File(dir, String.format("%020d", 0)), "rw")) {
+            file.seek(16 + 8);
+            file.write('x');
+        }
+
+        List<byte[]> records = queue.peek(10);
+        assertEquals(1, records.size());
+        queue.poll(1);
+        records = queue.peek(10);
+        assertEquals(1, records.size());
+        assertEquals("record-2", new String(records.get(0), StandardCharsets.UTF_8));
+        assertEquals(1, queue.size());
+        assertEquals(16, new File(dir, "corrupted").length());
+        assertEquals(1L, queue.getJsonObject().get("corrupted"));
+    }
+
+    private int segmentCount() {
+        return dir.list((d, name) -> name.matches("\\d{20}")).length;
+    }
+
+    private static byte[] record(int i) {
+        return ("record-" + i).getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.utils;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryPoolTest {
+
+    @Test
+    public void testReserveBlocksUntilReleased() throws Exception {
+        MemoryPool pool = new MemoryPool(100);
+        pool.reserve("a", 80, () -> true);
+
+        CountDownLatch reserved = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            try {
+                pool.reserve("b", 50, () -> true);
+                reserved.countDown();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        thread.start();
+        assertFalse(reserved.await(300, TimeUnit.MILLISECONDS));
+
+        pool.release("a", 80);
+        assertTrue(reserved.await(1, TimeUnit.SECONDS));
+        assertEquals(50, pool.getUsed());
+        assertEquals(0, pool.getUsed("a"));
+        assertEquals(50, pool.getUsed("b"));
+    }
+
+    @Test
+    public void testStopWaitingReservesAnyway() throws Exception {
+        MemoryPool pool = new MemoryPool(100);
+        pool.reserve("a", 100, () -> true);
+        AtomicBoolean running = new AtomicBoolean(true);
+
+        CountDownLatch reserved = new CountDownLatch(1);
+        new Thread(() -> {
+            try {
+                pool.reserve("b", 10, running::get);
+                reserved.countDown();
+            } catch (InterruptedException ignored) {
+            }
+        }).start();
+        assertFalse(reserved.await(300, TimeUnit.MILLISECONDS));
+        running.set(false);
+        assertTrue(reserved.await(1, TimeUnit.SECONDS));
+        assertEquals(110, pool.getUsed());
+        assertFalse(pool.tryReserve("c", 1));
+    }
+
+    @Test
+    public void testOversizedReservationWaitsForEmptyPool() throws Exception {
+        MemoryPool pool = new MemoryPool(100);
+        assertTrue(pool.tryReserve("a", 500));
+        assertFalse(pool.tryReserve("b", 500));
+        pool.release("a", 500);
+
+        assertTrue(pool.tryReserve("b", 1));
+        assertFalse(pool.tryReserve("a", 500));
+
+        Map<String, Object> json = pool.getJsonObject();
+        assertEquals(1L, json.get("used"));
+        assertTrue(((Map) json.get("connectors")).containsKey("a"));
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.utils;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Supplier;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Wall time of 100 tasks starting at once on one heavy plugin, every task loading the same classes in its own order
+ * through the plugin class loader. The plugin is made of all jars of the test classpath. Compares the loader before
+ * the package decision cache (regex on every call, loadClass synchronized on the loader) with the current one. Run
+ * the main method, it is not part of the unit tests.
+ */
+public class PluginClassLoadingBenchmark {
+
+    private static final int TASKS = 100;
+
+    private static final int MAX_CLASSES = 4000;
+
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        List<URL> urls = new ArrayList<>();
+        List<String> classNames = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            Path path = Paths.get(entry);
+            if (!PluginUtils.isArchive(path)) {
+                continue;
+            }
+            urls.add(path.toUri().toURL());
+            try (JarFile jar = new JarFile(path.toFile())) {
+                Enumeration<JarEntry> entries = jar.entries();
+                while (entries.hasMoreElements() && classNames.size() < MAX_CLASSES) {
+                    String name = entries.nextElement().getName();
+                    if (name.endsWith(".class") && !name.contains("-") && !name.startsWith("META-INF")) {
+                        classNames.add(name.substring(0, name.length() - ".class".length()).replace('/', '.'));
+                    }
+                }
+            }
+        }
+        //plugin代码引用到的JDK类和runtime中的类,都要委托给parent
+        classNames.add("java.lang.String");
+        classNames.add("java.util.concurrent.ConcurrentHashMap");
+        classNames.add("javax.management.ObjectName");
+        classNames.add(Plugin.class.getName());
+        classNames.add(PluginClassLoadingBenchmark.class.getName());
+        URL[] pluginUrls = urls.toArray(new URL[0]);
+        URL location = pluginUrls[0];
+        ClassLoader parent = PluginClassLoadingBenchmark.class.getClassLoader();
+        System.out.printf("%d jars, %d classes, %d tasks%n", pluginUrls.length, classNames.size(), TASKS);
+
+        //warm up
+        run(classNames, () -> new LegacyPluginClassLoader(location, pluginUrls, parent));
+        run(classNames, () -> new PluginClassLoader(location, pluginUrls, parent));
+
+        System.out.printf("%-10s %12s %12s%n", "loader", "first ms", "loaded ms");
+        for (int i = 0; i < ROUNDS; i++) {
+            print("legacy", run(classNames, () -> new LegacyPluginClassLoader(location, pluginUrls, parent)));
+            print("current", run(classNames, () -> new PluginClassLoader(location, pluginUrls, parent)));
+        }
+    }
+
+    private static void print(String name, long[] result) {
+        System.out.printf("%-10s %12d %12d%n", name, result[0], result[1]);
+    }
+
+    /**
+     * @return wall time of the tasks on a new loader, and of the same tasks again once all classes are loaded
+     */
+    private static long[] run(List<String> classNames, Supplier<ClassLoader> loaderFactory) throws Exception {
+        ClassLoader loader = loaderFactory.get();
+        long first = startTasks(classNames, loader);
+        long loaded = startTasks(classNames, loader);
+        ((URLClassLoader) loader).close();
+        return new long[] {first, loaded};
+    }
+
+    private static long startTasks(List<String> classNames, ClassLoader loader) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(TASKS);
+        for (int i = 0; i < TASKS; i++) {
+            List<String> order = new ArrayList<>(classNames);
+            Collections.shuffle(order, new Random(i));
+            new Thread(() -> {
+                try {
+                    start.await();
+                    for (String name : order) {
+                        try {
+                            loader.loadClass(name);
+                        } catch (ClassNotFoundException | LinkageError ignored) {
+                        }
+                    }
+                } catch (InterruptedException ignored) {
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        return (System.nanoTime() - begin) / 1_000_000;
+    }
+
+    /**
+     * PluginClassLoader as it was before the package decision cache.
+     */
+    private static class LegacyPluginClassLoader extends URLClassLoader {
+
+        static {
+            ClassLoader.registerAsParallelCapable();
+        }
+
+        LegacyPluginClassLoader(URL pluginLocation, URL[] urls, ClassLoader parent) {
+            super(urls, parent);
+        }
+
+        @Override
+        public synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> klass = findLoadedClass(name);
+                if (klass == null) {
+                    try {
+                        if (!PluginUtilsTest.LEGACY_BLACKLIST.matcher(name).matches()) {
+                            klass = findClass(name);
+                        }
+                    } catch (ClassNotFoundException e) {
+                    }
+                }
+                if (klass == null) {
+                    klass = super.loadClass(name, false);
+                }
+                if (resolve) {
+                    resolveClass(klass);
+                }
+                return klass;
+            }
+        }
+    }
+}
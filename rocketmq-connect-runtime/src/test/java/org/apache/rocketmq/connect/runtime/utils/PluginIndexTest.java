@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import org.apache.rocketmq.connect.runtime.connectorwrapper.testimpl.TestConnector;
+import org.apache.rocketmq.connect.runtime.connectorwrapper.testimpl.TestSourceTask;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PluginIndexTest {
+
+    private Path root;
+
+    private Path pluginDir;
+
+    private String indexPath;
+
+    @Before
+    public void init() throws IOException {
+        root = Files.createTempDirectory("pluginIndexTest");
+        pluginDir = Files.createDirectories(root.resolve("plugins"));
+        indexPath = FilePathConfigUtil.getPluginIndexPath(root.toString());
+    }
+
+    @After
+    public void destroy() {
+        TestUtils.deleteFile(root.toFile());
+    }
+
+    @Test
+    public void testIndexReusedUntilJarChanges() throws IOException {
+        Path jar = pluginDir.resolve("test-connector.jar");
+        writePluginJar(jar, Collections.emptyMap());
+        List<Path> files = Collections.singletonList(jar);
+
+        PluginIndex index = new PluginIndex(indexPath);
+        index.put(jar.toString(), files, Collections.singletonList(TestConnector.class.getName()),
+            Collections.singletonList(TestSourceTask.class.getName()));
+        index.persist();
+
+        PluginIndex reloaded = new PluginIndex(indexPath);
+        reloaded.load();
+        PluginIndex.Entry entry = reloaded.get(jar.toString(), files);
+        assertNotNull(entry);
+        assertEquals(Collections.singletonList(TestConnector.class.getName()), entry.getConnectors());
+
+        Map<String, String> extra = new LinkedHashMap<>();
+        extra.put("extra.txt", "changed");
+        writePluginJar(jar, extra);
+        assertNull(reloaded.get(jar.toString(), files));
+    }
+
+    @Test
+    public void testPluginWritesAndUsesIndex() throws IOException {
+        writePluginJar(pluginDir.resolve("test-connector.jar"), Collections.emptyMap());
+        List<String> paths = Collections.singletonList(pluginDir.toString());
+
+        Plugin plugin = new Plugin(paths, new PluginIndex(indexPath));
+        plugin.initPlugin();
+        assertNotNull(plugin.getPluginClassLoader(TestConnector.class.getName()));
+        assertTrue(new File(indexPath).exists());
+
+        Plugin indexed = new Plugin(paths, new PluginIndex(indexPath));
+        indexed.initPlugin();
+        assertNotNull(indexed.getPluginClassLoader(TestConnector.class.getName()));
+        assertNotNull(indexed.getPluginClassLoader(TestSourceTask.class.getName()));
+        assertEquals(1, indexed.getIndexedLocations());
+    }
+
+    @Test
+    public void testServiceDescriptors() throws IOException {
+        Map<String, String> descriptors = new LinkedHashMap<>();
+        descriptors.put("META-INF/services/io.openmessaging.connector.api.Connector", "# test\n" + TestConnector.class.getName() + "\n");
+        descriptors.put("META-INF/services/io.openmessaging.connector.api.Task", TestSourceTask.class.getName());
+        writePluginJar(pluginDir.resolve("test-connector.jar"), descriptors);
+
+        Plugin plugin = new Plugin(Collections.singletonList(pluginDir.toString()));
+        plugin.initPlugin();
+        assertNotNull(plugin.getPluginClassLoader(TestConnector.class.getName()));
+        assertNotNull(plugin.getPluginClassLoader(TestSourceTask.class.getName()));
+    }
+
+    static void writePluginJar(Path jar, Map<String, String> extraEntries) throws IOException {
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+            for (Class<?> klass : new Class<?>[] {TestConnector.class, TestSourceTask.class}) {
+                String name = klass.getName().replace('.', '/') + ".class";
+                out.putNextEntry(new JarEntry(name));
+                try (InputStream in = klass.getClassLoader().getResourceAsStream(name)) {
+                    byte[] buffer = new byte[4096];
+                    int read;
+                    while ((read = in.read(buffer)) > 0) {
+                        out.write(buffer, 0, read);
+                    }
+                }
+                out.closeEntry();
+            }
+            for (Map.Entry<String, String> entry : extraEntries.entrySet()) {
+                out.putNextEntry(new JarEntry(entry.getKey()));
+                out.write(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.utils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import org.apache.rocketmq.connect.runtime.connectorwrapper.testimpl.TestConnector;
+import org.apache.rocketmq.connect.runtime.connectorwrapper.testimpl.TestSourceTask;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PluginReloadTest {
+
+    private Path root;
+
+    private Plugin plugin;
+
+    private Path jar;
+
+    private Path otherJar;
+
+    @Before
+    public void init() throws IOException {
+        root = Files.createTempDirectory("pluginReloadTest");
+        Path pluginDir = Files.createDirectories(root.resolve("plugins"));
+        jar = pluginDir.resolve("test-connector.jar");
+        PluginIndexTest.writePluginJar(jar, Collections.emptyMap());
+        otherJar = Files.createDirectories(root.resolve("other")).resolve("other-connector.jar");
+        PluginIndexTest.writePluginJar(otherJar, Collections.emptyMap());
+
+        plugin = new Plugin(Collections.singletonList(pluginDir.toString()));
+        plugin.initPlugin();
+    }
+
+    @After
+    public void destroy() {
+        TestUtils.deleteFile(root.toFile());
+    }
+
+    @Test
+    public void testReloadByClassName() throws Exception {
+        String location = jar.toAbsolutePath().toString();
+        assertEquals(location, plugin.getPluginLocation(TestConnector.class.getName()));
+        assertEquals(1, plugin.getPluginVersion(location));
+        ClassLoader oldLoader = plugin.getPluginClassLoader(TestConnector.class.getName());
+        Class<?> oldClass = oldLoader.loadClass(TestSourceTask.class.getName());
+
+        Plugin.PluginReload reload = plugin.reloadPlugin(TestConnector.class.getName());
+        assertEquals(location, reload.getLocation());
+        assertEquals(2, reload.getVersion());
+        assertTrue(reload.getClassNames().contains(TestConnector.class.getName()));
+        assertTrue(reload.getClassNames().contains(TestSourceTask.class.getName()));
+
+        ClassLoader newLoader = plugin.getPluginClassLoader(TestConnector.class.getName());
+        assertNotNull(newLoader);
+        assertNotSame(oldLoader, newLoader);
+        assertSame(newLoader, plugin.getPluginClassLoader(TestSourceTask.class.getName()));
+        assertNotSame(oldClass, newLoader.loadClass(TestSourceTask.class.getName()));
+        //旧版本已经加载的类在release之前还能用
+        assertSame(oldClass, oldLoader.loadClass(TestSourceTask.class.getName()));
+        plugin.release(reload);
+    }
+
+    @Test
+    public void testReloadNewLocation() throws Exception {
+        Plugin.PluginReload reload = plugin.reloadPlugin(otherJar.toString());
+        assertEquals(1, reload.getVersion());
+        assertEquals(otherJar.toAbsolutePath().toString(), plugin.getPluginLocation(TestConnector.class.getName()));
+        plugin.release(reload);
+    }
+
+    @Test
+    public void testFailedReloadKeepsOldVersion() throws Exception {
+        ClassLoader oldLoader = plugin.getPluginClassLoader(TestConnector.class.getName());
+        Files.write(jar, new byte[] {1, 2, 3});
+        try {
+            plugin.reloadPlugin(TestConnector.class.getName());
+        } catch (Exception e) {
+            //the broken jar may fail the reload or register nothing
+        }
+        assertSame(oldLoader, plugin.getPluginClassLoader(TestConnector.class.getName()));
+        assertSame(oldLoader, plugin.getPluginClassLoader(TestSourceTask.class.getName()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReloadUnknownPlugin() throws Exception {
+        plugin.reloadPlugin(root.resolve("missing.jar").toString());
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.utils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Time of Plugin.initPlugin without the plugin index, when the index is built, and when it is reused. Every plugin
+ * location links all jars of the test classpath, which is close to a fat connector jar. Run the main method, it is not
+ * part of the unit tests.
+ */
+public class PluginStartupBenchmark {
+
+    private static final int PLUGIN_LOCATIONS = 4;
+
+    public static void main(String[] args) throws Exception {
+        Path root = Files.createTempDirectory("pluginStartupBenchmark");
+        try {
+            Path pluginDir = Files.createDirectories(root.resolve("plugins"));
+            long totalBytes = 0;
+            for (int i = 0; i < PLUGIN_LOCATIONS; i++) {
+                Path location = Files.createDirectories(pluginDir.resolve("plugin-" + i));
+                PluginIndexTest.writePluginJar(location.resolve("test-connector.jar"), Collections.emptyMap());
+                for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+                    Path jar = Paths.get(entry);
+                    if (PluginUtils.isArchive(jar) && Files.isRegularFile(jar)) {
+                        Files.createSymbolicLink(location.resolve(jar.getFileName()), jar);
+                        totalBytes += Files.size(jar);
+                    }
+                }
+            }
+            List<String> paths = Collections.singletonList(pluginDir.toString());
+            String indexPath = FilePathConfigUtil.getPluginIndexPath(root.toString());
+            System.out.printf("%d plugin locations, %d MB of jars%n", PLUGIN_LOCATIONS, totalBytes >> 20);
+
+            //warm up
+            new Plugin(paths).initPlugin();
+
+            System.out.printf("%-16s %8s%n", "mode", "ms");
+            System.out.printf("%-16s %8d%n", "no index", time(new Plugin(paths)));
+            System.out.printf("%-16s %8d%n", "build index", time(new Plugin(paths, new PluginIndex(indexPath))));
+            System.out.printf("%-16s %8d%n", "reuse index", time(new Plugin(paths, new PluginIndex(indexPath))));
+        } finally {
+            TestUtils.deleteFile(root.toFile());
+        }
+    }
+
+    private static long time(Plugin plugin) {
+        long begin = System.nanoTime();
+        plugin.initPlugin();
+        return (System.nanoTime() - begin) / 1_000_000;
+    }
+}
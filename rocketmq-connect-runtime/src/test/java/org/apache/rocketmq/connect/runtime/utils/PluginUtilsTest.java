@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.utils;
+
+import java.util.regex.Pattern;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PluginUtilsTest {
+
+    /**
+     * The regex PluginUtils used before the package trie, kept as the reference.
+     */
+    static final Pattern LEGACY_BLACKLIST = Pattern.compile("^(?:"
+        + "java"
+        + "|javax\\.accessibility"
+        + "|javax\\.activation"
+        + "|javax\\.activity"
+        + "|javax\\.annotation"
+        + "|javax\\.batch\\.api"
+        + "|javax\\.batch\\.operations"
+        + "|javax\\.batch\\.runtime"
+        + "|javax\\.crypto"
+        + "|javax\\.decorator"
+        + "|javax\\.ejb"
+        + "|javax\\.el"
+        + "|javax\\.enterprise\\.concurrent"
+        + "|javax\\.enterprise\\.context"
+        + "|javax\\.enterprise\\.context\\.spi"
+        + "|javax\\.enterprise\\.deploy\\.model"
+        + "|javax\\.enterprise\\.deploy\\.shared"
+        + "|javax\\.enterprise\\.deploy\\.spi"
+        + "|javax\\.enterprise\\.event"
+        + "|javax\\.enterprise\\.inject"
+        + "|javax\\.enterprise\\.inject\\.spi"
+        + "|javax\\.enterprise\\.util"
+        + "|javax\\.faces"
+        + "|javax\\.imageio"
+        + "|javax\\.inject"
+        + "|javax\\.interceptor"
+        + "|javax\\.jms"
+        + "|javax\\.json"
+        + "|javax\\.jws"
+        + "|javax\\.lang\\.model"
+        + "|javax\\.mail"
+        + "|javax\\.management"
+        + "|javax\\.management\\.j2ee"
+        + "|javax\\.naming"
+        + "|javax\\.net"
+        + "|javax\\.persistence"
+        + "|javax\\.print"
+        + "|javax\\.resource"
+        + "|javax\\.rmi"
+        + "|javax\\.script"
+        + "|javax\\.security\\.auth"
+        + "|javax\\.security\\.auth\\.message"
+        + "|javax\\.security\\.cert"
+        + "|javax\\.security\\.jacc"
+        + "|javax\\.security\\.sasl"
+        + "|javax\\.servlet"
+        + "|javax\\.sound\\.midi"
+        + "|javax\\.sound\\.sampled"
+        + "|javax\\.sql"
+        + "|javax\\.swing"
+        + "|javax\\.tools"
+        + "|javax\\.transaction"
+        + "|javax\\.validation"
+        + "|javax\\.websocket"
+        + "|javax\\.ws\\.rs"
+        + "|javax\\.xml"
+        + "|javax\\.xml\\.bind"
+        + "|javax\\.xml\\.registry"
+        + "|javax\\.xml\\.rpc"
+        + "|javax\\.xml\\.soap"
+        + "|javax\\.xml\\.ws"
+        + "|org\\.ietf\\.jgss"
+        + "|org\\.omg\\.CORBA"
+        + "|org\\.omg\\.CosNaming"
+        + "|org\\.omg\\.Dynamic"
+        + "|org\\.omg\\.DynamicAny"
+        + "|org\\.omg\\.IOP"
+        + "|org\\.omg\\.Messaging"
+        + "|org\\.omg\\.PortableInterceptor"
+        + "|org\\.omg\\.PortableServer"
+        + "|org\\.omg\\.SendingContext"
+        + "|org\\.omg\\.stub\\.java\\.rmi"
+        + "|org\\.w3c\\.dom"
+        + "|org\\.xml\\.sax"
+        + ")\\..*$"
+        + "|io\\.openmessaging\\.KeyValue");
+
+    private static final String[] NAMES = {
+        "java.lang.String",
+        "java.Foo",
+        "java.util.concurrent.ConcurrentHashMap$Node",
+        "javax.xml.bind.JAXBContext",
+        "javax.xmlx.Foo",
+        "javax.enterprise.context.spi.Context",
+        "javax.enterprise.Foo",
+        "javax.security.auth.Subject",
+        "javax.security.Foo",
+        "javafx.Foo",
+        "javax.Foo",
+        "org.w3c.dom.Node",
+        "org.w3c.Foo",
+        "org.omg.CORBA.ORB",
+        "org.omg.stub.java.rmi._Remote_Stub",
+        "io.openmessaging.KeyValue",
+        "io.openmessaging.KeyValue$Inner",
+        "io.openmessaging.connector.api.Connector",
+        "org.apache.rocketmq.connect.runtime.utils.Plugin",
+        "com.google.common.collect.Maps",
+        "Foo",
+        "java"
+    };
+
+    @Test
+    public void testSameDecisionsAsLegacyRegex() {
+        for (String name : NAMES) {
+            assertEquals(name, LEGACY_BLACKLIST.matcher(name).matches(), PluginUtils.shouldNotLoadInIsolation(name));
+            //second time from the cache
+            assertEquals(name, LEGACY_BLACKLIST.matcher(name).matches(), PluginUtils.shouldNotLoadInIsolation(name));
+        }
+        assertTrue(PluginUtils.shouldNotLoadInIsolation("javax.xml.ws.Service"));
+        assertFalse(PluginUtils.shouldNotLoadInIsolation("javax.xmlx.Foo"));
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.rocketmq.connect.runtime.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.apache.rocketmq.common.message.MessageQueue;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PositionCodecTest {
+
+    @Test
+    public void testEncodeDecodeLong() {
+        for (long offset : new long[] {0L, 1L, 28236L, -1L, Long.MAX_VALUE, Long.MIN_VALUE}) {
+            ByteBuffer position = PositionCodec.encodeLong(offset);
+            assertEquals(PositionCodec.LONG_POSITION_LENGTH, position.remaining());
+            assertTrue(PositionCodec.isLong(position));
+            assertEquals(offset, PositionCodec.decodeLong(position));
+            assertEquals(String.valueOf(offset), PositionCodec.toDisplayString(position));
+        }
+    }
+
+    @Test
+    public void testWireFormat() {
+        //和kafka、redis connector里的副本用同样的字节校验
+        assertEquals(ByteBuffer.wrap(new byte[] {(byte) 0xFE, 0, 0, 0, 0, 0, 0, 0x6E, 0x4C}), PositionCodec.encodeLong(28236L));
+        byte[] minusOne = new byte[PositionCodec.LONG_POSITION_LENGTH];
+        Arrays.fill(minusOne, (byte) 0xFF);
+        minusOne[0] = (byte) 0xFE;
+        assertEquals(ByteBuffer.wrap(minusOne), PositionCodec.encodeLong(-1L));
+    }
+
+    @Test
+    public void testDecodeLegacyPosition() {
+        ByteBuffer legacy = ByteBuffer.wrap("28236".getBytes(StandardCharsets.UTF_8));
+        assertFalse(PositionCodec.isLong(legacy));
+        assertEquals(28236L, PositionCodec.decodeLong(legacy));
+        assertEquals(0L, PositionCodec.decodeLong(ByteBuffer.wrap(new byte[0])));
+
+        ByteBuffer json = ByteBuffer.wrap("{\"position\":1}".getBytes(StandardCharsets.UTF_8));
+        assertNull(PositionCodec.tryDecodeLong(json));
+        assertEquals("{\"position\":1}", PositionCodec.toDisplayString(json));
+    }
+
+    @Test
+    public void testEncodeQueuePartition() {
+        ByteBuffer partition = PositionCodec.encodeQueuePartition(new MessageQueue("topic", "broker-a", 3));
+        assertEquals(ByteBuffer.wrap("topic,broker-a,3".getBytes(StandardCharsets.UTF_8)), partition);
+    }
+}